@@ -1,2 +1,3 @@
 @echo off
-start /min java src/ChatClient.java
\ No newline at end of file
+call mvn -q compile
+start /min java -cp target/classes ChatClient
\ No newline at end of file
@@ -0,0 +1,286 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Konsola administratora dostępna przez lokalne gniazdo, niezależna od standardowego wejścia.
+ * Połączenie musi zacząć się od linii {@code AUTH <token>}. Potem każda linia to komenda
+ * albo kilka komend oddzielonych średnikiem, wykonywanych po kolei:
+ * <ul>
+ *     <li>{@code KICK <wzorzec>} – rozłącza użytkowników pasujących do wzorca ({@code *} i {@code ?}),</li>
+ *     <li>{@code SEND <treść>} – wysyła wiadomość serwera do wszystkich,</li>
+ *     <li>{@code LIST [wzorzec]} – wypisuje zalogowanych użytkowników i ich pokoje,</li>
+ *     <li>{@code STATS} – wypisuje metryki serwera,</li>
+ *     <li>{@code STOP [ms]} – zatrzymuje serwer, czekając na opróżnienie kolejek najwyżej podany czas,</li>
+ *     <li>{@code QUIT} – zamyka połączenie administratora.</li>
+ * </ul>
+ * Każda komenda kończy się linią {@code OK ...} albo {@code ERR ...}.
+ * Rozłączanie sesji odbywa się w puli wątków roboczych, więc masowe KICK nie blokuje konsoli.
+ */
+public class AdminConsole {
+
+    /**
+     * Liczba wątków roboczych rozłączających sesje.
+     */
+    protected static final int WORKERS = 4;
+
+    /**
+     * Czas na przesłanie linii uwierzytelniającej w milisekundach.
+     */
+    protected static final int AUTH_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Serwer, którym zarządza konsola.
+     */
+    protected final ChatServer server;
+
+    /**
+     * Port konsoli na adresie lokalnym.
+     */
+    protected final int port;
+
+    /**
+     * Oczekiwany token w UTF-8.
+     */
+    protected final byte[] token;
+
+    /**
+     * Gniazdo nasłuchujące konsoli.
+     */
+    protected ServerSocket serverSocket;
+
+    /**
+     * Wątki robocze wykonujące rozłączanie sesji.
+     */
+    protected ExecutorService workers;
+
+    /**
+     * Tworzy konsolę administratora.
+     *
+     * @param server Serwer, którym zarządza konsola.
+     * @param port   Port konsoli na adresie lokalnym.
+     * @param token  Token wymagany w linii {@code AUTH}.
+     */
+    public AdminConsole(ChatServer server, int port, String token) {
+        this.server = server;
+        this.port = port;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Otwiera gniazdo konsoli i uruchamia wątek przyjmujący połączenia.
+     *
+     * @throws IOException Gdy nie można otworzyć gniazda.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        workers = Executors.newFixedThreadPool(WORKERS, task -> {
+            Thread thread = new Thread(task, "admin-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "admin-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Log.info("Konsola administratora nasłuchuje na 127.0.0.1:" + port);
+    }
+
+    /**
+     * Zamyka gniazdo konsoli i kończy wątki robocze.
+     */
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            Log.error("Błąd podczas zamykania konsoli administratora: " + e.getMessage());
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Przyjmuje połączenia administratorów, każde obsługiwane w osobnym wątku.
+     */
+    protected void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread session = new Thread(() -> serve(socket), "admin-" + socket.getPort());
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.error("Błąd konsoli administratora: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Obsługuje jedno połączenie administratora: uwierzytelnienie, a potem komendy do zamknięcia połączenia.
+     *
+     * @param socket Gniazdo administratora.
+     */
+    protected void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            s.setSoTimeout(AUTH_TIMEOUT_MILLIS);
+            String auth = in.readLine();
+            if (auth == null || !auth.startsWith("AUTH ")
+                    || !MessageDigest.isEqual(token, auth.substring(5).trim().getBytes(StandardCharsets.UTF_8))) {
+                out.println("ERR Nieprawidłowy token");
+                Log.warn("Nieudane uwierzytelnienie w konsoli administratora z " + s.getRemoteSocketAddress());
+                return;
+            }
+            s.setSoTimeout(0);
+            out.println("OK");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                for (String command : line.split(";")) {
+                    command = command.trim();
+                    if (command.isEmpty()) {
+                        continue;
+                    }
+                    if ("QUIT".equalsIgnoreCase(command)) {
+                        out.println("OK");
+                        return;
+                    }
+                    execute(command, out);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            Log.warn("Przekroczono czas uwierzytelnienia w konsoli administratora.");
+        } catch (IOException e) {
+            Log.error("Błąd w połączeniu administratora: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wykonuje jedną komendę i wypisuje jej wynik.
+     *
+     * @param command Komenda bez średnika.
+     * @param out     Strumień odpowiedzi.
+     */
+    protected void execute(String command, PrintWriter out) {
+        String[] parts = command.split(" ", 2);
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+        switch (parts[0].toUpperCase()) {
+            case "KICK":
+                if (argument.isEmpty()) {
+                    out.println("ERR Użycie: KICK <wzorzec>");
+                } else {
+                    out.println("OK " + kick(argument));
+                }
+                break;
+            case "SEND":
+                server.sendServerMessage(argument);
+                out.println("OK");
+                break;
+            case "LIST":
+                Pattern pattern = argument.isEmpty() ? null : globToPattern(argument);
+                int listed = 0;
+                for (Map.Entry<String, ChatSession> entry : server.sessionsByUser.entrySet()) {
+                    if (pattern == null || pattern.matcher(entry.getKey()).matches()) {
+                        out.println(entry.getKey() + " " + entry.getValue().getRoom());
+                        listed++;
+                    }
+                }
+                out.println("OK " + listed);
+                break;
+            case "STATS":
+                out.print(server.metrics.scrape());
+                out.println("OK");
+                break;
+            case "STOP":
+                long drainMillis;
+                try {
+                    drainMillis = argument.isEmpty() ? server.drainTimeoutMillis : Long.parseLong(argument);
+                } catch (NumberFormatException e) {
+                    out.println("ERR Użycie: STOP [ms]");
+                    break;
+                }
+                out.println("OK");
+                Thread stopper = new Thread(() -> server.stopServer(drainMillis), "admin-stop");
+                stopper.start();
+                break;
+            default:
+                out.println("ERR Nieznana komenda: " + parts[0]);
+        }
+    }
+
+    /**
+     * Rozłącza wszystkich użytkowników pasujących do wzorca. Nazwa bez znaków wieloznacznych
+     * jest wyszukiwana bezpośrednio w rejestrze; rozłączanie odbywa się w wątkach roboczych.
+     *
+     * @param pattern Nazwa użytkownika lub wzorzec ze znakami {@code *} i {@code ?}.
+     * @return Liczba sesji przekazanych do rozłączenia.
+     */
+    protected int kick(String pattern) {
+        List<ChatSession> matched = new ArrayList<>();
+        if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0) {
+            ChatSession session = server.sessionsByUser.get(pattern);
+            if (session != null) {
+                matched.add(session);
+            }
+        } else {
+            Pattern regex = globToPattern(pattern);
+            for (Map.Entry<String, ChatSession> entry : server.sessionsByUser.entrySet()) {
+                if (regex.matcher(entry.getKey()).matches()) {
+                    matched.add(entry.getValue());
+                }
+            }
+        }
+        for (ChatSession session : matched) {
+            workers.execute(session::disconnect);
+        }
+        Log.info("Administrator rozłącza " + matched.size() + " sesji pasujących do " + pattern + ".");
+        return matched.size();
+    }
+
+    /**
+     * Zamienia wzorzec ze znakami {@code *} i {@code ?} na wyrażenie regularne.
+     *
+     * @param glob Wzorzec nazwy użytkownika.
+     * @return Skompilowane wyrażenie regularne dopasowujące całą nazwę.
+     */
+    protected static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bezpieczna wątkowo odmiana {@link LatencyHistogram} do zapisu z wielu wątków naraz.
+ * Używa tych samych przedziałów; zapis to kilka operacji atomowych, bez blokad i bez alokacji.
+ * Percentyle liczy się na migawce zwracanej przez {@link #snapshot()}.
+ */
+public class AtomicHistogram {
+
+    /**
+     * Liczniki wartości według indeksu przedziału {@link LatencyHistogram}.
+     */
+    protected final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+    /**
+     * Suma zapisanych wartości.
+     */
+    protected final LongAdder totalSum = new LongAdder();
+
+    /**
+     * Największa zapisana wartość.
+     */
+    protected final AtomicLong max = new AtomicLong();
+
+    /**
+     * Zapisuje jedną wartość. Wartości ujemne są traktowane jak zero.
+     *
+     * @param value Wartość do zapisania, na przykład czas w nanosekundach.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(LatencyHistogram.indexFor(value));
+        totalSum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Inny wątek zapisał w międzyczasie większą wartość lub wygrał wyścig; ponawiamy porównanie
+        }
+    }
+
+    /**
+     * Kopiuje bieżący stan do nowego histogramu jednowątkowego.
+     * Wartości zapisywane w trakcie kopiowania mogą się w niej znaleźć lub nie.
+     *
+     * @return Migawka histogramu.
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            copy.counts[i] = count;
+            copy.totalCount += count;
+        }
+        copy.totalSum = totalSum.sum();
+        copy.max = max.get();
+        return copy;
+    }
+}
@@ -1,4 +1,7 @@
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -7,6 +10,10 @@ import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Klasa reprezentująca klienta czatu z GUI.
@@ -19,6 +26,31 @@ public class ChatClient extends JFrame {
      */
     protected JTextArea chatArea;
 
+    /**
+     * Maksymalna liczba linii przechowywanych w oknie czatu; starsze linie są usuwane.
+     */
+    protected int scrollbackLines = Integer.getInteger("chat.client.scrollback", 5000);
+
+    /**
+     * Odstęp między odświeżeniami okna czatu w milisekundach, ograniczający liczbę klatek na sekundę.
+     */
+    protected int renderIntervalMillis = Integer.getInteger("chat.client.renderMillis", 33);
+
+    /**
+     * Linie odebrane z sieci, oczekujące na wyświetlenie w wątku EDT.
+     */
+    protected final Queue<String> pendingLines = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Liczba linii w {@link #pendingLines}, ograniczana do {@link #scrollbackLines}.
+     */
+    protected final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Zegar EDT wyświetlający oczekujące linie partiami.
+     */
+    protected Timer renderTimer;
+
     /**
      * Pole tekstowe do wprowadzania wiadomości do wysłania.
      */
@@ -45,19 +77,70 @@ public class ChatClient extends JFrame {
     protected JButton loginButton;
 
     /**
-     * Obiekt czytnika do odbierania wiadomości z serwera.
+     * Bieżące połączenie z serwerem lub null przed zalogowaniem. Wątek odbierający podmienia je w całości po ponownym
+     * połączeniu, więc wątek EDT zawsze widzi gniazdo, strumienie i protokół z tego samego połączenia.
      */
-    protected BufferedReader reader;
+    protected volatile Connection connection;
 
     /**
-     * Obiekt zapisujący do wysyłania wiadomości do serwera.
+     * Czy próbować protokołu binarnego przed tekstowym; właściwość systemowa {@code chat.protocol=text} go wyłącza.
      */
-    protected PrintWriter writer;
+    protected boolean preferBinary = !"text".equalsIgnoreCase(System.getProperty("chat.protocol", "binary"));
 
     /**
-     * Gniazdo sieciowe używane do komunikacji z serwerem.
+     * Początkowe opóźnienie ponownego łączenia w milisekundach; podwaja się z każdą nieudaną próbą.
      */
-    protected Socket socket;
+    protected long reconnectBaseMillis = Long.getLong("chat.client.reconnectBaseMillis", 500);
+
+    /**
+     * Górna granica opóźnienia ponownego łączenia w milisekundach.
+     */
+    protected long reconnectMaxMillis = Long.getLong("chat.client.reconnectMaxMillis", 30_000);
+
+    /**
+     * Czy łączyć się z serwerem przez TLS; włącza go właściwość systemowa {@code chat.tls=true}.
+     */
+    protected boolean tls = Boolean.getBoolean("chat.tls");
+
+    /**
+     * Magazyn zaufanych certyfikatów dla TLS lub null, aby użyć domyślnych certyfikatów JVM.
+     */
+    protected String tlsTrustStore = System.getProperty("chat.tls.trustStore");
+
+    /**
+     * Hasło magazynu zaufanych certyfikatów.
+     */
+    protected String tlsTrustStorePassword = System.getProperty("chat.tls.trustStorePassword", "");
+
+    /**
+     * Kontekst TLS tworzony przy pierwszym połączeniu i używany przy kolejnych, aby wznawiały sesję bez pełnego uzgadniania.
+     */
+    protected SSLContext sslContext;
+
+    /**
+     * Adres serwera, używany przy ponownym łączeniu.
+     */
+    protected String serverAddress;
+
+    /**
+     * Port serwera, używany przy ponownym łączeniu.
+     */
+    protected int serverPort;
+
+    /**
+     * Dane logowania {@code user:hash} z udanego logowania, używane przy ponownym łączeniu.
+     */
+    protected String credentials;
+
+    /**
+     * Identyfikator ostatniej odebranej wiadomości z dziennika serwera, od którego serwer wznawia historię.
+     */
+    protected volatile long lastMessageId;
+
+    /**
+     * Pokój, do którego klient dołączył komendą {@code /join}, lub null dla pokoju domyślnego.
+     */
+    protected volatile String currentRoom;
 
     /**
      * Konstruktor klasy ChatClient.
@@ -118,17 +201,8 @@ public class ChatClient extends JFrame {
                 String username = usernameField.getText();
                 String password = new String(passwordField.getPassword());
                 try {
-                    // Inicjalizacja połączenia z serwerem
-                    socket = new Socket(serverAddress, port);
-                    reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-                    writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-
-                    // Hashowanie hasła i przesyłanie do serwera
-                    String hashedPassword = hashPassword(password);
-                    writer.println(username + ":" + hashedPassword);
-
-                    // Obsługa odpowiedzi serwera
-                    String response = reader.readLine();
+                    // Logowanie i obsługa odpowiedzi serwera
+                    String response = login(serverAddress, port, username, password);
                     if ("Logowanie udane".equals(response)) {
                         JOptionPane.showMessageDialog(null, "Logowanie udane!");
 
@@ -149,13 +223,121 @@ public class ChatClient extends JFrame {
         });
     }
 
+    /**
+     * Łączy się z serwerem i loguje użytkownika.
+     * Najpierw próbuje wynegocjować protokół binarny z kompresją długich wiadomości; serwer, który go nie zna, odrzuca negocjację,
+     * a wtedy klient łączy się ponownie w protokole tekstowym.
+     *
+     * @param serverAddress Adres serwera czatu.
+     * @param port          Port serwera czatu.
+     * @param username      Nazwa użytkownika.
+     * @param password      Hasło w postaci jawnej.
+     * @return Odpowiedź serwera na logowanie.
+     * @throws IOException Gdy wystąpi błąd połączenia.
+     */
+    protected String login(String serverAddress, int port, String username, String password) throws IOException {
+        // Hashowanie hasła przed przesłaniem do serwera
+        this.serverAddress = serverAddress;
+        this.serverPort = port;
+        this.credentials = username + ":" + hashPassword(password);
+        return connect();
+    }
+
+    /**
+     * Otwiera połączenie i loguje się zapamiętanymi danymi. Jeśli klient odebrał już wiadomości albo dołączył do pokoju,
+     * dołącza do danych logowania identyfikator ostatniej wiadomości i pokój, aby serwer od razu przywrócił pokój
+     * i wysłał tylko brakującą w nim historię.
+     *
+     * @return Odpowiedź serwera na logowanie.
+     * @throws IOException Gdy wystąpi błąd połączenia.
+     */
+    protected String connect() throws IOException {
+        long resumeId = lastMessageId;
+        String room = currentRoom;
+        String credentials = this.credentials;
+        if (resumeId > 0 || room != null) {
+            credentials += FrameCodec.RESUME_MARK + Long.toString(resumeId) + (room != null ? FrameCodec.RESUME_MARK + room : "");
+        }
+        if (preferBinary) {
+            Socket socket = openSocket();
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                out.write((FrameCodec.NEGOTIATION_DEFLATE + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String negotiated = FrameCodec.readFirstLine(in);
+                // Skompresowane ramki dekompresuje FrameCodec.read, więc dalej oba warianty obsługuje się tak samo
+                if (FrameCodec.NEGOTIATION.equals(negotiated) || FrameCodec.NEGOTIATION_DEFLATE.equals(negotiated)) {
+                    DataInputStream frameInput = new DataInputStream(in);
+                    DataOutputStream frameOutput = new DataOutputStream(new BufferedOutputStream(out));
+                    FrameCodec.write(frameOutput, FrameCodec.LOGIN, credentials);
+                    frameOutput.flush();
+                    FrameCodec.Frame response = FrameCodec.read(frameInput, new byte[FrameCodec.MAX_PAYLOAD]);
+                    connection = new Connection(socket, frameInput, frameOutput);
+                    if (response == null) {
+                        return null;
+                    }
+                    return response.opcode == FrameCodec.LOGIN_OK ? "Logowanie udane" : response.payload;
+                }
+                if (negotiated == null) {
+                    throw new IOException("Serwer zamknął połączenie podczas negocjacji");
+                }
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            socket.close();
+            // Serwer nie zna protokołu binarnego, więc ponowne połączenia od razu używają tekstowego
+            preferBinary = false;
+        }
+
+        // Inicjalizacja połączenia z serwerem w protokole tekstowym
+        Socket socket = openSocket();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            writer.println(credentials);
+            String response = reader.readLine();
+            if ("Logowanie udane".equals(response)) {
+                // Klient odpowiada na sprawdzenia połączenia, więc może je dostawać także w protokole tekstowym
+                writer.println(FrameCodec.HEARTBEAT_LINE);
+            }
+            connection = new Connection(socket, reader, writer);
+            return response;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Otwiera gniazdo do zapamiętanego serwera, przez TLS, jeśli jest włączony.
+     * Połączenie TLS sprawdza, czy certyfikat serwera został wystawiony dla jego adresu, i kończy uzgadnianie
+     * przed zwróceniem gniazda. Kolejne połączenia używają tego samego kontekstu, więc wznawiają sesję.
+     *
+     * @return Połączone gniazdo.
+     * @throws IOException Gdy nie można się połączyć lub uzgadnianie TLS się nie powiedzie.
+     */
+    protected Socket openSocket() throws IOException {
+        if (!tls) {
+            return new Socket(serverAddress, serverPort);
+        }
+        if (sslContext == null) {
+            sslContext = TlsTransport.clientContext(tlsTrustStore, tlsTrustStorePassword.toCharArray());
+        }
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(serverAddress, serverPort);
+        sslSocket.setSSLParameters(TlsTransport.withHostnameVerification(sslSocket.getSSLParameters()));
+        sslSocket.startHandshake();
+        return sslSocket;
+    }
+
     /**
      * Hashuje hasło użytkownika przy użyciu algorytmu SHA-256.
      *
      * @param password Hasło do zahashowania.
      * @return Zhashowane hasło w formacie szesnastkowym.
      */
-    protected String hashPassword(String password) {
+    protected static String hashPassword(String password) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] encodedHash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
@@ -190,6 +372,10 @@ public class ChatClient extends JFrame {
         add(chatScrollPane, BorderLayout.CENTER);
         add(messagePanel, BorderLayout.SOUTH);
 
+        // Linie z sieci są wyświetlane partiami, najwyżej raz na odstęp zegara
+        renderTimer = new Timer(renderIntervalMillis, e -> flushPendingLines());
+        renderTimer.start();
+
         // Obsługa zdarzenia przycisku wysyłania wiadomości
         sendButton.addActionListener(new ActionListener() {
             @Override
@@ -212,25 +398,257 @@ public class ChatClient extends JFrame {
     protected void sendMessage() {
         String message = messageField.getText();
         if (!message.isEmpty()) {
-            chatArea.append("Ty: " + message + "\n");
-            writer.println(message);
+            appendToChat("Ty: " + message + "\n");
+            if (message.startsWith("/join ") && !message.substring(6).trim().isEmpty()) {
+                currentRoom = message.substring(6).trim();
+            } else if (message.equals("/leave")) {
+                currentRoom = null;
+            }
+            try {
+                send(message);
+            } catch (IOException ex) {
+                appendToChat("B\u0142\u0105d wysy\u0142ania: " + ex.getMessage() + "\n");
+            }
             messageField.setText("");
         }
     }
 
+    /**
+     * Przekazuje linię odebraną z sieci do wyświetlenia. Wywoływana z wątku odbierającego; nie dotyka komponentów Swing.
+     * Gdy oczekujących linii jest więcej, niż mieści okno czatu, najstarsze są odrzucane, bo i tak nie byłyby widoczne.
+     *
+     * @param line Linia bez znaku końca.
+     */
+    protected void enqueueLine(String line) {
+        pendingLines.add(line);
+        if (pendingCount.incrementAndGet() > scrollbackLines && pendingLines.poll() != null) {
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wyświetla wszystkie oczekujące linie jednym dopisaniem do okna czatu. Wywoływana przez zegar w wątku EDT.
+     */
+    protected void flushPendingLines() {
+        if (pendingLines.isEmpty()) {
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        String line;
+        while ((line = pendingLines.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.append(line).append('\n');
+        }
+        appendToChat(batch.toString());
+    }
+
+    /**
+     * Dopisuje tekst do okna czatu i usuwa najstarsze linie ponad {@link #scrollbackLines}.
+     * Wywoływana wyłącznie w wątku EDT.
+     *
+     * @param text Tekst zakończony znakiem nowej linii.
+     */
+    protected void appendToChat(String text) {
+        chatArea.append(text);
+        int excess = chatArea.getLineCount() - 1 - scrollbackLines;
+        if (excess > 0) {
+            try {
+                chatArea.replaceRange("", 0, chatArea.getLineStartOffset(excess));
+            } catch (BadLocationException e) {
+                chatArea.setText("");
+            }
+        }
+    }
+
+    /**
+     * Zwraca opóźnienie przed kolejną próbą połączenia: wykładnicze z pełnym rozrzutem losowym,
+     * aby klienci rozłączeni jednocześnie, np. przez restart serwera, nie łączyli się wszyscy w tej samej chwili.
+     *
+     * @param attempt    Numer próby, od zera.
+     * @param baseMillis Opóźnienie dla pierwszej próby.
+     * @param maxMillis  Górna granica opóźnienia.
+     * @return Losowe opóźnienie z przedziału {@code [0, min(maxMillis, baseMillis * 2^attempt)]}.
+     */
+    protected static long backoffMillis(int attempt, long baseMillis, long maxMillis) {
+        long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Łączy się ponownie z serwerem, czekając między próbami coraz dłużej. Serwer przywraca pokój przy logowaniu
+     * i wysyła tylko wiadomości nowsze od ostatniej odebranej.
+     *
+     * @return True, jeśli połączenie zostało odnowione; false, jeśli serwer odrzucił dane logowania.
+     */
+    protected boolean reconnect() {
+        for (int attempt = 0; ; attempt++) {
+            long delay = backoffMillis(attempt, reconnectBaseMillis, reconnectMaxMillis);
+            enqueueLine("Ponowne \u0142\u0105czenie za " + delay + " ms...");
+            try {
+                Thread.sleep(delay);
+                String response = connect();
+                if ("Logowanie udane".equals(response)) {
+                    enqueueLine("Po\u0142\u0105czono ponownie.");
+                    return true;
+                }
+                if ("Nieprawid\u0142owy login lub has\u0142o".equals(response)) {
+                    enqueueLine("Serwer odrzuci\u0142 dane logowania, ponowne \u0142\u0105czenie przerwane.");
+                    return false;
+                }
+                // Np. poprzednia sesja nie została jeszcze zamknięta albo serwer jest przeciążony
+                connection.socket.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (IOException e) {
+                // Serwer jeszcze niedostępny, kolejna próba po dłuższej przerwie
+            }
+        }
+    }
+
+    /**
+     * Wysyła linię do serwera w wynegocjowanym protokole.
+     *
+     * @param message Linia do wysłania.
+     * @throws IOException Gdy zapis się nie powiedzie.
+     */
+    protected void send(String message) throws IOException {
+        send(FrameCodec.MESSAGE, message);
+    }
+
+    /**
+     * Wysyła ramkę do serwera; w protokole tekstowym wysyłana jest sama treść jako linia.
+     * Synchronizowana, bo odpowiedzi na sprawdzenie połączenia wysyła wątek odbierający.
+     *
+     * @param opcode  Kod operacji, używany tylko w protokole binarnym.
+     * @param message Treść do wysłania.
+     * @throws IOException Gdy zapis się nie powiedzie.
+     */
+    protected synchronized void send(byte opcode, String message) throws IOException {
+        Connection current = connection;
+        if (current.binary) {
+            FrameCodec.write(current.frameOutput, opcode, message);
+            current.frameOutput.flush();
+        } else {
+            current.writer.println(message);
+        }
+    }
+
+    /**
+     * Gniazdo, strumienie i protokół jednego połączenia z serwerem, publikowane razem przez {@link #connection}.
+     */
+    protected static final class Connection {
+
+        /**
+         * Gniazdo sieciowe używane do komunikacji z serwerem.
+         */
+        final Socket socket;
+
+        /**
+         * Czy połączenie używa protokołu binarnego.
+         */
+        final boolean binary;
+
+        /**
+         * Czytnik linii w protokole tekstowym lub null.
+         */
+        final BufferedReader reader;
+
+        /**
+         * Obiekt zapisujący linie w protokole tekstowym lub null.
+         */
+        final PrintWriter writer;
+
+        /**
+         * Strumień odbierający ramki w protokole binarnym lub null.
+         */
+        final DataInputStream frameInput;
+
+        /**
+         * Strumień wysyłający ramki w protokole binarnym lub null.
+         */
+        final DataOutputStream frameOutput;
+
+        /**
+         * Tworzy połączenie w protokole tekstowym.
+         *
+         * @param socket Gniazdo połączenia.
+         * @param reader Czytnik linii.
+         * @param writer Obiekt zapisujący linie.
+         */
+        Connection(Socket socket, BufferedReader reader, PrintWriter writer) {
+            this.socket = socket;
+            this.binary = false;
+            this.reader = reader;
+            this.writer = writer;
+            this.frameInput = null;
+            this.frameOutput = null;
+        }
+
+        /**
+         * Tworzy połączenie w protokole binarnym.
+         *
+         * @param socket      Gniazdo połączenia.
+         * @param frameInput  Strumień odbierający ramki.
+         * @param frameOutput Strumień wysyłający ramki.
+         */
+        Connection(Socket socket, DataInputStream frameInput, DataOutputStream frameOutput) {
+            this.socket = socket;
+            this.binary = true;
+            this.reader = null;
+            this.writer = null;
+            this.frameInput = frameInput;
+            this.frameOutput = frameOutput;
+        }
+    }
+
     /**
      * Klasa do obsługi wątków odbierających wiadomości z serwera.
+     * Odebrane linie nie są dopisywane do okna bezpośrednio, lecz trafiają do {@link #pendingLines}.
+     * Po zerwaniu połączenia wątek łączy się ponownie przez {@link #reconnect()} i czyta dalej.
      */
     protected class IncomingReader implements Runnable {
         @Override
         public void run() {
+            do {
+                try {
+                    readMessages();
+                    enqueueLine("Po\u0142\u0105czenie z serwerem zamkni\u0119te.");
+                } catch (IOException ex) {
+                    enqueueLine("Po\u0142\u0105czenie z serwerem zerwane: " + ex.getMessage());
+                }
+            } while (reconnect());
+        }
+
+        /**
+         * Odbiera wiadomości do końca połączenia, zapamiętując identyfikator ostatniej z nich
+         * i odpowiadając na sprawdzenia połączenia.
+         *
+         * @throws IOException Gdy połączenie zostanie zerwane.
+         */
+        protected void readMessages() throws IOException {
+            Connection current = connection;
+            if (current.binary) {
+                byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+                FrameCodec.Frame frame;
+                while ((frame = FrameCodec.read(current.frameInput, buffer)) != null) {
+                    if (frame.opcode == FrameCodec.MESSAGE) {
+                        enqueueLine(frame.payload);
+                    } else if (frame.opcode == FrameCodec.MESSAGE_ID) {
+                        lastMessageId = Math.max(lastMessageId, Long.parseLong(frame.payload));
+                    } else if (frame.opcode == FrameCodec.PING) {
+                        send(FrameCodec.PONG, "");
+                    }
+                }
+                return;
+            }
             String message;
-            try {
-                while ((message = reader.readLine()) != null) {
-                    chatArea.append(message + "\n");
+            while ((message = current.reader.readLine()) != null) {
+                if (message.equals(FrameCodec.PING_LINE)) {
+                    send(FrameCodec.PONG, FrameCodec.PONG_LINE);
+                } else {
+                    enqueueLine(message);
                 }
-            } catch (IOException ex) {
-                chatArea.append("Po\u0142\u0105czenie z serwerem zerwane: " + ex.getMessage() + "\n");
             }
         }
     }
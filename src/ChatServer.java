@@ -1,10 +1,32 @@
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Klasa reprezentująca serwer czatu.
@@ -19,67 +41,769 @@ public class ChatServer {
     protected ServerSocket serverSocket;
 
     /**
-     * Lista obsługiwanych klientów.
+     * Nazwa pokoju, do którego trafia każdy klient po zalogowaniu.
      */
-    protected List<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    public static final String DEFAULT_ROOM = "ogólny";
+
+    /**
+     * Zbiór obsługiwanych klientów. Dodanie i usunięcie klienta nie kopiuje całego zbioru.
+     */
+    protected Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Członkostwo zalogowanych klientów w pokojach.
+     */
+    protected final RoomRegistry rooms = new RoomRegistry();
+
+    /**
+     * Liczba blokad rozsyłania; pokoje są do nich przypisywane według skrótu nazwy.
+     */
+    protected static final int ROOM_LOCK_STRIPES = 64;
+
+    /**
+     * Blokady rozsyłania w pokojach. Pod blokadą pokoju wiadomość dostaje identyfikator, trafia do dziennika
+     * i do kolejek odbiorców, więc w każdym pokoju kolejność identyfikatorów jest kolejnością dostarczenia.
+     */
+    protected final Object[] roomLocks = java.util.stream.Stream.generate(Object::new).limit(ROOM_LOCK_STRIPES).toArray();
+
+    /**
+     * Zalogowane sesje według nazwy użytkownika, aktualizowane przy logowaniu i rozłączaniu.
+     */
+    protected final ConcurrentHashMap<String, ChatSession> sessionsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * Indeks danych logowania wczytany z pliku users.txt.
+     */
+    protected CredentialIndex credentials = new CredentialIndex(Paths.get("users.txt"));
+
+    /**
+     * Katalog dziennika wiadomości lub null, jeśli wiadomości nie są zapisywane.
+     */
+    protected String journalDirectory = System.getProperty("chat.journal.dir");
+
+    /**
+     * Liczba ostatnich wiadomości pokoju odtwarzanych klientowi po dołączeniu.
+     */
+    protected int replayCount = Integer.getInteger("chat.journal.replay", 50);
+
+    /**
+     * Dziennik wiadomości, otwierany przy starcie serwera, jeśli podano jego katalog.
+     */
+    protected MessageJournal journal;
+
+    /**
+     * Przybliżona liczba ostatnich wiadomości w indeksie wyszukiwania; 0 wyłącza wyszukiwanie.
+     */
+    protected int searchMaxMessages = Integer.getInteger("chat.search.maxMessages", 4_000_000);
+
+    /**
+     * Indeks wyszukiwania historii, tworzony przy starcie serwera.
+     */
+    protected SearchIndex searchIndex;
+
+    /**
+     * Maksymalna liczba wyników komendy {@code /search}.
+     */
+    protected static final int SEARCH_LIMIT = 20;
+
+    /**
+     * Maksymalna długość pojedynczej linii protokołu tekstowego w bajtach. Dłuższa linia powoduje rozłączenie klienta.
+     */
+    protected static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Katalog skrzynek wiadomości dla niezalogowanych użytkowników lub null, jeśli skrzynki są wyłączone.
+     */
+    protected String mailboxDirectory = System.getProperty("chat.mailbox.dir");
+
+    /**
+     * Skrzynki wiadomości prywatnych dla niezalogowanych użytkowników, otwierane przy starcie serwera.
+     */
+    protected OfflineMailbox mailbox;
+
+    /**
+     * Tryb wykonywania obsługi połączeń.
+     */
+    protected ConnectionMode connectionMode = ConnectionMode.THREAD;
+
+    /**
+     * Wykonawca obsługujący połączenia w trybie wątków wirtualnych.
+     */
+    protected ExecutorService virtualExecutor;
+
+    /**
+     * Pojemność kolejki wiadomości wychodzących każdego klienta.
+     */
+    protected int outboundQueueCapacity = Integer.getInteger("chat.queue.capacity", 1024);
+
+    /**
+     * Zachowanie przy przepełnieniu kolejki wychodzącej klienta.
+     */
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(System.getProperty("chat.queue.overflow", "DROP_OLDEST").toUpperCase());
+
+    /**
+     * Maksymalny czas oczekiwania nadawcy na miejsce w kolejce w trybie {@link OverflowPolicy#BLOCK}.
+     */
+    protected long backpressureTimeoutMillis = Long.getLong("chat.queue.blockTimeoutMillis", 5000);
+
+    /**
+     * Liczba wiadomości odrzuconych z powodu przepełnienia kolejek.
+     */
+    protected final AtomicLong droppedMessages = new AtomicLong();
+
+    /**
+     * Liczba klientów rozłączonych z powodu zbyt wolnego odbierania.
+     */
+    protected final AtomicLong slowConsumerDisconnects = new AtomicLong();
+
+    /**
+     * Metryki serwera udostępniane przez JMX i HTTP.
+     */
+    protected final ServerMetrics metrics = new ServerMetrics(this);
+
+    /**
+     * Port lokalnego punktu HTTP z metrykami; wartość mniejsza od 1 go wyłącza.
+     */
+    protected int metricsPort = Integer.getInteger("chat.metrics.port", -1);
+
+    /**
+     * Port lokalnej konsoli administratora; wartość mniejsza od 1 ją wyłącza.
+     */
+    protected int adminPort = Integer.getInteger("chat.admin.port", -1);
+
+    /**
+     * Token konsoli administratora. Gdy nie jest ustawiony, przy starcie generowany jest losowy
+     * i zapisywany w pliku {@code admin.token}.
+     */
+    protected String adminToken = System.getProperty("chat.admin.token");
+
+    /**
+     * Konsola administratora lub null, jeśli jest wyłączona.
+     */
+    protected AdminConsole adminConsole;
+
+    /**
+     * Liczba wątków puli weryfikującej dane logowania.
+     */
+    protected int authThreads = Integer.getInteger("chat.auth.threads", 4);
+
+    /**
+     * Liczba logowań, które mogą czekać na weryfikację; kolejne są odrzucane od razu.
+     */
+    protected int authQueueCapacity = Integer.getInteger("chat.auth.queue", 1024);
+
+    /**
+     * Czas na przesłanie danych logowania i ich weryfikację w milisekundach.
+     */
+    protected long loginTimeoutMillis = Long.getLong("chat.auth.timeoutMillis", 10_000);
+
+    /**
+     * Pula weryfikująca dane logowania, tworzona przy starcie serwera. Wykonuje też zapytania {@code /search}.
+     */
+    protected ThreadPoolExecutor authExecutor;
+
+    /**
+     * Liczba logowań odrzuconych, bo pula weryfikująca była pełna.
+     */
+    protected final AtomicLong rejectedLogins = new AtomicLong();
+
+    /**
+     * Liczba połączeń zamkniętych, bo klient nie zalogował się w wyznaczonym czasie.
+     */
+    protected final AtomicLong loginTimeouts = new AtomicLong();
+
+    /**
+     * Odpowiedź dla klienta, którego logowania pula weryfikująca nie może przyjąć.
+     */
+    protected static final String OVERLOADED_MESSAGE = "Serwer jest przeciążony, spróbuj ponownie później.";
+
+    /**
+     * Odpowiedź dla klienta, którego wiadomość po dopisaniu nadawcy nie zmieściłaby się w jednej ramce.
+     */
+    protected static final String MESSAGE_TOO_LONG = "Wiadomość jest zbyt długa i nie została wysłana.";
+
+    /**
+     * Czas bez danych od zalogowanego klienta w milisekundach, po którym serwer wysyła mu {@link #PING_FRAME};
+     * wartość mniejsza od 1 wyłącza sprawdzanie połączeń i limit bezczynności.
+     */
+    protected long heartbeatIntervalMillis = Long.getLong("chat.heartbeat.intervalMillis", 30_000);
+
+    /**
+     * Czas bez danych od klienta w milisekundach, po którym połączenie jest zamykane; wartość mniejsza od 1 go wyłącza.
+     */
+    protected long idleTimeoutMillis = Long.getLong("chat.heartbeat.timeoutMillis", 90_000);
+
+    /**
+     * Długość taktu koła czasowego {@link #timer} w milisekundach, czyli dokładność limitów czasu połączeń.
+     */
+    protected long timerTickMillis = Long.getLong("chat.timer.tickMillis", 100);
+
+    /**
+     * Liczba kubełków koła czasowego; przy takcie 100 ms jeden obrót trwa ok. 51 s.
+     */
+    protected static final int TIMER_BUCKETS = 512;
+
+    /**
+     * Koło czasowe pilnujące czasu na zalogowanie i bezczynności wszystkich połączeń, tworzone przy starcie serwera.
+     */
+    protected TimerWheel timer;
+
+    /**
+     * Liczba połączeń zamkniętych, bo klient nie przysłał żadnych danych w czasie {@link #idleTimeoutMillis}.
+     */
+    protected final AtomicLong idleDisconnects = new AtomicLong();
+
+    /**
+     * Zakodowana raz ramka sprawdzenia połączenia, wspólna dla wszystkich klientów.
+     */
+    protected static final ByteBuffer PING_FRAME = FrameCodec.encode(FrameCodec.PING, FrameCodec.PING_LINE);
+
+    /**
+     * Magazyn kluczy (PKCS12 lub JKS) z kluczem prywatnym i certyfikatem serwera; jeśli jest ustawiony,
+     * port dla klientów przyjmuje wyłącznie połączenia TLS.
+     */
+    protected String tlsKeyStore = System.getProperty("chat.tls.keyStore");
+
+    /**
+     * Hasło magazynu kluczy TLS.
+     */
+    protected String tlsKeyStorePassword = System.getProperty("chat.tls.keyStorePassword", "");
+
+    /**
+     * Kontekst TLS serwera lub null, jeśli połączenia nie są szyfrowane. Przechowuje sesje do wznowienia przez klientów.
+     */
+    protected SSLContext sslContext;
+
+    /**
+     * Limit wiadomości na sekundę z jednego połączenia; wartość mniejsza od 1 go wyłącza.
+     */
+    protected int connectionRateLimit = Integer.getInteger("chat.rate.perConnection", 0);
+
+    /**
+     * Limit wiadomości na sekundę od jednego użytkownika, także po ponownym połączeniu; wartość mniejsza od 1 go wyłącza.
+     */
+    protected int userRateLimit = Integer.getInteger("chat.rate.perUser", 0);
+
+    /**
+     * Liczba wiadomości, które klient może wysłać jedną serią ponad limit na sekundę.
+     */
+    protected int rateLimitBurst = Integer.getInteger("chat.rate.burst", 20);
+
+    /**
+     * Zachowanie po przekroczeniu limitu wiadomości.
+     */
+    protected RateLimitAction rateLimitAction = RateLimitAction.valueOf(System.getProperty("chat.rate.action", "THROTTLE").toUpperCase());
+
+    /**
+     * Wiadra żetonów użytkowników według nazwy, tworzone przy pierwszym logowaniu.
+     */
+    protected final ConcurrentHashMap<String, TokenBucket> userRateLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Liczba wiadomości wstrzymanych lub odrzuconych przez limit wiadomości.
+     */
+    protected final AtomicLong rateLimitedMessages = new AtomicLong();
+
+    /**
+     * Liczba klientów rozłączonych za przekroczenie limitu wiadomości.
+     */
+    protected final AtomicLong rateLimitDisconnects = new AtomicLong();
+
+    /**
+     * Zakodowana raz wiadomość dla klienta, którego wiadomość odrzucono z powodu limitu.
+     */
+    protected static final ByteBuffer RATE_LIMIT_NOTICE = encodeLine("Zbyt wiele wiadomości, zwolnij.");
+
+    /**
+     * Port, na którym węzeł przyjmuje połączenia od innych węzłów klastra; wartość mniejsza od 1 go wyłącza.
+     */
+    protected int clusterPort = Integer.getInteger("chat.cluster.port", -1);
+
+    /**
+     * Węzły klastra, z którymi serwer sam się łączy, w postaci {@code host:port} oddzielonych przecinkami.
+     */
+    protected String clusterPeers = System.getProperty("chat.cluster.peers", "");
+
+    /**
+     * Nazwa węzła w klastrze; domyślnie losowa.
+     */
+    protected String clusterNodeId = System.getProperty("chat.cluster.nodeId", UUID.randomUUID().toString().substring(0, 8));
+
+    /**
+     * Wspólny sekret węzłów klastra, bez którego przekazywanie nie zostanie uruchomione.
+     */
+    protected String clusterSecret = System.getProperty("chat.cluster.secret");
+
+    /**
+     * Przekaźnik wiadomości między węzłami lub null, jeśli serwer działa samodzielnie.
+     */
+    protected ClusterRelay cluster;
+
+    /**
+     * Maksymalny czas oczekiwania na opróżnienie kolejek wychodzących przy zatrzymaniu serwera w milisekundach.
+     */
+    protected long drainTimeoutMillis = Long.getLong("chat.shutdown.drainMillis", 5000);
+
+    /**
+     * Wiadomość wysyłana klientom po opróżnieniu ich kolejek przy zatrzymaniu serwera.
+     */
+    public static final String SHUTDOWN_MESSAGE = "Serwer jest zamykany.";
+
+    /**
+     * Odstęp między sprawdzeniami kolejek podczas opróżniania w milisekundach.
+     */
+    protected static final long DRAIN_POLL_MILLIS = 5;
+
+    /**
+     * Maksymalna liczba wątków zamykających połączenia przy zatrzymaniu serwera.
+     */
+    protected static final int DRAIN_THREADS = 32;
+
+    /**
+     * Czas na wysłanie pożegnań i zamknięcie połączeń po opróżnieniu kolejek w milisekundach.
+     */
+    protected static final long DRAIN_CLOSE_GRACE_MILLIS = 1000;
+
+    /**
+     * Maksymalny czas zapisu wiadomości pożegnalnej przy rozłączaniu klienta w milisekundach.
+     */
+    protected static final long FAREWELL_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Port, na którym serwer nasłuchuje.
+     */
+    protected int port;
+
+    /**
+     * Tryby wykonywania obsługi połączeń klientów.
+     */
+    public enum ConnectionMode {
+        /**
+         * Jeden wątek platformowy na klienta.
+         */
+        THREAD,
+        /**
+         * Jeden wątek wirtualny na klienta (JDK 21+).
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Zachowanie po przekroczeniu limitu wiadomości przez klienta.
+     */
+    public enum RateLimitAction {
+        /**
+         * Wstrzymuje odczyt od klienta do czasu odnowienia żetonów. Serwer NIO nie może wstrzymać pętli zdarzeń,
+         * więc odrzuca wtedy wiadomość jak {@link #DROP}.
+         */
+        THROTTLE,
+        /**
+         * Odrzuca wiadomość i informuje o tym klienta.
+         */
+        DROP,
+        /**
+         * Rozłącza klienta.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Zachowanie przy przepełnieniu kolejki wiadomości wychodzących klienta.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Usuwa najstarszą wiadomość z kolejki, aby zrobić miejsce na nową.
+         */
+        DROP_OLDEST,
+        /**
+         * Rozłącza klienta, który nie nadąża z odbieraniem.
+         */
+        DISCONNECT,
+        /**
+         * Wstrzymuje nadawcę do czasu zwolnienia miejsca, a po przekroczeniu limitu czasu rozłącza klienta.
+         */
+        BLOCK
+    }
+
+    /**
+     * Tworzy serwer obsługujący każde połączenie w osobnym wątku platformowym.
+     */
+    public ChatServer() {
+    }
+
+    /**
+     * Tworzy serwer z podanym trybem obsługi połączeń.
+     *
+     * @param connectionMode Tryb wykonywania obsługi połączeń.
+     */
+    public ChatServer(ConnectionMode connectionMode) {
+        this.connectionMode = connectionMode;
+    }
 
     /**
      * Uruchamia serwer na podanym porcie.
      *
-     * @param port Port, na którym serwer będzie nasłuchiwał.
+     * @param port Port, na którym serwer będzie nasłuchiwał.
+     */
+    public void startServer(int port) {
+        try {
+            this.port = port;
+            createSslContext();
+            serverSocket = sslContext != null ? sslContext.getServerSocketFactory().createServerSocket(port) : new ServerSocket(port);
+            startServices();
+            if (connectionMode == ConnectionMode.VIRTUAL) {
+                virtualExecutor = createVirtualThreadExecutor();
+            }
+            Log.info("Serwer uruchomiony na porcie " + port + " (tryb: " + (virtualExecutor != null ? "wątki wirtualne" : "wątki platformowe") + ")");
+
+            // Wątek do obsługi komend administratora
+            new Thread(this::listenForCommands).start();
+
+            // Akceptowanie nowych połączeń klientów
+            while (!serverSocket.isClosed()) {
+                Socket clientSocket = serverSocket.accept();
+                Log.info("Nowy klient połączony: " + clientSocket.getRemoteSocketAddress());
+
+                ClientHandler clientHandler = new ClientHandler(clientSocket);
+                clients.add(clientHandler);
+                startClientHandler(clientHandler);
+            }
+        } catch (IOException e) {
+            // Bez gniazda serwer nie wystartował, np. przez błędną konfigurację TLS, więc to błąd, a nie zamknięcie
+            if (serverSocket != null && serverSocket.isClosed()) {
+                Log.info("Serwer został zamknięty.");
+            } else {
+                Log.error("Błąd podczas uruchamiania serwera: " + e.getMessage());
+            }
+        } finally {
+            stopServer();
+        }
+    }
+
+    /**
+     * Zatrzymuje serwer i rozłącza wszystkich klientów, czekając na wysłanie ich kolejek
+     * najwyżej {@link #drainTimeoutMillis} ms.
+     */
+    public void stopServer() {
+        stopServer(drainTimeoutMillis);
+    }
+
+    /**
+     * Zatrzymuje serwer: przestaje przyjmować połączenia, czeka na wysłanie kolejek wychodzących
+     * do podanego terminu i równolegle zamyka wszystkie połączenia.
+     *
+     * @param drainTimeoutMillis Maksymalny czas oczekiwania na opróżnienie kolejek w milisekundach.
+     * @return Liczba sesji, których kolejki zostały wysłane w całości przed zamknięciem.
+     */
+    public int stopServer(long drainTimeoutMillis) {
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            Log.error("Błąd podczas zamykania serwera: " + e.getMessage());
+        }
+        int drained = drainSessions(drainTimeoutMillis);
+        clients.clear();
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
+        }
+        stopServices();
+        Log.info("Serwer został pomyślnie zamknięty.");
+        return drained;
+    }
+
+    /**
+     * Opróżnia i zamyka wszystkie połączenia. Kolejki są wysyłane równolegle przez wątki zapisujące klientów,
+     * a ten wątek tylko sprawdza, które z nich są już puste. Po terminie lub opróżnieniu wszystkich kolejek
+     * połączenia są zamykane w puli wątków: opróżnione z wiadomością {@link #SHUTDOWN_MESSAGE},
+     * pozostałe natychmiast, bez czekania na zablokowany zapis.
+     *
+     * @param timeoutMillis Maksymalny czas oczekiwania na opróżnienie kolejek w milisekundach.
+     * @return Liczba sesji opróżnionych w całości.
+     */
+    protected int drainSessions(long timeoutMillis) {
+        List<ClientHandler> pending = new ArrayList<>(clients);
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Set<ClientHandler> settled = new HashSet<>();
+        while (true) {
+            for (ClientHandler client : pending) {
+                // Rozłączonego klienta i klienta bez wątku zapisującego (przed zalogowaniem) nie ma na co czekać
+                if (client.isDisconnected || client.writerThread == null || client.getQueueDepth() == 0) {
+                    settled.add(client);
+                }
+            }
+            if (settled.size() == pending.size() || System.nanoTime() - deadline >= 0) {
+                break;
+            }
+            try {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        AtomicInteger drained = new AtomicInteger();
+        ExecutorService closers = Executors.newFixedThreadPool(Math.min(pending.size(), DRAIN_THREADS), task -> {
+            Thread thread = new Thread(task, "drain");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (ClientHandler client : pending) {
+            boolean clean = settled.contains(client);
+            closers.execute(() -> {
+                if (clean) {
+                    if (client.disconnect(SHUTDOWN_MESSAGE) && client.farewellSent) {
+                        drained.incrementAndGet();
+                    }
+                } else {
+                    // Zamknięcie gniazda odblokowuje wątek zapisujący, który utknął na wolnym kliencie
+                    client.closeSocket();
+                    client.disconnect(null);
+                }
+            });
+        }
+        closers.shutdown();
+        try {
+            if (!closers.awaitTermination(DRAIN_CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                // Pożegnanie mogło utknąć na pełnym buforze gniazda; zamykamy pozostałe gniazda siłą
+                for (ClientHandler client : pending) {
+                    client.closeSocket();
+                }
+                closers.awaitTermination(DRAIN_CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.info("Zamknięto " + pending.size() + " sesji, w tym " + drained.get() + " z wysłaną całą kolejką, w "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        return drained.get();
+    }
+
+    /**
+     * Tworzy kontekst TLS serwera, jeśli podano {@link #tlsKeyStore}.
+     *
+     * @throws IOException Gdy nie można wczytać magazynu kluczy.
+     */
+    protected void createSslContext() throws IOException {
+        if (tlsKeyStore != null && !tlsKeyStore.isEmpty()) {
+            sslContext = TlsTransport.serverContext(tlsKeyStore, tlsKeyStorePassword.toCharArray());
+            Log.info("Połączenia klientów są szyfrowane TLS (magazyn kluczy: " + tlsKeyStore + ")");
+        }
+    }
+
+    /**
+     * Przygotowuje usługi wspólne dla obu silników: indeks danych logowania, dziennik wiadomości,
+     * metryki, konsolę administratora i połączenia z klastrem.
+     *
+     * @throws IOException Gdy nie można otworzyć dziennika wiadomości, punktu metryk, konsoli lub portu klastra.
+     */
+    protected void startServices() throws IOException {
+        credentials.refreshIfChanged();
+        timer = new TimerWheel(timerTickMillis, TIMER_BUCKETS, "chat-timer");
+        timer.start();
+        authExecutor = new ThreadPoolExecutor(authThreads, authThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(authQueueCapacity), task -> {
+            Thread thread = new Thread(task, "auth");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.start(port, metricsPort);
+        if (adminPort > 0) {
+            if (adminToken == null || adminToken.isEmpty()) {
+                byte[] random = new byte[16];
+                new SecureRandom().nextBytes(random);
+                StringBuilder hex = new StringBuilder();
+                for (byte b : random) {
+                    hex.append(String.format("%02x", b));
+                }
+                adminToken = hex.toString();
+                writeAdminToken(Paths.get("admin.token"));
+                Log.info("Token konsoli administratora zapisano w pliku admin.token");
+            }
+            adminConsole = new AdminConsole(this, adminPort, adminToken);
+            adminConsole.start();
+        }
+        if (searchMaxMessages > 0) {
+            searchIndex = new SearchIndex(searchMaxMessages);
+        }
+        if (journalDirectory != null && !journalDirectory.isEmpty()) {
+            journal = new MessageJournal(Paths.get(journalDirectory),
+                    Integer.getInteger("chat.journal.segmentBytes", 16 * 1024 * 1024),
+                    Integer.getInteger("chat.journal.maxSegments", 8),
+                    replayCount);
+            journal.open(Long.getLong("chat.journal.commitMillis", 20), searchIndex != null ? searchIndex::add : null);
+        }
+        if (searchIndex != null) {
+            searchIndex.start();
+        }
+        if (mailboxDirectory != null && !mailboxDirectory.isEmpty()) {
+            mailbox = new OfflineMailbox(Paths.get(mailboxDirectory, "mailbox.log"),
+                    Long.getLong("chat.mailbox.ttlMillis", TimeUnit.DAYS.toMillis(7)),
+                    Integer.getInteger("chat.mailbox.perUser", 100),
+                    Long.getLong("chat.mailbox.maxBytes", 16 * 1024 * 1024));
+            mailbox.open();
+        }
+        if (clusterPort > 0 || !clusterPeers.trim().isEmpty()) {
+            if (clusterSecret == null || clusterSecret.isEmpty()) {
+                Log.error("Klaster wymaga wspólnego sekretu chat.cluster.secret; przekazywanie wiadomości jest wyłączone.");
+            } else {
+                cluster = new ClusterRelay(this, clusterNodeId, clusterSecret, clusterPort, clusterPeers);
+                cluster.start();
+            }
+        }
+    }
+
+    /**
+     * Zapisuje wygenerowany token konsoli administratora do pliku czytelnego tylko dla właściciela.
+     * Na systemach plików POSIX plik jest tworzony od razu z uprawnieniami {@code rw-------},
+     * a poprzedni plik jest usuwany, aby nie zachować jego szerszych uprawnień.
+     *
+     * @param file Ścieżka pliku z tokenem.
+     * @throws IOException Gdy nie można zapisać pliku.
      */
-    public void startServer(int port) {
-        try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("Serwer uruchomiony na porcie " + port);
+    protected void writeAdminToken(Path file) throws IOException {
+        byte[] token = adminToken.getBytes(StandardCharsets.UTF_8);
+        Path directory = file.toAbsolutePath().getParent();
+        if (!Files.getFileStore(directory).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.write(file, token);
+            return;
+        }
+        Files.deleteIfExists(file);
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        Files.write(file, token);
+    }
 
-            // Wątek do obsługi komend administratora
-            new Thread(this::listenForCommands).start();
+    /**
+     * Zamyka usługi wspólne dla obu silników.
+     */
+    protected void stopServices() {
+        if (authExecutor != null) {
+            authExecutor.shutdownNow();
+        }
+        if (cluster != null) {
+            cluster.stop();
+        }
+        if (adminConsole != null) {
+            adminConsole.stop();
+        }
+        metrics.stop();
+        if (journal != null) {
+            journal.close();
+        }
+        if (mailbox != null) {
+            mailbox.close();
+        }
+        if (searchIndex != null) {
+            searchIndex.stop();
+        }
+        if (timer != null) {
+            timer.stop();
+        }
+    }
 
-            // Akceptowanie nowych połączeń klientów
-            while (!serverSocket.isClosed()) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Nowy klient połączony: " + clientSocket.getRemoteSocketAddress());
+    /**
+     * Uruchamia obsługę klienta w wątku zgodnym z wybranym trybem.
+     *
+     * @param clientHandler Obsługa klienta do uruchomienia.
+     */
+    protected void startClientHandler(ClientHandler clientHandler) {
+        startConnectionTask(clientHandler, "client-" + clientHandler.clientSocket.getPort());
+    }
 
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
-                clients.add(clientHandler);
-                clientHandler.start();
-            }
-        } catch (IOException e) {
-            if (serverSocket.isClosed()) {
-                System.out.println("Serwer został zamknięty.");
-            } else {
-                System.out.println("Błąd podczas uruchamiania serwera: " + e.getMessage());
-            }
-        } finally {
-            stopServer();
+    /**
+     * Uruchamia zadanie związane z połączeniem w wątku wirtualnym albo platformowym.
+     *
+     * @param task Zadanie do uruchomienia.
+     * @param name Nazwa wątku platformowego.
+     */
+    protected void startConnectionTask(Runnable task, String name) {
+        if (virtualExecutor != null) {
+            virtualExecutor.execute(task);
+        } else {
+            new Thread(task, name).start();
         }
     }
 
     /**
-     * Zatrzymuje serwer i rozłącza wszystkich klientów.
+     * Tworzy wykonawcę uruchamiającego każde zadanie w nowym wątku wirtualnym.
+     * Projekt jest kompilowany dla Javy 11, więc metoda z JDK 21 jest wywoływana refleksyjnie.
+     *
+     * @return Wykonawca wątków wirtualnych lub null, gdy JVM ich nie obsługuje.
      */
-    public void stopServer() {
+    protected ExecutorService createVirtualThreadExecutor() {
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-            for (ClientHandler client : clients) {
-                client.disconnect();
-            }
-            clients.clear();
-            System.out.println("Serwer został pomyślnie zamknięty.");
-        } catch (IOException e) {
-            System.out.println("Błąd podczas zamykania serwera: " + e.getMessage());
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.warn("Wątki wirtualne wymagają JDK 21+, używane będą wątki platformowe.");
+            return null;
+        }
+    }
+
+    /**
+     * Zwraca liczbę aktywnych połączeń.
+     *
+     * @return Liczba obsługiwanych klientów.
+     */
+    protected int getConnectionCount() {
+        return clients.size();
+    }
+
+    /**
+     * Zbiera głębokości kolejek wychodzących klientów.
+     *
+     * @return Para: łączna liczba oczekujących wiadomości i głębokość najdłuższej kolejki.
+     */
+    protected long[] queueDepths() {
+        long queued = 0;
+        int maxDepth = 0;
+        for (ClientHandler client : clients) {
+            int depth = client.getQueueDepth();
+            queued += depth;
+            maxDepth = Math.max(maxDepth, depth);
         }
+        return new long[]{queued, maxDepth};
+    }
+
+    /**
+     * Wypisuje stan kolejek wychodzących klientów.
+     */
+    protected void printQueueStats() {
+        long[] depths = queueDepths();
+        System.out.println("Kolejki wychodzące: łącznie " + depths[0]
+                + ", najdłuższa " + depths[1] + "/" + outboundQueueCapacity
+                + ", odrzucone wiadomości: " + droppedMessages.get()
+                + ", rozłączeni wolni klienci: " + slowConsumerDisconnects.get());
+    }
+
+    /**
+     * Wypisuje liczbę połączeń, wątków oraz zużycie pamięci na połączenie.
+     */
+    protected void printStats() {
+        Runtime runtime = Runtime.getRuntime();
+        int connections = getConnectionCount();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println("Połączenia: " + connections
+                + ", wątki: " + Thread.activeCount()
+                + ", sterta: " + usedHeap / 1024 + " KB"
+                + (connections > 0 ? ", sterta na połączenie: " + usedHeap / connections + " B" : "")
+                + ", odrzucone wpisy dziennika: " + Log.getDroppedCount());
+        printQueueStats();
     }
 
     /**
-     * Nasłuchuje komendy administratora (STOP, KICK, SEND).
+     * Nasłuchuje komendy administratora (STOP, KICK, SEND, STATS) na standardowym wejściu.
+     * Pełniejsze komendy są dostępne przez {@link AdminConsole}.
      */
     protected void listenForCommands() {
         try (Scanner scanner = new Scanner(System.in)) {
-            while (true) {
+            // Bez standardowego wejścia (np. serwer w tle) pętla kończy się, a zarządzanie odbywa się przez konsolę administratora
+            while (scanner.hasNextLine()) {
                 String command = scanner.nextLine();
                 if ("STOP".equalsIgnoreCase(command)) {
                     stopServer();
@@ -90,6 +814,8 @@ public class ChatServer {
                 } else if (command.startsWith("SEND ")) {
                     String message = command.substring(5).trim();
                     sendServerMessage(message);
+                } else if ("STATS".equalsIgnoreCase(command)) {
+                    printStats();
                 }
             }
         }
@@ -101,10 +827,14 @@ public class ChatServer {
      * @param message Wiadomość do wysłania.
      */
     protected void sendServerMessage(String message) {
+        ByteBuffer frame = encodeLine("Pan Admin: " + message);
         for (ClientHandler client : clients) {
-            client.sendMessage("Pan Admin: " + message);
+            client.sendFrame(frame);
         }
-        System.out.println("Wiadomość od serwera wysłana do wszystkich klientów: " + message);
+        if (cluster != null) {
+            cluster.publish(null, "Pan Admin: " + message);
+        }
+        Log.info("Wiadomość od serwera wysłana do wszystkich klientów: " + message);
     }
 
     /**
@@ -113,56 +843,667 @@ public class ChatServer {
      * @param username Nazwa użytkownika do rozłączenia.
      */
     protected void kickUser(String username) {
-        for (ClientHandler client : clients) {
-            if (client.getUsername() != null && client.getUsername().equals(username)) {
-                client.disconnect();
-                System.out.println("Użytkownik " + username + " został rozłączony przez administratora.");
-                break;
+        ChatSession session = sessionsByUser.get(username);
+        if (session != null) {
+            session.disconnect();
+            Log.info("Użytkownik " + username + " został rozłączony przez administratora.");
+        }
+    }
+
+    /**
+     * Weryfikuje dane logowania użytkownika na podstawie zapisanych danych.
+     * Plik users.txt jest czytany ponownie tylko po jego zmianie.
+     *
+     * @param username       Nazwa użytkownika.
+     * @param hashedPassword Zhashowane hasło użytkownika.
+     * @return True, jeśli dane logowania są poprawne, w przeciwnym razie false.
+     */
+    protected boolean verifyUserCredentials(String username, String hashedPassword) {
+        return credentials.verify(username, hashedPassword);
+    }
+
+    /**
+     * Drugi etap logowania: zleca weryfikację danych ograniczonej puli {@link #authExecutor},
+     * aby fala ponownych połączeń nie weryfikowała danych w tysiącach wątków naraz.
+     * Gdy kolejka puli jest pełna, logowanie jest odrzucane od razu (kontrola przyjęć).
+     * Rejestracja sesji i odpowiedź dla klienta należą do trzeciego etapu, w wątku połączenia lub pętli zdarzeń.
+     *
+     * @param credentials Dane w formacie {@code user:hash} lub null.
+     * @return Przyszły wynik weryfikacji albo null, jeśli pula nie przyjęła zadania.
+     */
+    protected CompletableFuture<Boolean> authenticate(String credentials) {
+        String[] userData = credentials != null ? credentials.split(":") : new String[0];
+        if (userData.length != 2) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (authExecutor == null) {
+            return CompletableFuture.completedFuture(verifyUserCredentials(userData[0], userData[1]));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> verifyUserCredentials(userData[0], userData[1]), authExecutor);
+        } catch (RejectedExecutionException e) {
+            rejectedLogins.incrementAndGet();
+            Log.warn("Pula weryfikacji logowań jest pełna, odrzucono logowanie.");
+            return null;
+        }
+    }
+
+    /**
+     * Rozsyła wiadomość od jednego klienta do pozostałych członków jego pokoju, także na innych węzłach klastra.
+     * Wiadomość jest kodowana raz, a ten sam bufor trafia do dziennika i do kolejek wszystkich odbiorców.
+     *
+     * @param message Wiadomość do wysłania.
+     * @param sender  Klient, który wysłał wiadomość.
+     */
+    protected void broadcastMessage(String message, ChatSession sender) {
+        String room = sender.getRoom();
+        deliverToRoom(room, message, sender);
+        if (cluster != null) {
+            cluster.publish(room, message);
+        }
+    }
+
+    /**
+     * Dostarcza wiadomość członkom pokoju na tym węźle i zapisuje ją w dzienniku.
+     *
+     * @param room    Nazwa pokoju.
+     * @param message Wiadomość do wysłania.
+     * @param sender  Nadawca pomijany przy rozsyłaniu lub null.
+     */
+    protected void deliverToRoom(String room, String message, ChatSession sender) {
+        long start = System.nanoTime();
+        int recipients = 0;
+        List<ChatSession> lagging = null;
+        // Klient wznawiający połączenie dostaje tylko wiadomości o większym identyfikatorze niż ostatnia odebrana,
+        // więc żadna wcześniejsza wiadomość pokoju nie może do niego dotrzeć po późniejszej. Pod blokadą ramki
+        // są tylko kolejkowane; czekanie na wolnego odbiorcę odbywa się po jej zwolnieniu
+        synchronized (roomLock(room)) {
+            long id = journal != null ? journal.reserveId() : 0;
+            ByteBuffer frame = FrameCodec.encodeMessage(message, id);
+            if (journal != null) {
+                journal.append(room, id, frame);
+            }
+            for (ChatSession member : rooms.members(room)) {
+                if (member != sender) {
+                    if (member.offerFrame(frame)) {
+                        if (lagging == null) {
+                            lagging = new ArrayList<>();
+                        }
+                        lagging.add(member);
+                    }
+                    recipients++;
+                }
+            }
+        }
+        if (lagging != null) {
+            for (ChatSession member : lagging) {
+                member.awaitCapacity();
+            }
+        }
+        if (searchIndex != null) {
+            searchIndex.submit(System.currentTimeMillis(), room, message);
+        }
+        metrics.broadcastCompleted(recipients, System.nanoTime() - start);
+    }
+
+    /**
+     * Zwraca blokadę rozsyłania pokoju.
+     *
+     * @param room Nazwa pokoju lub null.
+     * @return Blokada z {@link #roomLocks}.
+     */
+    protected Object roomLock(String room) {
+        return roomLocks[room == null ? 0 : (room.hashCode() & 0x7fffffff) % ROOM_LOCK_STRIPES];
+    }
+
+    /**
+     * Dostarcza klientom tego węzła wiadomość odebraną od innego węzła klastra.
+     *
+     * @param room    Pokój docelowy lub null dla wiadomości serwera do wszystkich zalogowanych.
+     * @param message Treść wiadomości.
+     */
+    protected void deliverRelayed(String room, String message) {
+        if (room != null) {
+            deliverToRoom(room, message, null);
+            return;
+        }
+        ByteBuffer frame = encodeLine(message);
+        for (ChatSession session : sessionsByUser.values()) {
+            session.sendFrame(frame);
+        }
+    }
+
+    /**
+     * Rejestruje sesję pod nazwą jej użytkownika.
+     *
+     * @param session Sesja z ustawioną nazwą użytkownika.
+     * @return True, jeśli rejestracja się udała, false, jeśli użytkownik jest już zalogowany.
+     */
+    protected boolean registerUser(ChatSession session) {
+        return sessionsByUser.putIfAbsent(session.getUsername(), session) == null;
+    }
+
+    /**
+     * Wysyła prywatną wiadomość do jednego użytkownika.
+     *
+     * @param sender   Sesja nadawcy.
+     * @param argument Argument komendy w postaci {@code użytkownik treść}.
+     */
+    protected void sendDirectMessage(ChatSession sender, String argument) {
+        String[] parts = argument.split(" ", 2);
+        if (parts.length < 2 || parts[1].trim().isEmpty()) {
+            sender.sendMessage("Użycie: /msg <użytkownik> <treść>");
+            return;
+        }
+        ChatSession recipient = sessionsByUser.get(parts[0]);
+        String line = sender.getUsername() + " (prywatnie): " + parts[1].trim();
+        if (recipient == null) {
+            if (mailbox != null && credentials.contains(parts[0]) && mailbox.add(parts[0], line)) {
+                sender.sendMessage("Użytkownik " + parts[0] + " nie jest zalogowany, otrzyma wiadomość po zalogowaniu.");
+                // Odbiorca mógł zalogować się w trakcie zapisu i już sprawdzić swoją skrzynkę
+                recipient = sessionsByUser.get(parts[0]);
+                if (recipient != null) {
+                    deliverMailbox(recipient);
+                }
+                return;
+            }
+            sender.sendMessage("Użytkownik " + parts[0] + " nie jest zalogowany.");
+            return;
+        }
+        recipient.sendMessage(line);
+        metrics.messageSent();
+    }
+
+    /**
+     * Obsługuje komendę {@code /search}: wysyła klientowi najnowsze wiadomości jego pokoju pasujące do zapytania,
+     * poprzedzone liczbą wyników. Składnię zapytania opisuje {@link SearchIndex#parse(String)}.
+     * Samo wyszukiwanie odbywa się w puli {@link #authExecutor}, aby nie zajmowało wątku połączenia
+     * ani pętli zdarzeń obsługującej wiele sesji.
+     *
+     * @param session  Sesja pytającego.
+     * @param argument Zapytanie.
+     */
+    protected void search(ChatSession session, String argument) {
+        if (searchIndex == null) {
+            session.sendMessage("Wyszukiwanie jest wyłączone.");
+            return;
+        }
+        SearchIndex.Query query;
+        try {
+            query = SearchIndex.parse(argument);
+        } catch (IllegalArgumentException e) {
+            session.sendMessage(e.getMessage());
+            return;
+        }
+        if (query.isEmpty()) {
+            session.sendMessage("Użycie: /search <słowa> [from:użytkownik] [since:rrrr-mm-dd] [until:rrrr-mm-dd]");
+            return;
+        }
+        String room = session.getRoom();
+        if (authExecutor == null) {
+            sendSearchResults(session, room, query);
+            return;
+        }
+        try {
+            authExecutor.execute(() -> sendSearchResults(session, room, query));
+        } catch (RejectedExecutionException e) {
+            session.sendMessage(OVERLOADED_MESSAGE);
+        }
+    }
+
+    /**
+     * Wyszukuje wiadomości pokoju i wysyła je klientowi za nagłówkiem z liczbą wyników.
+     *
+     * @param session Sesja pytającego.
+     * @param room    Pokój, w którym klient zadał zapytanie.
+     * @param query   Zapytanie.
+     */
+    protected void sendSearchResults(ChatSession session, String room, SearchIndex.Query query) {
+        List<String> results = searchIndex.search(room, query, SEARCH_LIMIT);
+        session.sendMessage("Wyniki wyszukiwania: " + results.size());
+        for (String result : results) {
+            session.sendMessage(result);
+        }
+    }
+
+    /**
+     * Wysyła zalogowanemu klientowi wszystkie wiadomości, które czekały na niego w skrzynce,
+     * jedną serią za krótkim nagłówkiem. Skrzynka jest opróżniana, więc każda wiadomość trafia do klienta raz.
+     *
+     * @param session Sesja odbiorcy.
+     */
+    protected void deliverMailbox(ChatSession session) {
+        if (mailbox == null) {
+            return;
+        }
+        List<String> lines = mailbox.take(session.getUsername());
+        if (lines.isEmpty()) {
+            return;
+        }
+        session.sendMessage("Wiadomości otrzymane pod Twoją nieobecność: " + lines.size());
+        for (String line : lines) {
+            session.sendMessage(line);
+            metrics.messageSent();
+        }
+    }
+
+    /**
+     * Wywoływana po udanym zalogowaniu klienta. Umieszcza go w domyślnym pokoju
+     * i dostarcza wiadomości prywatne, które czekały w jego skrzynce.
+     *
+     * @param session Zalogowana sesja.
+     */
+    protected void onLogin(ChatSession session) {
+        onLogin(session, 0, null);
+    }
+
+    /**
+     * Wywoływana po udanym zalogowaniu klienta, który może wznawiać przerwane połączenie.
+     * Klient wznawiający wraca do swojego pokoju i dostaje tylko jego historię nowszą od ostatniej odebranej wiadomości.
+     *
+     * @param session     Zalogowana sesja.
+     * @param resumeAfter Identyfikator ostatniej wiadomości odebranej przez klienta lub 0.
+     * @param resumeRoom  Pokój, w którym klient był przed rozłączeniem, lub null dla pokoju domyślnego.
+     */
+    protected void onLogin(ChatSession session, long resumeAfter, String resumeRoom) {
+        metrics.loginSucceeded();
+        if (userRateLimit > 0) {
+            userRateLimiters.computeIfAbsent(session.getUsername(), user -> new TokenBucket(userRateLimit, rateLimitBurst));
+        }
+        if (resumeRoom != null) {
+            joinRoom(session, resumeRoom, "Dołączono do pokoju " + resumeRoom, resumeAfter);
+        } else {
+            joinRoom(session, DEFAULT_ROOM, null, resumeAfter);
+        }
+        deliverMailbox(session);
+    }
+
+    /**
+     * Przenosi klienta do pokoju i wysyła mu historię pokoju nowszą od podanej wiadomości.
+     * Wejście i odtworzenie historii odbywają się pod blokadą rozsyłania pokoju, więc wiadomość wysłana w tym czasie
+     * trafia do klienta albo z historią, albo na żywo po niej, nigdy dwa razy ani przed starszymi.
+     * Pod blokadą ramki są tylko kolejkowane; czekanie na miejsce w kolejce odbywa się po jej zwolnieniu.
+     *
+     * @param session Sesja klienta.
+     * @param room    Nazwa pokoju.
+     * @param notice  Komunikat wysyłany przed historią lub null.
+     * @param afterId Identyfikator ostatniej wiadomości odebranej przez klienta lub 0, aby wysłać całą historię.
+     */
+    protected void joinRoom(ChatSession session, String room, String notice, long afterId) {
+        boolean lagging = false;
+        synchronized (roomLock(room)) {
+            rooms.join(room, session);
+            if (notice != null) {
+                lagging = session.offerFrame(encodeLine(notice));
+            }
+            lagging |= replayHistory(session, room, afterId);
+        }
+        if (lagging) {
+            session.awaitCapacity();
+        }
+    }
+
+    /**
+     * Kolejkuje klientowi ostatnie wiadomości pokoju nowsze od podanej.
+     * Wywoływana pod blokadą rozsyłania pokoju.
+     *
+     * @param session Sesja odbiorcy.
+     * @param room    Nazwa pokoju.
+     * @param afterId Identyfikator ostatniej wiadomości odebranej przez klienta lub 0, aby wysłać całą historię.
+     * @return True, jeśli kolejka klienta się przepełniła i trzeba wywołać {@link ChatSession#awaitCapacity()}.
+     */
+    protected boolean replayHistory(ChatSession session, String room, long afterId) {
+        boolean lagging = false;
+        if (journal != null) {
+            for (MessageJournal.Entry entry : journal.recent(room)) {
+                if (entry.id > afterId) {
+                    lagging |= session.offerFrame(entry.frame);
+                }
+            }
+        }
+        return lagging;
+    }
+
+    /**
+     * Zwraca identyfikator ostatniej odebranej wiadomości z danych logowania wznawianego połączenia.
+     *
+     * @param credentials Dane w formacie {@code user:hash}, {@code user:hash@id} lub {@code user:hash@id@pokój}; może być null.
+     * @return Identyfikator lub 0, jeśli klient nie wznawia połączenia.
+     */
+    protected static long resumeId(String credentials) {
+        int mark = resumeMark(credentials);
+        if (mark < 0) {
+            return 0;
+        }
+        int roomMark = credentials.indexOf(FrameCodec.RESUME_MARK, mark + 1);
+        try {
+            return Math.max(0, Long.parseLong(credentials.substring(mark + 1, roomMark < 0 ? credentials.length() : roomMark)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Zwraca z danych logowania wznawianego połączenia pokój, w którym klient był przed rozłączeniem.
+     *
+     * @param credentials Dane w formacie {@code user:hash}, {@code user:hash@id} lub {@code user:hash@id@pokój}; może być null.
+     * @return Nazwa pokoju lub null, jeśli klient był w pokoju domyślnym albo nie wznawia połączenia.
+     */
+    protected static String resumeRoom(String credentials) {
+        int mark = resumeMark(credentials);
+        int roomMark = mark < 0 ? -1 : credentials.indexOf(FrameCodec.RESUME_MARK, mark + 1);
+        if (roomMark < 0) {
+            return null;
+        }
+        String room = credentials.substring(roomMark + 1).trim();
+        return room.isEmpty() ? null : room;
+    }
+
+    /**
+     * Usuwa z danych logowania identyfikator wznowienia i pokój.
+     *
+     * @param credentials Dane w formacie {@code user:hash}, {@code user:hash@id} lub {@code user:hash@id@pokój}; może być null.
+     * @return Dane w formacie {@code user:hash}.
+     */
+    protected static String withoutResume(String credentials) {
+        int mark = resumeMark(credentials);
+        return mark < 0 ? credentials : credentials.substring(0, mark);
+    }
+
+    /**
+     * Zwraca pozycję pierwszego znaku {@link FrameCodec#RESUME_MARK} po nazwie użytkownika.
+     * Hash hasła nie zawiera tego znaku, więc dalsza część danych to identyfikator i opcjonalnie pokój,
+     * którego nazwa może zawierać dowolne znaki.
+     *
+     * @param credentials Dane logowania; może być null.
+     * @return Pozycja znaku lub -1, jeśli dane nie zawierają wznowienia.
+     */
+    protected static int resumeMark(String credentials) {
+        int colon = credentials != null ? credentials.indexOf(':') : -1;
+        return colon < 0 ? -1 : credentials.indexOf(FrameCodec.RESUME_MARK, colon);
+    }
+
+    /**
+     * Wywoływana przy rozłączaniu zalogowanego klienta. Usuwa go z pokoju i z rejestru użytkowników.
+     *
+     * @param session Rozłączana sesja.
+     */
+    protected void onLogout(ChatSession session) {
+        rooms.leave(session);
+        sessionsByUser.remove(session.getUsername(), session);
+    }
+
+    /**
+     * Sprawdza limity wiadomości połączenia i użytkownika przed obsługą kolejnej linii.
+     * Nie używa blokad ani nie alokuje pamięci; przy przekroczeniu limitu stosuje {@link #rateLimitAction}.
+     *
+     * @param session Sesja nadawcy.
+     * @param canWait Czy wątek wywołujący może zostać wstrzymany; false w pętli zdarzeń.
+     * @return True, jeśli linię należy obsłużyć, false, jeśli została odrzucona.
+     */
+    protected boolean admitMessage(ChatSession session, boolean canWait) {
+        TokenBucket connectionLimiter = session.getRateLimiter();
+        TokenBucket userLimiter = userRateLimit > 0 ? userRateLimiters.get(session.getUsername()) : null;
+        if (connectionLimiter == null && userLimiter == null) {
+            return true;
+        }
+        long now = System.nanoTime();
+        boolean limited = false;
+        while (!tryAcquire(connectionLimiter, userLimiter, now)) {
+            if (!limited) {
+                limited = true;
+                rateLimitedMessages.incrementAndGet();
             }
+            if (rateLimitAction == RateLimitAction.DISCONNECT) {
+                if (session.disconnect("Rozłączono za zbyt wiele wiadomości.")) {
+                    rateLimitDisconnects.incrementAndGet();
+                    Log.warn("Klient " + session.getUsername() + " przekroczył limit wiadomości.");
+                }
+                return false;
+            }
+            if (rateLimitAction == RateLimitAction.DROP || !canWait) {
+                session.sendFrame(RATE_LIMIT_NOTICE);
+                return false;
+            }
+            long waitNanos = Math.max(connectionLimiter != null ? connectionLimiter.nanosUntilAvailable(now) : 0,
+                    userLimiter != null ? userLimiter.nanosUntilAvailable(now) : 0);
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 100_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            now = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Pobiera po żetonie z limitu połączenia i użytkownika albo nie pobiera żadnego.
+     * Żeton połączenia pobrany przed odmową limitu użytkownika jest oddawany.
+     *
+     * @param connectionLimiter Limit połączenia lub null.
+     * @param userLimiter       Limit użytkownika lub null.
+     * @param now               Bieżący czas z {@link System#nanoTime()}.
+     * @return True, jeśli oba limity przyjęły wiadomość.
+     */
+    protected static boolean tryAcquire(TokenBucket connectionLimiter, TokenBucket userLimiter, long now) {
+        if (connectionLimiter != null && !connectionLimiter.tryAcquire(now)) {
+            return false;
+        }
+        if (userLimiter != null && !userLimiter.tryAcquire(now)) {
+            if (connectionLimiter != null) {
+                connectionLimiter.refund();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Obsługuje jedną linię od zalogowanego klienta: komendę albo wiadomość do pokoju.
+     * Linia, która po dopisaniu nadawcy nie zmieściłaby się w ramce, jest odrzucana w obu silnikach.
+     *
+     * @param session Sesja nadawcy.
+     * @param line    Odebrana linia.
+     */
+    protected void handleChatLine(ChatSession session, String line) {
+        metrics.messageReceived();
+        if (!FrameCodec.fitsMessage(session.getUsername(), line)) {
+            session.sendMessage(MESSAGE_TOO_LONG);
+            return;
+        }
+        if (line.startsWith("/") && handleCommand(session, line)) {
+            return;
+        }
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(session.getUsername() + ": " + line);
+        }
+        broadcastMessage(session.getUsername() + ": " + line, session);
+    }
+
+    /**
+     * Wykonuje komendę klienta ({@code /join pokój}, {@code /leave}, {@code /msg użytkownik treść}).
+     *
+     * @param session Sesja nadawcy.
+     * @param line    Linia zaczynająca się od ukośnika.
+     * @return True, jeśli linia była rozpoznaną komendą, w przeciwnym razie false.
+     */
+    protected boolean handleCommand(ChatSession session, String line) {
+        String[] parts = line.split(" ", 2);
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+        switch (parts[0].toLowerCase()) {
+            case "/join":
+                if (argument.isEmpty()) {
+                    session.sendMessage("Użycie: /join <pokój>");
+                } else {
+                    joinRoom(session, argument, "Dołączono do pokoju " + argument, 0);
+                }
+                return true;
+            case "/leave":
+                joinRoom(session, DEFAULT_ROOM, "Dołączono do pokoju " + DEFAULT_ROOM, 0);
+                return true;
+            case "/msg":
+                sendDirectMessage(session, argument);
+                return true;
+            case "/search":
+                search(session, argument);
+                return true;
+            case "/resume":
+                // Wznowienie po ponownym połączeniu: /resume <id> <pokój> przywraca pokój i wysyła tylko brakującą historię
+                String[] resume = argument.split(" ", 2);
+                long afterId;
+                try {
+                    afterId = Long.parseLong(resume[0]);
+                } catch (NumberFormatException e) {
+                    afterId = -1;
+                }
+                if (afterId < 0 || resume.length < 2 || resume[1].trim().isEmpty()) {
+                    session.sendMessage("Użycie: /resume <id> <pokój>");
+                } else {
+                    String room = resume[1].trim();
+                    joinRoom(session, room, "Dołączono do pokoju " + room, afterId);
+                }
+                return true;
+            default:
+                return false;
         }
     }
 
     /**
-     * Weryfikuje dane logowania użytkownika na podstawie zapisanych danych.
+     * Koduje wiadomość jako linię UTF-8 zakończoną znakiem nowej linii.
+     * Zwracany bufor jest tylko do odczytu, więc może być współdzielony przez wszystkich odbiorców.
+     * Ten sam bufor zawiera nagłówek ramki, więc klienci protokołu binarnego dostają go przez
+     * {@link FrameCodec#binaryView(ByteBuffer)} bez ponownego kodowania, a długa wiadomość jest w nim
+     * od razu skompresowana dla klientów, którzy wynegocjowali kompresję.
      *
-     * @param username       Nazwa użytkownika.
-     * @param hashedPassword Zhashowane hasło użytkownika.
-     * @return True, jeśli dane logowania są poprawne, w przeciwnym razie false.
+     * @param message Wiadomość do zakodowania.
+     * @return Bufor z zakodowaną linią.
      */
-    protected boolean verifyUserCredentials(String username, String hashedPassword) {
-        try (BufferedReader br = new BufferedReader(new FileReader("users.txt"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] userData = line.split(":");
-                if (userData.length == 2 && userData[0].equals(username) && userData[1].equals(hashedPassword)) {
-                    return true;
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("Błąd podczas odczytu danych użytkownika: " + e.getMessage());
-        }
-        return false;
+    protected static ByteBuffer encodeLine(String message) {
+        return FrameCodec.encodeMessage(message);
     }
 
     /**
-     * Rozsyła wiadomość od jednego klienta do pozostałych.
-     *
-     * @param message Wiadomość do wysłania.
-     * @param sender  Klient, który wysłał wiadomość.
+     * Pilnuje terminów jednego połączenia w kole {@link #timer}: najpierw czasu na zalogowanie, potem bezczynności.
+     * Zalogowany klient, od którego przez {@link #heartbeatIntervalMillis} nic nie przyszło, dostaje {@link #PING_FRAME},
+     * a po {@link #idleTimeoutMillis} bez danych połączenie jest zamykane. Dotyczy to tylko sesji, które odpowiadają
+     * na sprawdzenia ({@link ChatSession#isHeartbeatEnabled()}); starsi klienci tekstowi mogą milczeć bez końca.
+     * W kole jest najwyżej jedno zadanie na połączenie, planowane od nowa przy każdym wykonaniu
+     * na podstawie {@link ChatSession#getLastRead()}, więc odebranie danych kosztuje tylko zapis czasu,
+     * a aktywny klient budzi koło raz na okres sprawdzania.
      */
-    protected void broadcastMessage(String message, ClientHandler sender) {
-        for (ClientHandler client : clients) {
-            if (client != sender) {
-                client.sendMessage(message);
+    protected class IdleMonitor implements Runnable {
+
+        /**
+         * Pilnowana sesja.
+         */
+        protected final ChatSession session;
+
+        /**
+         * Bieżące zadanie w kole lub null przed uruchomieniem.
+         */
+        protected volatile TimerWheel.Timeout timeout;
+
+        /**
+         * Czy pilnowanie zostało zakończone przy zamknięciu sesji.
+         */
+        protected volatile boolean stopped;
+
+        /**
+         * Tworzy strażnika sesji.
+         *
+         * @param session Pilnowana sesja.
+         */
+        public IdleMonitor(ChatSession session) {
+            this.session = session;
+        }
+
+        /**
+         * Planuje pierwsze sprawdzenie: po czasie na zalogowanie albo, jeśli ten limit jest wyłączony, po okresie sprawdzania.
+         * Nic nie robi, jeśli serwer nie uruchomił koła czasowego.
+         */
+        public void start() {
+            long delay = loginTimeoutMillis > 0 ? loginTimeoutMillis : heartbeatIntervalMillis;
+            if (timer != null && delay > 0) {
+                schedule(delay);
             }
         }
+
+        /**
+         * Kończy pilnowanie sesji i anuluje zaplanowane zadanie.
+         */
+        public void stop() {
+            stopped = true;
+            TimerWheel.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        /**
+         * Planuje kolejne sprawdzenie.
+         *
+         * @param delayMillis Opóźnienie w milisekundach.
+         */
+        protected void schedule(long delayMillis) {
+            TimerWheel.Timeout next = timer.schedule(this, delayMillis);
+            timeout = next;
+            // Sesja mogła zostać zamknięta w trakcie planowania
+            if (stopped) {
+                next.cancel();
+            }
+        }
+
+        /**
+         * Sprawdza sesję w wątku koła: zamyka niezalogowaną po czasie na zalogowanie i bezczynną po {@link #idleTimeoutMillis},
+         * a cichemu klientowi wysyła sprawdzenie połączenia.
+         */
+        @Override
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            if (session.getUsername() == null && loginTimeoutMillis > 0) {
+                loginTimeouts.incrementAndGet();
+                Log.warn("Klient nie zalogował się w wyznaczonym czasie, rozłączanie.");
+                session.abort();
+                return;
+            }
+            if (heartbeatIntervalMillis <= 0) {
+                return;
+            }
+            if (!session.isHeartbeatEnabled()) {
+                // Klient tekstowy może jeszcze zgłosić obsługę sprawdzeń
+                schedule(heartbeatIntervalMillis);
+                return;
+            }
+            long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - session.getLastRead());
+            if (idleTimeoutMillis > 0 && idle >= idleTimeoutMillis) {
+                idleDisconnects.incrementAndGet();
+                Log.warn("Klient " + session.getUsername() + " nie odpowiadał przez " + idle + " ms, rozłączanie.");
+                session.abort();
+                return;
+            }
+            long delay = heartbeatIntervalMillis - idle;
+            if (delay <= 0) {
+                if (session.getUsername() != null) {
+                    session.sendFrame(PING_FRAME);
+                }
+                delay = idleTimeoutMillis > 0 ? Math.min(heartbeatIntervalMillis, idleTimeoutMillis - idle) : heartbeatIntervalMillis;
+            }
+            schedule(delay);
+        }
     }
 
     /**
      * Klasa reprezentująca pojedynczego klienta.
      * Odpowiada za obsługę połączenia z klientem, odbieranie i wysyłanie wiadomości.
+     * Jest uruchamiana w wątku platformowym lub wirtualnym, zależnie od {@link ConnectionMode}.
+     * Wiadomości do klienta trafiają do ograniczonej kolejki opróżnianej przez osobny wątek zapisujący,
+     * dzięki czemu wolny odbiorca nie blokuje nadawcy.
      */
-    protected class ClientHandler extends Thread {
+    protected class ClientHandler implements Runnable, ChatSession {
 
         /**
          * Gniazdo połączeniowe klienta.
@@ -170,24 +1511,96 @@ public class ChatServer {
         protected Socket clientSocket;
 
         /**
-         * Strumień wejściowy do odbierania wiadomości od klienta.
+         * Buforowany strumień wejściowy gniazda, z którego czytana jest pierwsza linia i ramki protokołu binarnego.
+         */
+        protected InputStream rawInput;
+
+        /**
+         * Strumień wejściowy do odbierania wiadomości od klienta w protokole tekstowym.
+         */
+        protected LineReader input;
+
+        /**
+         * Czy klient wynegocjował protokół binarny.
+         */
+        protected volatile boolean binary;
+
+        /**
+         * Czy klient tekstowy zgłosił obsługę sprawdzeń połączenia linią {@link FrameCodec#HEARTBEAT_LINE}.
+         */
+        protected volatile boolean heartbeat;
+
+        /**
+         * Czy klient przyjmuje skompresowane ramki {@link FrameCodec#COMPRESSED}.
+         */
+        protected volatile boolean deflate;
+
+        /**
+         * Buforowany strumień wyjściowy do wysyłania wiadomości do klienta.
+         * Dostęp do niego jest synchronizowany na samym strumieniu.
+         */
+        protected OutputStream output;
+
+        /**
+         * Bufor pomocniczy do kopiowania ramek tylko do odczytu do strumienia.
+         */
+        protected final byte[] copyBuffer = new byte[8192];
+
+        /**
+         * Kolejka wiadomości oczekujących na wysłanie do klienta. Limit {@link #outboundQueueCapacity} pilnuje
+         * {@link #offerFrame(ByteBuffer)}, bo w trybie {@link OverflowPolicy#BLOCK} ramka trafia do kolejki przed czekaniem.
+         */
+        protected final BlockingQueue<ByteBuffer> outbound = new LinkedBlockingQueue<>();
+
+        /**
+         * Monitor, na którym nadawcy czekają w {@link #awaitCapacity()} na miejsce w kolejce.
          */
-        protected BufferedReader input;
+        protected final Object capacityMonitor = new Object();
 
         /**
-         * Strumień wyjściowy do wysyłania wiadomości do klienta.
+         * Liczba nadawców czekających w {@link #awaitCapacity()}; wątek zapisujący budzi ich tylko wtedy, gdy są.
          */
-        protected PrintWriter output;
+        protected final AtomicInteger blockedSenders = new AtomicInteger();
+
+        /**
+         * Wątek opróżniający kolejkę wychodzącą, ustawiany po jego uruchomieniu.
+         */
+        protected volatile Thread writerThread;
 
         /**
          * Nazwa użytkownika klienta.
          */
-        protected String username;
+        protected volatile String username;
+
+        /**
+         * Pokój, w którym przebywa klient.
+         */
+        protected volatile String room;
 
         /**
          * Flaga wskazująca, czy klient został rozłączony.
          */
-        protected boolean isDisconnected = false;
+        protected volatile boolean isDisconnected = false;
+
+        /**
+         * Czy wiadomość pożegnalna przy rozłączaniu została zapisana do gniazda.
+         */
+        protected volatile boolean farewellSent;
+
+        /**
+         * Wiadro żetonów ograniczające wiadomości z tego połączenia lub null, jeśli limit jest wyłączony.
+         */
+        protected final TokenBucket rateLimiter = connectionRateLimit > 0 ? new TokenBucket(connectionRateLimit, rateLimitBurst) : null;
+
+        /**
+         * Chwila ostatniego odebrania linii lub ramki od klienta z {@link System#nanoTime()}.
+         */
+        protected volatile long lastRead = System.nanoTime();
+
+        /**
+         * Strażnik czasu na zalogowanie i bezczynności połączenia.
+         */
+        protected final IdleMonitor idleMonitor = new IdleMonitor(this);
 
         /**
          * Konstruktor klasy ClientHandler.
@@ -197,8 +1610,8 @@ public class ChatServer {
         public ClientHandler(Socket socket) {
             this.clientSocket = socket;
             try {
-                this.input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
-                this.output = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+                this.rawInput = new BufferedInputStream(clientSocket.getInputStream(), 8192);
+                this.output = new BufferedOutputStream(clientSocket.getOutputStream(), 8192);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -209,40 +1622,129 @@ public class ChatServer {
          *
          * @return Nazwa użytkownika.
          */
+        @Override
         public String getUsername() {
             return username;
         }
 
         /**
-         * Główna pętla wątku obsługująca komunikację z klientem.
+         * Zwraca pokój, w którym przebywa klient.
+         *
+         * @return Nazwa pokoju lub null.
+         */
+        @Override
+        public String getRoom() {
+            return room;
+        }
+
+        /**
+         * Ustawia pokój, w którym przebywa klient.
+         *
+         * @param room Nazwa pokoju lub null.
+         */
+        @Override
+        public void setRoom(String room) {
+            this.room = room;
+        }
+
+        /**
+         * Zwraca liczbę wiadomości oczekujących w kolejce wychodzącej.
+         *
+         * @return Głębokość kolejki wychodzącej.
+         */
+        public int getQueueDepth() {
+            return outbound.size();
+        }
+
+        /**
+         * Zwraca wiadro żetonów ograniczające wiadomości z tego połączenia.
+         *
+         * @return Wiadro żetonów lub null, jeśli limit na połączenie jest wyłączony.
+         */
+        @Override
+        public TokenBucket getRateLimiter() {
+            return rateLimiter;
+        }
+
+        /**
+         * Główna pętla obsługująca komunikację z klientem.
          */
         @Override
         public void run() {
             try {
-                String credentials = input.readLine();
-                String[] userData = credentials.split(":");
-
-                if (userData.length == 2 && verifyUserCredentials(userData[0], userData[1])) {
-                    username = userData[0];
-                    output.println("Logowanie udane");
-                    System.out.println("Użytkownik " + username + " zalogował się pomyślnie.");
-
-                    String message;
-                    while ((message = input.readLine()) != null) {
-                        System.out.println(username + ": " + message);
-                        broadcastMessage(username + ": " + message, this);
+                // Pierwszy etap: odczyt danych logowania; niezalogowane połączenie zamknie po czasie koło czasowe serwera
+                idleMonitor.start();
+                String credentials = FrameCodec.readFirstLine(rawInput);
+                DataInputStream frames = null;
+                byte[] frameBuffer = null;
+                String negotiated = FrameCodec.negotiationReply(credentials);
+                if (negotiated != null) {
+                    writeDirect(FrameCodec.MESSAGE, negotiated);
+                    binary = true;
+                    deflate = FrameCodec.NEGOTIATION_DEFLATE.equals(negotiated);
+                    frames = new DataInputStream(rawInput);
+                    frameBuffer = new byte[FrameCodec.MAX_PAYLOAD];
+                    FrameCodec.Frame login = FrameCodec.read(frames, frameBuffer);
+                    credentials = login != null && login.opcode == FrameCodec.LOGIN ? login.payload : null;
+                }
+                long resumeAfter = resumeId(credentials);
+                String resumeRoom = resumeRoom(credentials);
+                credentials = withoutResume(credentials);
+                CompletableFuture<Boolean> verdict = authenticate(credentials);
+                if (verdict == null) {
+                    writeDirect(FrameCodec.LOGIN_FAILED, OVERLOADED_MESSAGE);
+                    clientSocket.close();
+                    return;
+                }
+
+                if (awaitVerdict(verdict)) {
+                    String user = credentials.substring(0, credentials.indexOf(':'));
+                    username = user;
+                    if (!registerUser(this)) {
+                        username = null;
+                        metrics.loginFailed();
+                        writeDirect(FrameCodec.LOGIN_FAILED, "Użytkownik " + user + " jest już zalogowany");
+                        Log.warn("Odrzucono ponowne logowanie użytkownika " + user + ".");
+                        clientSocket.close();
+                        return;
+                    }
+                    onLogin(this, resumeAfter, resumeRoom);
+                    writeDirect(FrameCodec.LOGIN_OK, "Logowanie udane");
+                    startConnectionTask(this::drainOutbound, "client-writer-" + clientSocket.getPort());
+                    Log.info("Użytkownik " + username + " zalogował się pomyślnie.");
+
+                    if (binary) {
+                        FrameCodec.Frame frame;
+                        while ((frame = FrameCodec.read(frames, frameBuffer)) != null) {
+                            lastRead = System.nanoTime();
+                            if (frame.opcode == FrameCodec.MESSAGE && admitMessage(this, true)) {
+                                handleChatLine(this, frame.payload);
+                            }
+                        }
+                    } else {
+                        input = new LineReader(rawInput, MAX_LINE_LENGTH);
+                        String message;
+                        while ((message = input.readLine()) != null) {
+                            lastRead = System.nanoTime();
+                            if (message.equals(FrameCodec.HEARTBEAT_LINE)) {
+                                heartbeat = true;
+                            } else if (!message.equals(FrameCodec.PONG_LINE) && admitMessage(this, true)) {
+                                handleChatLine(this, message);
+                            }
+                        }
                     }
                 } else {
-                    output.println("Nieprawidłowy login lub hasło");
-                    System.out.println("Nieudana próba logowania.");
+                    metrics.loginFailed();
+                    writeDirect(FrameCodec.LOGIN_FAILED, "Nieprawidłowy login lub hasło");
+                    Log.warn("Nieudana próba logowania.");
                     clientSocket.close();
                 }
 
             } catch (IOException e) {
-                if (e.getMessage().contains("Socket closed")) {
-                    System.out.println("Gniazdo zamknięte przez klienta: " + username);
+                if (e.getMessage() != null && e.getMessage().contains("Socket closed")) {
+                    Log.info("Gniazdo zamknięte przez klienta: " + username);
                 } else {
-                    System.out.println("Błąd w obsłudze klienta: " + e.getMessage());
+                    Log.error("Błąd w obsłudze klienta: " + e.getMessage());
                 }
             } finally {
                 disconnect();
@@ -250,44 +1752,331 @@ public class ChatServer {
         }
 
         /**
-         * Wysyła wiadomość do klienta.
+         * Czeka na wynik weryfikacji danych logowania najwyżej {@link #loginTimeoutMillis}.
+         *
+         * @param verdict Przyszły wynik weryfikacji.
+         * @return True, jeśli dane są poprawne; false, jeśli są błędne albo weryfikacja nie zdążyła.
+         */
+        protected boolean awaitVerdict(CompletableFuture<Boolean> verdict) {
+            try {
+                return verdict.get(loginTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException | TimeoutException e) {
+                Log.warn("Weryfikacja logowania nie powiodła się: " + e);
+                return false;
+            }
+        }
+
+        /**
+         * Zapisuje wiadomość bezpośrednio do gniazda z pominięciem kolejki.
+         * Używana przed uruchomieniem wątku zapisującego i przy rozłączaniu.
          *
          * @param message Wiadomość do wysłania.
+         * @return True, jeśli wiadomość została zapisana do gniazda.
          */
-        protected void sendMessage(String message) {
-            output.println(message);
+        protected boolean writeDirect(String message) {
+            return writeDirect(FrameCodec.MESSAGE, message);
         }
 
         /**
-         * Rozłącza klienta i zamyka jego zasoby.
+         * Zapisuje wiadomość bezpośrednio do gniazda z pominięciem kolejki.
+         *
+         * @param opcode  Kod operacji, używany tylko w protokole binarnym.
+         * @param message Wiadomość do wysłania.
+         * @return True, jeśli wiadomość została zapisana do gniazda.
          */
-        public void disconnect() {
-            if (!isDisconnected) {
-                isDisconnected = true;
-                try {
-                    if (output != null) {
-                        output.println("Zostałeś rozłączony przez administratora.");
+        protected boolean writeDirect(byte opcode, String message) {
+            try {
+                synchronized (output) {
+                    writeFrame(FrameCodec.encode(opcode, message));
+                    output.flush();
+                }
+                return true;
+            } catch (IOException e) {
+                Log.error("Błąd podczas wysyłania do klienta " + username + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        /**
+         * Wysyła wiadomość pożegnalną z limitem czasu {@link #FAREWELL_TIMEOUT_MILLIS}.
+         * Klient, który nie odbiera danych, blokowałby zapis bez końca, więc po upływie limitu
+         * gniazdo jest zamykane, co przerywa zapis pożegnania i zablokowany wątek zapisujący.
+         *
+         * @param farewell Wiadomość pożegnalna.
+         * @return True, jeśli wiadomość została zapisana do gniazda.
+         */
+        protected boolean writeFarewell(String farewell) {
+            TimerWheel.Timeout guard = timer != null ? timer.schedule(this::abort, FAREWELL_TIMEOUT_MILLIS) : null;
+            try {
+                return writeDirect(farewell);
+            } finally {
+                if (guard != null) {
+                    guard.cancel();
+                }
+            }
+        }
+
+        /**
+         * Kopiuje ramkę do buforowanego strumienia bez zmiany pozycji współdzielonego bufora,
+         * jako linię, ramkę binarną albo skompresowaną, zależnie od protokołu klienta.
+         *
+         * @param frame Zakodowana ramka.
+         * @throws IOException Gdy zapis do gniazda się nie powiedzie.
+         */
+        protected void writeFrame(ByteBuffer frame) throws IOException {
+            ByteBuffer view = FrameCodec.view(frame, binary, deflate);
+            while (view.hasRemaining()) {
+                int length = Math.min(view.remaining(), copyBuffer.length);
+                view.get(copyBuffer, 0, length);
+                output.write(copyBuffer, 0, length);
+            }
+        }
+
+        /**
+         * Opróżnia kolejkę wychodzącą, wysyłając zaległe wiadomości partiami z jednym flush na partię.
+         */
+        protected void drainOutbound() {
+            writerThread = Thread.currentThread();
+            try {
+                while (!isDisconnected) {
+                    ByteBuffer frame = outbound.take();
+                    synchronized (output) {
+                        do {
+                            writeFrame(frame);
+                        } while ((frame = outbound.poll()) != null);
+                        if (blockedSenders.get() > 0) {
+                            synchronized (capacityMonitor) {
+                                capacityMonitor.notifyAll();
+                            }
+                        }
                         output.flush();
                     }
-                    clients.remove(this);
-                    if (clientSocket != null && !clientSocket.isClosed()) {
-                        clientSocket.close();
+                }
+            } catch (InterruptedException e) {
+                // Wątek zapisujący jest przerywany przy rozłączaniu klienta
+            } catch (IOException e) {
+                disconnect(null);
+            }
+        }
+
+        /**
+         * Koduje wiadomość i wstawia ją do kolejki wychodzącej klienta.
+         *
+         * @param message Wiadomość do wysłania.
+         */
+        @Override
+        public void sendMessage(String message) {
+            sendFrame(encodeLine(message));
+        }
+
+        /**
+         * Wstawia zakodowaną ramkę do kolejki wychodzącej klienta.
+         * Przy pełnej kolejce stosuje {@link #overflowPolicy} serwera.
+         *
+         * @param frame Ramka tylko do odczytu, współdzielona z innymi odbiorcami.
+         */
+        @Override
+        public void sendFrame(ByteBuffer frame) {
+            if (offerFrame(frame)) {
+                awaitCapacity();
+            }
+        }
+
+        /**
+         * Wstawia ramkę do kolejki bez blokowania. W trybie {@link OverflowPolicy#BLOCK} ramka trafia do kolejki
+         * ponad limit, a nadawca czeka potem w {@link #awaitCapacity()}, aż wątek zapisujący zrobi miejsce,
+         * dzięki czemu kolejność ramek pozostaje taka, jak kolejność wywołań.
+         *
+         * @param frame Ramka tylko do odczytu, współdzielona z innymi odbiorcami.
+         * @return True, jeśli kolejka jest przepełniona i trzeba wywołać {@link #awaitCapacity()}.
+         */
+        @Override
+        public boolean offerFrame(ByteBuffer frame) {
+            if (isDisconnected) {
+                return false;
+            }
+            if (outbound.size() < outboundQueueCapacity) {
+                outbound.add(frame);
+                return false;
+            }
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    outbound.add(frame);
+                    while (outbound.size() > outboundQueueCapacity && outbound.poll() != null) {
+                        droppedMessages.incrementAndGet();
                     }
-                    System.out.println("Klient " + username + " rozłączony.");
-                } catch (IOException e) {
-                    System.out.println("Błąd podczas zamykania gniazda klienta: " + e.getMessage());
+                    return false;
+                case BLOCK:
+                    outbound.add(frame);
+                    return true;
+                case DISCONNECT:
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Czeka najwyżej {@link #backpressureTimeoutMillis}, aż kolejka zejdzie do limitu, a jeśli nie zejdzie
+         * albo polityką jest {@link OverflowPolicy#DISCONNECT}, rozłącza klienta.
+         */
+        @Override
+        public void awaitCapacity() {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backpressureTimeoutMillis);
+                blockedSenders.incrementAndGet();
+                try {
+                    synchronized (capacityMonitor) {
+                        long remaining;
+                        while (!isDisconnected && outbound.size() > outboundQueueCapacity
+                                && (remaining = deadline - System.nanoTime()) > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(capacityMonitor, remaining);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    blockedSenders.decrementAndGet();
+                }
+                if (isDisconnected || outbound.size() <= outboundQueueCapacity) {
+                    return;
+                }
+            }
+            disconnectSlowConsumer();
+        }
+
+        /**
+         * Rozłącza klienta, który nie nadąża z odbieraniem wiadomości.
+         */
+        protected void disconnectSlowConsumer() {
+            droppedMessages.incrementAndGet();
+            if (disconnect(null)) {
+                slowConsumerDisconnects.incrementAndGet();
+                Log.warn("Klient " + username + " nie nadążał z odbieraniem wiadomości.");
+            }
+        }
+
+        /**
+         * Zamyka gniazdo bez wysyłania czegokolwiek, przerywając zablokowany odczyt lub zapis.
+         * Pozostałe zasoby zwalnia potem {@link #disconnect(String)}.
+         */
+        protected void closeSocket() {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                Log.error("Błąd podczas zamykania gniazda klienta: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Zamyka gniazdo; wątek czytający zauważy to i rozłączy klienta.
+         * Zamknięcie gniazda TLS wysyła komunikat zamknięcia i może czekać na zablokowany zapis,
+         * więc odbywa się w osobnym wątku, a nie w wątku wywołującym.
+         */
+        @Override
+        public void abort() {
+            if (clientSocket instanceof SSLSocket) {
+                startConnectionTask(this::closeSocket, "client-abort-" + clientSocket.getPort());
+            } else {
+                closeSocket();
+            }
+        }
+
+        /**
+         * Zwraca chwilę ostatniego odebrania linii lub ramki od klienta.
+         *
+         * @return Czas z {@link System#nanoTime()}.
+         */
+        @Override
+        public long getLastRead() {
+            return lastRead;
+        }
+
+        @Override
+        public boolean isHeartbeatEnabled() {
+            return binary || heartbeat;
+        }
+
+        /**
+         * Rozłącza klienta i zamyka jego zasoby.
+         */
+        @Override
+        public void disconnect() {
+            disconnect("Zostałeś rozłączony przez administratora.");
+        }
+
+        /**
+         * Rozłącza klienta, opcjonalnie wysyłając mu wiadomość pożegnalną.
+         *
+         * @param farewell Wiadomość wysyłana przed zamknięciem gniazda lub null.
+         * @return True, jeśli to wywołanie rozłączyło klienta, false, jeśli był już rozłączony.
+         */
+        @Override
+        public boolean disconnect(String farewell) {
+            // Pod monitorem tylko zmiana stanu; blokujący zapis pożegnania odbywa się poza nim
+            synchronized (this) {
+                if (isDisconnected) {
+                    return false;
+                }
+                isDisconnected = true;
+            }
+            idleMonitor.stop();
+            try {
+                Thread writer = writerThread;
+                if (writer != null) {
+                    writer.interrupt();
+                }
+                outbound.clear();
+                if (output != null && farewell != null) {
+                    farewellSent = writeFarewell(farewell);
+                }
+                clients.remove(this);
+                if (username != null) {
+                    onLogout(this);
                 }
+                if (clientSocket != null && !clientSocket.isClosed()) {
+                    clientSocket.close();
+                }
+                Log.info("Klient " + username + " rozłączony.");
+            } catch (IOException e) {
+                Log.error("Błąd podczas zamykania gniazda klienta: " + e.getMessage());
             }
+            return true;
         }
     }
 
     /**
      * Punkt wejścia aplikacji.
+     * Silnik serwera wybiera właściwość systemowa {@code chat.mode}:
+     * {@code thread} (domyślnie), {@code virtual} lub {@code nio}.
+     * Dziennik wiadomości jest zapisywany w katalogu {@code chat.journal.dir} (domyślnie {@code journal},
+     * pusta wartość go wyłącza), a wiadomości prywatne do niezalogowanych użytkowników w katalogu
+     * {@code chat.mailbox.dir} (domyślnie {@code mailbox}). Metryki są dostępne pod {@code http://127.0.0.1:9100/metrics}
+     * (port ustawia {@code chat.metrics.port}, wartość 0 wyłącza punkt HTTP).
+     * Konsola administratora nasłuchuje na {@code 127.0.0.1:9101} (port ustawia {@code chat.admin.port}).
+     * Port dla klientów ustawia {@code chat.port} (domyślnie 50000), a połączenia z innymi węzłami klastra
+     * {@code chat.cluster.port} i {@code chat.cluster.peers}, przy czym węzły muszą mieć ten sam {@code chat.cluster.secret}.
+     * Każde połączenie może wysłać do 20 wiadomości na sekundę (ustawia {@code chat.rate.perConnection}).
      *
      * @param args Argumenty wejściowe.
      */
     public static void main(String[] args) {
-        ChatServer server = new ChatServer();
-        server.startServer(50000);
+        String mode = System.getProperty("chat.mode", "thread");
+        ChatServer server;
+        if ("nio".equalsIgnoreCase(mode)) {
+            server = new NioChatServer();
+        } else if ("virtual".equalsIgnoreCase(mode)) {
+            server = new ChatServer(ConnectionMode.VIRTUAL);
+        } else {
+            server = new ChatServer();
+        }
+        server.journalDirectory = System.getProperty("chat.journal.dir", "journal");
+        server.mailboxDirectory = System.getProperty("chat.mailbox.dir", "mailbox");
+        server.metricsPort = Integer.getInteger("chat.metrics.port", 9100);
+        server.adminPort = Integer.getInteger("chat.admin.port", 9101);
+        server.connectionRateLimit = Integer.getInteger("chat.rate.perConnection", 20);
+        server.startServer(Integer.getInteger("chat.port", 50000));
     }
 }
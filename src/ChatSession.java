@@ -0,0 +1,101 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Wspólny widok połączenia klienta, niezależny od silnika serwera.
+ * Implementują go {@link ChatServer.ClientHandler} oraz {@link NioChatServer.NioSession},
+ * dzięki czemu pokoje, komendy i rozsyłanie działają tak samo w obu trybach.
+ */
+public interface ChatSession {
+
+    /**
+     * Zwraca nazwę zalogowanego użytkownika.
+     *
+     * @return Nazwa użytkownika lub null przed zalogowaniem.
+     */
+    String getUsername();
+
+    /**
+     * Zwraca nazwę pokoju, w którym przebywa klient.
+     *
+     * @return Nazwa pokoju lub null, jeśli klient nie jest w żadnym pokoju.
+     */
+    String getRoom();
+
+    /**
+     * Ustawia pokój, w którym przebywa klient. Wywoływana wyłącznie przez {@link RoomRegistry}.
+     *
+     * @param room Nazwa pokoju lub null.
+     */
+    void setRoom(String room);
+
+    /**
+     * Koduje wiadomość i kolejkuje ją do wysłania do klienta.
+     *
+     * @param message Wiadomość do wysłania.
+     */
+    void sendMessage(String message);
+
+    /**
+     * Kolejkuje zakodowaną ramkę do wysłania do klienta.
+     *
+     * @param frame Ramka tylko do odczytu, współdzielona z innymi odbiorcami.
+     */
+    void sendFrame(ByteBuffer frame);
+
+    /**
+     * Kolejkuje zakodowaną ramkę bez blokowania, więc można ją wywołać pod blokadą pokoju.
+     * Gdy kolejka jest przepełniona, część polityki przepełnienia, która czeka lub rozłącza klienta,
+     * zostaje do wykonania przez {@link #awaitCapacity()}.
+     *
+     * @param frame Ramka tylko do odczytu, współdzielona z innymi odbiorcami.
+     * @return True, jeśli nadawca powinien po zwolnieniu blokad wywołać {@link #awaitCapacity()}.
+     */
+    boolean offerFrame(ByteBuffer frame);
+
+    /**
+     * Dokańcza politykę przepełnienia po {@link #offerFrame(ByteBuffer)}: czeka na miejsce w kolejce
+     * albo rozłącza klienta, który nie nadąża. Wywoływana bez blokad pokoju.
+     */
+    void awaitCapacity();
+
+    /**
+     * Rozłącza klienta z komunikatem od administratora.
+     */
+    void disconnect();
+
+    /**
+     * Rozłącza klienta, wysyłając mu na koniec podaną wiadomość.
+     *
+     * @param farewell Wiadomość pożegnalna lub null.
+     * @return True, jeśli to wywołanie rozłączyło klienta, false, jeśli był już rozłączany.
+     */
+    boolean disconnect(String farewell);
+
+    /**
+     * Zamyka połączenie bez wysyłania czegokolwiek, np. po przekroczeniu czasu bezczynności.
+     * Może być wywołana z dowolnego wątku i nie blokuje; zasoby sesji zwalnia potem wątek lub pętla obsługująca połączenie.
+     */
+    void abort();
+
+    /**
+     * Zwraca chwilę ostatniego odebrania danych od klienta.
+     *
+     * @return Czas z {@link System#nanoTime()}.
+     */
+    long getLastRead();
+
+    /**
+     * Sprawdza, czy klient odpowiada na sprawdzenia połączenia: wynegocjował protokół binarny
+     * albo w protokole tekstowym wysłał {@link FrameCodec#HEARTBEAT_LINE}.
+     *
+     * @return True, jeśli sesji można wysyłać sprawdzenia i rozłączać ją po czasie bezczynności.
+     */
+    boolean isHeartbeatEnabled();
+
+    /**
+     * Zwraca wiadro żetonów ograniczające liczbę wiadomości z tego połączenia.
+     *
+     * @return Wiadro żetonów lub null, jeśli limit na połączenie jest wyłączony.
+     */
+    TokenBucket getRateLimiter();
+}
@@ -0,0 +1,521 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Przekazywanie wiadomości między węzłami klastra serwerów czatu.
+ * <p>
+ * Każdy węzeł nasłuchuje połączeń od innych węzłów na porcie klastra i sam łączy się z węzłami
+ * z listy {@code host:port}, ponawiając próby po zerwaniu połączenia. Połączenie działa w obie strony.
+ * Wiadomość wysłana do pokoju (albo do wszystkich) na jednym węźle dostaje identyfikator
+ * {@code węzeł:numer} i jest rozsyłana do wszystkich sąsiadów. Węzeł, który dostał wiadomość,
+ * dostarcza ją swoim klientom i przekazuje dalej pozostałym sąsiadom. Ostatnio widziane identyfikatory
+ * są zapamiętywane, więc w dowolnej topologii, także z cyklami, każda wiadomość trafia do klientów raz.
+ * <p>
+ * Rekord połączenia: po nawiązaniu węzeł łączący się wysyła {@code UTF nazwa węzła} i {@code UTF sekret klastra},
+ * a węzeł przyjmujący odpowiada tym samym dopiero po sprawdzeniu sekretu, więc nie zdradza go obcym.
+ * Połączenie z węzłem, który nie zna wspólnego sekretu, jest zamykane. Potem następują rekordy
+ * {@code byte rodzaj}, {@code UTF identyfikator}, {@code UTF pokój}, {@code int długość} i treść w UTF-8.
+ */
+public class ClusterRelay {
+
+    /**
+     * Rodzaj rekordu: wiadomość do członków pokoju.
+     */
+    protected static final byte ROOM = 1;
+
+    /**
+     * Rodzaj rekordu: wiadomość serwera do wszystkich zalogowanych.
+     */
+    protected static final byte ALL = 2;
+
+    /**
+     * Liczba zapamiętanych identyfikatorów wiadomości do usuwania duplikatów.
+     */
+    protected static final int SEEN_CAPACITY = 65_536;
+
+    /**
+     * Pojemność kolejki rekordów oczekujących na wysłanie do jednego sąsiada.
+     */
+    protected static final int LINK_QUEUE_CAPACITY = 8192;
+
+    /**
+     * Odstęp między próbami połączenia z sąsiadem w milisekundach.
+     */
+    protected static final long RECONNECT_MILLIS = 1000;
+
+    /**
+     * Czas na nawiązanie połączenia z sąsiadem w milisekundach.
+     */
+    protected static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Serwer, którego klientom dostarczane są wiadomości z klastra.
+     */
+    protected final ChatServer server;
+
+    /**
+     * Nazwa tego węzła, początek identyfikatorów jego wiadomości.
+     */
+    protected final String nodeId;
+
+    /**
+     * Wspólny sekret węzłów klastra, wymagany przy nawiązaniu połączenia.
+     */
+    protected final String secret;
+
+    /**
+     * Port, na którym węzeł przyjmuje połączenia od sąsiadów, lub wartość mniejsza od 1.
+     */
+    protected final int port;
+
+    /**
+     * Adresy sąsiadów, z którymi węzeł sam się łączy.
+     */
+    protected final List<InetSocketAddress> peers;
+
+    /**
+     * Numer ostatniej wiadomości wysłanej z tego węzła.
+     */
+    protected final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Ostatnio widziane identyfikatory wiadomości, najstarsze usuwane po przekroczeniu {@link #SEEN_CAPACITY}.
+     * Dostęp synchronizowany na samej mapie.
+     */
+    protected final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>(1024, 0.75f) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    };
+
+    /**
+     * Aktywne połączenia z sąsiadami.
+     */
+    protected final Set<Link> links = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Liczba rekordów odrzuconych z powodu przepełnienia kolejki sąsiada.
+     */
+    protected final AtomicLong droppedRecords = new AtomicLong();
+
+    /**
+     * Gniazdo przyjmujące połączenia od sąsiadów.
+     */
+    protected ServerSocket serverSocket;
+
+    /**
+     * Czy przekazywanie działa.
+     */
+    protected volatile boolean running;
+
+    /**
+     * Tworzy przekaźnik klastra.
+     *
+     * @param server Serwer, którego klientom dostarczane są wiadomości.
+     * @param nodeId Nazwa tego węzła, unikalna w klastrze.
+     * @param secret Wspólny sekret węzłów klastra.
+     * @param port   Port dla połączeń od sąsiadów lub wartość mniejsza od 1, jeśli węzeł tylko sam się łączy.
+     * @param peers  Lista sąsiadów w postaci {@code host:port} oddzielonych przecinkami; może być pusta.
+     */
+    public ClusterRelay(ChatServer server, String nodeId, String secret, int port, String peers) {
+        this.server = server;
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.port = port;
+        this.peers = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (!peer.isEmpty()) {
+                int colon = peer.lastIndexOf(':');
+                this.peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            }
+        }
+    }
+
+    /**
+     * Otwiera port klastra i uruchamia wątki łączące się z sąsiadami.
+     *
+     * @throws IOException Gdy nie można otworzyć portu klastra.
+     */
+    public void start() throws IOException {
+        running = true;
+        if (port > 0) {
+            serverSocket = new ServerSocket(port);
+            startDaemon(this::acceptLoop, "cluster-acceptor");
+        }
+        for (InetSocketAddress peer : peers) {
+            startDaemon(() -> connectLoop(peer), "cluster-dialer-" + peer.getPort());
+        }
+        Log.info("Węzeł klastra " + nodeId + (port > 0 ? " nasłuchuje na porcie " + port : "")
+                + ", sąsiedzi: " + peers.size());
+    }
+
+    /**
+     * Zamyka port klastra i wszystkie połączenia z sąsiadami.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            Log.error("Błąd podczas zamykania portu klastra: " + e.getMessage());
+        }
+        for (Link link : links) {
+            link.close();
+        }
+    }
+
+    /**
+     * Zwraca liczbę aktywnych połączeń z sąsiadami.
+     *
+     * @return Liczba połączeń.
+     */
+    public int getLinkCount() {
+        return links.size();
+    }
+
+    /**
+     * Wysyła do klastra wiadomość nadaną na tym węźle.
+     *
+     * @param room    Pokój, do którego trafiła wiadomość, lub null dla wiadomości do wszystkich.
+     * @param message Treść wiadomości.
+     */
+    public void publish(String room, String message) {
+        if (links.isEmpty()) {
+            return;
+        }
+        String id = nodeId + ":" + sequence.incrementAndGet();
+        markSeen(id);
+        Record record = new Record(room == null ? ALL : ROOM, id, room == null ? "" : room,
+                message.getBytes(StandardCharsets.UTF_8));
+        for (Link link : links) {
+            link.send(record);
+        }
+    }
+
+    /**
+     * Zapamiętuje identyfikator wiadomości.
+     *
+     * @param id Identyfikator wiadomości.
+     * @return True, jeśli identyfikator nie był jeszcze widziany.
+     */
+    protected boolean markSeen(String id) {
+        synchronized (seen) {
+            return seen.put(id, Boolean.TRUE) == null;
+        }
+    }
+
+    /**
+     * Obsługuje rekord od sąsiada: pomija duplikat, a nową wiadomość dostarcza klientom
+     * i przekazuje pozostałym sąsiadom.
+     *
+     * @param record Odebrany rekord.
+     * @param source Połączenie, z którego przyszedł rekord.
+     */
+    protected void onRecord(Record record, Link source) {
+        if (!markSeen(record.id)) {
+            return;
+        }
+        for (Link link : links) {
+            if (link != source) {
+                link.send(record);
+            }
+        }
+        String message = new String(record.payload, StandardCharsets.UTF_8);
+        server.deliverRelayed(record.kind == ALL ? null : record.room, message);
+    }
+
+    /**
+     * Przyjmuje połączenia od sąsiadów.
+     */
+    protected void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                startDaemon(() -> runLink(socket, true), "cluster-link-" + socket.getPort());
+            } catch (IOException e) {
+                if (running) {
+                    Log.error("Błąd portu klastra: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Utrzymuje połączenie z jednym sąsiadem, łącząc się ponownie po jego zerwaniu.
+     *
+     * @param peer Adres sąsiada.
+     */
+    protected void connectLoop(InetSocketAddress peer) {
+        while (running) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(peer.getHostString(), peer.getPort()), CONNECT_TIMEOUT_MILLIS);
+                runLink(socket, false);
+            } catch (IOException e) {
+                Log.debug("Nie można połączyć się z węzłem " + peer + ": " + e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Gniazdo i tak nie jest połączone
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wymienia nazwy węzłów i sekret klastra, a potem czyta rekordy od sąsiada do zamknięcia połączenia.
+     *
+     * @param socket   Połączone gniazdo.
+     * @param accepted True, jeśli połączenie przyjął ten węzeł, a nie sam je nawiązał.
+     */
+    protected void runLink(Socket socket, boolean accepted) {
+        Link link = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 8192));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+            if (!accepted) {
+                writeHello(out);
+            }
+            // Węzeł, który nie przedstawi się w porę, nie zajmuje wątku bez końca
+            socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            String peerId = in.readUTF();
+            String peerSecret = in.readUTF();
+            socket.setSoTimeout(0);
+            if (!MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), peerSecret.getBytes(StandardCharsets.UTF_8))) {
+                Log.warn("Odrzucono połączenie klastra z " + socket.getRemoteSocketAddress() + ": nieprawidłowy sekret.");
+                socket.close();
+                return;
+            }
+            if (accepted) {
+                writeHello(out);
+            }
+            if (peerId.equals(nodeId)) {
+                Log.warn("Pominięto połączenie klastra z samym sobą.");
+                socket.close();
+                return;
+            }
+            link = new Link(socket, out, peerId);
+            links.add(link);
+            link.writerThread.start();
+            Log.info("Połączono z węzłem klastra " + peerId + " (" + socket.getRemoteSocketAddress() + ")");
+            while (running) {
+                byte kind = in.readByte();
+                String id = in.readUTF();
+                String room = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > FrameCodec.MAX_PAYLOAD) {
+                    throw new IOException("Niepoprawna długość wiadomości klastra: " + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                onRecord(new Record(kind, id, room, payload), link);
+            }
+        } catch (EOFException e) {
+            // Sąsiad zamknął połączenie
+        } catch (IOException e) {
+            if (running) {
+                Log.warn("Zerwane połączenie klastra z " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            }
+        } finally {
+            if (link != null) {
+                link.close();
+                Log.info("Rozłączono z węzłem klastra " + link.peerId);
+            } else {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Połączenie i tak jest porzucane
+                }
+            }
+        }
+    }
+
+    /**
+     * Przedstawia ten węzeł sąsiadowi nazwą i sekretem klastra.
+     *
+     * @param out Strumień wyjściowy gniazda.
+     * @throws IOException Gdy zapis się nie powiedzie.
+     */
+    protected void writeHello(DataOutputStream out) throws IOException {
+        out.writeUTF(nodeId);
+        out.writeUTF(secret);
+        out.flush();
+    }
+
+    /**
+     * Uruchamia zadanie w wątku demona.
+     *
+     * @param task Zadanie do uruchomienia.
+     * @param name Nazwa wątku.
+     */
+    protected static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Wiadomość przekazywana między węzłami.
+     */
+    protected static final class Record {
+
+        /**
+         * Rodzaj rekordu: {@link #ROOM} albo {@link #ALL}.
+         */
+        final byte kind;
+
+        /**
+         * Identyfikator wiadomości w klastrze.
+         */
+        final String id;
+
+        /**
+         * Pokój docelowy lub pusty napis dla wiadomości do wszystkich.
+         */
+        final String room;
+
+        /**
+         * Treść w UTF-8.
+         */
+        final byte[] payload;
+
+        /**
+         * Tworzy rekord.
+         *
+         * @param kind    Rodzaj rekordu.
+         * @param id      Identyfikator wiadomości.
+         * @param room    Pokój docelowy lub pusty napis.
+         * @param payload Treść w UTF-8.
+         */
+        Record(byte kind, String id, String room, byte[] payload) {
+            this.kind = kind;
+            this.id = id;
+            this.room = room;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Połączenie z jednym sąsiadem. Rekordy trafiają do ograniczonej kolejki opróżnianej przez
+     * osobny wątek, więc wolny sąsiad nie blokuje rozsyłania wiadomości na tym węźle.
+     */
+    protected class Link {
+
+        /**
+         * Gniazdo połączenia.
+         */
+        protected final Socket socket;
+
+        /**
+         * Strumień wyjściowy, używany tylko przez wątek zapisujący.
+         */
+        protected final DataOutputStream out;
+
+        /**
+         * Nazwa węzła po drugiej stronie.
+         */
+        protected final String peerId;
+
+        /**
+         * Rekordy oczekujące na wysłanie.
+         */
+        protected final BlockingQueue<Record> outbound = new ArrayBlockingQueue<>(LINK_QUEUE_CAPACITY);
+
+        /**
+         * Wątek zapisujący, tworzony razem z połączeniem, aby {@link #close()} mógł go przerwać
+         * niezależnie od tego, czy wątek zdążył już wystartować.
+         */
+        protected final Thread writerThread;
+
+        /**
+         * Tworzy połączenie po wymianie nazw węzłów.
+         *
+         * @param socket Gniazdo połączenia.
+         * @param out    Strumień wyjściowy gniazda.
+         * @param peerId Nazwa węzła po drugiej stronie.
+         */
+        protected Link(Socket socket, DataOutputStream out, String peerId) {
+            this.socket = socket;
+            this.out = out;
+            this.peerId = peerId;
+            writerThread = new Thread(this::drain, "cluster-writer-" + socket.getPort());
+            writerThread.setDaemon(true);
+        }
+
+        /**
+         * Kolejkuje rekord do wysłania; przy pełnej kolejce rekord jest odrzucany.
+         *
+         * @param record Rekord do wysłania.
+         */
+        protected void send(Record record) {
+            if (!outbound.offer(record) && droppedRecords.incrementAndGet() % 1000 == 1) {
+                Log.warn("Węzeł " + peerId + " nie nadąża z odbieraniem wiadomości klastra.");
+            }
+        }
+
+        /**
+         * Wysyła zakolejkowane rekordy partiami z jednym flush na partię.
+         * Kończy się od razu, jeśli połączenie zamknięto, zanim wątek wystartował.
+         */
+        protected void drain() {
+            try {
+                while (!socket.isClosed()) {
+                    Record record = outbound.take();
+                    do {
+                        out.writeByte(record.kind);
+                        out.writeUTF(record.id);
+                        out.writeUTF(record.room);
+                        out.writeInt(record.payload.length);
+                        out.write(record.payload);
+                    } while ((record = outbound.poll()) != null);
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                // Wątek zapisujący jest przerywany przy zamykaniu połączenia
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Zamyka połączenie i usuwa je z listy sąsiadów.
+         */
+        protected void close() {
+            links.remove(this);
+            writerThread.interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Błąd podczas zamykania połączenia klastra: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Indeks danych logowania wczytany z pliku w formacie {@code user:hash}.
+ * Plik jest parsowany tylko wtedy, gdy zmieni się jego czas modyfikacji, rozmiar lub identyfikator
+ * ({@link BasicFileAttributes#fileKey()}, zmieniany przez podmianę pliku), a samo sprawdzenie danych to wyszukanie
+ * w mapie w pamięci. Zmiana w tym samym takcie zegara systemu plików co poprzednia może nie zmienić żadnego atrybutu,
+ * dlatego plik zmodyfikowany tuż przed wczytaniem jest jeszcze raz porównywany po skrócie treści, gdy ten czas minie.
+ */
+public class CredentialIndex {
+
+    /**
+     * Czas od modyfikacji pliku w milisekundach, po którym same atrybuty wystarczają do wykrycia kolejnej zmiany.
+     * Pokrywa dokładność znaczników czasu popularnych systemów plików.
+     */
+    protected static final long RACY_WINDOW_MILLIS = 2000;
+
+    /**
+     * Ścieżka do pliku z danymi użytkowników.
+     */
+    protected final Path file;
+
+    /**
+     * Aktualny indeks nazwa użytkownika → hash hasła. Podmieniany w całości przy przeładowaniu.
+     */
+    protected volatile Map<String, String> index = Collections.emptyMap();
+
+    /**
+     * Czas modyfikacji pliku w chwili ostatniego wczytania.
+     */
+    protected volatile FileTime loadedModifiedTime;
+
+    /**
+     * Rozmiar pliku w chwili ostatniego wczytania.
+     */
+    protected volatile long loadedSize = -1;
+
+    /**
+     * Identyfikator pliku (urządzenie i i-węzeł) w chwili ostatniego wczytania; zmienia się po podmianie pliku.
+     */
+    protected volatile Object loadedFileKey;
+
+    /**
+     * Skrót SHA-256 treści pliku z ostatniego wczytania.
+     */
+    protected volatile byte[] loadedDigest;
+
+    /**
+     * Chwila w milisekundach, od której plik wczytany tuż po modyfikacji trzeba raz sprawdzić ponownie po skrócie treści,
+     * albo 0, jeśli same atrybuty wystarczą. Do tej chwili kolejne logowania nie czytają pliku.
+     */
+    protected volatile long recheckAtMillis;
+
+    /**
+     * Czy któryś wątek właśnie sprawdza plik. Pozostałe korzystają wtedy z bieżącego indeksu,
+     * zamiast równocześnie odczytywać atrybuty tego samego pliku.
+     */
+    protected final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Tworzy indeks dla podanego pliku. Plik zostanie wczytany przy pierwszym sprawdzeniu.
+     *
+     * @param file Ścieżka do pliku z danymi użytkowników.
+     */
+    public CredentialIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Sprawdza, czy podany hash hasła odpowiada użytkownikowi.
+     *
+     * @param username       Nazwa użytkownika.
+     * @param hashedPassword Zhashowane hasło użytkownika.
+     * @return True, jeśli dane logowania są poprawne, w przeciwnym razie false.
+     */
+    public boolean verify(String username, String hashedPassword) {
+        if (refreshing.compareAndSet(false, true)) {
+            try {
+                refreshIfChanged();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        String expected = index.get(username);
+        return expected != null && expected.equals(hashedPassword);
+    }
+
+    /**
+     * Sprawdza, czy użytkownik istnieje w indeksie.
+     *
+     * @param username Nazwa użytkownika.
+     * @return True, jeśli użytkownik ma konto.
+     */
+    public boolean contains(String username) {
+        return index.containsKey(username);
+    }
+
+    /**
+     * Zwraca liczbę użytkowników w indeksie.
+     *
+     * @return Liczba wczytanych użytkowników.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Wczytuje plik ponownie, jeśli zmienił się od ostatniego wczytania.
+     * Sprawdzenie kosztuje jedno odczytanie atrybutów pliku, bez jego otwierania; plik jest czytany
+     * także wtedy, gdy atrybuty się nie zmieniły, ale ostatnie wczytanie przypadło tuż po jego modyfikacji,
+     * raz po upływie {@link #RACY_WINDOW_MILLIS} od tej modyfikacji.
+     */
+    public void refreshIfChanged() {
+        try {
+            FileState state = readState();
+            if (state.matchesLoaded() && !recheckDue()) {
+                return;
+            }
+            reload(state);
+        } catch (NoSuchFileException e) {
+            if (loadedSize != -1) {
+                index = Collections.emptyMap();
+                loadedModifiedTime = null;
+                loadedSize = -1;
+                loadedFileKey = null;
+                loadedDigest = null;
+                recheckAtMillis = 0;
+            }
+        } catch (IOException e) {
+            Log.error("Błąd podczas odczytu danych użytkownika: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Odczytuje atrybuty pliku jednym wywołaniem.
+     *
+     * @return Stan pliku.
+     * @throws IOException Gdy nie można odczytać atrybutów.
+     */
+    protected FileState readState() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new FileState(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+    }
+
+    /**
+     * Parsuje cały plik do nowej mapy i atomowo podmienia indeks.
+     * Gdy treść ma ten sam skrót co poprzednio wczytana, indeks zostaje bez zmian.
+     *
+     * @param state Stan pliku odczytany przed parsowaniem.
+     * @throws IOException Gdy nie można odczytać pliku.
+     */
+    protected synchronized void reload(FileState state) throws IOException {
+        if (state.matchesLoaded() && !recheckDue()) {
+            return;
+        }
+        MessageDigest digest = newDigest();
+        Map<String, String> loaded = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new DigestInputStream(Files.newInputStream(file), digest), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] userData = line.split(":");
+                if (userData.length == 2) {
+                    loaded.put(userData[0], userData[1]);
+                }
+            }
+        }
+        byte[] contentDigest = digest.digest();
+        boolean changed = !Arrays.equals(contentDigest, loadedDigest);
+        if (changed) {
+            index = loaded;
+            loadedDigest = contentDigest;
+        }
+        loadedModifiedTime = state.modifiedTime;
+        loadedSize = state.size;
+        loadedFileKey = state.fileKey;
+        // Czas modyfikacji z przyszłości nie oznacza niedawnej zmiany; plik został właśnie wczytany, więc nie wymaga ponownego sprawdzenia
+        long modifiedMillis = state.modifiedTime.to(TimeUnit.MILLISECONDS);
+        long age = System.currentTimeMillis() - modifiedMillis;
+        recheckAtMillis = age >= 0 && age < RACY_WINDOW_MILLIS ? modifiedMillis + RACY_WINDOW_MILLIS : 0;
+        if (changed) {
+            Log.info("Wczytano dane " + loaded.size() + " użytkowników z " + file);
+        }
+    }
+
+    /**
+     * Sprawdza, czy minął czas, po którym plik wczytany tuż po modyfikacji trzeba porównać po skrócie treści.
+     *
+     * @return True, jeśli należy ponownie wczytać plik mimo niezmienionych atrybutów.
+     */
+    protected boolean recheckDue() {
+        long recheckAt = recheckAtMillis;
+        return recheckAt != 0 && System.currentTimeMillis() >= recheckAt;
+    }
+
+    /**
+     * Tworzy obiekt liczący skrót treści pliku.
+     *
+     * @return Skrót SHA-256.
+     */
+    protected static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Brak algorytmu SHA-256", e);
+        }
+    }
+
+    /**
+     * Atrybuty pliku używane do wykrywania zmian.
+     */
+    protected final class FileState {
+
+        /**
+         * Czas modyfikacji.
+         */
+        final FileTime modifiedTime;
+
+        /**
+         * Rozmiar w bajtach.
+         */
+        final long size;
+
+        /**
+         * Identyfikator pliku lub null.
+         */
+        final Object fileKey;
+
+        /**
+         * Tworzy stan pliku.
+         *
+         * @param modifiedTime Czas modyfikacji.
+         * @param size         Rozmiar w bajtach.
+         * @param fileKey      Identyfikator pliku lub null.
+         */
+        FileState(FileTime modifiedTime, long size, Object fileKey) {
+            this.modifiedTime = modifiedTime;
+            this.size = size;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Sprawdza, czy plik ma te same atrybuty co przy ostatnim wczytaniu.
+         *
+         * @return True, jeśli żaden atrybut się nie zmienił.
+         */
+        boolean matchesLoaded() {
+            return modifiedTime.equals(loadedModifiedTime) && size == loadedSize
+                    && Objects.equals(fileKey, loadedFileKey);
+        }
+    }
+}
@@ -0,0 +1,615 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binarny protokół ramek, negocjowany obok tekstowego protokołu linii.
+ * <p>
+ * Klient, który chce używać ramek, wysyła jako pierwszą linię {@link #NEGOTIATION}. Serwer odsyła tę samą linię
+ * i od tej chwili obie strony wymieniają wyłącznie ramki: {@code int długość} (big-endian, liczona od kodu operacji),
+ * {@code byte kod operacji} i treść w UTF-8. Treść może zawierać znaki nowej linii.
+ * Stary serwer potraktuje linię negocjacji jak błędne dane logowania, więc klient może wtedy wrócić do protokołu tekstowego.
+ * <p>
+ * Każda ramka wychodząca jest kodowana raz, w układzie {@code [nagłówek][treść]['\n']}.
+ * Domyślny widok bufora zaczyna się za nagłówkiem, więc jest zwykłą linią tekstową;
+ * {@link #binaryView(ByteBuffer)} zwraca widok tego samego bufora bez kopiowania, z nagłówkiem i bez końca linii.
+ * <p>
+ * Klient może też poprosić o kompresję, wysyłając {@link #NEGOTIATION_DEFLATE}; serwer odsyła wtedy tę linię,
+ * jeśli kompresję obsługuje, albo {@link #NEGOTIATION}, jeśli nie. Długie wiadomości są kompresowane raz,
+ * przy kodowaniu, algorytmem deflate ze wspólnym słownikiem {@link #DICTIONARY}, a ramka {@link #COMPRESSED}
+ * jest dopisywana za linią w tym samym buforze ({@code [nagłówek][treść]['\n'][nagłówek][treść skompresowana]}),
+ * więc wszyscy odbiorcy z kompresją dostają widok tych samych bajtów.
+ * <p>
+ * Wiadomość zapisana w dzienniku ma identyfikator, wysyłany klientom binarnym w ramce {@link #MESSAGE_ID}
+ * tuż przed ramką wiadomości. Ramka identyfikatora stoi w buforze przed każdym z nagłówków
+ * ({@code [id][nagłówek][treść]['\n'][id][nagłówek][treść skompresowana]}), więc widoki nadal nie wymagają kopiowania.
+ */
+public final class FrameCodec {
+
+    /**
+     * Linia negocjacji protokołu binarnego.
+     */
+    public static final String NEGOTIATION = "PROTO binary";
+
+    /**
+     * Linia negocjacji protokołu binarnego z kompresją długich wiadomości.
+     */
+    public static final String NEGOTIATION_DEFLATE = NEGOTIATION + " deflate";
+
+    /**
+     * Najmniejsza długość treści w bajtach, od której wiadomość jest kompresowana; wartość mniejsza od 1 wyłącza kompresję.
+     */
+    public static final int COMPRESS_MIN_BYTES = Integer.getInteger("chat.compress.minBytes", 256);
+
+    /**
+     * Słownik wstępny deflate, wspólny dla serwera i klienta. Zawiera częste fragmenty wiadomości,
+     * dzięki czemu kompresja działa także na wiadomościach kompresowanych osobno. Najczęstsze fragmenty są na końcu.
+     */
+    public static final byte[] DICTIONARY = ("https://www. http:// .com/ .pl/ ponieważ właśnie dzięki dziękuję proszę "
+            + "bardzo wszystko wszyscy które który która przez tylko jeszcze kiedy teraz dobrze wiadomość "
+            + "może było będzie jestem jesteś mamy macie dla już tak ale jak czy też tego tym się nie jest że "
+            + "to na do w i z o a co (prywatnie): Pan Admin: ").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Rozmiar nagłówka ramki: długość i kod operacji.
+     */
+    public static final int HEADER_SIZE = 5;
+
+    /**
+     * Maksymalna długość treści ramki i pierwszej linii w bajtach.
+     */
+    public static final int MAX_PAYLOAD = 64 * 1024;
+
+    /**
+     * Zapas w ramce na stałą część prefiksu, który serwer dopisuje do wiadomości klienta przy rozsyłaniu
+     * ({@code ": "} albo {@code " (prywatnie): "}), poza samą nazwą nadawcy.
+     */
+    public static final int SENDER_PREFIX_RESERVE = 32;
+
+    /**
+     * Logowanie, treść {@code user:hash} (klient → serwer).
+     */
+    public static final byte LOGIN = 1;
+
+    /**
+     * Logowanie udane (serwer → klient).
+     */
+    public static final byte LOGIN_OK = 2;
+
+    /**
+     * Logowanie odrzucone, treść to powód (serwer → klient).
+     */
+    public static final byte LOGIN_FAILED = 3;
+
+    /**
+     * Wiadomość czatu lub komenda w obie strony.
+     */
+    public static final byte MESSAGE = 4;
+
+    /**
+     * Zarezerwowane na potwierdzenia odbioru; obecnie ignorowane przez serwer.
+     */
+    public static final byte ACK = 5;
+
+    /**
+     * Zarezerwowane na paczki wielu ramek w jednej; obecnie ignorowane przez serwer.
+     */
+    public static final byte BATCH = 6;
+
+    /**
+     * Wiadomość czatu skompresowana deflate ze słownikiem {@link #DICTIONARY} (serwer → klient);
+     * wysyłana tylko klientom, które wynegocjowały {@link #NEGOTIATION_DEFLATE}.
+     */
+    public static final byte COMPRESSED = 7;
+
+    /**
+     * Identyfikator wiadomości z dziennika (serwer → klient), 8 bajtów; poprzedza ramkę wiadomości, której dotyczy.
+     * Klient zapamiętuje ostatni odebrany identyfikator i podaje go przy wznowieniu połączenia.
+     */
+    public static final byte MESSAGE_ID = 8;
+
+    /**
+     * Rozmiar ramki {@link #MESSAGE_ID} z nagłówkiem.
+     */
+    public static final int ID_FRAME_SIZE = HEADER_SIZE + 8;
+
+    /**
+     * Sprawdzenie, czy klient nadal odpowiada (serwer → klient). Klient odsyła {@link #PONG}.
+     * W protokole tekstowym ta sama ramka jest linią {@link #PING_LINE}, wysyłaną tylko klientom,
+     * które zgłosiły obsługę sprawdzeń linią {@link #HEARTBEAT_LINE}.
+     */
+    public static final byte PING = 9;
+
+    /**
+     * Odpowiedź na {@link #PING} (klient → serwer). W protokole tekstowym klient odsyła linię {@link #PONG_LINE}.
+     */
+    public static final byte PONG = 10;
+
+    /**
+     * Linia sprawdzenia połączenia w protokole tekstowym.
+     */
+    public static final String PING_LINE = "/ping";
+
+    /**
+     * Linia odpowiedzi na sprawdzenie połączenia w protokole tekstowym.
+     */
+    public static final String PONG_LINE = "/pong";
+
+    /**
+     * Linia, którą klient protokołu tekstowego po zalogowaniu zgłasza, że odpowiada na {@link #PING_LINE}.
+     * Starsi klienci tekstowi jej nie wysyłają, więc nie dostają sprawdzeń i nie są rozłączani za milczenie.
+     */
+    public static final String HEARTBEAT_LINE = "/heartbeat";
+
+    /**
+     * Znak oddzielający w danych logowania ({@code user:hash@id} lub {@code user:hash@id@pokój}) identyfikator ostatniej
+     * odebranej wiadomości, od której serwer ma wznowić historię, oraz pokój, do którego klient wraca.
+     */
+    public static final char RESUME_MARK = '@';
+
+    /**
+     * Najwięcej kompresorów, dekompresorów i buforów pomocniczych każdego rodzaju czekających na ponowne użycie.
+     * Nadmiarowe są zwalniane od razu po użyciu, więc pamięć zlib nie rośnie z liczbą wątków.
+     */
+    public static final int CODEC_POOL_SIZE = Integer.getInteger("chat.compress.poolSize", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Kompresory gotowe do ponownego użycia.
+     */
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(Math.max(1, CODEC_POOL_SIZE));
+
+    /**
+     * Dekompresory gotowe do ponownego użycia.
+     */
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(Math.max(1, CODEC_POOL_SIZE));
+
+    /**
+     * Bufory pomocnicze kompresji i dekompresji gotowe do ponownego użycia.
+     */
+    private static final BlockingQueue<byte[]> SCRATCH = new ArrayBlockingQueue<>(Math.max(1, CODEC_POOL_SIZE));
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Koduje wiadomość jako ramkę, której domyślny widok jest linią tekstową.
+     *
+     * @param opcode  Kod operacji używany w protokole binarnym.
+     * @param message Treść wiadomości.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    public static ByteBuffer encode(byte opcode, String message) {
+        return encode(opcode, message.getBytes(StandardCharsets.UTF_8), 0, -1);
+    }
+
+    /**
+     * Koduje treść w UTF-8 jako ramkę, której domyślny widok jest linią tekstową.
+     *
+     * @param opcode  Kod operacji używany w protokole binarnym.
+     * @param payload Bajty treści.
+     * @param offset  Początek treści w tablicy.
+     * @param length  Długość treści lub -1, aby użyć całej tablicy od {@code offset}.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    public static ByteBuffer encode(byte opcode, byte[] payload, int offset, int length) {
+        if (length < 0) {
+            length = payload.length - offset;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length + 1);
+        buffer.putInt(length + 1).put(opcode).put(payload, offset, length).put((byte) '\n');
+        buffer.position(HEADER_SIZE);
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Koduje wiadomość czatu jak {@link #encode(byte, String)}, a jeśli jest dłuższa niż {@link #COMPRESS_MIN_BYTES}
+     * i kompresja ją skraca, dopisuje za linią jej skompresowaną ramkę.
+     *
+     * @param message Treść wiadomości.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    public static ByteBuffer encodeMessage(String message) {
+        return encodeMessage(message, 0);
+    }
+
+    /**
+     * Koduje wiadomość czatu jak {@link #encodeMessage(String)}, poprzedzając ramki binarne ramką {@link #MESSAGE_ID}.
+     *
+     * @param message Treść wiadomości.
+     * @param id      Identyfikator wiadomości z dziennika lub 0, jeśli wiadomość go nie ma.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    public static ByteBuffer encodeMessage(String message, long id) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        return encodeMessage(payload, 0, payload.length, id);
+    }
+
+    /**
+     * Koduje treść wiadomości czatu w UTF-8 jak {@link #encode(byte, byte[], int, int)},
+     * dopisując skompresowaną ramkę, jeśli się opłaca.
+     *
+     * @param payload Bajty treści.
+     * @param offset  Początek treści w tablicy.
+     * @param length  Długość treści.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    public static ByteBuffer encodeMessage(byte[] payload, int offset, int length) {
+        return encodeMessage(payload, offset, length, 0);
+    }
+
+    /**
+     * Koduje treść wiadomości czatu jak {@link #encodeMessage(byte[], int, int)}. Jeśli wiadomość ma identyfikator,
+     * przed ramką wiadomości i przed ramką skompresowaną jest miejsce na ramkę {@link #MESSAGE_ID},
+     * więc oba widoki binarne zawierają identyfikator bez kopiowania bajtów.
+     *
+     * @param payload Bajty treści.
+     * @param offset  Początek treści w tablicy.
+     * @param length  Długość treści.
+     * @param id      Identyfikator wiadomości z dziennika lub 0, jeśli wiadomość go nie ma.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    public static ByteBuffer encodeMessage(byte[] payload, int offset, int length, long id) {
+        byte[] scratch = null;
+        try {
+            int compressedLength = 0;
+            if (COMPRESS_MIN_BYTES > 0 && length >= COMPRESS_MIN_BYTES && length <= MAX_PAYLOAD) {
+                scratch = takeScratch();
+                Deflater deflater = takeDeflater();
+                try {
+                    deflater.setDictionary(DICTIONARY);
+                    deflater.setInput(payload, offset, length);
+                    deflater.finish();
+                    // Bufor ma długość treści, więc wynik, który się w nim nie zmieści, i tak nie byłby krótszy
+                    compressedLength = deflater.deflate(scratch, 0, length);
+                    if (!deflater.finished() || compressedLength + HEADER_SIZE >= length) {
+                        compressedLength = -1;
+                    }
+                } finally {
+                    release(deflater);
+                }
+            }
+            return encodeMessage(payload, offset, length, id, compressedLength > 0 ? scratch : null, compressedLength);
+        } finally {
+            if (scratch != null) {
+                SCRATCH.offer(scratch);
+            }
+        }
+    }
+
+    /**
+     * Składa ramkę wiadomości z identyfikatorem i opcjonalną ramką skompresowaną.
+     *
+     * @param payload          Bajty treści.
+     * @param offset           Początek treści w tablicy.
+     * @param length           Długość treści.
+     * @param id               Identyfikator wiadomości z dziennika lub 0, jeśli wiadomość go nie ma.
+     * @param compressed       Skompresowana treść lub null, jeśli wiadomość nie jest kompresowana.
+     * @param compressedLength Liczba bajtów skompresowanej treści.
+     * @return Bufor tylko do odczytu ustawiony na linię tekstową.
+     */
+    private static ByteBuffer encodeMessage(byte[] payload, int offset, int length, long id, byte[] compressed, int compressedLength) {
+        if (compressed == null && id <= 0) {
+            return encode(MESSAGE, payload, offset, length);
+        }
+        int prefix = id > 0 ? ID_FRAME_SIZE : 0;
+        int size = prefix + HEADER_SIZE + length + 1 + (compressed != null ? prefix + HEADER_SIZE + compressedLength : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        if (id > 0) {
+            buffer.putInt(9).put(MESSAGE_ID).putLong(id);
+        }
+        buffer.putInt(length + 1).put(MESSAGE).put(payload, offset, length).put((byte) '\n');
+        if (compressed != null) {
+            if (id > 0) {
+                buffer.putInt(9).put(MESSAGE_ID).putLong(id);
+            }
+            buffer.putInt(compressedLength + 1).put(COMPRESSED).put(compressed, 0, compressedLength);
+        }
+        buffer.position(prefix + HEADER_SIZE).limit(prefix + HEADER_SIZE + length + 1);
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Zwraca widok skompresowanej ramki dopisanej przez {@link #encodeMessage(String)}, bez kopiowania bajtów.
+     *
+     * @param frame Ramka w widoku tekstowym.
+     * @return Nowy widok skompresowanej ramki lub null, jeśli wiadomość nie została skompresowana.
+     */
+    public static ByteBuffer compressedView(ByteBuffer frame) {
+        if (frame.limit() == frame.capacity()) {
+            return null;
+        }
+        ByteBuffer view = frame.duplicate();
+        view.limit(frame.capacity());
+        view.position(frame.limit());
+        return view;
+    }
+
+    /**
+     * Zwraca widok ramki w formacie wynegocjowanym przez klienta.
+     *
+     * @param frame   Ramka w widoku tekstowym.
+     * @param binary  Czy klient używa protokołu binarnego.
+     * @param deflate Czy klient przyjmuje ramki {@link #COMPRESSED}.
+     * @return Nowy widok współdzielonego bufora.
+     */
+    public static ByteBuffer view(ByteBuffer frame, boolean binary, boolean deflate) {
+        if (!binary) {
+            return frame.duplicate();
+        }
+        ByteBuffer compressed = deflate ? compressedView(frame) : null;
+        return compressed != null ? compressed : binaryView(frame);
+    }
+
+    /**
+     * Dekompresuje treść ramki {@link #COMPRESSED}.
+     *
+     * @param compressed Bajty skompresowanej treści.
+     * @param length     Liczba bajtów skompresowanej treści.
+     * @return Treść wiadomości.
+     * @throws IOException Gdy dane są uszkodzone lub po dekompresji przekraczają {@link #MAX_PAYLOAD}.
+     */
+    public static String inflate(byte[] compressed, int length) throws IOException {
+        byte[] output = takeScratch();
+        Inflater inflater = takeInflater();
+        // Surowy deflate nie zapisuje identyfikatora słownika, więc słownik ustawia się przed dekompresją
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(compressed, 0, length);
+        try {
+            int total = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(output, total, output.length - total);
+                if (count == 0) {
+                    if (total == output.length) {
+                        throw new IOException("Zbyt długa wiadomość po dekompresji");
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Niekompletna skompresowana wiadomość");
+                    }
+                }
+                total += count;
+            }
+            return new String(output, 0, total, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IOException("Uszkodzona skompresowana wiadomość: " + e.getMessage());
+        } finally {
+            release(inflater);
+            SCRATCH.offer(output);
+        }
+    }
+
+    /**
+     * Pobiera kompresor z puli albo tworzy nowy, gdy pula jest pusta.
+     *
+     * @return Kompresor surowego deflate gotowy do użycia.
+     */
+    private static Deflater takeDeflater() {
+        Deflater deflater = DEFLATERS.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    /**
+     * Oddaje kompresor do puli albo zwalnia jego pamięć natywną, gdy pula jest pełna.
+     *
+     * @param deflater Kompresor pobrany przez {@link #takeDeflater()}.
+     */
+    private static void release(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Pobiera dekompresor z puli albo tworzy nowy, gdy pula jest pusta.
+     *
+     * @return Dekompresor surowego deflate gotowy do użycia.
+     */
+    private static Inflater takeInflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    /**
+     * Oddaje dekompresor do puli albo zwalnia jego pamięć natywną, gdy pula jest pełna.
+     *
+     * @param inflater Dekompresor pobrany przez {@link #takeInflater()}.
+     */
+    private static void release(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Pobiera bufor pomocniczy z puli albo tworzy nowy, gdy pula jest pusta.
+     *
+     * @return Bufor o długości {@link #MAX_PAYLOAD}.
+     */
+    private static byte[] takeScratch() {
+        byte[] scratch = SCRATCH.poll();
+        return scratch != null ? scratch : new byte[MAX_PAYLOAD];
+    }
+
+    /**
+     * Zwraca binarny widok ramki utworzonej przez {@link #encode(byte, String)}, bez kopiowania bajtów.
+     * Jeśli przed nagłówkiem jest ramka {@link #MESSAGE_ID}, widok obejmuje także ją.
+     *
+     * @param frame Ramka w widoku tekstowym.
+     * @return Nowy widok obejmujący nagłówek i treść bez końca linii.
+     */
+    public static ByteBuffer binaryView(ByteBuffer frame) {
+        ByteBuffer view = frame.duplicate();
+        view.limit(frame.limit() - 1);
+        view.position(frame.position() > HEADER_SIZE ? frame.position() - HEADER_SIZE - ID_FRAME_SIZE : frame.position() - HEADER_SIZE);
+        return view;
+    }
+
+    /**
+     * Zwraca odpowiedź serwera na pierwszą linię połączenia, jeśli jest ona linią negocjacji.
+     *
+     * @param line Pierwsza linia od klienta.
+     * @return {@link #NEGOTIATION_DEFLATE}, gdy klient prosi o kompresję, a serwer ją obsługuje,
+     * {@link #NEGOTIATION} dla samego protokołu binarnego albo null, jeśli linia nie jest negocjacją.
+     */
+    public static String negotiationReply(String line) {
+        if (NEGOTIATION_DEFLATE.equals(line)) {
+            return COMPRESS_MIN_BYTES > 0 ? NEGOTIATION_DEFLATE : NEGOTIATION;
+        }
+        return NEGOTIATION.equals(line) ? NEGOTIATION : null;
+    }
+
+    /**
+     * Sprawdza, czy długość z nagłówka ramki mieści się w dozwolonym zakresie.
+     *
+     * @param length Długość odczytana z nagłówka.
+     * @return True, jeśli długość jest poprawna.
+     */
+    public static boolean isValidLength(int length) {
+        return length >= 1 && length <= MAX_PAYLOAD + 1;
+    }
+
+    /**
+     * Sprawdza, czy wiadomość od klienta po dopisaniu prefiksu nadawcy zmieści się w ramce o treści
+     * najwyżej {@link #MAX_PAYLOAD}. Dłuższej wiadomości nie wolno rozesłać, bo każdy klient binarny
+     * odrzuciłby ramkę jako uszkodzoną i się rozłączył.
+     *
+     * @param sender Nazwa nadawcy.
+     * @param line   Treść od klienta.
+     * @return True, jeśli wiadomość można rozesłać.
+     */
+    public static boolean fitsMessage(String sender, String line) {
+        return utf8Length(sender) + SENDER_PREFIX_RESERVE + utf8Length(line) <= MAX_PAYLOAD;
+    }
+
+    /**
+     * Liczy długość tekstu w UTF-8 bez kodowania go.
+     *
+     * @param text Tekst.
+     * @return Liczba bajtów w UTF-8.
+     */
+    static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Zapisuje ramkę do strumienia.
+     *
+     * @param out     Strumień wyjściowy.
+     * @param opcode  Kod operacji.
+     * @param message Treść wiadomości.
+     * @throws IOException Gdy zapis się nie powiedzie.
+     */
+    public static void write(DataOutputStream out, byte opcode, String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(payload.length + 1);
+        out.writeByte(opcode);
+        out.write(payload);
+    }
+
+    /**
+     * Odczytuje jedną ramkę ze strumienia do podanego bufora.
+     * Ramka {@link #COMPRESSED} jest dekompresowana i zwracana jako {@link #MESSAGE},
+     * a identyfikator z ramki {@link #MESSAGE_ID} jest zwracany jako liczba dziesiętna.
+     *
+     * @param in     Strumień wejściowy.
+     * @param buffer Bufor na treść, co najmniej {@link #MAX_PAYLOAD} bajtów.
+     * @return Odebrana ramka lub null na końcu strumienia.
+     * @throws IOException Gdy odczyt się nie powiedzie lub długość ramki jest niepoprawna.
+     */
+    public static Frame read(DataInputStream in, byte[] buffer) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (!isValidLength(length)) {
+            throw new IOException("Niepoprawna długość ramki: " + length);
+        }
+        byte opcode = in.readByte();
+        in.readFully(buffer, 0, length - 1);
+        if (opcode == COMPRESSED) {
+            return new Frame(MESSAGE, inflate(buffer, length - 1));
+        }
+        if (opcode == MESSAGE_ID && length - 1 == 8) {
+            return new Frame(MESSAGE_ID, Long.toString(ByteBuffer.wrap(buffer, 0, 8).getLong()));
+        }
+        return new Frame(opcode, new String(buffer, 0, length - 1, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Odczytuje pierwszą linię połączenia bajt po bajcie, nie pobierając ze strumienia niczego za nią,
+     * aby po negocjacji ten sam strumień mógł być czytany jako ramki.
+     *
+     * @param in Strumień wejściowy.
+     * @return Linia bez znaku końca lub null, gdy strumień się skończył.
+     * @throws IOException Gdy odczyt się nie powiedzie lub linia przekracza {@link #MAX_PAYLOAD}.
+     */
+    public static String readFirstLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8.name());
+            }
+            if (line.size() >= MAX_PAYLOAD) {
+                throw new IOException("Zbyt długa pierwsza linia");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Odebrana ramka.
+     */
+    public static final class Frame {
+
+        /**
+         * Kod operacji.
+         */
+        public final byte opcode;
+
+        /**
+         * Treść ramki.
+         */
+        public final String payload;
+
+        /**
+         * Tworzy ramkę.
+         *
+         * @param opcode  Kod operacji.
+         * @param payload Treść ramki.
+         */
+        public Frame(byte opcode, String payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+}
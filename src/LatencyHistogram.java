@@ -0,0 +1,153 @@
+/**
+ * Histogram opóźnień o stałej precyzji względnej, na wzór HdrHistogram.
+ * Wartości są grupowane w przedziały potęg dwójki, a każdy przedział dzieli się na 64 równe części,
+ * więc błąd zapisanej wartości nie przekracza około 1,6% niezależnie od jej rzędu wielkości.
+ * Zapis to jedna inkrementacja w tablicy, bez alokacji. Klasa nie jest bezpieczna wątkowo:
+ * każdy wątek powinien mieć własny histogram, a wyniki łączy się metodą {@link #add(LatencyHistogram)}.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Liczba bitów części przedziału; wartości poniżej {@code 2^SUB_BUCKET_BITS} są zapisywane dokładnie.
+     */
+    protected static final int SUB_BUCKET_BITS = 7;
+
+    /**
+     * Liczba części w połowie przedziału.
+     */
+    protected static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+
+    /**
+     * Liczba przedziałów obejmujących wszystkie nieujemne wartości typu long.
+     */
+    protected static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF;
+
+    /**
+     * Liczniki wartości według indeksu przedziału.
+     */
+    protected final long[] counts = new long[BUCKET_COUNT];
+
+    /**
+     * Łączna liczba zapisanych wartości.
+     */
+    protected long totalCount;
+
+    /**
+     * Suma zapisanych wartości.
+     */
+    protected long totalSum;
+
+    /**
+     * Największa zapisana wartość.
+     */
+    protected long max;
+
+    /**
+     * Zapisuje jedną wartość. Wartości ujemne są traktowane jak zero.
+     *
+     * @param value Wartość do zapisania, na przykład opóźnienie w nanosekundach.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexFor(value)]++;
+        totalCount++;
+        totalSum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Dodaje do histogramu wszystkie wartości z innego histogramu.
+     *
+     * @param other Histogram do dodania.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalSum += other.totalSum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Zwraca liczbę zapisanych wartości.
+     *
+     * @return Liczba wartości.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Zwraca największą zapisaną wartość.
+     *
+     * @return Największa wartość lub 0, gdy histogram jest pusty.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Zwraca średnią zapisanych wartości.
+     *
+     * @return Średnia lub 0, gdy histogram jest pusty.
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalSum / totalCount;
+    }
+
+    /**
+     * Zwraca wartość, poniżej lub równo której leży podany procent zapisanych wartości.
+     * Wynikiem jest górna granica przedziału, więc nie jest mniejszy od rzeczywistego percentyla.
+     *
+     * @param percentile Percentyl z zakresu 0–100.
+     * @return Wartość percentyla lub 0, gdy histogram jest pusty.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Wyznacza indeks przedziału dla wartości.
+     *
+     * @param value Nieujemna wartość.
+     * @return Indeks w tablicy liczników.
+     */
+    protected static int indexFor(long value) {
+        if (value < (1L << SUB_BUCKET_BITS)) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * Zwraca największą wartość należącą do przedziału o podanym indeksie.
+     *
+     * @param index Indeks w tablicy liczników.
+     * @return Górna granica przedziału.
+     */
+    protected static long highestValueAt(int index) {
+        if (index < (1 << SUB_BUCKET_BITS)) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Czytnik linii UTF-8 z ograniczeniem długości, używany przez {@link ChatServer.ClientHandler} w protokole tekstowym.
+ * W przeciwieństwie do {@link java.io.BufferedReader#readLine()} nie gromadzi linii bez końca: linia dłuższa niż limit
+ * kończy odczyt wyjątkiem, tak jak w {@link NioChatServer} po przekroczeniu {@link ChatServer#MAX_LINE_LENGTH}.
+ * Linię mieszczącą się w buforze dekoduje od razu z bufora, bez kopiowania.
+ */
+public class LineReader {
+
+    /**
+     * Strumień, z którego czytane są bajty.
+     */
+    protected final InputStream in;
+
+    /**
+     * Maksymalna długość linii w bajtach, bez znaku końca linii.
+     */
+    protected final int maxLength;
+
+    /**
+     * Bufor odczytu.
+     */
+    protected final byte[] buffer = new byte[8192];
+
+    /**
+     * Pozycja następnego nieprzeczytanego bajtu w {@link #buffer}.
+     */
+    protected int position;
+
+    /**
+     * Koniec danych w {@link #buffer}.
+     */
+    protected int limit;
+
+    /**
+     * Początek linii, która nie zmieściła się w jednym wypełnieniu bufora.
+     */
+    protected byte[] line = new byte[256];
+
+    /**
+     * Liczba bajtów w {@link #line}.
+     */
+    protected int lineLength;
+
+    /**
+     * Tworzy czytnik.
+     *
+     * @param in        Strumień wejściowy.
+     * @param maxLength Maksymalna długość linii w bajtach.
+     */
+    public LineReader(InputStream in, int maxLength) {
+        this.in = in;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Odczytuje następną linię.
+     *
+     * @return Linia bez znaku końca lub null, gdy strumień się skończył.
+     * @throws IOException Gdy odczyt się nie powiedzie lub linia przekracza {@link #maxLength}.
+     */
+    public String readLine() throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    String text;
+                    if (lineLength == 0) {
+                        text = decode(buffer, position, i - position);
+                    } else {
+                        append(position, i - position);
+                        text = decode(line, 0, lineLength);
+                        lineLength = 0;
+                    }
+                    position = i + 1;
+                    return text;
+                }
+            }
+            append(position, limit - position);
+            position = 0;
+            limit = in.read(buffer);
+            if (limit < 0) {
+                limit = 0;
+                if (lineLength == 0) {
+                    return null;
+                }
+                String text = decode(line, 0, lineLength);
+                lineLength = 0;
+                return text;
+            }
+        }
+    }
+
+    /**
+     * Dopisuje fragment bufora do rozpoczętej linii, pilnując limitu długości.
+     *
+     * @param offset Początek fragmentu w {@link #buffer}.
+     * @param count  Długość fragmentu.
+     * @throws IOException Gdy linia przekroczyłaby {@link #maxLength}.
+     */
+    protected void append(int offset, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        // Jeden bajt zapasu na znak \r przed końcem linii
+        if (lineLength + count > maxLength + 1) {
+            throw new IOException("Zbyt długa linia");
+        }
+        if (line.length < lineLength + count) {
+            line = Arrays.copyOf(line, Math.max(lineLength + count, Math.min(line.length * 2, maxLength + 1)));
+        }
+        System.arraycopy(buffer, offset, line, lineLength, count);
+        lineLength += count;
+    }
+
+    /**
+     * Dekoduje linię z UTF-8, pomijając końcowy znak {@code \r}.
+     *
+     * @param bytes  Bajty linii.
+     * @param offset Początek linii.
+     * @param length Długość linii bez znaku {@code \n}.
+     * @return Zdekodowana linia.
+     * @throws IOException Gdy linia przekracza {@link #maxLength}.
+     */
+    protected String decode(byte[] bytes, int offset, int length) throws IOException {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (length > maxLength) {
+            throw new IOException("Zbyt długa linia");
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}
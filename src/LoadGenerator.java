@@ -0,0 +1,401 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generator obciążenia: symuluje wielu użytkowników czatu bez interfejsu graficznego.
+ * Każdy użytkownik loguje się tak jak {@link ChatClient} (hasło hashowane przez {@link ChatClient#hashPassword(String)}),
+ * wysyła wiadomości ze stałą częstotliwością i mierzy, po jakim czasie wiadomości innych użytkowników do niego docierają.
+ * <p>
+ * Każda wiadomość niesie zaplanowany czas wysłania ({@link System#nanoTime()} w tym samym procesie),
+ * więc opóźnienie obejmuje też czas, o jaki wysyłanie się spóźniło, i nie jest zaniżane,
+ * gdy serwer nie nadąża (tzw. coordinated omission).
+ * <p>
+ * Ustawienia są odczytywane z właściwości systemowych {@code load.*}, na przykład:
+ * {@code java -Dload.clients=2000 -Dload.rate=2 -Dload.duration=60 LoadGenerator}.
+ */
+public class LoadGenerator {
+
+    /**
+     * Znacznik wiadomości generatora, po którym odbiorca rozpoznaje czas wysłania.
+     */
+    protected static final String MARKER = ": lt ";
+
+    /**
+     * Adres serwera czatu.
+     */
+    protected String host = System.getProperty("load.host", "localhost");
+
+    /**
+     * Port serwera czatu.
+     */
+    protected int port = Integer.getInteger("load.port", 50000);
+
+    /**
+     * Liczba symulowanych użytkowników.
+     */
+    protected int clients = Integer.getInteger("load.clients", 1000);
+
+    /**
+     * Liczba pokoi; użytkownicy są rozdzielani po równo. Przy jednym pokoju zostają w pokoju domyślnym.
+     */
+    protected int rooms = Integer.getInteger("load.rooms", 1);
+
+    /**
+     * Liczba wiadomości wysyłanych przez jednego użytkownika na sekundę.
+     */
+    protected double rate = Double.parseDouble(System.getProperty("load.rate", "1"));
+
+    /**
+     * Długość treści wiadomości w bajtach.
+     */
+    protected int messageBytes = Integer.getInteger("load.messageBytes", 64);
+
+    /**
+     * Czas rozgrzewki w sekundach; wiadomości z tego okresu nie trafiają do wyników.
+     */
+    protected int warmupSeconds = Integer.getInteger("load.warmup", 5);
+
+    /**
+     * Czas pomiaru w sekundach.
+     */
+    protected int durationSeconds = Integer.getInteger("load.duration", 30);
+
+    /**
+     * Liczba wątków wysyłających wiadomości.
+     */
+    protected int senderThreads = Integer.getInteger("load.senderThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Przedrostek nazw symulowanych użytkowników.
+     */
+    protected String userPrefix = System.getProperty("load.userPrefix", "load");
+
+    /**
+     * Hasło symulowanych użytkowników.
+     */
+    protected String password = System.getProperty("load.password", "load");
+
+    /**
+     * Plik danych użytkowników serwera, do którego dopisywani są brakujący użytkownicy;
+     * pusta wartość wyłącza dopisywanie.
+     */
+    protected String usersFile = System.getProperty("load.usersFile", "users.txt");
+
+    /**
+     * Liczba wiadomości wysłanych w okresie pomiaru.
+     */
+    protected final AtomicLong sent = new AtomicLong();
+
+    /**
+     * Liczba wiadomości dostarczonych w okresie pomiaru (jedna wiadomość liczy się raz na odbiorcę).
+     */
+    protected final AtomicLong received = new AtomicLong();
+
+    /**
+     * Liczba użytkowników, których nie udało się połączyć lub zalogować.
+     */
+    protected final AtomicLong failedLogins = new AtomicLong();
+
+    /**
+     * Początek okresu pomiaru według {@link System#nanoTime()}.
+     */
+    protected volatile long measureStart;
+
+    /**
+     * Koniec okresu pomiaru według {@link System#nanoTime()}.
+     */
+    protected volatile long measureEnd;
+
+    /**
+     * Pojedynczy symulowany użytkownik: połączenie, wątek odbierający i własny histogram opóźnień.
+     */
+    protected class SimulatedUser implements Runnable {
+
+        /**
+         * Nazwa użytkownika.
+         */
+        protected final String username;
+
+        /**
+         * Gniazdo połączenia z serwerem.
+         */
+        protected Socket socket;
+
+        /**
+         * Strumień odbierający linie od serwera.
+         */
+        protected BufferedReader input;
+
+        /**
+         * Strumień wysyłający linie do serwera.
+         */
+        protected Writer output;
+
+        /**
+         * Opóźnienia wiadomości odebranych przez tego użytkownika; zapisuje je tylko jego wątek odbierający.
+         */
+        protected final LatencyHistogram histogram = new LatencyHistogram();
+
+        /**
+         * Zaplanowany czas następnej wiadomości.
+         */
+        protected long nextSend;
+
+        /**
+         * Wątek odbierający.
+         */
+        protected Thread readerThread;
+
+        /**
+         * Tworzy użytkownika o podanej nazwie.
+         *
+         * @param username Nazwa użytkownika.
+         */
+        protected SimulatedUser(String username) {
+            this.username = username;
+        }
+
+        /**
+         * Łączy się z serwerem, loguje i w razie potrzeby dołącza do pokoju.
+         *
+         * @param room Pokój do dołączenia lub null, aby zostać w pokoju domyślnym.
+         * @return True, jeśli logowanie się udało.
+         * @throws IOException Gdy wystąpi błąd połączenia.
+         */
+        protected boolean connect(String room) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            output = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            send(username + ":" + ChatClient.hashPassword(password));
+            if (!"Logowanie udane".equals(input.readLine())) {
+                socket.close();
+                return false;
+            }
+            send(FrameCodec.HEARTBEAT_LINE);
+            if (room != null) {
+                send("/join " + room);
+            }
+            readerThread = new Thread(null, this, "load-" + username, 256 * 1024);
+            readerThread.setDaemon(true);
+            readerThread.start();
+            return true;
+        }
+
+        /**
+         * Wysyła jedną linię do serwera.
+         *
+         * @param line Linia bez znaku końca.
+         * @throws IOException Gdy wystąpi błąd zapisu.
+         */
+        protected synchronized void send(String line) throws IOException {
+            output.write(line);
+            output.write('\n');
+            output.flush();
+        }
+
+        /**
+         * Wysyła kolejną wiadomość z zaplanowanym czasem wysłania.
+         *
+         * @param padding Dopełnienie treści do żądanej długości.
+         */
+        protected void sendNext(String padding) {
+            long intended = nextSend;
+            nextSend += (long) (1_000_000_000L / rate);
+            try {
+                send("lt " + intended + " " + padding);
+                if (intended >= measureStart && intended < measureEnd) {
+                    sent.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // Połączenie zamknięte; wątek odbierający to zauważy
+            }
+        }
+
+        /**
+         * Pętla wątku odbierającego: zapisuje opóźnienia wiadomości innych użytkowników.
+         */
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    long now = System.nanoTime();
+                    if (line.equals(FrameCodec.PING_LINE)) {
+                        send(FrameCodec.PONG_LINE);
+                        continue;
+                    }
+                    int marker = line.indexOf(MARKER);
+                    if (marker < 0) {
+                        continue;
+                    }
+                    int start = marker + MARKER.length();
+                    int end = line.indexOf(' ', start);
+                    long intended = Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end));
+                    if (intended >= measureStart && intended < measureEnd) {
+                        histogram.record(now - intended);
+                        received.incrementAndGet();
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Koniec połączenia
+            }
+        }
+
+        /**
+         * Zamyka połączenie i czeka na zakończenie wątku odbierającego.
+         */
+        protected void close() {
+            try {
+                socket.close();
+                readerThread.join(1000);
+            } catch (IOException e) {
+                // Połączenie już zamknięte
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Uruchamia pełny test: logowanie użytkowników, rozgrzewkę, pomiar i rozłączenie.
+     *
+     * @return Połączony histogram opóźnień wszystkich odbiorców, w nanosekundach.
+     * @throws IOException          Gdy nie można przygotować pliku użytkowników.
+     * @throws InterruptedException Gdy wątek zostanie przerwany.
+     */
+    public LatencyHistogram run() throws IOException, InterruptedException {
+        prepareUsers();
+        measureStart = Long.MAX_VALUE;
+        measureEnd = Long.MAX_VALUE;
+
+        List<SimulatedUser> users = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            SimulatedUser user = new SimulatedUser(userPrefix + i);
+            String room = rooms > 1 ? "load-" + (i % rooms) : null;
+            try {
+                if (user.connect(room)) {
+                    users.add(user);
+                } else {
+                    failedLogins.incrementAndGet();
+                }
+            } catch (IOException e) {
+                failedLogins.incrementAndGet();
+            }
+        }
+        System.out.println("Zalogowano " + users.size() + " z " + clients + " użytkowników.");
+
+        StringBuilder padding = new StringBuilder(messageBytes);
+        while (padding.length() < messageBytes) {
+            padding.append('x');
+        }
+        String text = padding.toString();
+
+        long period = (long) (1_000_000_000L / rate);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        measureEnd = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(Math.max(1, senderThreads));
+        for (SimulatedUser user : users) {
+            // Rozłożenie startów w pierwszym okresie, aby użytkownicy nie wysyłali jednocześnie
+            long offset = ThreadLocalRandom.current().nextLong(period);
+            user.nextSend = start + offset;
+            senders.scheduleAtFixedRate(() -> user.sendNext(text), user.nextSend - System.nanoTime(), period, TimeUnit.NANOSECONDS);
+        }
+
+        TimeUnit.NANOSECONDS.sleep(measureEnd - System.nanoTime());
+        senders.shutdownNow();
+        senders.awaitTermination(5, TimeUnit.SECONDS);
+        // Czas na dostarczenie wiadomości wysłanych tuż przed końcem pomiaru
+        Thread.sleep(1000);
+
+        LatencyHistogram total = new LatencyHistogram();
+        for (SimulatedUser user : users) {
+            user.close();
+            total.add(user.histogram);
+        }
+        return total;
+    }
+
+    /**
+     * Dopisuje do pliku użytkowników serwera tych symulowanych użytkowników, których w nim brakuje.
+     *
+     * @throws IOException Gdy nie można odczytać lub zapisać pliku.
+     */
+    protected void prepareUsers() throws IOException {
+        if (usersFile.isEmpty()) {
+            return;
+        }
+        Path path = Paths.get(usersFile);
+        Set<String> existing = new HashSet<>();
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                existing.add(line.split(":", 2)[0]);
+            }
+        }
+        String hash = ChatClient.hashPassword(password);
+        StringBuilder missing = new StringBuilder();
+        for (int i = 0; i < clients; i++) {
+            if (!existing.contains(userPrefix + i)) {
+                missing.append(userPrefix).append(i).append(':').append(hash).append(System.lineSeparator());
+            }
+        }
+        if (missing.length() > 0) {
+            Files.write(path, missing.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Wypisuje podsumowanie testu: przepustowość i percentyle opóźnień.
+     *
+     * @param histogram Histogram opóźnień w nanosekundach.
+     */
+    public void printReport(LatencyHistogram histogram) {
+        System.out.println("Użytkownicy: " + clients + " (nieudane logowania: " + failedLogins.get() + "), pokoje: " + rooms
+                + ", częstotliwość: " + rate + "/s na użytkownika, pomiar: " + durationSeconds + " s");
+        System.out.printf("Wysłane: %d (%.1f/s), dostarczone: %d (%.1f/s)%n",
+                sent.get(), (double) sent.get() / durationSeconds,
+                received.get(), (double) received.get() / durationSeconds);
+        System.out.printf("Opóźnienie [ms]: średnia %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, p99.99 %.3f, max %.3f%n",
+                histogram.getMean() / 1e6,
+                histogram.valueAtPercentile(50) / 1e6,
+                histogram.valueAtPercentile(90) / 1e6,
+                histogram.valueAtPercentile(99) / 1e6,
+                histogram.valueAtPercentile(99.9) / 1e6,
+                histogram.valueAtPercentile(99.99) / 1e6,
+                histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Punkt wejścia generatora obciążenia.
+     *
+     * @param args Argumenty wiersza poleceń (nieużywane; ustawienia we właściwościach {@code load.*}).
+     * @throws Exception Gdy test nie może zostać przeprowadzony.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.printReport(generator.run());
+        System.exit(0);
+    }
+}
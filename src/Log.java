@@ -0,0 +1,264 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchroniczny dziennik serwera.
+ * Wątki obsługujące klientów jedynie wstawiają wpis do bezblokadowego bufora cyklicznego,
+ * a osobny wątek w tle wypisuje wpisy partiami, z jednym zapisem i jednym flush na partię.
+ * Gdy bufor jest pełny, wpis jest odrzucany zamiast blokować nadawcę.
+ * Poziom wypisywanych wpisów ustawia właściwość systemowa {@code chat.log.level}.
+ */
+public final class Log {
+
+    /**
+     * Poziomy ważności wpisów.
+     */
+    public enum Level {
+        /**
+         * Wpisy dla każdej wiadomości czatu.
+         */
+        DEBUG,
+        /**
+         * Zdarzenia cyklu życia serwera i połączeń.
+         */
+        INFO,
+        /**
+         * Sytuacje nietypowe, które nie przerywają pracy.
+         */
+        WARN,
+        /**
+         * Błędy.
+         */
+        ERROR,
+        /**
+         * Wyłącza dziennik całkowicie.
+         */
+        OFF
+    }
+
+    /**
+     * Pojemność bufora cyklicznego; musi być potęgą dwójki.
+     */
+    private static final int CAPACITY = 1 << 14;
+
+    /**
+     * Maska indeksu w buforze cyklicznym.
+     */
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * Maksymalna liczba wpisów wypisywanych jedną partią.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Treści wpisów.
+     */
+    private static final String[] entries = new String[CAPACITY];
+
+    /**
+     * Numery sekwencyjne komórek bufora; publikują wpis między producentem a konsumentem.
+     */
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+
+    /**
+     * Następna pozycja do zajęcia przez producentów.
+     */
+    private static final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Następna pozycja do odczytu przez wątek zapisujący.
+     */
+    private static volatile long head;
+
+    /**
+     * Liczba wpisów odrzuconych z powodu pełnego bufora.
+     */
+    private static final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Minimalny poziom wypisywanych wpisów.
+     */
+    private static volatile Level level = Level.valueOf(System.getProperty("chat.log.level", "INFO").toUpperCase());
+
+    /**
+     * Czy wątek zapisujący czeka na nowe wpisy.
+     */
+    private static volatile boolean writerParked;
+
+    /**
+     * Wątek wypisujący wpisy w tle.
+     */
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * Sprawdza, czy wpisy danego poziomu są wypisywane.
+     * Pozwala uniknąć budowania tekstu wpisu, który i tak zostałby pominięty.
+     *
+     * @param wanted Poziom do sprawdzenia.
+     * @return True, jeśli wpis zostałby wypisany.
+     */
+    public static boolean isEnabled(Level wanted) {
+        return wanted.compareTo(level) >= 0 && level != Level.OFF;
+    }
+
+    /**
+     * Ustawia minimalny poziom wypisywanych wpisów.
+     *
+     * @param newLevel Nowy poziom.
+     */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Zwraca bieżący poziom dziennika.
+     *
+     * @return Minimalny poziom wypisywanych wpisów.
+     */
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Dodaje wpis na poziomie DEBUG.
+     *
+     * @param message Treść wpisu.
+     */
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    /**
+     * Dodaje wpis na poziomie INFO.
+     *
+     * @param message Treść wpisu.
+     */
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    /**
+     * Dodaje wpis na poziomie WARN.
+     *
+     * @param message Treść wpisu.
+     */
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    /**
+     * Dodaje wpis na poziomie ERROR.
+     *
+     * @param message Treść wpisu.
+     */
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * Zwraca liczbę wpisów odrzuconych z powodu pełnego bufora.
+     *
+     * @return Liczba odrzuconych wpisów.
+     */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Wstawia wpis do bufora, jeśli jego poziom jest włączony. Nigdy nie blokuje.
+     *
+     * @param entryLevel Poziom wpisu.
+     * @param message    Treść wpisu.
+     */
+    public static void log(Level entryLevel, String message) {
+        if (!isEnabled(entryLevel)) {
+            return;
+        }
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & MASK;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries[index] = message;
+                    sequences.set(index, position + 1);
+                    if (writerParked) {
+                        LockSupport.unpark(writer);
+                    }
+                    return;
+                }
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Czeka, aż wątek zapisujący wypisze wszystkie wpisy dodane przed wywołaniem.
+     *
+     * @param timeoutMillis Maksymalny czas oczekiwania.
+     */
+    public static void flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (head < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Pętla wątku zapisującego: zbiera partię wpisów i wypisuje ją jednym zapisem.
+     */
+    private static void drainLoop() {
+        StringBuilder batch = new StringBuilder(16 * 1024);
+        while (true) {
+            int count = 0;
+            long position = head;
+            while (count < BATCH_SIZE) {
+                int index = (int) position & MASK;
+                if (sequences.get(index) != position + 1) {
+                    break;
+                }
+                batch.append(entries[index]).append(System.lineSeparator());
+                entries[index] = null;
+                sequences.set(index, position + CAPACITY);
+                position++;
+                count++;
+            }
+            if (count > 0) {
+                PrintStream out = System.out;
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+                head = position;
+                continue;
+            }
+            writerParked = true;
+            // Wpis opublikowany tuż przed ustawieniem flagi nie obudziłby wątku, więc sprawdzamy jeszcze raz
+            if (sequences.get((int) position & MASK) == position + 1) {
+                writerParked = false;
+                continue;
+            }
+            LockSupport.park();
+            writerParked = false;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trwały dziennik wiadomości czatu w postaci segmentowanego pliku tylko do dopisywania.
+ * Segmenty mają stały rozmiar i są mapowane do pamięci, więc dopisanie wpisu to skopiowanie bajtów.
+ * Zapis na dysk ({@link MappedByteBuffer#force()}) wykonuje wątek w tle zbiorczo dla wielu wpisów,
+ * dlatego trwałość nie wydłuża ścieżki pojedynczej wiadomości.
+ * Ostatnie wiadomości każdego pokoju są trzymane w pamięci i odtwarzane nowo dołączającym klientom.
+ * <p>
+ * Format wpisu: {@code int długość, long id, long czas, short długość pokoju, pokój, linia}.
+ * Długość 0 oznacza koniec danych w segmencie.
+ */
+public class MessageJournal {
+
+    /**
+     * Rozmiar nagłówka wpisu bez pola długości.
+     */
+    protected static final int RECORD_HEADER = 8 + 8 + 2;
+
+    /**
+     * Katalog z segmentami.
+     */
+    protected final Path directory;
+
+    /**
+     * Rozmiar jednego segmentu w bajtach.
+     */
+    protected final int segmentSize;
+
+    /**
+     * Maksymalna liczba przechowywanych segmentów; najstarsze są usuwane.
+     */
+    protected final int maxSegments;
+
+    /**
+     * Liczba ostatnich wiadomości na pokój trzymanych w pamięci do odtworzenia.
+     */
+    protected final int replayCount;
+
+    /**
+     * Ostatnie wiadomości według pokoju, od najstarszej do najnowszej.
+     */
+    protected final Map<String, ArrayDeque<Entry>> recent = new HashMap<>();
+
+    /**
+     * Ścieżki istniejących segmentów, od najstarszego.
+     */
+    protected final List<Path> segments = new ArrayList<>();
+
+    /**
+     * Kanał bieżącego segmentu.
+     */
+    protected FileChannel channel;
+
+    /**
+     * Zmapowany bieżący segment.
+     */
+    protected MappedByteBuffer mapped;
+
+    /**
+     * Numer bieżącego segmentu.
+     */
+    protected long segmentNumber;
+
+    /**
+     * Identyfikator następnej wiadomości.
+     */
+    protected final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * Czy od ostatniego zapisu na dysk dopisano nowe wpisy.
+     */
+    protected volatile boolean dirty;
+
+    /**
+     * Wątek zapisujący zbiorczo zmiany na dysk.
+     */
+    protected Thread committer;
+
+    /**
+     * Czy dziennik jest otwarty.
+     */
+    protected volatile boolean open;
+
+    /**
+     * Odbiorca wszystkich wpisów odczytanych przy otwieraniu dziennika, np. do odbudowania indeksu wyszukiwania.
+     */
+    public interface RecoveryListener {
+
+        /**
+         * Wywoływana dla każdego odczytanego wpisu, od najstarszego.
+         *
+         * @param time Czas zapisu wiadomości w milisekundach.
+         * @param room Pokój wiadomości.
+         * @param line Linia wiadomości bez znaku końca linii.
+         */
+        void recovered(long time, String room, String line);
+    }
+
+    /**
+     * Odbiorca wpisów odczytanych przy otwieraniu lub null.
+     */
+    protected RecoveryListener recoveryListener;
+
+    /**
+     * Pojedyncza wiadomość w indeksie w pamięci.
+     */
+    public static final class Entry {
+
+        /**
+         * Identyfikator wiadomości, rosnący w obrębie dziennika.
+         */
+        public final long id;
+
+        /**
+         * Linia zakodowana tak, jak jest wysyłana do klientów.
+         */
+        public final ByteBuffer frame;
+
+        /**
+         * Tworzy wpis indeksu.
+         *
+         * @param id    Identyfikator wiadomości.
+         * @param frame Zakodowana linia tylko do odczytu.
+         */
+        public Entry(long id, ByteBuffer frame) {
+            this.id = id;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Tworzy dziennik w podanym katalogu.
+     *
+     * @param directory   Katalog z segmentami.
+     * @param segmentSize Rozmiar jednego segmentu w bajtach.
+     * @param maxSegments Maksymalna liczba przechowywanych segmentów.
+     * @param replayCount Liczba ostatnich wiadomości na pokój do odtworzenia.
+     */
+    public MessageJournal(Path directory, int segmentSize, int maxSegments, int replayCount) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.replayCount = replayCount;
+    }
+
+    /**
+     * Otwiera dziennik: odczytuje istniejące segmenty, odbudowuje indeks
+     * i uruchamia wątek zbiorczego zapisu.
+     *
+     * @param commitIntervalMillis Odstęp między zbiorczymi zapisami na dysk.
+     * @throws IOException Gdy nie można odczytać lub utworzyć segmentu.
+     */
+    public synchronized void open(long commitIntervalMillis) throws IOException {
+        open(commitIntervalMillis, null);
+    }
+
+    /**
+     * Otwiera dziennik jak {@link #open(long)}, przekazując każdy odczytany wpis podanemu odbiorcy.
+     *
+     * @param commitIntervalMillis Odstęp między zbiorczymi zapisami na dysk.
+     * @param listener             Odbiorca odczytanych wpisów lub null.
+     * @throws IOException Gdy nie można odczytać lub utworzyć segmentu.
+     */
+    public synchronized void open(long commitIntervalMillis, RecoveryListener listener) throws IOException {
+        recoveryListener = listener;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            recover(segments.get(i), last);
+        }
+        if (mapped == null) {
+            openSegment(0);
+        }
+        open = true;
+
+        committer = new Thread(() -> commitLoop(commitIntervalMillis), "journal-commit");
+        committer.setDaemon(true);
+        committer.start();
+        Log.info("Dziennik wiadomości otwarty w " + directory + " (następne id: " + nextId.get() + ")");
+    }
+
+    /**
+     * Rezerwuje identyfikator następnej wiadomości, aby można go było zakodować w ramce przed dopisaniem jej do dziennika.
+     * Wywołujący rezerwuje identyfikator, dopisuje wiadomość i przekazuje ją odbiorcom pod jedną blokadą pokoju
+     * ({@link ChatServer#roomLock(String)}), dzięki czemu w pokoju kolejność identyfikatorów jest kolejnością dostarczenia.
+     *
+     * @return Nowy identyfikator, rosnący w obrębie dziennika.
+     */
+    public long reserveId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Dopisuje wiadomość do dziennika i do indeksu ostatnich wiadomości pokoju.
+     *
+     * @param room  Pokój, do którego wysłano wiadomość.
+     * @param id    Identyfikator zarezerwowany przez {@link #reserveId()}.
+     * @param frame Zakodowana linia tylko do odczytu.
+     * @return True, jeśli wiadomość została zapisana; false, gdy dziennik jest zamknięty lub wiadomość za długa.
+     */
+    public synchronized boolean append(String room, long id, ByteBuffer frame) {
+        if (!open) {
+            return false;
+        }
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER + roomBytes.length + frame.remaining();
+        try {
+            // Wpis i znacznik końca muszą się zmieścić w segmencie
+            if (mapped.remaining() < 4 + length + 4) {
+                if (4 + length + 4 > segmentSize) {
+                    Log.warn("Wiadomość za długa dla segmentu dziennika, pominięto zapis.");
+                    return false;
+                }
+                openSegment(segmentNumber + 1);
+            }
+        } catch (IOException e) {
+            Log.error("Błąd podczas tworzenia segmentu dziennika: " + e.getMessage());
+            return false;
+        }
+        mapped.putInt(length)
+                .putLong(id)
+                .putLong(System.currentTimeMillis())
+                .putShort((short) roomBytes.length)
+                .put(roomBytes)
+                .put(frame.duplicate());
+        dirty = true;
+        remember(room, new Entry(id, frame));
+        return true;
+    }
+
+    /**
+     * Zwraca ostatnie wiadomości pokoju, od najstarszej.
+     *
+     * @param room Nazwa pokoju.
+     * @return Kopia listy ostatnich wiadomości.
+     */
+    public synchronized List<Entry> recent(String room) {
+        ArrayDeque<Entry> entries = recent.get(room);
+        return entries == null ? Collections.emptyList() : new ArrayList<>(entries);
+    }
+
+    /**
+     * Zapisuje zmiany na dysk i zamyka dziennik.
+     */
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        committer.interrupt();
+        mapped.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Błąd podczas zamykania dziennika: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Dodaje wpis do indeksu pokoju, usuwając najstarsze ponad limit.
+     *
+     * @param room  Nazwa pokoju.
+     * @param entry Wpis do dodania.
+     */
+    protected void remember(String room, Entry entry) {
+        if (replayCount <= 0) {
+            return;
+        }
+        ArrayDeque<Entry> entries = recent.computeIfAbsent(room, r -> new ArrayDeque<>(replayCount));
+        if (entries.size() == replayCount) {
+            entries.pollFirst();
+        }
+        entries.addLast(entry);
+    }
+
+    /**
+     * Odczytuje wpisy segmentu do indeksu. Ostatni segment pozostaje otwarty do dopisywania.
+     *
+     * @param path Ścieżka segmentu.
+     * @param last Czy to najnowszy segment.
+     * @throws IOException Gdy nie można odczytać segmentu.
+     */
+    protected void recover(Path path, boolean last) throws IOException {
+        FileChannel segmentChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        while (buffer.remaining() >= 4 + RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < RECORD_HEADER || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            long id = buffer.getLong();
+            long time = buffer.getLong();
+            int roomLength = buffer.getShort();
+            if (roomLength < 0 || roomLength > length - RECORD_HEADER) {
+                buffer.position(start);
+                break;
+            }
+            byte[] roomBytes = new byte[roomLength];
+            buffer.get(roomBytes);
+            byte[] line = new byte[length - RECORD_HEADER - roomLength];
+            buffer.get(line);
+            // Zapisana jest linia tekstowa; ramka jest odtwarzana z nagłówkiem i kompresją, aby nadawała się też dla protokołu binarnego
+            int lineLength = line.length > 0 && line[line.length - 1] == '\n' ? line.length - 1 : line.length;
+            String room = new String(roomBytes, StandardCharsets.UTF_8);
+            remember(room, new Entry(id, FrameCodec.encodeMessage(line, 0, lineLength, id)));
+            if (recoveryListener != null) {
+                recoveryListener.recovered(time, room, new String(line, 0, lineLength, StandardCharsets.UTF_8));
+            }
+            nextId.accumulateAndGet(id + 1, Math::max);
+        }
+        if (last) {
+            channel = segmentChannel;
+            mapped = buffer;
+            segmentNumber = segmentNumber(path);
+        } else {
+            segmentChannel.close();
+        }
+    }
+
+    /**
+     * Zamyka bieżący segment i tworzy nowy, usuwając najstarsze ponad limit.
+     *
+     * @param number Numer nowego segmentu.
+     * @throws IOException Gdy nie można utworzyć segmentu.
+     */
+    protected void openSegment(long number) throws IOException {
+        if (mapped != null) {
+            mapped.putInt(0);
+            mapped.force();
+            channel.close();
+        }
+        Path path = directory.resolve(String.format("segment-%012d.log", number));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentNumber = number;
+        if (!segments.contains(path)) {
+            segments.add(path);
+        }
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.remove(0));
+        }
+    }
+
+    /**
+     * Wyciąga numer segmentu z nazwy pliku.
+     *
+     * @param path Ścieżka segmentu.
+     * @return Numer segmentu.
+     */
+    protected static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+    }
+
+    /**
+     * Pętla zbiorczego zapisu: co podany odstęp wymusza zapis bieżącego segmentu, jeśli się zmienił.
+     *
+     * @param intervalMillis Odstęp między zapisami.
+     */
+    protected void commitLoop(long intervalMillis) {
+        try {
+            while (open) {
+                Thread.sleep(intervalMillis);
+                if (dirty) {
+                    dirty = false;
+                    MappedByteBuffer current;
+                    synchronized (this) {
+                        current = mapped;
+                    }
+                    current.force();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Dziennik został zamknięty
+        }
+    }
+}
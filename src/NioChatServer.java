@@ -0,0 +1,1063 @@
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serwer czatu oparty na nieblokującym NIO.
+ * Zamiast jednego wątku na klienta używa niewielkiej puli pętli zdarzeń (jedna na rdzeń),
+ * z których każda obsługuje wiele połączeń przez własny {@link Selector}.
+ * Protokół jest taki sam jak w {@link ChatServer}: pierwsza linia to {@code user:hash},
+ * kolejne linie to komendy lub wiadomości rozsyłane do pozostałych członków pokoju.
+ * Klient może też wynegocjować protokół binarny ramek opisany w {@link FrameCodec}.
+ */
+public class NioChatServer extends ChatServer {
+
+    /**
+     * Rozmiar bufora odczytu jednej sesji.
+     */
+    protected static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * Maksymalna liczba buforów wysyłanych jednym zapisem zbierającym.
+     */
+    protected static final int GATHER_LIMIT = 64;
+
+    /**
+     * Kanał serwera akceptujący połączenia.
+     */
+    protected ServerSocketChannel serverChannel;
+
+    /**
+     * Pętle zdarzeń obsługujące zaakceptowane połączenia.
+     */
+    protected EventLoop[] loops;
+
+    /**
+     * Liczba pętli zdarzeń.
+     */
+    protected int loopCount;
+
+    /**
+     * Zbiór aktywnych sesji.
+     */
+    protected final Set<NioSession> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Tworzy serwer z jedną pętlą zdarzeń na każdy dostępny rdzeń procesora.
+     */
+    public NioChatServer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Tworzy serwer z podaną liczbą pętli zdarzeń.
+     *
+     * @param loopCount Liczba pętli zdarzeń.
+     */
+    public NioChatServer(int loopCount) {
+        this.loopCount = Math.max(1, loopCount);
+    }
+
+    /**
+     * Uruchamia serwer na podanym porcie.
+     *
+     * @param port Port, na którym serwer będzie nasłuchiwał.
+     */
+    @Override
+    public void startServer(int port) {
+        try {
+            this.port = port;
+            createSslContext();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverSocket = serverChannel.socket();
+            startServices();
+
+            loops = new EventLoop[loopCount];
+            for (int i = 0; i < loopCount; i++) {
+                loops[i] = new EventLoop(i);
+                loops[i].start();
+            }
+            Log.info("Serwer NIO uruchomiony na porcie " + port + " (pętle zdarzeń: " + loopCount + ")");
+
+            // Wątek do obsługi komend administratora
+            new Thread(this::listenForCommands).start();
+
+            // Akceptowanie nowych połączeń i rozdzielanie ich po pętlach zdarzeń
+            int next = 0;
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Log.info("Nowy klient połączony: " + channel.getRemoteAddress());
+
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            if (serverChannel != null && !serverChannel.isOpen()) {
+                Log.info("Serwer został zamknięty.");
+            } else {
+                Log.error("Błąd podczas uruchamiania serwera: " + e.getMessage());
+            }
+        } finally {
+            stopServer();
+        }
+    }
+
+    /**
+     * Zatrzymuje serwer: przestaje przyjmować połączenia, czeka na wysłanie kolejek wychodzących
+     * do podanego terminu, zamyka pozostałe połączenia i kończy pętle zdarzeń.
+     *
+     * @param drainTimeoutMillis Maksymalny czas oczekiwania na opróżnienie kolejek w milisekundach.
+     * @return Liczba sesji, których kolejki zostały wysłane w całości przed zamknięciem.
+     */
+    @Override
+    public int stopServer(long drainTimeoutMillis) {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.error("Błąd podczas zamykania serwera: " + e.getMessage());
+        }
+        int drained = drainSessions(drainTimeoutMillis);
+        if (loops != null) {
+            for (EventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+        sessions.clear();
+        stopServices();
+        Log.info("Serwer został pomyślnie zamknięty.");
+        return drained;
+    }
+
+    /**
+     * Opróżnia i zamyka wszystkie sesje. Każda sesja dostaje na koniec kolejki {@link #SHUTDOWN_MESSAGE}
+     * i jest zamykana przez swoją pętlę zdarzeń po jej wysłaniu, więc pętle opróżniają kolejki równolegle.
+     * Sesje niezamknięte do terminu są zamykane natychmiast.
+     *
+     * @param timeoutMillis Maksymalny czas oczekiwania na opróżnienie kolejek w milisekundach.
+     * @return Liczba sesji opróżnionych w całości.
+     */
+    @Override
+    protected int drainSessions(long timeoutMillis) {
+        List<NioSession> pending = new ArrayList<>(sessions);
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (NioSession session : pending) {
+            session.drain();
+        }
+        int drained = 0;
+        for (NioSession session : pending) {
+            while (!session.isClosed && System.nanoTime() - deadline < 0) {
+                try {
+                    Thread.sleep(DRAIN_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    deadline = System.nanoTime();
+                }
+            }
+            if (session.isClosed) {
+                if (session.drained) {
+                    drained++;
+                }
+            } else {
+                session.close();
+            }
+        }
+        Log.info("Zamknięto " + pending.size() + " sesji, w tym " + drained + " z wysłaną całą kolejką, w "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        return drained;
+    }
+
+    /**
+     * Zwraca liczbę aktywnych sesji.
+     *
+     * @return Liczba obsługiwanych połączeń.
+     */
+    @Override
+    protected int getConnectionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Zbiera głębokości kolejek wychodzących sesji.
+     *
+     * @return Para: łączna liczba oczekujących buforów i głębokość najdłuższej kolejki.
+     */
+    @Override
+    protected long[] queueDepths() {
+        long total = 0;
+        int maxDepth = 0;
+        for (NioSession session : sessions) {
+            int depth = session.getQueueDepth();
+            total += depth;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return new long[]{total, maxDepth};
+    }
+
+    /**
+     * Wysyła wiadomość serwera do wszystkich zalogowanych klientów.
+     *
+     * @param message Wiadomość do wysłania.
+     */
+    @Override
+    protected void sendServerMessage(String message) {
+        ByteBuffer frame = encodeLine("Pan Admin: " + message);
+        for (NioSession session : sessions) {
+            if (session.username != null) {
+                session.sendFrame(frame);
+            }
+        }
+        if (cluster != null) {
+            cluster.publish(null, "Pan Admin: " + message);
+        }
+        Log.info("Wiadomość od serwera wysłana do wszystkich klientów: " + message);
+    }
+
+    /**
+     * Pętla zdarzeń obsługująca wiele połączeń przy użyciu jednego selektora.
+     */
+    protected class EventLoop extends Thread {
+
+        /**
+         * Selektor tej pętli.
+         */
+        protected final Selector selector;
+
+        /**
+         * Kanały oczekujące na rejestrację w selektorze.
+         */
+        protected final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Sesje, do których inne wątki dopisały dane do wysłania.
+         */
+        protected final Queue<NioSession> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Zadania zlecone pętli przez inne wątki, np. dokończenie logowania po weryfikacji danych.
+         */
+        protected final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Tablica robocza dla zapisów zbierających, używana tylko przez wątek pętli.
+         */
+        protected final ByteBuffer[] gather = new ByteBuffer[GATHER_LIMIT];
+
+        /**
+         * Flaga działania pętli.
+         */
+        protected volatile boolean running = true;
+
+        /**
+         * Tworzy pętlę zdarzeń.
+         *
+         * @param index Numer pętli, używany w nazwie wątku.
+         * @throws IOException Gdy nie można otworzyć selektora.
+         */
+        public EventLoop(int index) throws IOException {
+            super("nio-loop-" + index);
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Przekazuje zaakceptowany kanał do tej pętli.
+         *
+         * @param channel Kanał klienta w trybie nieblokującym.
+         */
+        public void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Zgłasza, że sesja ma dane do wysłania.
+         *
+         * @param session Sesja z niepustą kolejką wyjściową.
+         */
+        public void requestFlush(NioSession session) {
+            if (Thread.currentThread() == this) {
+                session.flush();
+            } else if (session.flushScheduled.compareAndSet(false, true)) {
+                pendingWrites.add(session);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Zleca wykonanie zadania w wątku pętli.
+         *
+         * @param task Zadanie do wykonania.
+         */
+        public void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Kończy działanie pętli.
+         */
+        public void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Główna pętla: rejestruje nowe kanały, wysyła zaległe dane i obsługuje gotowe klucze.
+         */
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    SocketChannel channel;
+                    while ((channel = pendingChannels.poll()) != null) {
+                        NioSession session = new NioSession(channel, this);
+                        try {
+                            session.key = channel.register(selector, SelectionKey.OP_READ, session);
+                            sessions.add(session);
+                            session.idleMonitor.start();
+                        } catch (ClosedChannelException e) {
+                            session.close();
+                        }
+                    }
+
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    NioSession pending;
+                    while ((pending = pendingWrites.poll()) != null) {
+                        pending.flushScheduled.set(false);
+                        pending.flush();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioSession session = (NioSession) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            session.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.flush();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.error("Błąd w pętli zdarzeń " + getName() + ": " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((NioSession) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    Log.error("Błąd podczas zamykania selektora: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Pojedyncze połączenie obsługiwane przez pętlę zdarzeń.
+     * Składa linie z odebranych bajtów i kolejkuje dane do wysłania.
+     */
+    protected class NioSession implements ChatSession {
+
+        /**
+         * Kanał klienta.
+         */
+        protected final SocketChannel channel;
+
+        /**
+         * Pętla zdarzeń, do której należy sesja.
+         */
+        protected final EventLoop loop;
+
+        /**
+         * Klucz rejestracji w selektorze pętli.
+         */
+        protected SelectionKey key;
+
+        /**
+         * Szyfrowanie TLS kanału lub null, jeśli serwer nie używa TLS.
+         */
+        protected final TlsTransport tls;
+
+        /**
+         * Bufor odczytu z kanału.
+         */
+        protected final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        /**
+         * Bajty bieżącej, jeszcze niezakończonej linii.
+         */
+        protected byte[] line = new byte[256];
+
+        /**
+         * Liczba bajtów zapisanych w {@link #line}.
+         */
+        protected int lineLength;
+
+        /**
+         * Czy klient wynegocjował protokół binarny. W tym trybie {@link #line} gromadzi bieżącą ramkę.
+         */
+        protected volatile boolean binary;
+
+        /**
+         * Czy klient tekstowy zgłosił obsługę sprawdzeń połączenia linią {@link FrameCodec#HEARTBEAT_LINE}.
+         */
+        protected volatile boolean heartbeat;
+
+        /**
+         * Długość bieżącej ramki z nagłówka lub -1, gdy nagłówek nie został jeszcze odczytany.
+         */
+        protected int frameLength = -1;
+
+        /**
+         * Czy klient przyjmuje skompresowane ramki {@link FrameCodec#COMPRESSED}.
+         */
+        protected volatile boolean deflate;
+
+        /**
+         * Kolejka buforów oczekujących na wysłanie.
+         */
+        protected final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Liczba buforów w {@link #outbound}, ograniczana przez {@link #outboundQueueCapacity}.
+         */
+        protected final AtomicInteger queued = new AtomicInteger();
+
+        /**
+         * Bufory w trakcie wysyłania, zdjęte już z kolejki, aby odrzucanie najstarszych wiadomości
+         * nigdy nie przerwało częściowo wysłanej linii. Używane tylko przez wątek pętli.
+         */
+        protected final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>(GATHER_LIMIT);
+
+        /**
+         * Czy sesja czeka już w kolejce {@link EventLoop#pendingWrites}.
+         */
+        protected final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        /**
+         * Nazwa zalogowanego użytkownika lub null przed zalogowaniem.
+         */
+        protected volatile String username;
+
+        /**
+         * Pokój, w którym przebywa klient.
+         */
+        protected volatile String room;
+
+        /**
+         * Czy zamknąć kanał po opróżnieniu kolejki wyjściowej.
+         */
+        protected volatile boolean closeAfterFlush;
+
+        /**
+         * Flaga wskazująca, czy sesja została zamknięta.
+         */
+        protected volatile boolean isClosed;
+
+        /**
+         * Czy sesja została zamknięta dopiero po wysłaniu całej kolejki.
+         */
+        protected volatile boolean drained;
+
+        /**
+         * Czy dane logowania czekają na weryfikację. W tym czasie sesja nie czyta z kanału,
+         * a bajty odebrane po danych logowania zostają w {@link #readBuffer}. Używane tylko przez wątek pętli.
+         */
+        protected boolean authenticating;
+
+        /**
+         * Chwila ostatniego odczytu z kanału z {@link System#nanoTime()}.
+         */
+        protected volatile long lastRead = System.nanoTime();
+
+        /**
+         * Strażnik czasu na zalogowanie i bezczynności połączenia.
+         */
+        protected final IdleMonitor idleMonitor = new IdleMonitor(this);
+
+        /**
+         * Wiadro żetonów ograniczające wiadomości z tego połączenia lub null, jeśli limit jest wyłączony.
+         */
+        protected final TokenBucket rateLimiter = connectionRateLimit > 0 ? new TokenBucket(connectionRateLimit, rateLimitBurst) : null;
+
+        /**
+         * Tworzy sesję dla zaakceptowanego kanału.
+         *
+         * @param channel Kanał klienta.
+         * @param loop    Pętla zdarzeń obsługująca kanał.
+         */
+        public NioSession(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            if (sslContext != null) {
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+                this.tls = new TlsTransport(channel, engine);
+            } else {
+                this.tls = null;
+            }
+        }
+
+        /**
+         * Zwraca nazwę użytkownika sesji.
+         *
+         * @return Nazwa użytkownika lub null przed zalogowaniem.
+         */
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Zwraca pokój, w którym przebywa klient.
+         *
+         * @return Nazwa pokoju lub null.
+         */
+        @Override
+        public String getRoom() {
+            return room;
+        }
+
+        /**
+         * Ustawia pokój, w którym przebywa klient.
+         *
+         * @param room Nazwa pokoju lub null.
+         */
+        @Override
+        public void setRoom(String room) {
+            this.room = room;
+        }
+
+        /**
+         * Odczytuje dostępne dane i przetwarza wszystkie kompletne linie.
+         * Przestaje czytać, gdy dane logowania trafią do weryfikacji. Przy TLS wysyła też komunikaty uzgadniania
+         * i dane, które czekały na jego zakończenie.
+         */
+        protected void onReadable() {
+            lastRead = System.nanoTime();
+            try {
+                int read = 0;
+                while (!authenticating && !isClosed && (read = tls != null ? tls.read(readBuffer) : channel.read(readBuffer)) > 0) {
+                    parseBuffered();
+                }
+                if (read < 0) {
+                    close();
+                } else if (tls != null && (tls.hasPendingOutput() || !inFlight.isEmpty() || queued.get() > 0)) {
+                    flush();
+                }
+            } catch (IOException e) {
+                Log.error("Błąd w obsłudze klienta: " + e.getMessage());
+                close();
+            }
+        }
+
+        /**
+         * Przetwarza bajty zebrane w {@link #readBuffer}. Bajty nieprzetworzone z powodu trwającej
+         * weryfikacji logowania zostają w buforze do jej zakończenia.
+         */
+        protected void parseBuffered() {
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && !isClosed && !authenticating) {
+                if (binary) {
+                    readFrameBytes();
+                    continue;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    String text = new String(line, 0, length, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    onLine(text);
+                } else {
+                    appendToLine(b);
+                }
+            }
+            readBuffer.compact();
+        }
+
+        /**
+         * Przenosi z bufora odczytu tyle bajtów, ile brakuje do nagłówka lub końca bieżącej ramki,
+         * i obsługuje ramkę, gdy jest kompletna.
+         */
+        protected void readFrameBytes() {
+            int needed = frameLength < 0 ? 4 - lineLength : 4 + frameLength - lineLength;
+            int count = Math.min(needed, readBuffer.remaining());
+            if (line.length < lineLength + count) {
+                line = Arrays.copyOf(line, Math.max(lineLength + count, Math.min(line.length * 2, FrameCodec.HEADER_SIZE + FrameCodec.MAX_PAYLOAD)));
+            }
+            readBuffer.get(line, lineLength, count);
+            lineLength += count;
+            if (frameLength < 0 && lineLength == 4) {
+                frameLength = ByteBuffer.wrap(line, 0, 4).getInt();
+                if (!FrameCodec.isValidLength(frameLength)) {
+                    Log.warn("Niepoprawna długość ramki od klienta " + username + ", rozłączanie.");
+                    close();
+                }
+                return;
+            }
+            if (frameLength >= 0 && lineLength == 4 + frameLength) {
+                byte opcode = line[4];
+                String payload = new String(line, FrameCodec.HEADER_SIZE, frameLength - 1, StandardCharsets.UTF_8);
+                lineLength = 0;
+                frameLength = -1;
+                onFrame(opcode, payload);
+            }
+        }
+
+        /**
+         * Obsługuje jedną ramkę protokołu binarnego. Nieznane i zarezerwowane kody operacji są pomijane.
+         *
+         * @param opcode  Kod operacji.
+         * @param payload Treść ramki.
+         */
+        protected void onFrame(byte opcode, String payload) {
+            if (closeAfterFlush) {
+                return;
+            }
+            if (username == null) {
+                if (opcode == FrameCodec.LOGIN) {
+                    login(payload);
+                } else {
+                    closeAfterFlush();
+                }
+            } else if (opcode == FrameCodec.MESSAGE && admitMessage(this, false)) {
+                handleChatLine(this, payload);
+            }
+        }
+
+        /**
+         * Dopisuje bajt do bieżącej linii, powiększając bufor w razie potrzeby.
+         *
+         * @param b Bajt do dopisania.
+         */
+        protected void appendToLine(byte b) {
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_LENGTH) {
+                    Log.warn("Zbyt długa linia od klienta " + username + ", rozłączanie.");
+                    close();
+                    return;
+                }
+                line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_LENGTH));
+            }
+            line[lineLength++] = b;
+        }
+
+        /**
+         * Obsługuje jedną kompletną linię: logowanie albo komendę lub wiadomość czatu.
+         *
+         * @param text Odebrana linia bez znaku końca linii.
+         */
+        protected void onLine(String text) {
+            if (closeAfterFlush) {
+                return;
+            }
+            if (username == null) {
+                String negotiated = FrameCodec.negotiationReply(text);
+                if (negotiated != null) {
+                    // Potwierdzenie idzie jeszcze jako linia; wszystko po nim to już ramki
+                    enqueue(negotiated);
+                    binary = true;
+                    deflate = FrameCodec.NEGOTIATION_DEFLATE.equals(negotiated);
+                    return;
+                }
+                login(text);
+            } else if (text.equals(FrameCodec.HEARTBEAT_LINE)) {
+                heartbeat = true;
+            } else if (!text.equals(FrameCodec.PONG_LINE) && admitMessage(this, false)) {
+                handleChatLine(this, text);
+            }
+        }
+
+        /**
+         * Przekazuje dane logowania do weryfikacji w puli {@link #authExecutor} i wstrzymuje czytanie
+         * z kanału do czasu jej zakończenia, aby pętla zdarzeń nie czekała na weryfikację.
+         *
+         * @param credentials Dane w formacie {@code user:hash}.
+         */
+        protected void login(String credentials) {
+            long resumeAfter = resumeId(credentials);
+            String resumeRoom = resumeRoom(credentials);
+            String plainCredentials = withoutResume(credentials);
+            CompletableFuture<Boolean> verdict = authenticate(plainCredentials);
+            if (verdict == null) {
+                enqueue(FrameCodec.encode(FrameCodec.LOGIN_FAILED, OVERLOADED_MESSAGE));
+                closeAfterFlush();
+                return;
+            }
+            authenticating = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            verdict.whenComplete((valid, error) -> loop.execute(() -> {
+                authenticating = false;
+                completeLogin(plainCredentials, resumeAfter, resumeRoom, error == null && valid);
+                if (!isClosed && key.isValid()) {
+                    // Bajty odebrane razem z danymi logowania czekały w buforze na wynik weryfikacji
+                    parseBuffered();
+                    if (!authenticating && key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                        // Odszyfrowane wcześniej dane nie zgłoszą już gotowości kanału do odczytu
+                        if (tls != null && tls.hasBufferedInput()) {
+                            onReadable();
+                        }
+                    }
+                }
+            }));
+        }
+
+        /**
+         * Rejestruje użytkownika po pomyślnej weryfikacji albo odrzuca logowanie. Wywoływana w wątku pętli.
+         *
+         * @param credentials Dane w formacie {@code user:hash}.
+         * @param resumeAfter Identyfikator ostatniej wiadomości odebranej przez wznawiającego klienta lub 0.
+         * @param resumeRoom  Pokój wznawiającego klienta lub null dla pokoju domyślnego.
+         * @param valid       Wynik weryfikacji danych.
+         */
+        protected void completeLogin(String credentials, long resumeAfter, String resumeRoom, boolean valid) {
+            if (isClosed) {
+                return;
+            }
+            if (valid) {
+                String user = credentials.substring(0, credentials.indexOf(':'));
+                boolean registered;
+                synchronized (this) {
+                    // Sesja mogła zostać zamknięta w trakcie weryfikacji, np. przy zatrzymywaniu serwera
+                    if (isClosed) {
+                        return;
+                    }
+                    username = user;
+                    registered = registerUser(this);
+                }
+                if (!registered) {
+                    username = null;
+                    metrics.loginFailed();
+                    enqueue(FrameCodec.encode(FrameCodec.LOGIN_FAILED, "Użytkownik " + user + " jest już zalogowany"));
+                    Log.warn("Odrzucono ponowne logowanie użytkownika " + user + ".");
+                    closeAfterFlush();
+                    return;
+                }
+                // Odpowiedź trafia do kolejki przed dołączeniem do pokoju, a wysyłana jest po nim,
+                // więc klient nie dostanie wiadomości z pokoju przed potwierdzeniem ani nie przegapi żadnej po nim
+                queued.incrementAndGet();
+                outbound.add(view(FrameCodec.encode(FrameCodec.LOGIN_OK, "Logowanie udane")));
+                onLogin(this, resumeAfter, resumeRoom);
+                loop.requestFlush(this);
+                Log.info("Użytkownik " + username + " zalogował się pomyślnie.");
+            } else {
+                metrics.loginFailed();
+                enqueue(FrameCodec.encode(FrameCodec.LOGIN_FAILED, "Nieprawidłowy login lub hasło"));
+                Log.warn("Nieudana próba logowania.");
+                closeAfterFlush();
+            }
+        }
+
+        /**
+         * Kolejkuje wiadomość do wysłania do klienta.
+         *
+         * @param message Wiadomość do wysłania.
+         */
+        @Override
+        public void sendMessage(String message) {
+            sendFrame(encodeLine(message));
+        }
+
+        /**
+         * Kolejkuje zakodowaną ramkę do wysłania do klienta.
+         * Przy przepełnieniu kolejki stosuje {@link #overflowPolicy} serwera.
+         *
+         * @param frame Ramka tylko do odczytu, współdzielona z innymi odbiorcami.
+         */
+        @Override
+        public void sendFrame(ByteBuffer frame) {
+            if (isClosed) {
+                return;
+            }
+            if (queued.get() >= outboundQueueCapacity) {
+                if (overflowPolicy != OverflowPolicy.DROP_OLDEST) {
+                    // Pętla zdarzeń nie może blokować nadawcy, więc BLOCK działa tu jak DISCONNECT
+                    disconnectSlowConsumer();
+                    return;
+                }
+                if (outbound.poll() != null) {
+                    queued.decrementAndGet();
+                    droppedMessages.incrementAndGet();
+                }
+            }
+            enqueue(frame);
+        }
+
+        /**
+         * Kolejkuje ramkę; {@link #sendFrame(ByteBuffer)} nigdy nie blokuje nadawcy, więc nie ma nic do dokończenia.
+         *
+         * @param frame Ramka tylko do odczytu.
+         * @return Zawsze false.
+         */
+        @Override
+        public boolean offerFrame(ByteBuffer frame) {
+            sendFrame(frame);
+            return false;
+        }
+
+        /**
+         * Nic nie robi, bo {@link #offerFrame(ByteBuffer)} stosuje całą politykę przepełnienia od razu.
+         */
+        @Override
+        public void awaitCapacity() {
+        }
+
+        /**
+         * Dopisuje wiadomość do kolejki z pominięciem limitu i zgłasza pętli potrzebę wysłania.
+         *
+         * @param message Wiadomość do wysłania.
+         */
+        protected void enqueue(String message) {
+            enqueue(encodeLine(message));
+        }
+
+        /**
+         * Dopisuje własny widok ramki do kolejki i zgłasza pętli potrzebę wysłania.
+         *
+         * @param frame Ramka tylko do odczytu.
+         */
+        protected void enqueue(ByteBuffer frame) {
+            queued.incrementAndGet();
+            outbound.add(view(frame));
+            loop.requestFlush(this);
+        }
+
+        /**
+         * Zwraca własny widok ramki w formacie protokołu klienta: linię, ramkę binarną albo skompresowaną.
+         *
+         * @param frame Ramka tylko do odczytu.
+         * @return Nowy widok współdzielonego bufora.
+         */
+        protected ByteBuffer view(ByteBuffer frame) {
+            return FrameCodec.view(frame, binary, deflate);
+        }
+
+        /**
+         * Zwraca liczbę buforów oczekujących na wysłanie.
+         *
+         * @return Głębokość kolejki wychodzącej.
+         */
+        public int getQueueDepth() {
+            return queued.get();
+        }
+
+        /**
+         * Zamyka sesję klienta, który nie nadąża z odbieraniem wiadomości.
+         */
+        protected void disconnectSlowConsumer() {
+            droppedMessages.incrementAndGet();
+            if (!isClosed) {
+                slowConsumerDisconnects.incrementAndGet();
+                Log.warn("Klient " + username + " nie nadążał z odbieraniem wiadomości.");
+                close();
+            }
+        }
+
+        /**
+         * Wysyła tyle zakolejkowanych danych, ile przyjmie gniazdo.
+         * Wywoływana wyłącznie z wątku pętli zdarzeń.
+         */
+        protected void flush() {
+            if (isClosed) {
+                return;
+            }
+            try {
+                ByteBuffer[] gather = loop.gather;
+                while (true) {
+                    ByteBuffer next;
+                    while (inFlight.size() < GATHER_LIMIT && (next = outbound.poll()) != null) {
+                        inFlight.add(next);
+                    }
+                    if (inFlight.isEmpty()) {
+                        break;
+                    }
+                    int count = 0;
+                    for (ByteBuffer buffer : inFlight) {
+                        gather[count++] = buffer;
+                    }
+                    if (tls != null) {
+                        tls.write(gather, 0, count);
+                    } else {
+                        channel.write(gather, 0, count);
+                    }
+                    Arrays.fill(gather, 0, count, null);
+                    while (!inFlight.isEmpty() && !inFlight.peekFirst().hasRemaining()) {
+                        inFlight.pollFirst();
+                        queued.decrementAndGet();
+                    }
+                    if (!inFlight.isEmpty()) {
+                        if (tls == null || tls.hasPendingOutput()) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        } else {
+                            // Uzgadnianie TLS czeka na klienta; dane zostaną wysłane po kolejnym odczycie
+                            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        }
+                        return;
+                    }
+                }
+                if (tls != null && !tls.flush()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                if (closeAfterFlush) {
+                    drained = true;
+                    close();
+                }
+            } catch (IOException e) {
+                Log.error("Błąd podczas wysyłania do klienta " + username + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        /**
+         * Zamyka kanał po wysłaniu wszystkich zakolejkowanych danych.
+         */
+        protected void closeAfterFlush() {
+            closeAfterFlush = true;
+            loop.requestFlush(this);
+        }
+
+        /**
+         * Rozłącza klienta z komunikatem od administratora.
+         */
+        @Override
+        public void disconnect() {
+            disconnect("Zostałeś rozłączony przez administratora.");
+        }
+
+        /**
+         * Wysyła wiadomość pożegnalną na końcu kolejki i zamyka kanał po jej wysłaniu.
+         *
+         * @param farewell Wiadomość pożegnalna lub null.
+         * @return True, jeśli to wywołanie rozpoczęło rozłączanie.
+         */
+        @Override
+        public synchronized boolean disconnect(String farewell) {
+            if (isClosed || closeAfterFlush) {
+                return false;
+            }
+            if (farewell != null) {
+                enqueue(farewell);
+            }
+            closeAfterFlush();
+            return true;
+        }
+
+        /**
+         * Zwraca wiadro żetonów ograniczające wiadomości z tego połączenia.
+         *
+         * @return Wiadro żetonów lub null, jeśli limit na połączenie jest wyłączony.
+         */
+        @Override
+        public TokenBucket getRateLimiter() {
+            return rateLimiter;
+        }
+
+        /**
+         * Zleca pętli zdarzeń natychmiastowe zamknięcie kanału.
+         */
+        @Override
+        public void abort() {
+            loop.execute(this::close);
+        }
+
+        /**
+         * Zwraca chwilę ostatniego odczytu z kanału.
+         *
+         * @return Czas z {@link System#nanoTime()}.
+         */
+        @Override
+        public long getLastRead() {
+            return lastRead;
+        }
+
+        @Override
+        public boolean isHeartbeatEnabled() {
+            return binary || heartbeat;
+        }
+
+        /**
+         * Dopisuje na koniec kolejki wiadomość o zamknięciu serwera i zamyka kanał po jej wysłaniu.
+         */
+        protected void drain() {
+            disconnect(SHUTDOWN_MESSAGE);
+        }
+
+        /**
+         * Natychmiast zamyka kanał i usuwa sesję z serwera.
+         */
+        protected synchronized void close() {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            idleMonitor.stop();
+            sessions.remove(this);
+            if (username != null) {
+                onLogout(this);
+            }
+            outbound.clear();
+            try {
+                if (key != null) {
+                    key.cancel();
+                }
+                // Silnik TLS może obsługiwać tylko wątek pętli; z innych wątków kanał jest zamykany bez pożegnania TLS
+                if (tls != null && Thread.currentThread() == loop) {
+                    tls.close();
+                }
+                channel.close();
+            } catch (IOException e) {
+                Log.error("Błąd podczas zamykania gniazda klienta: " + e.getMessage());
+            }
+            Log.info("Klient " + username + " rozłączony.");
+        }
+    }
+
+    /**
+     * Punkt wejścia aplikacji.
+     *
+     * @param args Argumenty wejściowe.
+     */
+    public static void main(String[] args) {
+        NioChatServer server = new NioChatServer();
+        server.startServer(50000);
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Skrzynki wiadomości prywatnych dla użytkowników, którzy nie są zalogowani.
+ * Wiadomości są dopisywane do jednego pliku {@code mailbox.log}, a indeks skrzynek jest trzymany w pamięci,
+ * więc odbiór po zalogowaniu nie czyta pliku. Odebranie skrzynki zapisuje krótki wpis potwierdzenia.
+ * <p>
+ * Rozmiar jest ograniczony: wiadomości starsze niż TTL wygasają, każda skrzynka mieści najwyżej
+ * {@link #perUserLimit} wiadomości, a łączny rozmiar treści nie przekracza {@link #maxBytes}
+ * (usuwane są najstarsze wiadomości wszystkich skrzynek). Te same reguły są stosowane przy odczycie pliku,
+ * więc usuwanie nie wymaga zapisu. Gdy plik jest ponad dwa razy większy od treści wciąż oczekujących,
+ * jest przepisywany od nowa.
+ * <p>
+ * Format wpisu: {@code int długość, byte rodzaj, long id, long czas, short długość nazwy, nazwa, linia}.
+ * Wpis potwierdzenia nie ma linii, a jego id to ostatnia odebrana wiadomość.
+ */
+public class OfflineMailbox {
+
+    /**
+     * Rodzaj wpisu: wiadomość do skrzynki.
+     */
+    protected static final byte MAIL = 1;
+
+    /**
+     * Rodzaj wpisu: skrzynka odebrana do podanego id włącznie.
+     */
+    protected static final byte ACK = 2;
+
+    /**
+     * Rozmiar nagłówka wpisu bez pola długości.
+     */
+    protected static final int RECORD_HEADER = 1 + 8 + 8 + 2;
+
+    /**
+     * Najmniejszy rozmiar pliku, od którego opłaca się go przepisywać.
+     */
+    protected static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    /**
+     * Ścieżka pliku skrzynek.
+     */
+    protected final Path file;
+
+    /**
+     * Czas życia wiadomości w milisekundach.
+     */
+    protected final long ttlMillis;
+
+    /**
+     * Maksymalna liczba wiadomości w jednej skrzynce; najstarsze są usuwane.
+     */
+    protected final int perUserLimit;
+
+    /**
+     * Maksymalny łączny rozmiar oczekujących wiadomości w bajtach.
+     */
+    protected final long maxBytes;
+
+    /**
+     * Oczekujące wiadomości według odbiorcy, od najstarszej.
+     */
+    protected final Map<String, ArrayDeque<Mail>> boxes = new HashMap<>();
+
+    /**
+     * Wszystkie wiadomości w kolejności dopisania, do wygaszania i usuwania najstarszych.
+     * Wiadomości już odebrane lub usunięte są pomijane przy zdejmowaniu z kolejki.
+     */
+    protected final ArrayDeque<Mail> byAge = new ArrayDeque<>();
+
+    /**
+     * Łączny rozmiar treści oczekujących wiadomości.
+     */
+    protected long liveBytes;
+
+    /**
+     * Kanał pliku skrzynek otwarty do dopisywania.
+     */
+    protected FileChannel channel;
+
+    /**
+     * Identyfikator następnej wiadomości.
+     */
+    protected long nextId = 1;
+
+    /**
+     * Wiadomość oczekująca w skrzynce.
+     */
+    protected static final class Mail {
+
+        /**
+         * Identyfikator wiadomości, rosnący w obrębie pliku.
+         */
+        final long id;
+
+        /**
+         * Czas dopisania w milisekundach.
+         */
+        final long time;
+
+        /**
+         * Odbiorca wiadomości.
+         */
+        final String user;
+
+        /**
+         * Treść wiadomości w UTF-8, bez znaku końca linii.
+         */
+        final byte[] line;
+
+        /**
+         * Czy wiadomość została odebrana lub usunięta.
+         */
+        boolean removed;
+
+        /**
+         * Tworzy wiadomość.
+         *
+         * @param id   Identyfikator wiadomości.
+         * @param time Czas dopisania.
+         * @param user Odbiorca.
+         * @param line Treść w UTF-8.
+         */
+        Mail(long id, long time, String user, byte[] line) {
+            this.id = id;
+            this.time = time;
+            this.user = user;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Tworzy skrzynki w podanym pliku.
+     *
+     * @param file         Ścieżka pliku skrzynek.
+     * @param ttlMillis    Czas życia wiadomości w milisekundach.
+     * @param perUserLimit Maksymalna liczba wiadomości w jednej skrzynce.
+     * @param maxBytes     Maksymalny łączny rozmiar oczekujących wiadomości.
+     */
+    public OfflineMailbox(Path file, long ttlMillis, int perUserLimit, long maxBytes) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.perUserLimit = Math.max(1, perUserLimit);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Otwiera plik skrzynek i odbudowuje indeks z zapisanych wpisów.
+     *
+     * @throws IOException Gdy nie można odczytać lub utworzyć pliku.
+     */
+    public synchronized void open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // Odczyt całego pliku
+        }
+        buffer.flip();
+        while (buffer.remaining() >= 4 + RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < RECORD_HEADER || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            byte kind = buffer.get();
+            long id = buffer.getLong();
+            long time = buffer.getLong();
+            int userLength = buffer.getShort();
+            if (userLength < 0 || userLength > length - RECORD_HEADER) {
+                buffer.position(start);
+                break;
+            }
+            byte[] userBytes = new byte[userLength];
+            buffer.get(userBytes);
+            byte[] line = new byte[length - RECORD_HEADER - userLength];
+            buffer.get(line);
+            String user = new String(userBytes, StandardCharsets.UTF_8);
+            if (kind == MAIL) {
+                // Usuwanie jest odtwarzane w tej samej kolejności co przy dopisywaniu
+                remember(new Mail(id, time, user, line));
+                expire(time);
+                nextId = Math.max(nextId, id + 1);
+            } else if (kind == ACK) {
+                acknowledge(user, id);
+            }
+        }
+        // Niepełny wpis na końcu pliku pochodzi z przerwanego zapisu
+        channel.truncate(buffer.position());
+        channel.position(buffer.position());
+        expire(System.currentTimeMillis());
+        Log.info("Skrzynki offline otwarte w " + file + " (oczekujące wiadomości: " + pending() + ")");
+    }
+
+    /**
+     * Dopisuje wiadomość do skrzynki odbiorcy.
+     *
+     * @param user Odbiorca wiadomości.
+     * @param line Wiadomość w postaci, w jakiej zostanie wysłana.
+     * @return True, jeśli wiadomość została zapisana.
+     */
+    public synchronized boolean add(String user, String line) {
+        if (channel == null) {
+            return false;
+        }
+        byte[] lineBytes = line.getBytes(StandardCharsets.UTF_8);
+        if (lineBytes.length > maxBytes) {
+            return false;
+        }
+        Mail mail = new Mail(nextId, System.currentTimeMillis(), user, lineBytes);
+        try {
+            write(MAIL, mail.id, mail.time, user, lineBytes);
+        } catch (IOException e) {
+            Log.error("Błąd podczas zapisu do skrzynki offline: " + e.getMessage());
+            return false;
+        }
+        nextId++;
+        remember(mail);
+        expire(mail.time);
+        return true;
+    }
+
+    /**
+     * Odbiera wszystkie oczekujące wiadomości użytkownika i usuwa je ze skrzynki.
+     *
+     * @param user Nazwa użytkownika.
+     * @return Wiadomości od najstarszej; pusta lista, jeśli skrzynka jest pusta.
+     */
+    public synchronized List<String> take(String user) {
+        if (channel == null) {
+            return Collections.emptyList();
+        }
+        expire(System.currentTimeMillis());
+        ArrayDeque<Mail> box = boxes.get(user);
+        if (box == null) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>(box.size());
+        for (Mail mail : box) {
+            lines.add(new String(mail.line, StandardCharsets.UTF_8));
+        }
+        long lastId = box.peekLast().id;
+        acknowledge(user, lastId);
+        try {
+            write(ACK, lastId, System.currentTimeMillis(), user, new byte[0]);
+            compactIfNeeded();
+        } catch (IOException e) {
+            Log.error("Błąd podczas zapisu do skrzynki offline: " + e.getMessage());
+        }
+        return lines;
+    }
+
+    /**
+     * Zwraca liczbę oczekujących wiadomości we wszystkich skrzynkach.
+     *
+     * @return Liczba wiadomości.
+     */
+    public synchronized int pending() {
+        int count = 0;
+        for (ArrayDeque<Mail> box : boxes.values()) {
+            count += box.size();
+        }
+        return count;
+    }
+
+    /**
+     * Zapisuje plik na dysk i zamyka skrzynki.
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Błąd podczas zamykania skrzynek offline: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Dodaje wiadomość do indeksu, usuwając najstarsze ponad limit skrzynki i limit rozmiaru.
+     *
+     * @param mail Wiadomość do dodania.
+     */
+    protected void remember(Mail mail) {
+        ArrayDeque<Mail> box = boxes.computeIfAbsent(mail.user, u -> new ArrayDeque<>());
+        if (box.size() == perUserLimit) {
+            evict(box.pollFirst());
+        }
+        box.addLast(mail);
+        byAge.addLast(mail);
+        liveBytes += mail.line.length;
+        while (liveBytes > maxBytes) {
+            Mail oldest = byAge.pollFirst();
+            if (!oldest.removed) {
+                ArrayDeque<Mail> oldestBox = boxes.get(oldest.user);
+                oldestBox.pollFirst();
+                if (oldestBox.isEmpty()) {
+                    boxes.remove(oldest.user);
+                }
+                evict(oldest);
+            }
+        }
+    }
+
+    /**
+     * Usuwa z indeksu wiadomości starsze niż TTL.
+     *
+     * @param now Bieżący czas w milisekundach.
+     */
+    protected void expire(long now) {
+        Mail oldest;
+        while ((oldest = byAge.peekFirst()) != null && (oldest.removed || now - oldest.time > ttlMillis)) {
+            byAge.pollFirst();
+            if (!oldest.removed) {
+                ArrayDeque<Mail> box = boxes.get(oldest.user);
+                box.pollFirst();
+                if (box.isEmpty()) {
+                    boxes.remove(oldest.user);
+                }
+                evict(oldest);
+            }
+        }
+    }
+
+    /**
+     * Usuwa z indeksu wiadomości użytkownika do podanego id włącznie.
+     *
+     * @param user Nazwa użytkownika.
+     * @param id   Id ostatniej odebranej wiadomości.
+     */
+    protected void acknowledge(String user, long id) {
+        ArrayDeque<Mail> box = boxes.get(user);
+        if (box == null) {
+            return;
+        }
+        while (!box.isEmpty() && box.peekFirst().id <= id) {
+            evict(box.pollFirst());
+        }
+        if (box.isEmpty()) {
+            boxes.remove(user);
+        }
+    }
+
+    /**
+     * Oznacza wiadomość jako usuniętą i odejmuje jej rozmiar. Kolejka {@link #byAge} zdejmuje ją później.
+     *
+     * @param mail Usuwana wiadomość.
+     */
+    protected void evict(Mail mail) {
+        mail.removed = true;
+        liveBytes -= mail.line.length;
+    }
+
+    /**
+     * Dopisuje wpis na koniec pliku.
+     *
+     * @param kind Rodzaj wpisu.
+     * @param id   Id wiadomości.
+     * @param time Czas wpisu.
+     * @param user Nazwa użytkownika.
+     * @param line Treść wiadomości lub pusta tablica.
+     * @throws IOException Gdy zapis się nie powiódł.
+     */
+    protected void write(byte kind, long id, long time, String user, byte[] line) throws IOException {
+        byte[] userBytes = user.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + RECORD_HEADER + userBytes.length + line.length);
+        record.putInt(RECORD_HEADER + userBytes.length + line.length)
+                .put(kind)
+                .putLong(id)
+                .putLong(time)
+                .putShort((short) userBytes.length)
+                .put(userBytes)
+                .put(line)
+                .flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * Przepisuje plik, zostawiając tylko oczekujące wiadomości, jeśli zajmuje ponad dwa razy więcej niż one.
+     * Nowy plik zastępuje stary atomowo, więc przerwane przepisywanie nie traci wiadomości.
+     * Poprzedni kanał jest zamykany dopiero po podmianie pliku, a gdy podmiana się nie uda, pozostaje w użyciu.
+     *
+     * @throws IOException Gdy nie można zapisać nowego pliku.
+     */
+    protected void compactIfNeeded() throws IOException {
+        long size = channel.position();
+        if (size < COMPACT_MIN_BYTES || size < 2 * liveBytes) {
+            return;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel previous = channel;
+        channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            for (Mail mail : byAge) {
+                if (!mail.removed) {
+                    write(MAIL, mail.id, mail.time, mail.user, mail.line);
+                }
+            }
+            channel.force(false);
+            // Nowy kanał zostaje otwarty i po przeniesieniu wskazuje już plik docelowy
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            channel.close();
+            channel = previous;
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        previous.close();
+        Log.info("Przepisano plik skrzynek offline z " + size + " do " + channel.size() + " bajtów.");
+    }
+}
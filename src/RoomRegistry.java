@@ -0,0 +1,89 @@
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indeks członkostwa w pokojach czatu.
+ * Każdy pokój ma własny współbieżny zbiór członków, więc wejście lub wyjście z pokoju
+ * dotyka tylko tego pokoju, a rozsyłanie przegląda wyłącznie jego członków.
+ * Pusty pokój jest usuwany automatycznie.
+ */
+public class RoomRegistry {
+
+    /**
+     * Członkowie pokoi według nazwy pokoju.
+     */
+    protected final ConcurrentHashMap<String, Set<ChatSession>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * Przenosi sesję do podanego pokoju, usuwając ją z poprzedniego.
+     *
+     * @param room    Nazwa pokoju docelowego.
+     * @param session Sesja klienta.
+     */
+    public void join(String room, ChatSession session) {
+        String previous = session.getRoom();
+        if (room.equals(previous)) {
+            return;
+        }
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(session);
+            return members;
+        });
+        session.setRoom(room);
+        if (previous != null) {
+            remove(previous, session);
+        }
+    }
+
+    /**
+     * Usuwa sesję z pokoju, w którym przebywa.
+     *
+     * @param session Sesja klienta.
+     */
+    public void leave(ChatSession session) {
+        String room = session.getRoom();
+        if (room != null) {
+            session.setRoom(null);
+            remove(room, session);
+        }
+    }
+
+    /**
+     * Zwraca członków pokoju. Zbiór jest widokiem na żywo i może być przeglądany współbieżnie.
+     *
+     * @param room Nazwa pokoju.
+     * @return Członkowie pokoju lub pusty zbiór, jeśli pokój nie istnieje.
+     */
+    public Set<ChatSession> members(String room) {
+        if (room == null) {
+            return Collections.emptySet();
+        }
+        return rooms.getOrDefault(room, Collections.emptySet());
+    }
+
+    /**
+     * Zwraca nazwy istniejących pokoi.
+     *
+     * @return Zbiór nazw pokoi.
+     */
+    public Set<String> roomNames() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    /**
+     * Usuwa sesję ze zbioru członków pokoju i usuwa pokój, jeśli został pusty.
+     *
+     * @param room    Nazwa pokoju.
+     * @param session Sesja klienta.
+     */
+    protected void remove(String room, ChatSession session) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(session);
+            return members.isEmpty() ? null : members;
+        });
+    }
+}
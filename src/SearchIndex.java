@@ -0,0 +1,543 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indeks odwrócony historii czatu do wyszukiwania wiadomości po słowach, autorze i przedziale czasu.
+ * <p>
+ * Wiadomości trafiają do indeksu przez ograniczoną kolejkę opróżnianą przez osobny wątek,
+ * więc rozsyłanie wiadomości nie czeka na indeksowanie. Indeks składa się z segmentów po
+ * {@link #SEGMENT_DOCS} wiadomości; najstarszy segment jest usuwany po przekroczeniu limitu.
+ * W segmencie każde słowo, każdy autor i każdy pokój ma rosnącą listę numerów wiadomości, a czasy wiadomości
+ * są niemalejące, więc przedział czasu to wyszukiwanie binarne, a zapytanie to przecięcie list
+ * przeglądane od najnowszej wiadomości do zebrania żądanej liczby wyników. Lista pokoju jest zawsze
+ * częścią przecięcia, więc zapytanie w cichym pokoju przegląda tylko jego wiadomości.
+ */
+public class SearchIndex {
+
+    /**
+     * Liczba wiadomości w jednym segmencie indeksu.
+     */
+    protected static final int SEGMENT_DOCS = 1 << 18;
+
+    /**
+     * Pojemność kolejki wiadomości czekających na zaindeksowanie.
+     */
+    protected static final int QUEUE_CAPACITY = 65536;
+
+    /**
+     * Format daty w wynikach wyszukiwania.
+     */
+    protected static final DateTimeFormatter RESULT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /**
+     * Maksymalna liczba przechowywanych segmentów.
+     */
+    protected final int maxSegments;
+
+    /**
+     * Segmenty indeksu od najstarszego.
+     */
+    protected final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    /**
+     * Wiadomości czekające na zaindeksowanie.
+     */
+    protected final BlockingQueue<Document> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Słownik nazw pokoi i autorów zamienianych na numery.
+     */
+    protected final Map<String, Integer> names = new HashMap<>();
+
+    /**
+     * Liczba zaindeksowanych wiadomości od startu.
+     */
+    protected final AtomicLong indexed = new AtomicLong();
+
+    /**
+     * Liczba wiadomości pominiętych, bo kolejka była pełna.
+     */
+    protected final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Czas ostatniej zaindeksowanej wiadomości, pilnujący niemalejących czasów w segmencie.
+     */
+    protected long lastTime;
+
+    /**
+     * Wątek indeksujący.
+     */
+    protected Thread indexer;
+
+    /**
+     * Czy indeks przyjmuje wiadomości.
+     */
+    protected volatile boolean running;
+
+    /**
+     * Wiadomość czekająca w kolejce na zaindeksowanie.
+     */
+    protected static final class Document {
+
+        /**
+         * Czas wysłania w milisekundach.
+         */
+        final long time;
+
+        /**
+         * Pokój wiadomości.
+         */
+        final String room;
+
+        /**
+         * Linia w postaci {@code autor: treść}.
+         */
+        final String line;
+
+        /**
+         * Tworzy wiadomość do zaindeksowania.
+         *
+         * @param time Czas wysłania.
+         * @param room Pokój.
+         * @param line Linia wiadomości.
+         */
+        Document(long time, String room, String line) {
+            this.time = time;
+            this.room = room;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Rosnąca lista numerów wiadomości w segmencie.
+     */
+    protected static final class Postings {
+
+        /**
+         * Numery wiadomości.
+         */
+        int[] docs = new int[4];
+
+        /**
+         * Liczba numerów w {@link #docs}.
+         */
+        int size;
+
+        /**
+         * Dopisuje numer wiadomości, pomijając powtórzenie ostatniego.
+         *
+         * @param doc Numer wiadomości nie mniejszy od ostatniego.
+         */
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        /**
+         * Sprawdza, czy lista zawiera numer wiadomości.
+         *
+         * @param doc Numer wiadomości.
+         * @return True, jeśli numer jest na liście.
+         */
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+
+        /**
+         * Zwraca pozycję ostatniego numeru mniejszego od podanego.
+         *
+         * @param doc Górna granica wyłączna.
+         * @return Pozycja na liście lub -1, jeśli wszystkie numery są nie mniejsze.
+         */
+        int lastBefore(int doc) {
+            int position = Arrays.binarySearch(docs, 0, size, doc);
+            return (position >= 0 ? position : -position - 1) - 1;
+        }
+    }
+
+    /**
+     * Segment indeksu z wiadomościami i listami numerów dla słów, autorów i pokoi.
+     */
+    protected static final class Segment {
+
+        /**
+         * Czasy wiadomości, niemalejące.
+         */
+        final long[] times = new long[SEGMENT_DOCS];
+
+        /**
+         * Treść wiadomości.
+         */
+        final String[] lines = new String[SEGMENT_DOCS];
+
+        /**
+         * Listy wiadomości według słowa.
+         */
+        final Map<String, Postings> terms = new HashMap<>();
+
+        /**
+         * Listy wiadomości według numeru autora.
+         */
+        final Map<Integer, Postings> authors = new HashMap<>();
+
+        /**
+         * Listy wiadomości według numeru pokoju.
+         */
+        final Map<Integer, Postings> rooms = new HashMap<>();
+
+        /**
+         * Liczba wiadomości w segmencie.
+         */
+        int size;
+
+        /**
+         * Zwraca pierwszy numer wiadomości o czasie nie mniejszym od podanego.
+         *
+         * @param time Czas w milisekundach.
+         * @return Numer wiadomości z przedziału {@code [0, size]}.
+         */
+        int firstAtOrAfter(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Zapytanie: słowa, które muszą wystąpić w wiadomości, oraz opcjonalny autor i przedział czasu.
+     */
+    public static final class Query {
+
+        /**
+         * Słowa, które muszą wystąpić w wiadomości.
+         */
+        public final Set<String> terms = new LinkedHashSet<>();
+
+        /**
+         * Autor wiadomości lub null.
+         */
+        public String author;
+
+        /**
+         * Początek przedziału czasu w milisekundach, włącznie.
+         */
+        public long since = Long.MIN_VALUE;
+
+        /**
+         * Koniec przedziału czasu w milisekundach, wyłącznie.
+         */
+        public long until = Long.MAX_VALUE;
+
+        /**
+         * Sprawdza, czy zapytanie cokolwiek ogranicza.
+         *
+         * @return True, jeśli podano słowo, autora lub przedział czasu.
+         */
+        public boolean isEmpty() {
+            return terms.isEmpty() && author == null && since == Long.MIN_VALUE && until == Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Tworzy indeks.
+     *
+     * @param maxMessages Przybliżona maksymalna liczba przechowywanych wiadomości.
+     */
+    public SearchIndex(int maxMessages) {
+        this.maxSegments = Math.max(1, (maxMessages + SEGMENT_DOCS - 1) / SEGMENT_DOCS);
+    }
+
+    /**
+     * Uruchamia wątek indeksujący.
+     */
+    public void start() {
+        running = true;
+        indexer = new Thread(this::indexLoop, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Zatrzymuje wątek indeksujący. Wiadomości czekające w kolejce nie są indeksowane.
+     */
+    public void stop() {
+        running = false;
+        if (indexer != null) {
+            indexer.interrupt();
+        }
+    }
+
+    /**
+     * Przekazuje wiadomość do zaindeksowania w tle. Nie blokuje: przy pełnej kolejce wiadomość jest pomijana.
+     *
+     * @param time Czas wysłania w milisekundach.
+     * @param room Pokój wiadomości.
+     * @param line Linia w postaci {@code autor: treść}.
+     */
+    public void submit(long time, String room, String line) {
+        if (!pending.offer(new Document(time, room, line))) {
+            if (dropped.getAndIncrement() % 10_000 == 0) {
+                Log.warn("Kolejka indeksu wyszukiwania jest pełna, pominięto wiadomości: " + dropped.get());
+            }
+        }
+    }
+
+    /**
+     * Indeksuje wiadomość od razu w bieżącym wątku. Używana przez wątek indeksujący i przy odtwarzaniu dziennika.
+     *
+     * @param time Czas wysłania w milisekundach.
+     * @param room Pokój wiadomości.
+     * @param line Linia w postaci {@code autor: treść}.
+     */
+    public synchronized void add(long time, String room, String line) {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.size == SEGMENT_DOCS) {
+            segment = new Segment();
+            segments.addLast(segment);
+            if (segments.size() > maxSegments) {
+                segments.pollFirst();
+            }
+        }
+        int doc = segment.size++;
+        lastTime = Math.max(lastTime, time);
+        segment.times[doc] = lastTime;
+        segment.lines[doc] = line;
+        segment.rooms.computeIfAbsent(nameId(room), r -> new Postings()).add(doc);
+
+        int separator = line.indexOf(": ");
+        if (separator > 0) {
+            segment.authors.computeIfAbsent(nameId(line.substring(0, separator)), a -> new Postings()).add(doc);
+        }
+        for (String term : tokenize(line.substring(separator > 0 ? separator + 2 : 0))) {
+            segment.terms.computeIfAbsent(term, t -> new Postings()).add(doc);
+        }
+        indexed.incrementAndGet();
+    }
+
+    /**
+     * Wyszukuje wiadomości pokoju pasujące do zapytania, od najnowszej.
+     *
+     * @param room  Pokój, którego historię przeszukać.
+     * @param query Zapytanie.
+     * @param limit Maksymalna liczba wyników.
+     * @return Znalezione wiadomości poprzedzone datą wysłania.
+     */
+    public synchronized List<String> search(String room, Query query, int limit) {
+        Integer roomId = names.get(room);
+        if (roomId == null) {
+            return Collections.emptyList();
+        }
+        Integer authorId = query.author != null ? names.get(query.author) : null;
+        if (query.author != null && authorId == null) {
+            return Collections.emptyList();
+        }
+        List<String> results = new ArrayList<>();
+        Iterator<Segment> newestFirst = segments.descendingIterator();
+        while (newestFirst.hasNext() && results.size() < limit) {
+            searchSegment(newestFirst.next(), roomId, authorId, query, limit, results);
+        }
+        return results;
+    }
+
+    /**
+     * Dopisuje do wyników pasujące wiadomości jednego segmentu, od najnowszej.
+     *
+     * @param segment  Przeszukiwany segment.
+     * @param roomId   Numer pokoju.
+     * @param authorId Numer autora lub null.
+     * @param query    Zapytanie.
+     * @param limit    Maksymalna liczba wyników.
+     * @param results  Lista wyników do uzupełnienia.
+     */
+    protected void searchSegment(Segment segment, int roomId, Integer authorId, Query query, int limit, List<String> results) {
+        int low = query.since == Long.MIN_VALUE ? 0 : segment.firstAtOrAfter(query.since);
+        int high = query.until == Long.MAX_VALUE ? segment.size : segment.firstAtOrAfter(query.until);
+        if (low >= high) {
+            return;
+        }
+        Postings roomDocs = segment.rooms.get(roomId);
+        if (roomDocs == null) {
+            return;
+        }
+        List<Postings> lists = new ArrayList<>();
+        lists.add(roomDocs);
+        if (authorId != null) {
+            Postings author = segment.authors.get(authorId);
+            if (author == null) {
+                return;
+            }
+            lists.add(author);
+        }
+        for (String term : query.terms) {
+            Postings postings = segment.terms.get(term);
+            if (postings == null) {
+                return;
+            }
+            lists.add(postings);
+        }
+        // Przegląda najkrótszą listę, a obecność w pozostałych sprawdza wyszukiwaniem binarnym
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        Postings shortest = lists.get(0);
+        for (int i = shortest.lastBefore(high); i >= 0 && results.size() < limit; i--) {
+            int doc = shortest.docs[i];
+            if (doc < low) {
+                break;
+            }
+            boolean matches = true;
+            for (int j = 1; j < lists.size() && matches; j++) {
+                matches = lists.get(j).contains(doc);
+            }
+            if (matches) {
+                collect(segment, doc, results);
+            }
+        }
+    }
+
+    /**
+     * Dopisuje wiadomość do wyników, poprzedzając ją datą wysłania.
+     *
+     * @param segment Segment z wiadomością.
+     * @param doc     Numer wiadomości.
+     * @param results Lista wyników.
+     */
+    protected void collect(Segment segment, int doc, List<String> results) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(segment.times[doc]), ZoneId.systemDefault());
+        results.add(RESULT_TIME.format(time) + " " + segment.lines[doc]);
+    }
+
+    /**
+     * Zwraca liczbę zaindeksowanych wiadomości od startu.
+     *
+     * @return Liczba wiadomości.
+     */
+    public long indexedCount() {
+        return indexed.get();
+    }
+
+    /**
+     * Parsuje zapytanie z argumentu komendy {@code /search}. Słowa {@code from:autor},
+     * {@code since:rrrr-mm-dd} i {@code until:rrrr-mm-dd} (włącznie z tym dniem) ograniczają autora i czas,
+     * pozostałe słowa muszą wystąpić w wiadomości.
+     *
+     * @param argument Argument komendy.
+     * @return Zapytanie.
+     * @throws IllegalArgumentException Gdy data ma niepoprawny format.
+     */
+    public static Query parse(String argument) {
+        Query query = new Query();
+        for (String word : argument.trim().split("\\s+")) {
+            try {
+                if (word.startsWith("from:") && word.length() > 5) {
+                    query.author = word.substring(5);
+                } else if (word.startsWith("since:")) {
+                    query.since = startOfDay(LocalDate.parse(word.substring(6)));
+                } else if (word.startsWith("until:")) {
+                    query.until = startOfDay(LocalDate.parse(word.substring(6)).plusDays(1));
+                } else {
+                    query.terms.addAll(tokenize(word));
+                }
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Niepoprawna data: " + word);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Dzieli tekst na słowa złożone z liter i cyfr, zapisane małymi literami.
+     *
+     * @param text Tekst wiadomości.
+     * @return Słowa w kolejności wystąpienia, bez powtórzeń.
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Zamienia datę na początek dnia w strefie serwera.
+     *
+     * @param date Data.
+     * @return Czas w milisekundach.
+     */
+    protected static long startOfDay(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Zwraca numer nazwy pokoju lub autora, dodając ją do słownika przy pierwszym użyciu.
+     *
+     * @param name Nazwa.
+     * @return Numer nazwy.
+     */
+    protected int nameId(String name) {
+        return names.computeIfAbsent(name, n -> names.size());
+    }
+
+    /**
+     * Pętla wątku indeksującego: zdejmuje wiadomości z kolejki i dodaje je do indeksu partiami.
+     */
+    protected void indexLoop() {
+        List<Document> batch = new ArrayList<>();
+        try {
+            while (running) {
+                Document first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, 1023);
+                synchronized (this) {
+                    for (Document document : batch) {
+                        add(document.time, document.room, document.line);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Indeks został zatrzymany
+        }
+    }
+}
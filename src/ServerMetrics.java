@@ -0,0 +1,486 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metryki działania serwera czatu: liczniki, tempo na sekundę, głębokość kolejek i czas rozsyłania.
+ * Zapis na ścieżce wiadomości to wyłącznie inkrementacje {@link LongAdder} i {@link AtomicHistogram}, bez alokacji.
+ * Metryki są dostępne przez JMX ({@link ServerMetricsMBean}) oraz jako tekst pod adresem
+ * {@code http://127.0.0.1:<port>/metrics}, w formacie zgodnym z Prometheusem.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    /**
+     * Serwer, którego liczniki i kolejki są odczytywane.
+     */
+    protected final ChatServer server;
+
+    /**
+     * Liczba udanych logowań.
+     */
+    protected final LongAdder logins = new LongAdder();
+
+    /**
+     * Liczba nieudanych logowań.
+     */
+    protected final LongAdder loginFailures = new LongAdder();
+
+    /**
+     * Liczba wiadomości i komend odebranych od klientów.
+     */
+    protected final LongAdder messagesIn = new LongAdder();
+
+    /**
+     * Liczba wiadomości przekazanych do kolejek odbiorców.
+     */
+    protected final LongAdder messagesOut = new LongAdder();
+
+    /**
+     * Czas rozesłania jednej wiadomości do członków pokoju, w nanosekundach.
+     */
+    protected final AtomicHistogram broadcastFanout = new AtomicHistogram();
+
+    /**
+     * Logowania w ostatniej sekundzie.
+     */
+    protected volatile double loginsPerSecond;
+
+    /**
+     * Wiadomości przychodzące w ostatniej sekundzie.
+     */
+    protected volatile double messagesInPerSecond;
+
+    /**
+     * Wiadomości wychodzące w ostatniej sekundzie.
+     */
+    protected volatile double messagesOutPerSecond;
+
+    /**
+     * Wątek liczący tempo na sekundę.
+     */
+    protected Thread sampler;
+
+    /**
+     * Serwer HTTP udostępniający metryki lub null, jeśli jest wyłączony.
+     */
+    protected HttpServer httpServer;
+
+    /**
+     * Nazwa zarejestrowanego MBeana lub null.
+     */
+    protected ObjectName objectName;
+
+    /**
+     * Tworzy metryki dla podanego serwera.
+     *
+     * @param server Serwer czatu.
+     */
+    public ServerMetrics(ChatServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Rejestruje MBean, uruchamia liczenie tempa i opcjonalnie punkt HTTP.
+     *
+     * @param chatPort Port serwera czatu, używany w nazwie MBeana.
+     * @param httpPort Port punktu HTTP na adresie lokalnym; wartość mniejsza od 1 go wyłącza.
+     * @throws IOException Gdy nie można uruchomić punktu HTTP.
+     */
+    public synchronized void start(int chatPort, int httpPort) throws IOException {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("ChatServer:type=Metrics,port=" + chatPort);
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+            mbeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            Log.warn("Nie można zarejestrować metryk w JMX: " + e.getMessage());
+        }
+
+        sampler = new Thread(this::sampleLoop, "metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        if (httpPort > 0) {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.start();
+            Log.info("Metryki dostępne pod http://127.0.0.1:" + httpPort + "/metrics");
+        }
+    }
+
+    /**
+     * Wyrejestrowuje MBean i zatrzymuje wątek tempa oraz punkt HTTP.
+     */
+    public synchronized void stop() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // MBean został już wyrejestrowany
+            }
+            objectName = null;
+        }
+        if (sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Zapisuje udane logowanie.
+     */
+    public void loginSucceeded() {
+        logins.increment();
+    }
+
+    /**
+     * Zapisuje nieudane logowanie.
+     */
+    public void loginFailed() {
+        loginFailures.increment();
+    }
+
+    /**
+     * Zapisuje wiadomość lub komendę odebraną od klienta.
+     */
+    public void messageReceived() {
+        messagesIn.increment();
+    }
+
+    /**
+     * Zapisuje rozesłanie wiadomości.
+     *
+     * @param recipients   Liczba odbiorców, do których trafiła wiadomość.
+     * @param elapsedNanos Czas rozsyłania w nanosekundach.
+     */
+    public void broadcastCompleted(int recipients, long elapsedNanos) {
+        messagesOut.add(recipients);
+        broadcastFanout.record(elapsedNanos);
+    }
+
+    /**
+     * Zapisuje wiadomość przekazaną jednemu odbiorcy poza rozsyłaniem do pokoju.
+     */
+    public void messageSent() {
+        messagesOut.increment();
+    }
+
+    /**
+     * Zwraca liczbę aktywnych połączeń.
+     *
+     * @return Liczba połączeń.
+     */
+    @Override
+    public int getConnections() {
+        return server.getConnectionCount();
+    }
+
+    /**
+     * Zwraca liczbę udanych logowań od startu serwera.
+     *
+     * @return Liczba logowań.
+     */
+    @Override
+    public long getLoginsTotal() {
+        return logins.sum();
+    }
+
+    /**
+     * Zwraca liczbę nieudanych logowań od startu serwera.
+     *
+     * @return Liczba nieudanych logowań.
+     */
+    @Override
+    public long getLoginFailuresTotal() {
+        return loginFailures.sum();
+    }
+
+    /**
+     * Zwraca liczbę udanych logowań w ostatniej sekundzie.
+     *
+     * @return Logowania na sekundę.
+     */
+    @Override
+    public double getLoginsPerSecond() {
+        return loginsPerSecond;
+    }
+
+    /**
+     * Zwraca liczbę wiadomości odebranych od klientów od startu serwera.
+     *
+     * @return Liczba wiadomości przychodzących.
+     */
+    @Override
+    public long getMessagesInTotal() {
+        return messagesIn.sum();
+    }
+
+    /**
+     * Zwraca liczbę wiadomości przekazanych do odbiorców od startu serwera.
+     *
+     * @return Liczba wiadomości wychodzących.
+     */
+    @Override
+    public long getMessagesOutTotal() {
+        return messagesOut.sum();
+    }
+
+    /**
+     * Zwraca liczbę wiadomości odebranych w ostatniej sekundzie.
+     *
+     * @return Wiadomości przychodzące na sekundę.
+     */
+    @Override
+    public double getMessagesInPerSecond() {
+        return messagesInPerSecond;
+    }
+
+    /**
+     * Zwraca liczbę wiadomości przekazanych do odbiorców w ostatniej sekundzie.
+     *
+     * @return Wiadomości wychodzące na sekundę.
+     */
+    @Override
+    public double getMessagesOutPerSecond() {
+        return messagesOutPerSecond;
+    }
+
+    /**
+     * Zwraca liczbę wiadomości odrzuconych z powodu przepełnienia kolejek.
+     *
+     * @return Liczba odrzuconych wiadomości.
+     */
+    @Override
+    public long getDroppedMessages() {
+        return server.droppedMessages.get();
+    }
+
+    /**
+     * Zwraca liczbę klientów rozłączonych z powodu zbyt wolnego odbierania.
+     *
+     * @return Liczba rozłączonych klientów.
+     */
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return server.slowConsumerDisconnects.get();
+    }
+
+    /**
+     * Zwraca liczbę wiadomości wstrzymanych lub odrzuconych przez limit wiadomości.
+     *
+     * @return Liczba ograniczonych wiadomości.
+     */
+    @Override
+    public long getRateLimitedMessages() {
+        return server.rateLimitedMessages.get();
+    }
+
+    /**
+     * Zwraca liczbę klientów rozłączonych za przekroczenie limitu wiadomości.
+     *
+     * @return Liczba rozłączonych klientów.
+     */
+    @Override
+    public long getRateLimitDisconnects() {
+        return server.rateLimitDisconnects.get();
+    }
+
+    /**
+     * Zwraca liczbę logowań odrzuconych, bo pula weryfikująca była pełna.
+     *
+     * @return Liczba odrzuconych logowań.
+     */
+    @Override
+    public long getRejectedLogins() {
+        return server.rejectedLogins.get();
+    }
+
+    /**
+     * Zwraca liczbę połączeń zamkniętych, bo klient nie zalogował się w wyznaczonym czasie.
+     *
+     * @return Liczba zamkniętych połączeń.
+     */
+    @Override
+    public long getLoginTimeouts() {
+        return server.loginTimeouts.get();
+    }
+
+    /**
+     * Zwraca liczbę połączeń zamkniętych, bo klient zbyt długo nie przysłał żadnych danych.
+     *
+     * @return Liczba zamkniętych połączeń.
+     */
+    @Override
+    public long getIdleDisconnects() {
+        return server.idleDisconnects.get();
+    }
+
+    /**
+     * Zwraca łączną liczbę wiadomości oczekujących w kolejkach wychodzących.
+     *
+     * @return Suma głębokości kolejek.
+     */
+    @Override
+    public long getQueueDepthTotal() {
+        return server.queueDepths()[0];
+    }
+
+    /**
+     * Zwraca głębokość najdłuższej kolejki wychodzącej.
+     *
+     * @return Największa głębokość kolejki.
+     */
+    @Override
+    public long getQueueDepthMax() {
+        return server.queueDepths()[1];
+    }
+
+    /**
+     * Zwraca medianę czasu rozesłania wiadomości do pokoju.
+     *
+     * @return Czas w mikrosekundach.
+     */
+    @Override
+    public double getBroadcastFanoutP50Micros() {
+        return broadcastFanout.snapshot().valueAtPercentile(50) / 1e3;
+    }
+
+    /**
+     * Zwraca 99. percentyl czasu rozesłania wiadomości do pokoju.
+     *
+     * @return Czas w mikrosekundach.
+     */
+    @Override
+    public double getBroadcastFanoutP99Micros() {
+        return broadcastFanout.snapshot().valueAtPercentile(99) / 1e3;
+    }
+
+    /**
+     * Zwraca najdłuższy czas rozesłania wiadomości do pokoju.
+     *
+     * @return Czas w mikrosekundach.
+     */
+    @Override
+    public double getBroadcastFanoutMaxMicros() {
+        return broadcastFanout.snapshot().getMax() / 1e3;
+    }
+
+    /**
+     * Zwraca wszystkie metryki w tekstowym formacie Prometheusa.
+     *
+     * @return Tekst metryk, jedna wartość na linię.
+     */
+    public String scrape() {
+        long[] depths = server.queueDepths();
+        LatencyHistogram fanout = broadcastFanout.snapshot();
+        StringBuilder text = new StringBuilder(1024);
+        appendMetric(text, "chat_connections", "gauge", "Aktywne połączenia.", getConnections());
+        appendMetric(text, "chat_logins_total", "counter", "Udane logowania.", getLoginsTotal());
+        appendMetric(text, "chat_login_failures_total", "counter", "Nieudane logowania.", getLoginFailuresTotal());
+        appendMetric(text, "chat_logins_per_second", "gauge", "Udane logowania w ostatniej sekundzie.", loginsPerSecond);
+        appendMetric(text, "chat_messages_in_total", "counter", "Wiadomości odebrane od klientów.", getMessagesInTotal());
+        appendMetric(text, "chat_messages_out_total", "counter", "Wiadomości przekazane odbiorcom.", getMessagesOutTotal());
+        appendMetric(text, "chat_messages_in_per_second", "gauge", "Wiadomości odebrane w ostatniej sekundzie.", messagesInPerSecond);
+        appendMetric(text, "chat_messages_out_per_second", "gauge", "Wiadomości przekazane w ostatniej sekundzie.", messagesOutPerSecond);
+        appendMetric(text, "chat_dropped_messages_total", "counter", "Wiadomości odrzucone przy pełnej kolejce.", getDroppedMessages());
+        appendMetric(text, "chat_slow_consumer_disconnects_total", "counter", "Klienci rozłączeni za wolne odbieranie.", getSlowConsumerDisconnects());
+        appendMetric(text, "chat_rate_limited_messages_total", "counter", "Wiadomości wstrzymane lub odrzucone przez limit.", getRateLimitedMessages());
+        appendMetric(text, "chat_rate_limit_disconnects_total", "counter", "Klienci rozłączeni za przekroczenie limitu.", getRateLimitDisconnects());
+        appendMetric(text, "chat_rejected_logins_total", "counter", "Logowania odrzucone przy pełnej puli weryfikującej.", getRejectedLogins());
+        appendMetric(text, "chat_login_timeouts_total", "counter", "Połączenia zamknięte z powodu braku logowania w czasie.", getLoginTimeouts());
+        appendMetric(text, "chat_idle_disconnects_total", "counter", "Połączenia zamknięte z powodu bezczynności klienta.", getIdleDisconnects());
+        appendMetric(text, "chat_queue_depth_total", "gauge", "Wiadomości w kolejkach wychodzących.", depths[0]);
+        appendMetric(text, "chat_queue_depth_max", "gauge", "Najdłuższa kolejka wychodząca.", depths[1]);
+
+        text.append("# HELP chat_broadcast_fanout_seconds Czas rozesłania wiadomości do pokoju.\n");
+        text.append("# TYPE chat_broadcast_fanout_seconds summary\n");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            text.append("chat_broadcast_fanout_seconds{quantile=\"").append(quantile).append("\"} ")
+                    .append(format(fanout.valueAtPercentile(quantile * 100) / 1e9)).append('\n');
+        }
+        text.append("chat_broadcast_fanout_seconds_sum ").append(format(fanout.getMean() * fanout.getTotalCount() / 1e9)).append('\n');
+        text.append("chat_broadcast_fanout_seconds_count ").append(fanout.getTotalCount()).append('\n');
+        return text.toString();
+    }
+
+    /**
+     * Dopisuje jedną metrykę z opisem i typem.
+     *
+     * @param text  Bufor wyjściowy.
+     * @param name  Nazwa metryki.
+     * @param type  Typ metryki Prometheusa.
+     * @param help  Opis metryki.
+     * @param value Wartość.
+     */
+    protected static void appendMetric(StringBuilder text, String name, String type, String help, double value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Formatuje wartość liczbową bez zbędnej części ułamkowej.
+     *
+     * @param value Wartość.
+     * @return Tekst wartości.
+     */
+    protected static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+
+    /**
+     * Pętla liczenia tempa: co sekundę zapisuje przyrost liczników od poprzedniego pomiaru.
+     */
+    protected void sampleLoop() {
+        long lastLogins = logins.sum();
+        long lastIn = messagesIn.sum();
+        long lastOut = messagesOut.sum();
+        long lastTime = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(1000);
+                long now = System.nanoTime();
+                double seconds = (now - lastTime) / 1e9;
+                long currentLogins = logins.sum();
+                long currentIn = messagesIn.sum();
+                long currentOut = messagesOut.sum();
+                loginsPerSecond = (currentLogins - lastLogins) / seconds;
+                messagesInPerSecond = (currentIn - lastIn) / seconds;
+                messagesOutPerSecond = (currentOut - lastOut) / seconds;
+                lastLogins = currentLogins;
+                lastIn = currentIn;
+                lastOut = currentOut;
+                lastTime = now;
+            }
+        } catch (InterruptedException e) {
+            // Metryki zostały zatrzymane
+        }
+    }
+}
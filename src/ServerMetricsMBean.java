@@ -0,0 +1,145 @@
+/**
+ * Interfejs JMX metryk serwera czatu, rejestrowany jako {@code ChatServer:type=Metrics,port=...}.
+ */
+public interface ServerMetricsMBean {
+
+    /**
+     * Zwraca liczbę aktywnych połączeń.
+     *
+     * @return Liczba połączeń.
+     */
+    int getConnections();
+
+    /**
+     * Zwraca liczbę udanych logowań od startu serwera.
+     *
+     * @return Liczba logowań.
+     */
+    long getLoginsTotal();
+
+    /**
+     * Zwraca liczbę nieudanych logowań od startu serwera.
+     *
+     * @return Liczba nieudanych logowań.
+     */
+    long getLoginFailuresTotal();
+
+    /**
+     * Zwraca liczbę udanych logowań w ostatniej sekundzie.
+     *
+     * @return Logowania na sekundę.
+     */
+    double getLoginsPerSecond();
+
+    /**
+     * Zwraca liczbę wiadomości odebranych od klientów od startu serwera.
+     *
+     * @return Liczba wiadomości przychodzących.
+     */
+    long getMessagesInTotal();
+
+    /**
+     * Zwraca liczbę wiadomości przekazanych do odbiorców od startu serwera.
+     *
+     * @return Liczba wiadomości wychodzących.
+     */
+    long getMessagesOutTotal();
+
+    /**
+     * Zwraca liczbę wiadomości odebranych w ostatniej sekundzie.
+     *
+     * @return Wiadomości przychodzące na sekundę.
+     */
+    double getMessagesInPerSecond();
+
+    /**
+     * Zwraca liczbę wiadomości przekazanych do odbiorców w ostatniej sekundzie.
+     *
+     * @return Wiadomości wychodzące na sekundę.
+     */
+    double getMessagesOutPerSecond();
+
+    /**
+     * Zwraca liczbę wiadomości odrzuconych z powodu przepełnienia kolejek.
+     *
+     * @return Liczba odrzuconych wiadomości.
+     */
+    long getDroppedMessages();
+
+    /**
+     * Zwraca liczbę klientów rozłączonych z powodu zbyt wolnego odbierania.
+     *
+     * @return Liczba rozłączonych klientów.
+     */
+    long getSlowConsumerDisconnects();
+
+    /**
+     * Zwraca liczbę wiadomości wstrzymanych lub odrzuconych przez limit wiadomości.
+     *
+     * @return Liczba ograniczonych wiadomości.
+     */
+    long getRateLimitedMessages();
+
+    /**
+     * Zwraca liczbę klientów rozłączonych za przekroczenie limitu wiadomości.
+     *
+     * @return Liczba rozłączonych klientów.
+     */
+    long getRateLimitDisconnects();
+
+    /**
+     * Zwraca liczbę logowań odrzuconych, bo pula weryfikująca była pełna.
+     *
+     * @return Liczba odrzuconych logowań.
+     */
+    long getRejectedLogins();
+
+    /**
+     * Zwraca liczbę połączeń zamkniętych, bo klient nie zalogował się w wyznaczonym czasie.
+     *
+     * @return Liczba zamkniętych połączeń.
+     */
+    long getLoginTimeouts();
+
+    /**
+     * Zwraca liczbę połączeń zamkniętych, bo klient zbyt długo nie przysłał żadnych danych.
+     *
+     * @return Liczba zamkniętych połączeń.
+     */
+    long getIdleDisconnects();
+
+    /**
+     * Zwraca łączną liczbę wiadomości oczekujących w kolejkach wychodzących.
+     *
+     * @return Suma głębokości kolejek.
+     */
+    long getQueueDepthTotal();
+
+    /**
+     * Zwraca głębokość najdłuższej kolejki wychodzącej.
+     *
+     * @return Największa głębokość kolejki.
+     */
+    long getQueueDepthMax();
+
+    /**
+     * Zwraca medianę czasu rozesłania wiadomości do pokoju.
+     *
+     * @return Czas w mikrosekundach.
+     */
+    double getBroadcastFanoutP50Micros();
+
+    /**
+     * Zwraca 99. percentyl czasu rozesłania wiadomości do pokoju.
+     *
+     * @return Czas w mikrosekundach.
+     */
+    double getBroadcastFanoutP99Micros();
+
+    /**
+     * Zwraca najdłuższy czas rozesłania wiadomości do pokoju.
+     *
+     * @return Czas w mikrosekundach.
+     */
+    double getBroadcastFanoutMaxMicros();
+}
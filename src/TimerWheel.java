@@ -0,0 +1,227 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Haszowane koło czasowe: jeden wątek obsługujący terminy wszystkich połączeń.
+ * <p>
+ * Koło ma {@code 2^n} kubełków, a wątek co {@link #tickNanos} przechodzi do następnego i wykonuje zadania,
+ * których termin w nim wypada. Zadanie z terminem dalszym niż jeden obrót koła czeka w kubełku
+ * przez {@link Timeout#rounds} obrotów. Zaplanowanie i anulowanie kosztują stałą liczbę operacji,
+ * a jeden takt przegląda tylko jeden kubełek, więc koszt nie zależy od liczby połączeń w innych kubełkach.
+ * Dokładność terminów jest równa długości taktu, co wystarcza do limitów czasu liczonych w sekundach.
+ * <p>
+ * Zadania są wykonywane w wątku koła, więc muszą być krótkie i nie mogą blokować.
+ */
+public class TimerWheel {
+
+    /**
+     * Długość jednego taktu w nanosekundach.
+     */
+    protected final long tickNanos;
+
+    /**
+     * Kubełki koła: początki list zadań.
+     */
+    protected final Timeout[] wheel;
+
+    /**
+     * Maska indeksu kubełka, {@code wheel.length - 1}.
+     */
+    protected final int mask;
+
+    /**
+     * Zadania zaplanowane przez inne wątki, przenoszone do kubełków na początku taktu.
+     */
+    protected final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Wątek koła.
+     */
+    protected final Thread worker;
+
+    /**
+     * Chwila uruchomienia koła z {@link System#nanoTime()}, od której liczy się takty.
+     */
+    protected volatile long startNanos;
+
+    /**
+     * Numer bieżącego taktu. Używany tylko przez wątek koła.
+     */
+    protected long tick;
+
+    /**
+     * Flaga działania koła.
+     */
+    protected volatile boolean running;
+
+    /**
+     * Tworzy koło czasowe.
+     *
+     * @param tickMillis Długość taktu w milisekundach, co najmniej 1.
+     * @param buckets    Liczba kubełków, zaokrąglana w górę do potęgi dwójki.
+     * @param name       Nazwa wątku koła.
+     */
+    public TimerWheel(long tickMillis, int buckets, String name) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Uruchamia wątek koła.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        running = true;
+        worker.start();
+    }
+
+    /**
+     * Zatrzymuje wątek koła. Zadania, które jeszcze nie nadeszły, nie zostaną wykonane.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Planuje jednorazowe wykonanie zadania. Może być wywołana z dowolnego wątku, także z zadania koła.
+     *
+     * @param task        Krótkie zadanie do wykonania w wątku koła.
+     * @param delayMillis Opóźnienie w milisekundach.
+     * @return Uchwyt pozwalający anulować zadanie.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Pętla wątku koła: czeka na kolejny takt, rozkłada nowe zadania po kubełkach i wykonuje zadania bieżącego kubełka.
+     */
+    protected void run() {
+        while (running) {
+            long wait = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                if (!timeout.cancelled.get()) {
+                    place(timeout);
+                }
+            }
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    /**
+     * Wstawia zadanie do kubełka jego terminu. Zadanie z minionym terminem trafia do bieżącego kubełka.
+     *
+     * @param timeout Zadanie do wstawienia.
+     */
+    protected void place(Timeout timeout) {
+        long due = Math.max((timeout.deadline - startNanos) / tickNanos, tick);
+        timeout.rounds = (due - tick) / wheel.length;
+        int index = (int) (due & mask);
+        timeout.next = wheel[index];
+        wheel[index] = timeout;
+    }
+
+    /**
+     * Wykonuje zadania kubełka, których obroty się skończyły, usuwając też zadania anulowane.
+     *
+     * @param index Indeks kubełka.
+     */
+    protected void expire(int index) {
+        Timeout previous = null;
+        Timeout timeout = wheel[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove = timeout.cancelled.get();
+            if (!remove && timeout.rounds-- <= 0) {
+                remove = true;
+                if (timeout.cancelled.compareAndSet(false, true)) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        Log.error("Błąd w zadaniu koła czasowego: " + e);
+                    }
+                }
+            }
+            if (remove) {
+                if (previous == null) {
+                    wheel[index] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Zadanie zaplanowane w kole czasowym.
+     */
+    public static final class Timeout {
+
+        /**
+         * Zadanie do wykonania.
+         */
+        protected final Runnable task;
+
+        /**
+         * Termin wykonania z {@link System#nanoTime()}.
+         */
+        protected final long deadline;
+
+        /**
+         * Liczba pełnych obrotów koła, które zadanie musi jeszcze przeczekać w kubełku. Używana tylko przez wątek koła.
+         */
+        protected long rounds;
+
+        /**
+         * Następne zadanie w tym samym kubełku. Używane tylko przez wątek koła.
+         */
+        protected Timeout next;
+
+        /**
+         * Czy zadanie zostało anulowane albo już wykonane.
+         */
+        protected final AtomicBoolean cancelled = new AtomicBoolean();
+
+        /**
+         * Tworzy zadanie.
+         *
+         * @param task     Zadanie do wykonania.
+         * @param deadline Termin z {@link System#nanoTime()}.
+         */
+        protected Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Anuluje zadanie. Anulowane zadanie zostaje w kubełku do najbliższego przeglądu, ale nie zostanie wykonane.
+         *
+         * @return True, jeśli zadanie nie zostało jeszcze wykonane ani anulowane.
+         */
+        public boolean cancel() {
+            return cancelled.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Szyfrowanie TLS nieblokującego kanału przez {@link SSLEngine}, bez osobnego wątku na połączenie.
+ * <p>
+ * {@link #read(ByteBuffer)} i {@link #write(ByteBuffer[], int, int)} zachowują się jak odczyt i zapis kanału:
+ * nigdy nie blokują, a uzgadnianie połączenia postępuje przy kolejnych wywołaniach. Zaszyfrowane bajty, których
+ * gniazdo nie przyjęło, czekają w {@link #netOut}, więc właściciel musi czekać na gotowość do zapisu, dopóki
+ * {@link #hasPendingOutput()} zwraca true. Odszyfrowane bajty, które nie zmieściły się w buforze wywołującego,
+ * czekają w {@link #appIn} i są zwracane przy następnym odczycie, także bez nowych danych w kanale.
+ * <p>
+ * Obiekt nie jest bezpieczny wątkowo; używa go tylko wątek pętli zdarzeń sesji.
+ */
+public class TlsTransport {
+
+    /**
+     * Pusty bufor do zapisu komunikatów uzgadniania, które nie niosą danych aplikacji.
+     */
+    protected static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+
+    /**
+     * Szyfrowany kanał.
+     */
+    protected final ByteChannel channel;
+
+    /**
+     * Silnik TLS połączenia.
+     */
+    protected final SSLEngine engine;
+
+    /**
+     * Zaszyfrowane bajty odebrane z kanału, jeszcze nieodszyfrowane; w trybie zapisu.
+     */
+    protected ByteBuffer netIn;
+
+    /**
+     * Odszyfrowane bajty jeszcze nieprzekazane wywołującemu; w trybie zapisu.
+     */
+    protected ByteBuffer appIn;
+
+    /**
+     * Zaszyfrowane bajty jeszcze niezapisane do kanału; w trybie zapisu.
+     */
+    protected ByteBuffer netOut;
+
+    /**
+     * Tworzy szyfrowanie kanału.
+     *
+     * @param channel Kanał w trybie nieblokującym.
+     * @param engine  Silnik TLS w trybie serwera lub klienta.
+     */
+    public TlsTransport(ByteChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * Odczytuje i odszyfrowuje dostępne dane, prowadząc przy okazji uzgadnianie połączenia.
+     *
+     * @param dst Bufor na odszyfrowane dane.
+     * @return Liczba przekazanych bajtów, 0, gdy nie ma jeszcze kompletnego rekordu, albo -1 na końcu połączenia.
+     * @throws IOException Gdy odczyt, zapis lub uzgadnianie się nie powiedzie.
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        while (true) {
+            if (appIn.position() > 0) {
+                appIn.flip();
+                int count = Math.min(appIn.remaining(), dst.remaining());
+                ByteBuffer slice = appIn.duplicate();
+                slice.limit(appIn.position() + count);
+                dst.put(slice);
+                appIn.position(appIn.position() + count);
+                appIn.compact();
+                return count;
+            }
+            if (!handshakeStep()) {
+                return 0;
+            }
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            switch (result.getStatus()) {
+                case OK: {
+                    if (result.bytesConsumed() > 0 || result.bytesProduced() > 0 || needsLocalStep(result.getHandshakeStatus())) {
+                        continue;
+                    }
+                    // Brak postępu: silnik potrzebuje dalszej części rekordu
+                    int read = readRecordData();
+                    if (read <= 0) {
+                        return read;
+                    }
+                    continue;
+                }
+                case BUFFER_UNDERFLOW: {
+                    int read = readRecordData();
+                    if (read <= 0) {
+                        return read;
+                    }
+                    continue;
+                }
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    continue;
+                case CLOSED:
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * Szyfruje i wysyła dane z buforów, ile przyjmie gniazdo.
+     * W trakcie uzgadniania, gdy silnik czeka na odpowiedź drugiej strony, nie szyfruje niczego i zwraca 0;
+     * dane należy wtedy wysłać ponownie po kolejnym odczycie.
+     *
+     * @param srcs   Bufory z danymi.
+     * @param offset Indeks pierwszego bufora.
+     * @param length Liczba buforów.
+     * @return Liczba zaszyfrowanych bajtów danych.
+     * @throws IOException Gdy zapis lub uzgadnianie się nie powiedzie albo połączenie jest zamknięte.
+     */
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        while (handshakeStep()) {
+            if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                return total;
+            }
+            boolean pending = false;
+            for (int i = offset; i < offset + length && !pending; i++) {
+                pending = srcs[i].hasRemaining();
+            }
+            if (!pending) {
+                return total;
+            }
+            SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+            total += result.bytesConsumed();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Połączenie TLS zostało zamknięte");
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && netOut.position() == 0) {
+                netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Zapisuje do kanału zaszyfrowane bajty oczekujące w {@link #netOut} i prowadzi dalej uzgadnianie,
+     * jeśli czekało na wysłanie komunikatów. Wywoływana po zgłoszeniu gotowości kanału do zapisu.
+     *
+     * @return True, jeśli nic już nie czeka na wysłanie.
+     * @throws IOException Gdy zapis lub uzgadnianie się nie powiedzie.
+     */
+    public boolean flush() throws IOException {
+        return handshakeStep();
+    }
+
+    /**
+     * Zapisuje do kanału zaszyfrowane bajty oczekujące w {@link #netOut}.
+     *
+     * @return True, jeśli nic już nie czeka na wysłanie.
+     * @throws IOException Gdy zapis się nie powiedzie.
+     */
+    protected boolean flushNet() throws IOException {
+        if (netOut.position() > 0) {
+            netOut.flip();
+            channel.write(netOut);
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    /**
+     * Sprawdza, czy zaszyfrowane bajty czekają na gotowość kanału do zapisu.
+     *
+     * @return True, jeśli {@link #netOut} nie jest pusty.
+     */
+    public boolean hasPendingOutput() {
+        return netOut.position() > 0;
+    }
+
+    /**
+     * Sprawdza, czy odebrane bajty czekają na odszyfrowanie lub przekazanie,
+     * czyli czy {@link #read(ByteBuffer)} może coś zwrócić bez nowych danych w kanale.
+     *
+     * @return True, jeśli {@link #netIn} lub {@link #appIn} nie jest pusty.
+     */
+    public boolean hasBufferedInput() {
+        return netIn.position() > 0 || appIn.position() > 0;
+    }
+
+    /**
+     * Sprawdza, czy uzgadnianie połączenia się zakończyło.
+     *
+     * @return True, jeśli silnik nie prowadzi uzgadniania.
+     */
+    public boolean isHandshakeComplete() {
+        return engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    /**
+     * Zwraca silnik TLS połączenia, np. aby odczytać parametry sesji.
+     *
+     * @return Silnik TLS.
+     */
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Wysyła drugiej stronie zamknięcie połączenia TLS, jeśli gniazdo od razu je przyjmie.
+     */
+    public void close() {
+        engine.closeOutbound();
+        try {
+            while (!engine.isOutboundDone() && flushNet()) {
+                engine.wrap(EMPTY, 0, 1, netOut);
+            }
+            flushNet();
+        } catch (IOException e) {
+            // Połączenie i tak jest zamykane
+        }
+    }
+
+    /**
+     * Wykonuje kroki uzgadniania, które nie wymagają danych od drugiej strony: zadania silnika i zapis komunikatów.
+     * Zadania silnika (głównie operacje na kluczach) są wykonywane od razu, w wątku wywołującym.
+     *
+     * @return True, jeśli można kontynuować; false, jeśli komunikaty uzgadniania czekają na gotowość kanału do zapisu.
+     * @throws IOException Gdy zapis się nie powiedzie lub połączenie jest zamknięte.
+     */
+    protected boolean handshakeStep() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    if (!flushNet()) {
+                        return false;
+                    }
+                    SSLEngineResult result = engine.wrap(EMPTY, 0, 1, netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        flushNet();
+                        throw new SSLException("Połączenie TLS zostało zamknięte w trakcie uzgadniania");
+                    }
+                    break;
+                default:
+                    return flushNet();
+            }
+        }
+    }
+
+    /**
+     * Sprawdza, czy silnik ma do wykonania krok, który nie wymaga nowych danych.
+     *
+     * @param status Stan uzgadniania.
+     * @return True dla zadania silnika lub komunikatu do wysłania.
+     */
+    protected static boolean needsLocalStep(SSLEngineResult.HandshakeStatus status) {
+        return status == SSLEngineResult.HandshakeStatus.NEED_TASK || status == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+    }
+
+    /**
+     * Doczytuje z kanału dalszą część niepełnego rekordu TLS, w razie potrzeby powiększając {@link #netIn}.
+     *
+     * @return Liczba odczytanych bajtów albo -1 na końcu połączenia.
+     * @throws IOException Gdy odczyt się nie powiedzie.
+     */
+    protected int readRecordData() throws IOException {
+        if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+        }
+        int read = channel.read(netIn);
+        if (read < 0) {
+            engine.closeInbound();
+        }
+        return read;
+    }
+
+    /**
+     * Zwraca bufor z tą samą zawartością i co najmniej podaną wolną przestrzenią.
+     *
+     * @param buffer   Bufor w trybie zapisu.
+     * @param capacity Minimalna pojemność dodatkowa.
+     * @return Nowy, większy bufor w trybie zapisu.
+     */
+    protected static ByteBuffer enlarge(ByteBuffer buffer, int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.position() + Math.max(capacity, buffer.capacity()));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * Tworzy kontekst TLS serwera z magazynu kluczy PKCS12 lub JKS.
+     * Kontekst przechowuje sesje, więc klienci łączący się ponownie wznawiają je bez pełnego uzgadniania.
+     *
+     * @param keyStore Ścieżka magazynu kluczy z kluczem prywatnym i certyfikatem serwera.
+     * @param password Hasło magazynu i klucza.
+     * @return Kontekst TLS serwera.
+     * @throws IOException Gdy nie można wczytać magazynu lub utworzyć kontekstu.
+     */
+    public static SSLContext serverContext(String keyStore, char[] password) throws IOException {
+        try {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(loadKeyStore(keyStore, password), password);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Nie można utworzyć kontekstu TLS serwera: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Tworzy kontekst TLS klienta. Ten sam kontekst trzeba używać przy kolejnych połączeniach,
+     * bo przechowuje sesje do wznowienia.
+     *
+     * @param trustStore Ścieżka magazynu zaufanych certyfikatów lub null, aby użyć domyślnych certyfikatów JVM.
+     * @param password   Hasło magazynu.
+     * @return Kontekst TLS klienta.
+     * @throws IOException Gdy nie można wczytać magazynu lub utworzyć kontekstu.
+     */
+    public static SSLContext clientContext(String trustStore, char[] password) throws IOException {
+        try {
+            if (trustStore == null || trustStore.isEmpty()) {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                return context;
+            }
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(loadKeyStore(trustStore, password));
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trust.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Nie można utworzyć kontekstu TLS klienta: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Tworzy silnik TLS klienta sprawdzający, czy certyfikat serwera został wystawiony dla podanej nazwy hosta.
+     *
+     * @param context Kontekst klienta.
+     * @param host    Nazwa hosta serwera, używana także jako klucz wznawianej sesji.
+     * @param port    Port serwera.
+     * @return Silnik w trybie klienta.
+     */
+    public static SSLEngine clientEngine(SSLContext context, String host, int port) {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setSSLParameters(withHostnameVerification(engine.getSSLParameters()));
+        return engine;
+    }
+
+    /**
+     * Włącza w parametrach sprawdzanie nazwy hosta w certyfikacie serwera.
+     *
+     * @param parameters Parametry połączenia klienta.
+     * @return Te same parametry.
+     */
+    public static SSLParameters withHostnameVerification(SSLParameters parameters) {
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        return parameters;
+    }
+
+    /**
+     * Wczytuje magazyn kluczy, rozpoznając jego typ.
+     *
+     * @param path     Ścieżka magazynu.
+     * @param password Hasło magazynu.
+     * @return Wczytany magazyn.
+     * @throws IOException              Gdy nie można odczytać pliku.
+     * @throws GeneralSecurityException Gdy magazyn jest uszkodzony lub hasło jest błędne.
+     */
+    protected static KeyStore loadKeyStore(String path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(path.endsWith(".jks") ? "JKS" : "PKCS12");
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            store.load(in, password);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wiadro żetonów bez blokad i bez alokacji, do ograniczania liczby wiadomości w czasie.
+ * <p>
+ * Zamiast licznika żetonów przechowuje jedną liczbę: teoretyczną chwilę przybycia następnej wiadomości
+ * ({@code tat}, algorytm GCRA). Każda przyjęta wiadomość przesuwa ją o odstęp {@code 1 s / rate}, a wiadomość
+ * jest przyjmowana, jeśli {@code tat} wyprzedza bieżący czas najwyżej o {@code burst - 1} odstępów.
+ * Stan zmienia jedna operacja CAS, więc to samo wiadro może być używane z wielu wątków.
+ */
+public class TokenBucket {
+
+    /**
+     * Odstęp między żetonami w nanosekundach.
+     */
+    protected final long intervalNanos;
+
+    /**
+     * Dopuszczalne wyprzedzenie {@code tat} przed bieżącym czasem w nanosekundach, wynikające z wielkości serii.
+     */
+    protected final long toleranceNanos;
+
+    /**
+     * Teoretyczna chwila przybycia następnej wiadomości w skali {@link System#nanoTime()}.
+     */
+    protected final AtomicLong tat;
+
+    /**
+     * Tworzy pełne wiadro.
+     *
+     * @param ratePerSecond Liczba żetonów odnawianych na sekundę, większa od zera.
+     * @param burst         Pojemność wiadra, czyli najdłuższa seria wiadomości bez przerwy; co najmniej 1.
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1e9 / ratePerSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Próbuje pobrać jeden żeton.
+     *
+     * @param now Bieżący czas z {@link System#nanoTime()}.
+     * @return True, jeśli żeton był dostępny.
+     */
+    public boolean tryAcquire(long now) {
+        while (true) {
+            long current = tat.get();
+            long start = current - now > 0 ? current : now;
+            if (start - now > toleranceNanos) {
+                return false;
+            }
+            if (tat.compareAndSet(current, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Oddaje żeton pobrany przez {@link #tryAcquire(long)}, gdy wiadomość mimo to nie została przyjęta.
+     * Cofnięcie {@code tat} nie daje więcej niż pełne wiadro, bo przy pobieraniu {@code tat} starsze od bieżącego
+     * czasu i tak liczy się jako bieżący czas.
+     */
+    public void refund() {
+        tat.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * Zwraca czas, po którym będzie dostępny kolejny żeton.
+     *
+     * @param now Bieżący czas z {@link System#nanoTime()}.
+     * @return Czas oczekiwania w nanosekundach; zero, jeśli żeton jest dostępny od razu.
+     */
+    public long nanosUntilAvailable(long now) {
+        return Math.max(0, tat.get() - now - toleranceNanos);
+    }
+}
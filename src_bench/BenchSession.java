@@ -0,0 +1,95 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Sesja bez gniazda używana w benchmarkach.
+ * Zamiast wysyłać ramki jedynie sumuje ich rozmiar, dzięki czemu mierzony jest sam koszt rozsyłania.
+ */
+public class BenchSession implements ChatSession {
+
+    /**
+     * Nazwa użytkownika sesji.
+     */
+    private final String username;
+
+    /**
+     * Pokój, w którym przebywa sesja.
+     */
+    private volatile String room;
+
+    /**
+     * Suma bajtów przekazanych do sesji.
+     */
+    public long receivedBytes;
+
+    /**
+     * Tworzy sesję o podanej nazwie użytkownika.
+     *
+     * @param username Nazwa użytkownika.
+     */
+    public BenchSession(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String getRoom() {
+        return room;
+    }
+
+    @Override
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        sendFrame(ChatServer.encodeLine(message));
+    }
+
+    @Override
+    public void sendFrame(ByteBuffer frame) {
+        receivedBytes += frame.remaining();
+    }
+
+    @Override
+    public boolean offerFrame(ByteBuffer frame) {
+        sendFrame(frame);
+        return false;
+    }
+
+    @Override
+    public void awaitCapacity() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean disconnect(String farewell) {
+        return false;
+    }
+
+    @Override
+    public void abort() {
+    }
+
+    @Override
+    public long getLastRead() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public boolean isHeartbeatEnabled() {
+        return false;
+    }
+
+    @Override
+    public TokenBucket getRateLimiter() {
+        return null;
+    }
+}
@@ -0,0 +1,230 @@
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Wejście do kodu serwera dla benchmarków JMH.
+ * JMH wymaga, aby klasy benchmarków leżały w nazwanym pakiecie, a taki kod nie może odwoływać się
+ * do klas z pakietu domyślnego. Pakiet {@code bench} wywołuje więc te statyczne metody przez
+ * {@link java.lang.invoke.MethodHandle}, a one same są już zwykłym kodem w pakiecie serwera.
+ */
+public final class BenchTargets {
+
+    private BenchTargets() {
+    }
+
+    /**
+     * Tworzy serwer (bez uruchamiania) z wyciszonym dziennikiem.
+     *
+     * @param usersFile Plik z danymi użytkowników.
+     * @return Serwer czatu.
+     */
+    public static Object newServer(Path usersFile) {
+        Log.setLevel(Log.Level.WARN);
+        ChatServer server = new ChatServer();
+        server.credentials = new CredentialIndex(usersFile);
+        server.credentials.refreshIfChanged();
+        return server;
+    }
+
+    /**
+     * Umieszcza w domyślnym pokoju nową sesję bez gniazda.
+     *
+     * @param server   Serwer czatu.
+     * @param username Nazwa użytkownika sesji.
+     * @return Utworzona sesja.
+     */
+    public static Object joinSession(Object server, String username) {
+        BenchSession session = new BenchSession(username);
+        ((ChatServer) server).rooms.join(ChatServer.DEFAULT_ROOM, session);
+        return session;
+    }
+
+    /**
+     * Wywołuje {@link ChatServer#broadcastMessage(String, ChatSession)}.
+     *
+     * @param server  Serwer czatu.
+     * @param message Wiadomość do rozesłania.
+     * @param sender  Sesja nadawcy.
+     */
+    public static void broadcastMessage(Object server, String message, Object sender) {
+        ((ChatServer) server).broadcastMessage(message, (ChatSession) sender);
+    }
+
+    /**
+     * Wywołuje {@link ChatServer#verifyUserCredentials(String, String)}.
+     *
+     * @param server         Serwer czatu.
+     * @param username       Nazwa użytkownika.
+     * @param hashedPassword Hash hasła.
+     * @return Wynik weryfikacji.
+     */
+    public static boolean verifyUserCredentials(Object server, String username, String hashedPassword) {
+        return ((ChatServer) server).verifyUserCredentials(username, hashedPassword);
+    }
+
+    /**
+     * Dawna weryfikacja danych logowania: przeglądanie całego pliku przy każdym logowaniu.
+     *
+     * @param usersFile      Plik z danymi użytkowników.
+     * @param username       Nazwa użytkownika.
+     * @param hashedPassword Hash hasła.
+     * @return Wynik weryfikacji.
+     * @throws IOException Gdy nie można odczytać pliku.
+     */
+    public static boolean legacyFileScan(Path usersFile, String username, String hashedPassword) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(usersFile.toFile()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] userData = line.split(":");
+                if (userData.length == 2 && userData[0].equals(username) && userData[1].equals(hashedPassword)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wywołuje {@link ChatClient#hashPassword(String)}.
+     *
+     * @param password Hasło.
+     * @return Hash hasła.
+     */
+    public static String hashPassword(String password) {
+        return ChatClient.hashPassword(password);
+    }
+
+    /**
+     * Uruchamia {@link ChatServer.ClientHandler#run()} na gnieździe w pamięci.
+     *
+     * @param server Serwer czatu.
+     * @param input  Dane odebrane od klienta: linia logowania i wiadomości.
+     */
+    public static void runClientHandler(Object server, byte[] input) {
+        ChatServer chatServer = (ChatServer) server;
+        StreamSocket socket = new StreamSocket(new ByteArrayInputStream(input), OutputStream.nullOutputStream());
+        chatServer.new ClientHandler(socket).run();
+    }
+
+    /**
+     * Tworzy konteksty TLS serwera i klienta z magazynu kluczy z certyfikatem dla {@code localhost}.
+     *
+     * @param keyStore Magazyn kluczy PKCS12.
+     * @param password Hasło magazynu.
+     * @return Kontekst serwera i kontekst klienta ufający temu samemu certyfikatowi.
+     * @throws IOException Gdy nie można wczytać magazynu.
+     */
+    public static Object[] tlsContexts(Path keyStore, String password) throws IOException {
+        Log.setLevel(Log.Level.WARN);
+        return new Object[]{
+                TlsTransport.serverContext(keyStore.toString(), password.toCharArray()),
+                TlsTransport.clientContext(keyStore.toString(), password.toCharArray())};
+    }
+
+    /**
+     * Przeprowadza uzgadnianie TLS między dwoma {@link TlsTransport} połączonymi kanałem w pamięci,
+     * aż klient odbierze też bilet do wznowienia sesji.
+     *
+     * @param serverContext Kontekst serwera.
+     * @param clientContext Kontekst klienta; przechowuje sesje według portu.
+     * @param port          Port serwera widziany przez klienta; ten sam port pozwala wznowić wcześniejszą sesję.
+     * @return Transport serwera i transport klienta po uzgodnieniu.
+     * @throws IOException Gdy uzgadnianie się nie powiedzie.
+     */
+    public static Object[] tlsHandshake(Object serverContext, Object clientContext, int port) throws IOException {
+        MemoryChannel[] channels = MemoryChannel.pair();
+        SSLEngine serverEngine = ((SSLContext) serverContext).createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        TlsTransport server = new TlsTransport(channels[0], serverEngine);
+        TlsTransport client = new TlsTransport(channels[1], TlsTransport.clientEngine((SSLContext) clientContext, "localhost", port));
+        client.getEngine().beginHandshake();
+        ByteBuffer scratch = ByteBuffer.allocate(1024);
+        for (int step = 0; step < 100; step++) {
+            client.flush();
+            server.read(scratch);
+            server.flush();
+            client.read(scratch);
+            if (server.isHandshakeComplete() && client.isHandshakeComplete() && !channels[0].hasInbound() && !channels[1].hasInbound()) {
+                return new Object[]{server, client};
+            }
+        }
+        throw new IOException("Uzgadnianie TLS nie zakończyło się");
+    }
+
+    /**
+     * Tworzy odbiorców z uzgodnionym połączeniem TLS, których kanały tylko liczą zaszyfrowane bajty.
+     *
+     * @param serverContext Kontekst serwera.
+     * @param clientContext Kontekst klienta.
+     * @param count         Liczba odbiorców.
+     * @return Transporty serwera dla kolejnych odbiorców.
+     * @throws IOException Gdy uzgadnianie się nie powiedzie.
+     */
+    public static Object tlsRecipients(Object serverContext, Object clientContext, int count) throws IOException {
+        TlsTransport[] recipients = new TlsTransport[count];
+        for (int i = 0; i < count; i++) {
+            recipients[i] = (TlsTransport) tlsHandshake(serverContext, clientContext, 1)[0];
+            ((MemoryChannel) recipients[i].channel).discard = true;
+        }
+        return recipients;
+    }
+
+    /**
+     * Koduje wiadomość raz, jak przy rozsyłaniu w pokoju, i szyfruje ją osobno dla każdego odbiorcy.
+     *
+     * @param recipients Transporty odbiorców z {@link #tlsRecipients(Object, Object, int)}.
+     * @param message    Wiadomość do rozesłania.
+     * @return Liczba zaszyfrowanych bajtów wiadomości.
+     * @throws IOException Gdy szyfrowanie się nie powiedzie.
+     */
+    public static long tlsBroadcast(Object recipients, String message) throws IOException {
+        ByteBuffer frame = ChatServer.encodeLine(message);
+        ByteBuffer[] views = new ByteBuffer[1];
+        long total = 0;
+        for (TlsTransport recipient : (TlsTransport[]) recipients) {
+            views[0] = FrameCodec.view(frame, false, false);
+            total += recipient.write(views, 0, 1);
+        }
+        return total;
+    }
+
+    /**
+     * Tworzy indeks wyszukiwania z podaną liczbą wiadomości w pokoju {@code ogólny}
+     * i co stutysięczną wiadomością w pokoju {@code cichy}.
+     *
+     * @param messages Liczba wiadomości w pokoju {@code ogólny}.
+     * @return Wypełniony indeks.
+     */
+    public static Object newSearchIndex(int messages) {
+        Log.setLevel(Log.Level.WARN);
+        SearchIndex index = new SearchIndex(messages + messages / 100_000 + 1);
+        String[] words = {"serwer", "klient", "pokój", "wiadomość", "test", "kod", "błąd", "wdrożenie"};
+        long time = System.currentTimeMillis() - messages;
+        for (int i = 0; i < messages; i++) {
+            index.add(time + i, "ogólny", "user" + (i % 100) + ": " + words[i % 8] + " " + words[(i / 8) % 8] + " numer" + (i % 1000));
+            if (i % 100_000 == 0) {
+                index.add(time + i, "cichy", "user1: cicha wiadomość " + i);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Wykonuje zapytanie {@code /search} na indeksie.
+     *
+     * @param index Indeks z {@link #newSearchIndex(int)}.
+     * @param room  Przeszukiwany pokój.
+     * @param query Argument komendy {@code /search}.
+     * @return Liczba wyników.
+     */
+    public static int search(Object index, String room, String query) {
+        return ((SearchIndex) index).search(room, SearchIndex.parse(query), ChatServer.SEARCH_LIMIT).size();
+    }
+}
@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+/**
+ * Kanał w pamięci do benchmarków TLS: bajty zapisane do jednego końca pary są odczytywane z drugiego.
+ * Po włączeniu {@link #discard} zapisy są tylko liczone, tak jak przez gniazdo, którego odbiorca nadąża.
+ */
+public class MemoryChannel implements ByteChannel {
+
+    /**
+     * Bajty czekające na odczyt z tego końca; w trybie zapisu.
+     */
+    private ByteBuffer inbound = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * Drugi koniec pary.
+     */
+    private MemoryChannel peer;
+
+    /**
+     * Czy zapisy mają być odrzucane zamiast przekazywane drugiemu końcowi.
+     */
+    public boolean discard;
+
+    /**
+     * Liczba bajtów zapisanych do kanału.
+     */
+    public long writtenBytes;
+
+    /**
+     * Tworzy połączoną parę kanałów.
+     *
+     * @return Dwa końce połączenia.
+     */
+    public static MemoryChannel[] pair() {
+        MemoryChannel first = new MemoryChannel();
+        MemoryChannel second = new MemoryChannel();
+        first.peer = second;
+        second.peer = first;
+        return new MemoryChannel[]{first, second};
+    }
+
+    /**
+     * Sprawdza, czy na tym końcu czekają bajty do odczytu.
+     *
+     * @return True, jeśli bufor odbiorczy nie jest pusty.
+     */
+    public boolean hasInbound() {
+        return inbound.position() > 0;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        inbound.flip();
+        int count = Math.min(inbound.remaining(), dst.remaining());
+        ByteBuffer slice = inbound.duplicate();
+        slice.limit(inbound.position() + count);
+        dst.put(slice);
+        inbound.position(inbound.position() + count);
+        inbound.compact();
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        int count = src.remaining();
+        writtenBytes += count;
+        if (discard) {
+            src.position(src.limit());
+            return count;
+        }
+        if (peer.inbound.remaining() < count) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(peer.inbound.capacity() * 2, peer.inbound.position() + count));
+            peer.inbound.flip();
+            larger.put(peer.inbound);
+            peer.inbound = larger;
+        }
+        peer.inbound.put(src);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
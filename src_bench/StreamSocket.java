@@ -0,0 +1,68 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+/**
+ * Gniazdo oparte na strumieniach w pamięci, pozwalające uruchomić
+ * {@link ChatServer.ClientHandler} bez prawdziwego połączenia sieciowego.
+ */
+public class StreamSocket extends Socket {
+
+    /**
+     * Strumień z danymi „odebranymi” od klienta.
+     */
+    private final InputStream input;
+
+    /**
+     * Strumień przyjmujący dane „wysłane” do klienta.
+     */
+    private final OutputStream output;
+
+    /**
+     * Czy gniazdo zostało zamknięte.
+     */
+    private boolean closed;
+
+    /**
+     * Tworzy gniazdo na podanych strumieniach.
+     *
+     * @param input  Dane od klienta.
+     * @param output Odbiorca danych do klienta.
+     */
+    public StreamSocket(InputStream input, OutputStream output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public int getPort() {
+        return 0;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return new InetSocketAddress(0);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark {@code ChatServer.broadcastMessage} w pokoju o różnej liczbie odbiorców.
+ * Odbiorcy to sesje bez gniazd, więc wynik obejmuje kodowanie wiadomości i przejście po członkach pokoju.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    /**
+     * Liczba odbiorców w pokoju nadawcy.
+     */
+    @Param({"10", "1000", "10000"})
+    public int recipients;
+
+    /**
+     * Serwer, którego metoda rozsyłania jest mierzona.
+     */
+    private Object server;
+
+    /**
+     * Sesja nadawcy.
+     */
+    private Object sender;
+
+    /**
+     * Umieszcza nadawcę i odbiorców w domyślnym pokoju.
+     *
+     * @throws Throwable Gdy przygotowanie się nie powiedzie.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        Path usersFile = Files.createTempFile("users", ".txt");
+        server = Targets.NEW_SERVER.invoke(usersFile);
+        sender = Targets.JOIN_SESSION.invoke(server, "sender");
+        for (int i = 0; i < recipients; i++) {
+            Targets.JOIN_SESSION.invoke(server, "user" + i);
+        }
+        Files.delete(usersFile);
+    }
+
+    /**
+     * Mierzy jedno rozesłanie wiadomości.
+     *
+     * @throws Throwable Gdy wywołanie się nie powiedzie.
+     */
+    @Benchmark
+    public void broadcastMessage() throws Throwable {
+        Targets.BROADCAST_MESSAGE.invokeExact(server, "sender: Zażółć gęślą jaźń", sender);
+    }
+}
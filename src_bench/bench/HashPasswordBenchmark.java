@@ -0,0 +1,33 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark {@code ChatClient.hashPassword}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashPasswordBenchmark {
+
+    /**
+     * Hasło do zahashowania; pole, aby JIT nie zwinął stałej.
+     */
+    private String password = "testPassword";
+
+    /**
+     * Mierzy hashowanie jednego hasła.
+     *
+     * @return Hash hasła.
+     * @throws Throwable Gdy wywołanie się nie powiedzie.
+     */
+    @Benchmark
+    public String hashPassword() throws Throwable {
+        return (String) Targets.HASH_PASSWORD.invokeExact(password);
+    }
+}
@@ -0,0 +1,111 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark odczytu linii w {@code ChatServer.ClientHandler.run}.
+ * Obsługa klienta działa na gnieździe w pamięci: loguje się i przetwarza {@link #LINES} wiadomości,
+ * będąc jedynym członkiem pokoju, więc wynik to koszt dekodowania i obsługi linii bez wysyłania.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineParsingBenchmark {
+
+    /**
+     * Liczba wiadomości w jednym przebiegu obsługi klienta.
+     */
+    private static final int LINES = 1000;
+
+    /**
+     * Długość pojedynczej wiadomości w znakach.
+     */
+    @Param({"16", "256"})
+    public int messageLength;
+
+    /**
+     * Dane wejściowe: linia logowania i {@link #LINES} wiadomości.
+     */
+    private byte[] input;
+
+    /**
+     * Serwer, do którego należy obsługa klienta.
+     */
+    private Object server;
+
+    /**
+     * Tymczasowy plik z danymi użytkownika.
+     */
+    private Path file;
+
+    /**
+     * Przygotowuje dane wejściowe i użytkownika.
+     *
+     * @throws Throwable Gdy przygotowanie się nie powiedzie.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        String hash = (String) Targets.HASH_PASSWORD.invokeExact("password");
+        file = Files.createTempFile("users", ".txt");
+        Files.write(file, ("bench:" + hash + "\n").getBytes(StandardCharsets.UTF_8));
+        server = Targets.NEW_SERVER.invoke(file);
+
+        StringBuilder text = new StringBuilder("bench:").append(hash).append('\n');
+        String message = "ż".repeat(messageLength / 4) + "x".repeat(messageLength - messageLength / 4);
+        for (int i = 0; i < LINES; i++) {
+            text.append(message).append('\n');
+        }
+        input = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Usuwa plik tymczasowy.
+     *
+     * @throws IOException Gdy nie można usunąć pliku.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Mierzy pełną pętlę obsługi klienta w przeliczeniu na jedną linię.
+     *
+     * @throws Throwable Gdy wywołanie się nie powiedzie.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void clientHandlerRun() throws Throwable {
+        Targets.RUN_CLIENT_HANDLER.invokeExact(server, input);
+    }
+
+    /**
+     * Mierzy samo dekodowanie linii przez {@link BufferedReader}, jako punkt odniesienia.
+     *
+     * @return Łączna długość odczytanych linii.
+     * @throws IOException Gdy odczyt się nie powiedzie.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int readLineBaseline() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8));
+        int length = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            length += line.length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,98 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark {@code ChatServer.verifyUserCredentials} dla plików users.txt o różnej liczbie użytkowników.
+ * Dla porównania mierzy też dawny sposób, czyli przeglądanie pliku przy każdym logowaniu.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginBenchmark {
+
+    /**
+     * Liczba użytkowników w pliku.
+     */
+    @Param({"100", "10000", "1000000"})
+    public int users;
+
+    /**
+     * Tymczasowy plik z danymi użytkowników.
+     */
+    private Path file;
+
+    /**
+     * Serwer korzystający z indeksu danych logowania.
+     */
+    private Object server;
+
+    /**
+     * Sprawdzany użytkownik, w połowie pliku.
+     */
+    private String username;
+
+    /**
+     * Hash hasła sprawdzanego użytkownika.
+     */
+    private String hash;
+
+    /**
+     * Zapisuje plik z danymi użytkowników i wczytuje indeks.
+     *
+     * @throws Throwable Gdy przygotowanie się nie powiedzie.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        file = Files.createTempFile("users", ".txt");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int i = 0; i < users; i++) {
+                writer.println("user" + i + ":" + String.format("%064x", i));
+            }
+        }
+        username = "user" + users / 2;
+        hash = String.format("%064x", users / 2);
+        server = Targets.NEW_SERVER.invoke(file);
+    }
+
+    /**
+     * Usuwa plik tymczasowy.
+     *
+     * @throws IOException Gdy nie można usunąć pliku.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Mierzy weryfikację przez indeks w pamięci.
+     *
+     * @return Wynik weryfikacji.
+     * @throws Throwable Gdy wywołanie się nie powiedzie.
+     */
+    @Benchmark
+    public boolean verifyUserCredentials() throws Throwable {
+        return (boolean) Targets.VERIFY_USER_CREDENTIALS.invokeExact(server, username, hash);
+    }
+
+    /**
+     * Mierzy dawną weryfikację, która przeglądała cały plik przy każdym logowaniu.
+     *
+     * @return Wynik weryfikacji.
+     * @throws Throwable Gdy wywołanie się nie powiedzie.
+     */
+    @Benchmark
+    public boolean legacyFileScan() throws Throwable {
+        return (boolean) Targets.LEGACY_FILE_SCAN.invokeExact(file, username, hash);
+    }
+}
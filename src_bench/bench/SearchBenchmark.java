@@ -0,0 +1,64 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark zapytań {@code /search} w indeksie z milionem wiadomości.
+ * Mierzy przecięcie list słów i autora oraz zapytanie bez słów w cichym pokoju,
+ * które dzięki liście pokoju nie przegląda wiadomości innych pokoi.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SearchBenchmark {
+
+    /**
+     * Przeszukiwany pokój i zapytanie, rozdzielone znakiem {@code |}.
+     */
+    @Param({"ogólny|błąd wdrożenie from:user7 since:2000-01-01", "cichy|since:2000-01-01"})
+    public String query;
+
+    /**
+     * Indeks wyszukiwania.
+     */
+    private Object index;
+
+    /**
+     * Pokój z parametru {@link #query}.
+     */
+    private String room;
+
+    /**
+     * Zapytanie z parametru {@link #query}.
+     */
+    private String argument;
+
+    /**
+     * Wypełnia indeks.
+     *
+     * @throws Throwable Gdy przygotowanie się nie powiedzie.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        index = Targets.NEW_SEARCH_INDEX.invoke(1_000_000);
+        int separator = query.indexOf('|');
+        room = query.substring(0, separator);
+        argument = query.substring(separator + 1);
+    }
+
+    /**
+     * Mierzy jedno zapytanie.
+     *
+     * @return Liczba wyników.
+     * @throws Throwable Gdy wywołanie się nie powiedzie.
+     */
+    @Benchmark
+    public int search() throws Throwable {
+        return (int) Targets.SEARCH.invokeExact(index, room, argument);
+    }
+}
@@ -0,0 +1,91 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+
+/**
+ * Uchwyty do metod klasy {@code BenchTargets} z pakietu domyślnego.
+ * Pola są statyczne i finalne, więc JIT wkleja wywołania tak samo jak zwykłe wywołania metod.
+ */
+final class Targets {
+
+    /**
+     * Tworzy serwer bez uruchamiania.
+     */
+    static final MethodHandle NEW_SERVER;
+    /**
+     * Dodaje sesję bez gniazda do domyślnego pokoju.
+     */
+    static final MethodHandle JOIN_SESSION;
+    /**
+     * Rozsyła wiadomość w pokoju nadawcy.
+     */
+    static final MethodHandle BROADCAST_MESSAGE;
+    /**
+     * Weryfikuje dane logowania przez indeks.
+     */
+    static final MethodHandle VERIFY_USER_CREDENTIALS;
+    /**
+     * Weryfikuje dane logowania dawnym przeglądaniem pliku.
+     */
+    static final MethodHandle LEGACY_FILE_SCAN;
+    /**
+     * Hashuje hasło jak klient.
+     */
+    static final MethodHandle HASH_PASSWORD;
+    /**
+     * Uruchamia obsługę klienta na gnieździe w pamięci.
+     */
+    static final MethodHandle RUN_CLIENT_HANDLER;
+    /**
+     * Tworzy konteksty TLS serwera i klienta.
+     */
+    static final MethodHandle TLS_CONTEXTS;
+    /**
+     * Przeprowadza uzgadnianie TLS w pamięci.
+     */
+    static final MethodHandle TLS_HANDSHAKE;
+    /**
+     * Tworzy odbiorców z uzgodnionym połączeniem TLS.
+     */
+    static final MethodHandle TLS_RECIPIENTS;
+    /**
+     * Szyfruje jedną wiadomość dla wszystkich odbiorców.
+     */
+    static final MethodHandle TLS_BROADCAST;
+    /**
+     * Tworzy wypełniony indeks wyszukiwania.
+     */
+    static final MethodHandle NEW_SEARCH_INDEX;
+    /**
+     * Wykonuje zapytanie na indeksie wyszukiwania.
+     */
+    static final MethodHandle SEARCH;
+
+    static {
+        try {
+            Class<?> targets = Class.forName("BenchTargets");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            NEW_SERVER = lookup.findStatic(targets, "newServer", MethodType.methodType(Object.class, Path.class));
+            JOIN_SESSION = lookup.findStatic(targets, "joinSession", MethodType.methodType(Object.class, Object.class, String.class));
+            BROADCAST_MESSAGE = lookup.findStatic(targets, "broadcastMessage", MethodType.methodType(void.class, Object.class, String.class, Object.class));
+            VERIFY_USER_CREDENTIALS = lookup.findStatic(targets, "verifyUserCredentials", MethodType.methodType(boolean.class, Object.class, String.class, String.class));
+            LEGACY_FILE_SCAN = lookup.findStatic(targets, "legacyFileScan", MethodType.methodType(boolean.class, Path.class, String.class, String.class));
+            HASH_PASSWORD = lookup.findStatic(targets, "hashPassword", MethodType.methodType(String.class, String.class));
+            RUN_CLIENT_HANDLER = lookup.findStatic(targets, "runClientHandler", MethodType.methodType(void.class, Object.class, byte[].class));
+            TLS_CONTEXTS = lookup.findStatic(targets, "tlsContexts", MethodType.methodType(Object[].class, Path.class, String.class));
+            TLS_HANDSHAKE = lookup.findStatic(targets, "tlsHandshake", MethodType.methodType(Object[].class, Object.class, Object.class, int.class));
+            TLS_RECIPIENTS = lookup.findStatic(targets, "tlsRecipients", MethodType.methodType(Object.class, Object.class, Object.class, int.class));
+            TLS_BROADCAST = lookup.findStatic(targets, "tlsBroadcast", MethodType.methodType(long.class, Object.class, String.class));
+            NEW_SEARCH_INDEX = lookup.findStatic(targets, "newSearchIndex", MethodType.methodType(Object.class, int.class));
+            SEARCH = lookup.findStatic(targets, "search", MethodType.methodType(int.class, Object.class, String.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Targets() {
+    }
+}
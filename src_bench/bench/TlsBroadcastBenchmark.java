@@ -0,0 +1,56 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark szyfrowania jednej wiadomości dla wielu odbiorców połączonych przez TLS.
+ * Ramka jest kodowana raz, ale każdy odbiorca ma własny klucz sesji, więc koszt rośnie liniowo;
+ * porównanie z {@link BroadcastBenchmark} pokazuje narzut szyfrowania przy rozsyłaniu.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsBroadcastBenchmark {
+
+    /**
+     * Liczba odbiorców wiadomości.
+     */
+    @Param({"10", "1000"})
+    public int recipients;
+
+    /**
+     * Transporty TLS odbiorców po stronie serwera.
+     */
+    private Object transports;
+
+    /**
+     * Uzgadnia połączenia TLS ze wszystkimi odbiorcami.
+     *
+     * @throws Throwable Gdy przygotowanie się nie powiedzie.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        Path keyStore = TlsHandshakeBenchmark.createKeyStore();
+        Object[] contexts = (Object[]) Targets.TLS_CONTEXTS.invokeExact(keyStore, TlsHandshakeBenchmark.PASSWORD);
+        Files.delete(keyStore);
+        transports = Targets.TLS_RECIPIENTS.invokeExact(contexts[0], contexts[1], recipients);
+    }
+
+    /**
+     * Mierzy zaszyfrowanie jednej wiadomości dla wszystkich odbiorców.
+     *
+     * @return Liczba zaszyfrowanych bajtów.
+     * @throws Throwable Gdy szyfrowanie się nie powiedzie.
+     */
+    @Benchmark
+    public long broadcastMessage() throws Throwable {
+        return (long) Targets.TLS_BROADCAST.invokeExact(transports, "sender: Zażółć gęślą jaźń");
+    }
+}
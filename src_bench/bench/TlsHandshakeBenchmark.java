@@ -0,0 +1,98 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark uzgadniania TLS przez {@code TlsTransport}, pełnego i ze wznowieniem sesji.
+ * Oba końce łączy kanał w pamięci, więc wynik obejmuje sam koszt kryptografii i maszyny stanów SSLEngine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsHandshakeBenchmark {
+
+    /**
+     * Hasło magazynu kluczy generowanego na potrzeby benchmarku.
+     */
+    static final String PASSWORD = "haslo123";
+
+    /**
+     * Czy klient ma wznawiać sesję zapamiętaną dla tego samego portu.
+     */
+    @Param({"false", "true"})
+    public boolean resume;
+
+    /**
+     * Kontekst TLS serwera.
+     */
+    private Object serverContext;
+
+    /**
+     * Kontekst TLS klienta przechowujący sesje do wznowienia.
+     */
+    private Object clientContext;
+
+    /**
+     * Kolejny port podawany klientowi; nowy port wymusza pełne uzgadnianie.
+     */
+    private int port;
+
+    /**
+     * Generuje magazyn kluczy i tworzy konteksty TLS.
+     *
+     * @throws Throwable Gdy przygotowanie się nie powiedzie.
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        Path keyStore = createKeyStore();
+        Object[] contexts = (Object[]) Targets.TLS_CONTEXTS.invokeExact(keyStore, PASSWORD);
+        serverContext = contexts[0];
+        clientContext = contexts[1];
+        Files.delete(keyStore);
+        // Pierwsza sesja dla portu 1, którą wznawiają pomiary z resume=true; nieudane uzgadnianie kończy się wyjątkiem.
+        Targets.TLS_HANDSHAKE.invoke(serverContext, clientContext, 1);
+    }
+
+    /**
+     * Mierzy jedno uzgadnianie wraz z odebraniem biletu sesji.
+     *
+     * @return Transporty obu końców, aby JIT nie pominął uzgadniania.
+     * @throws Throwable Gdy uzgadnianie się nie powiedzie.
+     */
+    @Benchmark
+    public Object[] handshake() throws Throwable {
+        return (Object[]) Targets.TLS_HANDSHAKE.invokeExact(serverContext, clientContext, resume ? 1 : ++port + 1);
+    }
+
+    /**
+     * Generuje keytoolem tymczasowy magazyn PKCS12 z kluczem EC dla {@code localhost}.
+     *
+     * @return Ścieżka do magazynu kluczy.
+     * @throws IOException          Gdy keytool się nie powiedzie.
+     * @throws InterruptedException Gdy oczekiwanie na keytool zostanie przerwane.
+     */
+    static Path createKeyStore() throws IOException, InterruptedException {
+        Path keyStore = Files.createTempFile("chat-bench", ".p12");
+        Files.delete(keyStore);
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "chat", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "san=dns:localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        if (keytool.waitFor() != 0) {
+            throw new IOException("keytool zakończył się błędem " + keytool.exitValue());
+        }
+        return keyStore;
+    }
+}
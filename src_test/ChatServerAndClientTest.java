@@ -7,6 +7,10 @@ import org.mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import java.net.*;
+import java.util.*;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Klasa testowa dla serwera i klienta czatu.
@@ -177,6 +181,1926 @@ public class ChatServerAndClientTest {
         }
     }
 
+    /**
+     * Test wyrzucenia klienta, który przestał odbierać dane.
+     * Sprawdza, czy zablokowany zapis do klienta nie wstrzymuje rozłączenia przez administratora.
+     */
+    @Test
+    @DisplayName("Test wyrzucenia klienta, który nie odbiera danych")
+    void testKickStalledUser() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("stalled:" + hashPassword("password"));
+        }
+
+        try (Socket stalled = new Socket()) {
+            stalled.setReceiveBufferSize(4096);
+            stalled.connect(new InetSocketAddress("localhost", 50000));
+            BufferedReader stalledInput = new BufferedReader(new InputStreamReader(stalled.getInputStream(), StandardCharsets.UTF_8));
+            new PrintWriter(new OutputStreamWriter(stalled.getOutputStream(), StandardCharsets.UTF_8), true)
+                    .println("stalled:" + hashPassword("password"));
+            assertEquals("Logowanie udane", stalledInput.readLine());
+
+            char[] filler = new char[16 * 1024];
+            Arrays.fill(filler, 'x');
+            for (int i = 0; i < 200; i++) {
+                server.sendServerMessage(i + new String(filler));
+            }
+            // Wątek zapisujący blokuje się na pełnym buforze gniazda, trzymając blokadę strumienia klienta
+            ChatServer.ClientHandler handler = (ChatServer.ClientHandler) server.sessionsByUser.get("stalled");
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            waitUntil(() -> {
+                Thread writerThread = handler.writerThread;
+                java.lang.management.ThreadInfo info = writerThread != null
+                        ? threads.getThreadInfo(new long[]{writerThread.getId()}, true, false)[0] : null;
+                return info != null && Arrays.stream(info.getLockedMonitors())
+                        .anyMatch(monitor -> monitor.getIdentityHashCode() == System.identityHashCode(handler.output));
+            }, 5000, "Wątek zapisujący powinien pisać do zapchanego klienta.");
+
+            Thread kick = new Thread(() -> server.kickUser("stalled"));
+            kick.start();
+            kick.join(5000);
+            assertFalse(kick.isAlive(), "Wyrzucenie klienta nie powinno czekać na zablokowany zapis.");
+        }
+    }
+
+    /**
+     * Test przeładowania indeksu danych logowania.
+     * Sprawdza, czy zmiana pliku users.txt jest widoczna przy kolejnym logowaniu.
+     */
+    @Test
+    @DisplayName("Test przeładowania danych logowania po zmianie pliku")
+    void testCredentialIndexReload() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+        }
+        assertTrue(server.verifyUserCredentials("user1", hashPassword("password1")));
+        assertFalse(server.verifyUserCredentials("user2", hashPassword("password2")));
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("newPassword1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+        assertFalse(server.verifyUserCredentials("user1", hashPassword("password1")), "Stare hasło nie powinno działać po zmianie pliku.");
+        assertTrue(server.verifyUserCredentials("user1", hashPassword("newPassword1")));
+        assertTrue(server.verifyUserCredentials("user2", hashPassword("password2")));
+    }
+
+    /**
+     * Test wykrywania zmiany pliku z danymi logowania, która nie zmienia czasu modyfikacji ani rozmiaru.
+     * Sprawdza zmianę w tym samym takcie zegara systemu plików co poprzednia, czas modyfikacji z przyszłości
+     * oraz podmianę pliku na inny o tym samym, dawnym czasie modyfikacji.
+     */
+    @Test
+    @DisplayName("Test przeładowania danych logowania przy tym samym czasie modyfikacji i rozmiarze")
+    void testCredentialIndexSameTimestamp() throws Exception {
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("users");
+        java.nio.file.Path usersFile = directory.resolve("users.txt");
+        CredentialIndex index = new CredentialIndex(usersFile);
+
+        // Dwa zapisy w tej samej sekundzie na systemie plików z sekundową dokładnością czasu
+        java.nio.file.attribute.FileTime now = java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() / 1000 * 1000);
+        java.nio.file.Files.write(usersFile, ("user1:" + hashPassword("password1") + "\n").getBytes(StandardCharsets.UTF_8));
+        java.nio.file.Files.setLastModifiedTime(usersFile, now);
+        assertTrue(index.verify("user1", hashPassword("password1")));
+        java.nio.file.Files.write(usersFile, ("user1:" + hashPassword("password2") + "\n").getBytes(StandardCharsets.UTF_8));
+        java.nio.file.Files.setLastModifiedTime(usersFile, now);
+        // Do końca okna logowania korzystają z wczytanego indeksu, a po nim plik jest raz porównywany po treści
+        assertTrue(index.recheckAtMillis > 0);
+        waitUntil(() -> index.verify("user1", hashPassword("password2")), CredentialIndex.RACY_WINDOW_MILLIS + 3000,
+                "Zmiana tuż po poprzedniej powinna zostać wykryta po treści.");
+        assertEquals(0, index.recheckAtMillis, "Po ponownym sprawdzeniu plik nie powinien być czytany przy każdym logowaniu.");
+
+        // Czas modyfikacji z przyszłości powoduje jedno wczytanie, a nie czytanie pliku przy każdym logowaniu
+        java.nio.file.Files.setLastModifiedTime(usersFile, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 3_600_000));
+        assertTrue(index.verify("user1", hashPassword("password2")));
+        assertEquals(0, index.recheckAtMillis);
+
+        // Podmiana pliku na inny o tej samej długości i tym samym dawnym czasie modyfikacji
+        java.nio.file.attribute.FileTime old = java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        java.nio.file.Files.setLastModifiedTime(usersFile, old);
+        assertTrue(index.verify("user1", hashPassword("password2")));
+        java.nio.file.Path replacement = directory.resolve("users.tmp");
+        java.nio.file.Files.write(replacement, ("user1:" + hashPassword("password3") + "\n").getBytes(StandardCharsets.UTF_8));
+        java.nio.file.Files.setLastModifiedTime(replacement, old);
+        java.nio.file.Files.move(replacement, usersFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        assertTrue(index.verify("user1", hashPassword("password3")), "Podmiana pliku powinna zostać wykryta po jego identyfikatorze.");
+        assertFalse(index.verify("user1", hashPassword("password2")));
+        java.nio.file.Files.delete(usersFile);
+        java.nio.file.Files.delete(directory);
+    }
+
+    /**
+     * Test rozsyłania wiadomości w pokojach.
+     * Sprawdza, czy wiadomość trafia tylko do członków pokoju nadawcy.
+     */
+    @Test
+    @DisplayName("Test rozsyłania wiadomości w pokojach")
+    void testRoomBroadcast() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+            writer.println("user3:" + hashPassword("password3"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50000);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket client2 = new Socket("localhost", 50000);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket client3 = new Socket("localhost", 50000);
+             BufferedReader input3 = new BufferedReader(new InputStreamReader(client3.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output3 = new PrintWriter(new OutputStreamWriter(client3.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+            output2.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", input2.readLine());
+            output3.println("user3:" + hashPassword("password3"));
+            assertEquals("Logowanie udane", input3.readLine());
+
+            output1.println("/join kuchnia");
+            assertEquals("Dołączono do pokoju kuchnia", input1.readLine());
+            output2.println("/join kuchnia");
+            assertEquals("Dołączono do pokoju kuchnia", input2.readLine());
+
+            output1.println("Tylko dla kuchni");
+            assertEquals("user1: Tylko dla kuchni", input2.readLine());
+
+            output1.println("/leave");
+            assertEquals("Dołączono do pokoju " + ChatServer.DEFAULT_ROOM, input1.readLine());
+            output1.println("Witaj, user3");
+            assertEquals("user1: Witaj, user3", input3.readLine(), "Wiadomość z innego pokoju nie powinna dotrzeć do user3.");
+        }
+    }
+
+    /**
+     * Test wiadomości prywatnych i wykrywania podwójnego logowania.
+     * Sprawdza, czy komenda /msg trafia tylko do adresata, a drugie logowanie tego samego użytkownika jest odrzucane.
+     */
+    @Test
+    @DisplayName("Test wiadomości prywatnych i podwójnego logowania")
+    void testDirectMessageAndDuplicateLogin() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50000);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket client2 = new Socket("localhost", 50000);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket duplicate = new Socket("localhost", 50000);
+             BufferedReader duplicateInput = new BufferedReader(new InputStreamReader(duplicate.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter duplicateOutput = new PrintWriter(new OutputStreamWriter(duplicate.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+            output2.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", input2.readLine());
+
+            output1.println("/msg user2 sekret");
+            assertEquals("user1 (prywatnie): sekret", input2.readLine());
+
+            output1.println("/msg nieznany cześć");
+            assertEquals("Użytkownik nieznany nie jest zalogowany.", input1.readLine());
+
+            duplicateOutput.println("user1:" + hashPassword("password1"));
+            assertEquals("Użytkownik user1 jest już zalogowany", duplicateInput.readLine());
+
+            output2.println("/msg user1 nadal działa");
+            assertEquals("user2 (prywatnie): nadal działa", input1.readLine(), "Odrzucone logowanie nie może wyrejestrować pierwszej sesji.");
+        }
+    }
+
+    /**
+     * Test dziennika wiadomości i odtwarzania historii.
+     * Sprawdza, czy klient dołączający później dostaje ostatnie wiadomości, także po restarcie serwera.
+     */
+    @Test
+    @DisplayName("Test odtwarzania historii z dziennika wiadomości")
+    void testJournalReplay() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+        String journalDirectory = java.nio.file.Files.createTempDirectory("journal").toString();
+
+        for (int run = 0; run < 2; run++) {
+            ChatServer journalServer = new ChatServer();
+            journalServer.journalDirectory = journalDirectory;
+            journalServer.replayCount = 2;
+            Thread journalThread = startServer(journalServer, 50002);
+
+            try {
+                if (run == 0) {
+                    try (Socket client1 = new Socket("localhost", 50002);
+                         BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+                         PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+                        output1.println("user1:" + hashPassword("password1"));
+                        assertEquals("Logowanie udane", input1.readLine());
+                        output1.println("pierwsza");
+                        output1.println("druga");
+                        output1.println("trzecia");
+                        output1.println("/join inny");
+                        assertEquals("Dołączono do pokoju inny", input1.readLine());
+                    }
+                }
+
+                try (Socket client2 = new Socket("localhost", 50002);
+                     BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+                     PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+                    output2.println("user2:" + hashPassword("password2"));
+                    assertEquals("Logowanie udane", input2.readLine());
+                    assertEquals("user1: druga", input2.readLine(), "Oczekiwano historii pokoju (przebieg " + run + ").");
+                    assertEquals("user1: trzecia", input2.readLine(), "Oczekiwano historii pokoju (przebieg " + run + ").");
+                }
+            } finally {
+                journalServer.serverSocket.close();
+                journalThread.join(2000);
+            }
+        }
+    }
+
+    /**
+     * Test rozłączenia wolnego odbiorcy.
+     * Sprawdza, czy klient, który nie odbiera wiadomości, zostaje rozłączony po przepełnieniu kolejki,
+     * a nadawca może dalej wysyłać.
+     */
+    @Test
+    @DisplayName("Test rozłączenia klienta nienadążającego z odbieraniem")
+    void testSlowConsumerDisconnected() throws Exception {
+        server.outboundQueueCapacity = 16;
+        server.overflowPolicy = ChatServer.OverflowPolicy.DISCONNECT;
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50000);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket slowClient = new Socket("localhost", 50000);
+             BufferedReader slowInput = new BufferedReader(new InputStreamReader(slowClient.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter slowOutput = new PrintWriter(new OutputStreamWriter(slowClient.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+            slowOutput.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", slowInput.readLine());
+
+            // Klient 2 nie czyta, więc jego bufory TCP i kolejka w końcu się zapełnią
+            String payload = "x".repeat(16 * 1024);
+            for (int i = 0; i < 2000 && server.slowConsumerDisconnects.get() == 0; i++) {
+                output1.println(payload);
+            }
+
+            assertEquals(1, server.slowConsumerDisconnects.get(), "Wolny klient powinien zostać rozłączony.");
+            assertEquals(1, server.clients.size(), "Na serwerze powinien zostać tylko nadawca.");
+        }
+    }
+
+    /**
+     * Test przesyłania wiadomości przez serwer NIO.
+     * Sprawdza, czy silnik oparty na selektorach obsługuje ten sam protokół logowania i rozsyłania.
+     */
+    @Test
+    @DisplayName("Test przesyłania wiadomości przez serwer NIO")
+    void testNioMessageBroadcast() throws Exception {
+        NioChatServer nioServer = new NioChatServer(2);
+        Thread nioThread = startServer(nioServer, 50001);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50001);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket client2 = new Socket("localhost", 50001);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+
+            output2.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", input2.readLine());
+
+            output1.println("Zażółć gęślą jaźń");
+            assertEquals("user1: Zażółć gęślą jaźń", input2.readLine(), "Oczekiwano poprawnej wiadomości od klienta 1.");
+
+            nioServer.kickUser("user2");
+            assertEquals("Zostałeś rozłączony przez administratora.", input2.readLine());
+            assertNull(input2.readLine(), "Połączenie powinno zostać zamknięte po wyrzuceniu.");
+        } finally {
+            nioServer.stopServer();
+            nioThread.join(2000);
+        }
+    }
+
+    /**
+     * Test generatora obciążenia.
+     * Sprawdza, czy symulowani użytkownicy logują się, odbierają nawzajem swoje wiadomości
+     * i czy histogram opóźnień zwraca percentyle z zadaną precyzją.
+     */
+    @Test
+    @DisplayName("Test generatora obciążenia")
+    void testLoadGenerator() throws Exception {
+        LatencyHistogram values = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            values.record(i * 1000L);
+        }
+        assertEquals(5_000_000, values.valueAtPercentile(50), 5_000_000 * 0.02);
+        assertEquals(9_900_000, values.valueAtPercentile(99), 9_900_000 * 0.02);
+        assertEquals(10_000_000, values.getMax());
+
+        new PrintWriter(new FileWriter("users.txt")).close();
+        LoadGenerator generator = new LoadGenerator();
+        generator.clients = 4;
+        generator.rate = 20;
+        generator.warmupSeconds = 0;
+        generator.durationSeconds = 1;
+
+        LatencyHistogram latencies = generator.run();
+        assertEquals(0, generator.failedLogins.get(), "Wszyscy użytkownicy powinni się zalogować.");
+        assertTrue(generator.sent.get() > 0, "Generator powinien wysłać wiadomości.");
+        assertTrue(latencies.getTotalCount() > 0, "Generator powinien zmierzyć opóźnienia.");
+        assertEquals(generator.received.get(), latencies.getTotalCount());
+    }
+
+    /**
+     * Test protokołu binarnego ramek.
+     * Sprawdza negocjację, logowanie ramką i wymianę wiadomości (także wieloliniowych)
+     * z klientem protokołu tekstowego, w obu silnikach serwera.
+     */
+    @Test
+    @DisplayName("Test protokołu binarnego ramek")
+    void testBinaryProtocol() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("binUser:" + hashPassword("password1"));
+            writer.println("textUser:" + hashPassword("password2"));
+        }
+        checkBinaryProtocol(50000);
+
+        NioChatServer nioServer = new NioChatServer(1);
+        Thread nioThread = startServer(nioServer, 50001);
+        try {
+            checkBinaryProtocol(50001);
+        } finally {
+            nioServer.stopServer();
+            nioThread.join(2000);
+        }
+    }
+
+    /**
+     * Łączy klienta binarnego i tekstowego z serwerem na podanym porcie i sprawdza wymianę wiadomości.
+     *
+     * @param port Port serwera.
+     * @throws Exception Gdy komunikacja się nie powiedzie.
+     */
+    private void checkBinaryProtocol(int port) throws Exception {
+        try (Socket binarySocket = new Socket("localhost", port);
+             Socket textSocket = new Socket("localhost", port);
+             BufferedReader textInput = new BufferedReader(new InputStreamReader(textSocket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter textOutput = new PrintWriter(new OutputStreamWriter(textSocket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            InputStream binaryIn = new BufferedInputStream(binarySocket.getInputStream());
+            DataInputStream frameInput = new DataInputStream(binaryIn);
+            DataOutputStream frameOutput = new DataOutputStream(binarySocket.getOutputStream());
+            byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+
+            frameOutput.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(binaryIn), "Serwer powinien potwierdzić protokół binarny.");
+            FrameCodec.write(frameOutput, FrameCodec.LOGIN, "binUser:" + hashPassword("password1"));
+            FrameCodec.Frame login = FrameCodec.read(frameInput, buffer);
+            assertEquals(FrameCodec.LOGIN_OK, login.opcode);
+            assertEquals("Logowanie udane", login.payload);
+
+            textOutput.println("textUser:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", textInput.readLine());
+
+            FrameCodec.write(frameOutput, FrameCodec.MESSAGE, "linia 1\nlinia 2");
+            assertEquals("binUser: linia 1", textInput.readLine(), "Klient tekstowy powinien dostać wiadomość jako linie.");
+            assertEquals("linia 2", textInput.readLine());
+
+            textOutput.println("Zażółć gęślą jaźń");
+            FrameCodec.Frame message = FrameCodec.read(frameInput, buffer);
+            assertEquals(FrameCodec.MESSAGE, message.opcode);
+            assertEquals("textUser: Zażółć gęślą jaźń", message.payload);
+        }
+    }
+
+    /**
+     * Test wiadomości na granicy rozmiaru ramki.
+     * Sprawdza w obu silnikach, czy wiadomość, która po dopisaniu nadawcy przekroczyłaby {@link FrameCodec#MAX_PAYLOAD},
+     * jest odrzucana z komunikatem dla nadawcy, a odbiorca binarny nie zostaje rozłączony.
+     */
+    @Test
+    @DisplayName("Test odrzucania zbyt długich wiadomości")
+    void testOversizedMessage() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("binUser:" + hashPassword("password1"));
+            writer.println("textUser:" + hashPassword("password2"));
+        }
+        checkOversizedMessage(50000);
+
+        NioChatServer nioServer = new NioChatServer(1);
+        Thread nioThread = startServer(nioServer, 50001);
+        try {
+            checkOversizedMessage(50001);
+        } finally {
+            nioServer.stopServer();
+            nioThread.join(2000);
+        }
+    }
+
+    /**
+     * Wysyła od klienta tekstowego wiadomość niemal tak długą jak {@link FrameCodec#MAX_PAYLOAD}
+     * i sprawdza, czy klient binarny nadal dostaje kolejne wiadomości.
+     *
+     * @param port Port serwera.
+     * @throws Exception Gdy komunikacja się nie powiedzie.
+     */
+    private void checkOversizedMessage(int port) throws Exception {
+        try (Socket binarySocket = new Socket("localhost", port);
+             Socket textSocket = new Socket("localhost", port);
+             BufferedReader textInput = new BufferedReader(new InputStreamReader(textSocket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter textOutput = new PrintWriter(new OutputStreamWriter(textSocket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            InputStream binaryIn = new BufferedInputStream(binarySocket.getInputStream());
+            DataInputStream frameInput = new DataInputStream(binaryIn);
+            DataOutputStream frameOutput = new DataOutputStream(binarySocket.getOutputStream());
+            byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+
+            frameOutput.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(binaryIn));
+            FrameCodec.write(frameOutput, FrameCodec.LOGIN, "binUser:" + hashPassword("password1"));
+            assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(frameInput, buffer).opcode);
+            textOutput.println("textUser:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", textInput.readLine());
+
+            char[] filler = new char[FrameCodec.MAX_PAYLOAD - 10];
+            Arrays.fill(filler, 'x');
+            textOutput.println(new String(filler));
+            assertEquals(ChatServer.MESSAGE_TOO_LONG, textInput.readLine());
+
+            textOutput.println("krótka wiadomość");
+            binarySocket.setSoTimeout(5000);
+            FrameCodec.Frame frame;
+            while ((frame = FrameCodec.read(frameInput, buffer)) != null && frame.opcode != FrameCodec.MESSAGE) {
+                // Pomija ramki identyfikatorów
+            }
+            assertNotNull(frame, "Klient binarny nie powinien zostać rozłączony.");
+            assertEquals("textUser: krótka wiadomość", frame.payload);
+        }
+    }
+
+    /**
+     * Test zbyt długiej linii w protokole tekstowym.
+     * Sprawdza w obu silnikach, czy klient wysyłający linię dłuższą niż {@link ChatServer#MAX_LINE_LENGTH}
+     * zostaje rozłączony, zamiast zmuszać serwer do gromadzenia jej w pamięci.
+     */
+    @Test
+    @DisplayName("Test rozłączania przy zbyt długiej linii")
+    void testLongLineDisconnect() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("textUser:" + hashPassword("password2"));
+        }
+        checkLongLineDisconnect(50000);
+
+        NioChatServer nioServer = new NioChatServer(1);
+        Thread nioThread = startServer(nioServer, 50001);
+        try {
+            checkLongLineDisconnect(50001);
+        } finally {
+            nioServer.stopServer();
+            nioThread.join(2000);
+        }
+    }
+
+    /**
+     * Loguje klienta tekstowego i wysyła mu linię bez końca, dopóki serwer nie zamknie połączenia.
+     *
+     * @param port Port serwera.
+     * @throws Exception Gdy komunikacja się nie powiedzie.
+     */
+    private void checkLongLineDisconnect(int port) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream output = socket.getOutputStream();
+            output.write(("textUser:" + hashPassword("password2") + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals("Logowanie udane", input.readLine());
+
+            byte[] chunk = new byte[16 * 1024];
+            Arrays.fill(chunk, (byte) 'x');
+            boolean closed = false;
+            try {
+                for (int i = 0; i < 64; i++) {
+                    output.write(chunk);
+                }
+            } catch (IOException e) {
+                closed = true;
+            }
+            if (!closed) {
+                try {
+                    while (input.readLine() != null) {
+                        // Pomija historię i komunikaty wysłane przed rozłączeniem
+                    }
+                    closed = true;
+                } catch (SocketException e) {
+                    closed = true;
+                }
+            }
+            assertTrue(closed, "Serwer powinien rozłączyć klienta wysyłającego zbyt długą linię.");
+        }
+    }
+
+    /**
+     * Test metryk serwera.
+     * Sprawdza liczniki logowań i wiadomości w MBeanie JMX oraz tekst zwracany przez punkt HTTP.
+     */
+    @Test
+    @DisplayName("Test metryk serwera")
+    void testMetricsEndpoint() throws Exception {
+        ChatServer metricsServer = new ChatServer();
+        metricsServer.metricsPort = 50003;
+        Thread metricsThread = startServer(metricsServer, 50002);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50002);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket client2 = new Socket("localhost", 50002);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket intruder = new Socket("localhost", 50002);
+             BufferedReader intruderInput = new BufferedReader(new InputStreamReader(intruder.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter intruderOutput = new PrintWriter(new OutputStreamWriter(intruder.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+            output2.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", input2.readLine());
+            intruderOutput.println("user1:" + hashPassword("złe hasło"));
+            assertEquals("Nieprawidłowy login lub hasło", intruderInput.readLine());
+
+            output1.println("Cześć");
+            assertEquals("user1: Cześć", input2.readLine());
+            waitUntil(() -> metricsServer.metrics.getMessagesOutTotal() >= 1, 5000, "Wysłana wiadomość powinna zostać policzona.");
+
+            ObjectName name = new ObjectName("ChatServer:type=Metrics,port=50002");
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(2L, mbeanServer.getAttribute(name, "LoginsTotal"));
+            assertEquals(1L, mbeanServer.getAttribute(name, "LoginFailuresTotal"));
+            assertEquals(1L, mbeanServer.getAttribute(name, "MessagesInTotal"));
+            assertEquals(1L, mbeanServer.getAttribute(name, "MessagesOutTotal"));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:50003/metrics").openConnection();
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(body.contains("\nchat_connections 2\n"), "Punkt HTTP powinien zwrócić liczbę połączeń: " + body);
+            assertTrue(body.contains("\nchat_messages_in_total 1\n"), "Punkt HTTP powinien zwrócić liczbę wiadomości: " + body);
+            assertTrue(body.contains("chat_broadcast_fanout_seconds_count 1\n"), "Punkt HTTP powinien zwrócić czas rozsyłania: " + body);
+        } finally {
+            metricsServer.stopServer();
+            metricsThread.join(2000);
+        }
+    }
+
+    /**
+     * Test konsoli administratora.
+     * Sprawdza uwierzytelnienie tokenem, listę sesji, rozłączanie według wzorca i komendy łączone średnikiem.
+     */
+    @Test
+    @DisplayName("Test konsoli administratora")
+    void testAdminConsole() throws Exception {
+        ChatServer adminServer = new ChatServer();
+        adminServer.adminPort = 50004;
+        adminServer.adminToken = "sekret";
+        Thread adminThread = startServer(adminServer, 50002);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("bot1:" + hashPassword("password"));
+            writer.println("bot2:" + hashPassword("password"));
+            writer.println("human:" + hashPassword("password"));
+        }
+
+        try (Socket bot1 = new Socket("localhost", 50002);
+             BufferedReader bot1Input = new BufferedReader(new InputStreamReader(bot1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter bot1Output = new PrintWriter(new OutputStreamWriter(bot1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket bot2 = new Socket("localhost", 50002);
+             BufferedReader bot2Input = new BufferedReader(new InputStreamReader(bot2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter bot2Output = new PrintWriter(new OutputStreamWriter(bot2.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket human = new Socket("localhost", 50002);
+             BufferedReader humanInput = new BufferedReader(new InputStreamReader(human.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter humanOutput = new PrintWriter(new OutputStreamWriter(human.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            bot1Output.println("bot1:" + hashPassword("password"));
+            assertEquals("Logowanie udane", bot1Input.readLine());
+            bot2Output.println("bot2:" + hashPassword("password"));
+            assertEquals("Logowanie udane", bot2Input.readLine());
+            humanOutput.println("human:" + hashPassword("password"));
+            assertEquals("Logowanie udane", humanInput.readLine());
+
+            try (Socket admin = new Socket("localhost", 50004);
+                 BufferedReader adminInput = new BufferedReader(new InputStreamReader(admin.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter adminOutput = new PrintWriter(new OutputStreamWriter(admin.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                adminOutput.println("AUTH złe");
+                assertEquals("ERR Nieprawidłowy token", adminInput.readLine());
+            }
+
+            try (Socket admin = new Socket("localhost", 50004);
+                 BufferedReader adminInput = new BufferedReader(new InputStreamReader(admin.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter adminOutput = new PrintWriter(new OutputStreamWriter(admin.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                adminOutput.println("AUTH sekret");
+                assertEquals("OK", adminInput.readLine());
+
+                adminOutput.println("LIST bot?");
+                Set<String> listed = new HashSet<>(Arrays.asList(adminInput.readLine(), adminInput.readLine()));
+                assertEquals(new HashSet<>(Arrays.asList("bot1 ogólny", "bot2 ogólny")), listed);
+                assertEquals("OK 2", adminInput.readLine());
+
+                adminOutput.println("KICK bot*; SEND Koniec przerwy");
+                assertEquals("OK 2", adminInput.readLine(), "Powinny zostać rozłączone dwie sesje botów.");
+                assertEquals("OK", adminInput.readLine());
+
+                // Rozłączanie jest asynchroniczne, więc boty mogą jeszcze zdążyć dostać wiadomość z SEND
+                for (BufferedReader botInput : Arrays.asList(bot1Input, bot2Input)) {
+                    String line = botInput.readLine();
+                    if ("Pan Admin: Koniec przerwy".equals(line)) {
+                        line = botInput.readLine();
+                    }
+                    assertEquals("Zostałeś rozłączony przez administratora.", line);
+                    assertNull(botInput.readLine(), "Połączenie bota powinno zostać zamknięte.");
+                }
+                assertEquals("Pan Admin: Koniec przerwy", humanInput.readLine(), "Użytkownik spoza wzorca powinien pozostać połączony.");
+
+                adminOutput.println("STATS");
+                String line;
+                boolean sawConnections = false;
+                while (!"OK".equals(line = adminInput.readLine())) {
+                    assertNotNull(line);
+                    sawConnections |= line.startsWith("chat_connections ");
+                }
+                assertTrue(sawConnections, "STATS powinno zwrócić metryki serwera.");
+            }
+        } finally {
+            adminServer.stopServer();
+            adminThread.join(2000);
+        }
+    }
+
+    /**
+     * Test zapisu tokenu konsoli administratora.
+     * Sprawdza, czy plik z wygenerowanym tokenem jest czytelny tylko dla właściciela, także gdy wcześniej miał szersze uprawnienia.
+     */
+    @Test
+    @DisplayName("Test uprawnień pliku z tokenem administratora")
+    void testAdminTokenPermissions() throws Exception {
+        java.nio.file.Path tokenFile = java.nio.file.Files.createTempDirectory("admin").resolve("admin.token");
+        if (!java.nio.file.Files.getFileStore(tokenFile.getParent()).supportsFileAttributeView(java.nio.file.attribute.PosixFileAttributeView.class)) {
+            return;
+        }
+        java.nio.file.Files.createFile(tokenFile, java.nio.file.attribute.PosixFilePermissions.asFileAttribute(
+                java.nio.file.attribute.PosixFilePermissions.fromString("rw-r--r--")));
+        ChatServer tokenServer = new ChatServer();
+        tokenServer.adminToken = "sekret";
+        tokenServer.writeAdminToken(tokenFile);
+        assertEquals("rw-------", java.nio.file.attribute.PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(tokenFile)));
+        assertEquals("sekret", new String(java.nio.file.Files.readAllBytes(tokenFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test łagodnego zatrzymania serwera.
+     * Sprawdza, czy klient odbierający wiadomości dostaje całą kolejkę i pożegnanie,
+     * a klient, który przestał odbierać, nie wstrzymuje zamknięcia dłużej niż podany termin.
+     */
+    @Test
+    @DisplayName("Test opróżniania kolejek przy zatrzymaniu serwera")
+    void testGracefulDrain() throws Exception {
+        ChatServer drainServer = new ChatServer();
+        Thread drainThread = startServer(drainServer, 50002);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("reader:" + hashPassword("password"));
+            writer.println("stalled:" + hashPassword("password"));
+        }
+
+        try (Socket reader = new Socket("localhost", 50002);
+             Socket stalled = new Socket()) {
+            stalled.setReceiveBufferSize(4096);
+            stalled.connect(new InetSocketAddress("localhost", 50002));
+            BufferedReader readerInput = new BufferedReader(new InputStreamReader(reader.getInputStream(), StandardCharsets.UTF_8));
+            new PrintWriter(new OutputStreamWriter(reader.getOutputStream(), StandardCharsets.UTF_8), true)
+                    .println("reader:" + hashPassword("password"));
+            assertEquals("Logowanie udane", readerInput.readLine());
+            BufferedReader stalledInput = new BufferedReader(new InputStreamReader(stalled.getInputStream(), StandardCharsets.UTF_8));
+            new PrintWriter(new OutputStreamWriter(stalled.getOutputStream(), StandardCharsets.UTF_8), true)
+                    .println("stalled:" + hashPassword("password"));
+            assertEquals("Logowanie udane", stalledInput.readLine());
+
+            List<String> received = Collections.synchronizedList(new ArrayList<>());
+            Thread readerThread = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = readerInput.readLine()) != null) {
+                        received.add(line);
+                    }
+                } catch (IOException e) {
+                    // Gniazdo zamknięte przez serwer
+                }
+            });
+            readerThread.start();
+
+            char[] filler = new char[16 * 1024];
+            Arrays.fill(filler, 'x');
+            int messages = 1000;
+            for (int i = 0; i < messages; i++) {
+                drainServer.sendServerMessage(i + new String(filler));
+            }
+            // Kolejka odbierającego klienta jest pusta przed zamknięciem, więc zdąży on dostać pożegnanie
+            // niezależnie od szybkości maszyny, a kolejka wolnego klienta pozostaje pełna
+            waitUntil(() -> received.size() == messages, 10_000, "Klient powinien odebrać wszystkie wiadomości przed zamknięciem.");
+
+            long drainTimeoutMillis = 2000;
+            long start = System.nanoTime();
+            int drained = drainServer.stopServer(drainTimeoutMillis);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            readerThread.join(5000);
+
+            assertEquals(1, drained, "Tylko klient odbierający wiadomości powinien zostać opróżniony.");
+            assertTrue(elapsedMillis < drainTimeoutMillis + 3000, "Wolny klient nie powinien wstrzymywać zamknięcia: " + elapsedMillis + " ms");
+            assertEquals(messages + 1, received.size(), "Klient powinien dostać wszystkie wiadomości i pożegnanie.");
+            assertEquals(ChatServer.SHUTDOWN_MESSAGE, received.get(messages));
+        } finally {
+            drainServer.stopServer();
+            drainThread.join(2000);
+        }
+    }
+
+    /**
+     * Test klastra trzech węzłów połączonych w trójkąt.
+     * Sprawdza, czy wiadomość z pokoju i wiadomość serwera trafiają do klientów innych węzłów
+     * dokładnie raz, mimo że każdy węzeł dostaje je dwiema drogami.
+     */
+    @Test
+    @DisplayName("Test przekazywania wiadomości w klastrze")
+    void testClusterRelay() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+            writer.println("user3:" + hashPassword("password3"));
+        }
+
+        ChatServer[] nodes = new ChatServer[3];
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < 3; i++) {
+            ChatServer node = new ChatServer();
+            node.clusterNodeId = "node" + (i + 1);
+            node.clusterSecret = "sekret";
+            node.clusterPort = 50008 + i;
+            node.clusterPeers = i == 0 ? "" : i == 1 ? "127.0.0.1:50008" : "127.0.0.1:50008,127.0.0.1:50009";
+            int port = 50005 + i;
+            nodes[i] = node;
+            threads[i] = new Thread(() -> node.startServer(port));
+            threads[i].start();
+        }
+        try {
+            waitUntil(() -> Arrays.stream(nodes).allMatch(node -> node.cluster != null && node.cluster.getLinkCount() == 2),
+                    10_000, "Każdy węzeł powinien mieć dwóch sąsiadów.");
+
+            // Węzeł bez wspólnego sekretu jest rozłączany, nie poznaje sekretu i nie staje się sąsiadem
+            try (Socket intruder = new Socket("localhost", 50008)) {
+                DataOutputStream intruderOutput = new DataOutputStream(intruder.getOutputStream());
+                DataInputStream intruderInput = new DataInputStream(intruder.getInputStream());
+                intruderOutput.writeUTF("intruz");
+                intruderOutput.writeUTF("zły sekret");
+                intruderOutput.flush();
+                intruder.setSoTimeout(2000);
+                assertEquals(-1, intruderInput.read(), "Węzeł nie powinien niczego wysłać przed sprawdzeniem sekretu.");
+                assertEquals(2, nodes[0].cluster.getLinkCount());
+            }
+
+            try (Socket client1 = new Socket("localhost", 50005);
+                 BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+                 Socket client2 = new Socket("localhost", 50006);
+                 BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true);
+
+                 Socket client3 = new Socket("localhost", 50007);
+                 BufferedReader input3 = new BufferedReader(new InputStreamReader(client3.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter output3 = new PrintWriter(new OutputStreamWriter(client3.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+                output1.println("user1:" + hashPassword("password1"));
+                assertEquals("Logowanie udane", input1.readLine());
+                output2.println("user2:" + hashPassword("password2"));
+                assertEquals("Logowanie udane", input2.readLine());
+                output3.println("user3:" + hashPassword("password3"));
+                assertEquals("Logowanie udane", input3.readLine());
+
+                output1.println("Cześć z węzła 1");
+                assertEquals("user1: Cześć z węzła 1", input2.readLine());
+                assertEquals("user1: Cześć z węzła 1", input3.readLine());
+
+                nodes[1].sendServerMessage("Przerwa");
+                assertEquals("Pan Admin: Przerwa", input1.readLine());
+                assertEquals("Pan Admin: Przerwa", input3.readLine());
+                assertEquals("Pan Admin: Przerwa", input2.readLine());
+
+                // Duplikat dotarłby przed kolejną wiadomością z tego samego węzła
+                output3.println("Koniec");
+                assertEquals("user3: Koniec", input1.readLine());
+                assertEquals("user3: Koniec", input2.readLine());
+            }
+        } finally {
+            for (int i = 0; i < 3; i++) {
+                nodes[i].stopServer();
+                threads[i].join(2000);
+            }
+        }
+    }
+
+    /**
+     * Test limitu wiadomości.
+     * Sprawdza wstrzymywanie odczytu, odrzucanie wiadomości z powiadomieniem nadawcy
+     * i rozłączanie klienta, który przekroczył limit.
+     */
+    @Test
+    @DisplayName("Test limitu wiadomości")
+    void testRateLimit() throws Exception {
+        ChatServer limitedServer = new ChatServer();
+        limitedServer.connectionRateLimit = 5;
+        limitedServer.rateLimitBurst = 5;
+        Thread limitedThread = startServer(limitedServer, 50002);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50002);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+
+             Socket client2 = new Socket("localhost", 50002);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+            output2.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", input2.readLine());
+
+            // THROTTLE: wszystkie wiadomości docierają, ale ponad serię tylko 5 na sekundę
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                output1.println("wolniej " + i);
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals("user1: wolniej " + i, input2.readLine());
+            }
+            assertTrue(System.nanoTime() - start >= 800_000_000L, "Wiadomości ponad serię powinny zostać wstrzymane.");
+            assertTrue(limitedServer.rateLimitedMessages.get() >= 4, "Wstrzymane wiadomości powinny zostać policzone.");
+
+            // DROP: nadmiarowe wiadomości są odrzucane, a nadawca dostaje powiadomienie
+            limitedServer.rateLimitAction = ChatServer.RateLimitAction.DROP;
+            for (int i = 0; i < 20; i++) {
+                output1.println("zalew " + i);
+            }
+            assertEquals("Zbyt wiele wiadomości, zwolnij.", input1.readLine());
+
+            // DISCONNECT: nadawca zostaje rozłączony
+            limitedServer.rateLimitAction = ChatServer.RateLimitAction.DISCONNECT;
+            for (int i = 0; i < 20; i++) {
+                output1.println("zalew " + i);
+            }
+            String line;
+            while ((line = input1.readLine()) != null && !line.startsWith("Rozłączono")) {
+                assertEquals("Zbyt wiele wiadomości, zwolnij.", line);
+            }
+            assertEquals("Rozłączono za zbyt wiele wiadomości.", line);
+            assertNull(input1.readLine(), "Połączenie powinno zostać zamknięte.");
+            // Licznik rośnie po zamknięciu połączenia, więc klient może zobaczyć koniec strumienia wcześniej
+            waitUntil(() -> limitedServer.rateLimitDisconnects.get() == 1, 2000, "Rozłączenie powinno zostać policzone.");
+            assertEquals(1, limitedServer.rateLimitDisconnects.get());
+        } finally {
+            limitedServer.stopServer();
+            limitedThread.join(2000);
+        }
+    }
+
+    /**
+     * Test limitu użytkownika przy wolnym limicie połączenia.
+     * Sprawdza, czy wiadomość odrzucona przez wyczerpany limit użytkownika nie zużywa żetonu połączenia.
+     */
+    @Test
+    @DisplayName("Test zachowania żetonu połączenia przy odmowie limitu użytkownika")
+    void testUserRateLimitKeepsConnectionToken() {
+        ChatServer limitedServer = new ChatServer();
+        limitedServer.userRateLimit = 1;
+        limitedServer.rateLimitAction = ChatServer.RateLimitAction.DROP;
+        TokenBucket connectionLimiter = new TokenBucket(0.001, 3);
+        limitedServer.userRateLimiters.put("user1", new TokenBucket(0.001, 1));
+        ChatSession session = mock(ChatSession.class);
+        when(session.getUsername()).thenReturn("user1");
+        when(session.getRateLimiter()).thenReturn(connectionLimiter);
+
+        assertTrue(limitedServer.admitMessage(session, false));
+        for (int i = 0; i < 5; i++) {
+            assertFalse(limitedServer.admitMessage(session, false), "Limit użytkownika powinien odrzucić wiadomość.");
+        }
+        long now = System.nanoTime();
+        assertTrue(connectionLimiter.tryAcquire(now), "Odrzucone wiadomości nie powinny zużyć żetonów połączenia.");
+        assertTrue(connectionLimiter.tryAcquire(now), "Odrzucone wiadomości nie powinny zużyć żetonów połączenia.");
+        assertFalse(connectionLimiter.tryAcquire(now));
+    }
+
+    /**
+     * Test kompresji długich wiadomości.
+     * Sprawdza, czy klient, który wynegocjował kompresję, dostaje długą wiadomość jako krótszą ramkę skompresowaną,
+     * a krótką bez kompresji, i czy klient binarny bez kompresji dostaje zwykłą ramkę.
+     */
+    @Test
+    @DisplayName("Test kompresji długich wiadomości")
+    void testCompressedBroadcast() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+            writer.println("user3:" + hashPassword("password3"));
+        }
+
+        try (Socket sender = new Socket("localhost", 50000);
+             BufferedReader senderInput = new BufferedReader(new InputStreamReader(sender.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter senderOutput = new PrintWriter(new OutputStreamWriter(sender.getOutputStream(), StandardCharsets.UTF_8), true);
+             Socket compressed = new Socket("localhost", 50000);
+             Socket plain = new Socket("localhost", 50000)) {
+
+            senderOutput.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", senderInput.readLine());
+
+            DataInputStream compressedInput = new DataInputStream(new BufferedInputStream(compressed.getInputStream()));
+            DataOutputStream compressedOutput = new DataOutputStream(compressed.getOutputStream());
+            compressedOutput.write((FrameCodec.NEGOTIATION_DEFLATE + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(FrameCodec.NEGOTIATION_DEFLATE, FrameCodec.readFirstLine(compressedInput));
+            FrameCodec.write(compressedOutput, FrameCodec.LOGIN, "user2:" + hashPassword("password2"));
+            assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(compressedInput, new byte[FrameCodec.MAX_PAYLOAD]).opcode);
+
+            DataInputStream plainInput = new DataInputStream(new BufferedInputStream(plain.getInputStream()));
+            DataOutputStream plainOutput = new DataOutputStream(plain.getOutputStream());
+            plainOutput.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(plainInput));
+            FrameCodec.write(plainOutput, FrameCodec.LOGIN, "user3:" + hashPassword("password3"));
+            assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(plainInput, new byte[FrameCodec.MAX_PAYLOAD]).opcode);
+
+            StringBuilder paste = new StringBuilder();
+            while (paste.length() < 2000) {
+                paste.append("Wklejam dłuższy fragment logu, który się powtarza, bo tak właśnie wyglądają logi. ");
+            }
+            String longMessage = paste.toString().trim();
+            int longBytes = ("user1: " + longMessage).getBytes(StandardCharsets.UTF_8).length;
+            senderOutput.println(longMessage);
+            senderOutput.println("krótka");
+
+            int length = compressedInput.readInt();
+            assertEquals(FrameCodec.COMPRESSED, compressedInput.readByte());
+            assertTrue(length - 1 < longBytes / 4, "Powtarzalna wiadomość powinna się mocno skompresować: " + length);
+            byte[] payload = new byte[length - 1];
+            compressedInput.readFully(payload);
+            assertEquals("user1: " + longMessage, FrameCodec.inflate(payload, payload.length));
+            FrameCodec.Frame shortFrame = FrameCodec.read(compressedInput, new byte[FrameCodec.MAX_PAYLOAD]);
+            assertEquals(FrameCodec.MESSAGE, shortFrame.opcode);
+            assertEquals("user1: krótka", shortFrame.payload);
+
+            assertEquals(longBytes + 1, plainInput.readInt());
+            assertEquals(FrameCodec.MESSAGE, plainInput.readByte());
+            byte[] plainPayload = new byte[longBytes];
+            plainInput.readFully(plainPayload);
+            assertEquals("user1: " + longMessage, new String(plainPayload, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Test nieblokującego logowania.
+     * Sprawdza, czy wolna weryfikacja danych nie blokuje pętli zdarzeń, czy logowanie ponad pojemność puli
+     * weryfikującej jest odrzucane od razu, czy bajty wysłane razem z danymi logowania są obsługiwane
+     * po weryfikacji i czy bezczynne niezalogowane połączenie jest zamykane.
+     */
+    @Test
+    @DisplayName("Test nieblokującego logowania")
+    void testAsyncLogin() throws Exception {
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        NioChatServer nioServer = new NioChatServer(1) {
+            @Override
+            protected boolean verifyUserCredentials(String username, String hashedPassword) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.verifyUserCredentials(username, hashedPassword);
+            }
+        };
+        nioServer.authThreads = 1;
+        nioServer.authQueueCapacity = 1;
+        nioServer.loginTimeoutMillis = 3000;
+        Thread nioThread = startServer(nioServer, 50001);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+            writer.println("user3:" + hashPassword("password3"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50001);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+             Socket client2 = new Socket("localhost", 50001);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true);
+             Socket client3 = new Socket("localhost", 50001);
+             BufferedReader input3 = new BufferedReader(new InputStreamReader(client3.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output3 = new PrintWriter(new OutputStreamWriter(client3.getOutputStream(), StandardCharsets.UTF_8), true);
+             Socket idle = new Socket("localhost", 50001)) {
+
+            long idleStart = System.nanoTime();
+            output1.println("user1:" + hashPassword("password1"));
+            waitUntil(() -> nioServer.authExecutor.getActiveCount() >= 1, 5000, "Pierwsze logowanie powinno zająć pulę weryfikacji.");
+            // Komenda wysłana razem z danymi logowania czeka w buforze na wynik weryfikacji
+            output2.print("user2:" + hashPassword("password2") + "\n/join potok\n");
+            output2.flush();
+            waitUntil(() -> nioServer.authExecutor.getQueue().size() >= 1, 5000, "Drugie logowanie powinno czekać w kolejce puli.");
+
+            // Pula jest zajęta, a pętla zdarzeń nadal obsługuje połączenia i od razu odrzuca nadmiarowe logowanie
+            output3.println("user3:" + hashPassword("password3"));
+            assertEquals("Serwer jest przeciążony, spróbuj ponownie później.", input3.readLine());
+            assertNull(input3.readLine(), "Połączenie odrzuconego klienta powinno zostać zamknięte.");
+            assertEquals(1, nioServer.rejectedLogins.get());
+
+            release.countDown();
+            assertEquals("Logowanie udane", input1.readLine());
+            assertEquals("Logowanie udane", input2.readLine());
+            String line;
+            int skipped = 0;
+            while ((line = input2.readLine()) != null && !line.equals("Dołączono do pokoju potok") && skipped++ < 100) {
+                // Pomija historię pokoju domyślnego
+            }
+            assertEquals("Dołączono do pokoju potok", line);
+
+            idle.setSoTimeout(10_000);
+            assertEquals(-1, idle.getInputStream().read(), "Bezczynne połączenie powinno zostać zamknięte.");
+            assertTrue(System.nanoTime() - idleStart >= 2_500_000_000L, "Połączenie nie powinno zostać zamknięte przed upływem czasu.");
+            assertEquals(1, nioServer.loginTimeouts.get());
+        } finally {
+            nioServer.stopServer();
+            nioThread.join(2000);
+        }
+    }
+
+    /**
+     * Test skrzynek offline.
+     * Sprawdza, czy wiadomość prywatna do niezalogowanego użytkownika czeka w skrzynce także po restarcie serwera,
+     * jest dostarczana raz po zalogowaniu i czy skrzynki są ograniczone liczbą wiadomości i czasem życia.
+     */
+    @Test
+    @DisplayName("Test skrzynek offline")
+    void testOfflineMailbox() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+        java.nio.file.Path mailboxDirectory = java.nio.file.Files.createTempDirectory("mailbox");
+
+        for (int run = 0; run < 3; run++) {
+            ChatServer mailboxServer = new ChatServer();
+            mailboxServer.mailboxDirectory = mailboxDirectory.toString();
+            Thread mailboxThread = startServer(mailboxServer, 50002);
+
+            try {
+                if (run == 0) {
+                    try (Socket client1 = new Socket("localhost", 50002);
+                         BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+                         PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+                        output1.println("user1:" + hashPassword("password1"));
+                        assertEquals("Logowanie udane", input1.readLine());
+                        output1.println("/msg user2 Zadzwoń do mnie");
+                        assertEquals("Użytkownik user2 nie jest zalogowany, otrzyma wiadomość po zalogowaniu.", input1.readLine());
+                        output1.println("/msg user2 Najlepiej jutro");
+                        assertEquals("Użytkownik user2 nie jest zalogowany, otrzyma wiadomość po zalogowaniu.", input1.readLine());
+                        output1.println("/msg nieznany Cześć");
+                        assertEquals("Użytkownik nieznany nie jest zalogowany.", input1.readLine());
+                    }
+                } else {
+                    // Skrzynka przetrwała restart serwera, a po odebraniu jest pusta
+                    try (Socket client2 = new Socket("localhost", 50002);
+                         BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+                         PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+                        output2.println("user2:" + hashPassword("password2"));
+                        assertEquals("Logowanie udane", input2.readLine());
+                        if (run == 1) {
+                            assertEquals("Wiadomości otrzymane pod Twoją nieobecność: 2", input2.readLine());
+                            assertEquals("user1 (prywatnie): Zadzwoń do mnie", input2.readLine());
+                            assertEquals("user1 (prywatnie): Najlepiej jutro", input2.readLine());
+                        }
+                        output2.println("/msg user2 znacznik");
+                        assertEquals("user2 (prywatnie): znacznik", input2.readLine(), "Skrzynka powinna zostać opróżniona (przebieg " + run + ").");
+                    }
+                }
+            } finally {
+                mailboxServer.stopServer();
+                mailboxThread.join(2000);
+            }
+        }
+
+        OfflineMailbox bounded = new OfflineMailbox(mailboxDirectory.resolve("bounded.log"), 300, 2, 1024);
+        bounded.open();
+        bounded.add("user1", "pierwsza");
+        bounded.add("user1", "druga");
+        bounded.add("user1", "trzecia");
+        assertEquals(Arrays.asList("druga", "trzecia"), bounded.take("user1"), "Skrzynka powinna zachować najnowsze wiadomości.");
+        bounded.add("user2", "wygaśnie");
+        Thread.sleep(400);
+        assertTrue(bounded.take("user2").isEmpty(), "Wiadomość starsza niż TTL powinna wygasnąć.");
+        bounded.close();
+
+        // Przepisanie pliku po odebraniu większości wiadomości zachowuje oczekujące i pozwala dalej zapisywać
+        String filler = String.join("", Collections.nCopies(8 * 1024, "x"));
+        java.nio.file.Path compactedFile = mailboxDirectory.resolve("compacted.log");
+        OfflineMailbox compacted = new OfflineMailbox(compactedFile, 60_000, 1000, 16 * 1024 * 1024);
+        compacted.open();
+        compacted.add("user2", "czeka");
+        for (int i = 0; i < 150; i++) {
+            compacted.add("user1", filler);
+        }
+        assertEquals(150, compacted.take("user1").size());
+        assertTrue(java.nio.file.Files.size(compactedFile) < 1024, "Plik powinien zostać przepisany.");
+        assertTrue(compacted.add("user2", "po przepisaniu"));
+        compacted.close();
+        compacted = new OfflineMailbox(compactedFile, 60_000, 1000, 16 * 1024 * 1024);
+        compacted.open();
+        assertEquals(Arrays.asList("czeka", "po przepisaniu"), compacted.take("user2"));
+        compacted.close();
+
+        // Nieudana podmiana pliku zostawia w użyciu poprzedni kanał
+        java.nio.file.Path failingFile = mailboxDirectory.resolve("failing.log");
+        OfflineMailbox failing = new OfflineMailbox(failingFile, 60_000, 1000, 16 * 1024 * 1024);
+        failing.open();
+        for (int i = 0; i < 150; i++) {
+            failing.add("user1", filler);
+        }
+        java.nio.file.Files.delete(failingFile);
+        java.nio.file.Files.createDirectory(failingFile);
+        assertEquals(150, failing.take("user1").size());
+        assertTrue(failing.add("user2", "po błędzie"), "Po nieudanym przepisaniu skrzynka powinna dalej zapisywać.");
+        assertFalse(java.nio.file.Files.exists(mailboxDirectory.resolve("failing.log.tmp")));
+        failing.close();
+    }
+
+    /**
+     * Test wyszukiwania w historii.
+     * Sprawdza, czy komenda {@code /search} znajduje wiadomości pokoju po słowach, autorze i dacie,
+     * i czy zapytanie do indeksu z milionem wiadomości trwa milisekundy.
+     */
+    @Test
+    @DisplayName("Test wyszukiwania w historii")
+    void testSearch() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+
+        try (Socket client1 = new Socket("localhost", 50000);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true);
+             Socket client2 = new Socket("localhost", 50000);
+             BufferedReader input2 = new BufferedReader(new InputStreamReader(client2.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output2 = new PrintWriter(new OutputStreamWriter(client2.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+            output2.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", input2.readLine());
+
+            long before = server.searchIndex.indexedCount();
+            output1.println("Spotkanie o piętnastej");
+            output1.println("Obiad o trzynastej");
+            assertEquals("user1: Spotkanie o piętnastej", input2.readLine());
+            assertEquals("user1: Obiad o trzynastej", input2.readLine());
+            output2.println("SPOTKANIE przesunięte!");
+            assertEquals("user2: SPOTKANIE przesunięte!", input1.readLine());
+            waitUntil(() -> server.searchIndex.indexedCount() >= before + 3, 5000, "Wiadomości powinny trafić do indeksu.");
+
+            output2.println("/search spotkanie");
+            assertEquals("Wyniki wyszukiwania: 2", input2.readLine());
+            assertTrue(input2.readLine().endsWith(" user2: SPOTKANIE przesunięte!"), "Najpierw najnowsza wiadomość.");
+            assertTrue(input2.readLine().endsWith(" user1: Spotkanie o piętnastej"));
+
+            output2.println("/search o from:user1");
+            assertEquals("Wyniki wyszukiwania: 2", input2.readLine());
+            assertTrue(input2.readLine().endsWith(" user1: Obiad o trzynastej"));
+            assertTrue(input2.readLine().endsWith(" user1: Spotkanie o piętnastej"));
+
+            output2.println("/search spotkanie until:2000-01-01");
+            assertEquals("Wyniki wyszukiwania: 0", input2.readLine());
+
+            output2.println("/search since:wczoraj");
+            assertEquals("Niepoprawna data: since:wczoraj", input2.readLine());
+        }
+
+        SearchIndex large = new SearchIndex(2_000_000);
+        String[] words = {"serwer", "klient", "pokój", "wiadomość", "test", "kod", "błąd", "wdrożenie"};
+        long time = System.currentTimeMillis() - 1_000_000;
+        for (int i = 0; i < 1_000_000; i++) {
+            large.add(time + i, "ogólny", "user" + (i % 100) + ": " + words[i % 8] + " " + words[(i / 8) % 8] + " numer" + (i % 1000));
+            if (i % 100_000 == 0) {
+                large.add(time + i, "cichy", "user1: cicha wiadomość " + i);
+            }
+        }
+        SearchIndex.Query query = SearchIndex.parse("błąd wdrożenie from:user7 since:2000-01-01");
+        List<String> results = large.search("ogólny", query, 20);
+        assertEquals(20, results.size());
+        for (String result : results) {
+            assertTrue(result.contains(" user7: ") && result.contains("błąd") && result.contains("wdrożenie"), result);
+        }
+
+        // Zapytanie bez słów w cichym pokoju przegląda tylko listę tego pokoju
+        List<String> quiet = large.search("cichy", SearchIndex.parse("since:2000-01-01"), 20);
+        assertEquals(10, quiet.size());
+        for (String result : quiet) {
+            assertTrue(result.contains(" user1: cicha wiadomość "), result);
+        }
+    }
+
+    /**
+     * Test wznawiania połączenia.
+     * Sprawdza, czy klient binarny dostaje identyfikatory wiadomości z dziennika, czy po restarcie serwera
+     * logowanie z identyfikatorem ostatniej odebranej wiadomości zwraca tylko brakującą historię,
+     * czy pokój podany przy logowaniu albo w {@code /resume} zostaje przywrócony bez historii innego pokoju
+     * i czy opóźnienia ponownego łączenia są losowe i ograniczone.
+     */
+    @Test
+    @DisplayName("Test wznawiania połączenia")
+    void testResume() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+        String journalDirectory = java.nio.file.Files.createTempDirectory("journal").toString();
+        byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+        long lastSeen;
+
+        ChatServer firstServer = new ChatServer();
+        firstServer.journalDirectory = journalDirectory;
+        Thread firstThread = startServer(firstServer, 50002);
+        try (Socket client1 = new Socket("localhost", 50002);
+             BufferedReader input1 = new BufferedReader(new InputStreamReader(client1.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter output1 = new PrintWriter(new OutputStreamWriter(client1.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            output1.println("user1:" + hashPassword("password1"));
+            assertEquals("Logowanie udane", input1.readLine());
+
+            try (Socket client2 = new Socket("localhost", 50002)) {
+                DataInputStream input2 = new DataInputStream(new BufferedInputStream(client2.getInputStream()));
+                DataOutputStream output2 = new DataOutputStream(client2.getOutputStream());
+                output2.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+                assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(input2));
+                FrameCodec.write(output2, FrameCodec.LOGIN, "user2:" + hashPassword("password2"));
+                assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(input2, buffer).opcode);
+
+                output1.println("pierwsza");
+                output1.println("druga");
+                FrameCodec.Frame id = FrameCodec.read(input2, buffer);
+                assertEquals(FrameCodec.MESSAGE_ID, id.opcode);
+                long firstId = Long.parseLong(id.payload);
+                assertEquals("user1: pierwsza", FrameCodec.read(input2, buffer).payload);
+                id = FrameCodec.read(input2, buffer);
+                assertEquals(FrameCodec.MESSAGE_ID, id.opcode);
+                lastSeen = Long.parseLong(id.payload);
+                assertTrue(lastSeen > firstId, "Identyfikatory powinny rosnąć.");
+                assertEquals("user1: druga", FrameCodec.read(input2, buffer).payload);
+            }
+
+            // Wiadomości wysłane, gdy user2 był rozłączony
+            output1.println("trzecia");
+            output1.println("/join inny");
+            assertEquals("Dołączono do pokoju inny", input1.readLine());
+            output1.println("w innym pokoju");
+            // Odpowiedź na komendę oznacza, że poprzednia wiadomość została już zapisana w dzienniku
+            output1.println("/search trzecia");
+            assertEquals("Wyniki wyszukiwania: 0", input1.readLine());
+        } finally {
+            firstServer.stopServer();
+            firstThread.join(2000);
+        }
+
+        ChatServer restarted = new ChatServer();
+        restarted.journalDirectory = journalDirectory;
+        Thread restartedThread = startServer(restarted, 50002);
+        try (Socket client2 = new Socket("localhost", 50002)) {
+            DataInputStream input2 = new DataInputStream(new BufferedInputStream(client2.getInputStream()));
+            DataOutputStream output2 = new DataOutputStream(client2.getOutputStream());
+            output2.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(input2));
+            FrameCodec.write(output2, FrameCodec.LOGIN, "user2:" + hashPassword("password2") + FrameCodec.RESUME_MARK + lastSeen);
+            assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(input2, buffer).opcode);
+
+            // Tylko wiadomość, której user2 nie odebrał, bez całej historii pokoju
+            assertEquals(FrameCodec.MESSAGE_ID, FrameCodec.read(input2, buffer).opcode);
+            assertEquals("user1: trzecia", FrameCodec.read(input2, buffer).payload);
+
+            FrameCodec.write(output2, FrameCodec.MESSAGE, "/resume " + lastSeen + " inny");
+            assertEquals("Dołączono do pokoju inny", FrameCodec.read(input2, buffer).payload);
+            assertEquals(FrameCodec.MESSAGE_ID, FrameCodec.read(input2, buffer).opcode);
+            assertEquals("user1: w innym pokoju", FrameCodec.read(input2, buffer).payload);
+
+            FrameCodec.write(output2, FrameCodec.MESSAGE, "/msg user2 koniec");
+            FrameCodec.Frame marker = FrameCodec.read(input2, buffer);
+            assertEquals(FrameCodec.MESSAGE, marker.opcode);
+            assertEquals("user2 (prywatnie): koniec", marker.payload, "Historia nie powinna zostać wysłana ponownie.");
+
+            // Pokój podany przy logowaniu: serwer od razu wraca do niego, bez historii pokoju domyślnego
+            client2.close();
+            waitUntil(() -> !restarted.sessionsByUser.containsKey("user2"), 5000, "Poprzednia sesja powinna zostać zamknięta.");
+            try (Socket client3 = new Socket("localhost", 50002)) {
+                DataInputStream input3 = new DataInputStream(new BufferedInputStream(client3.getInputStream()));
+                DataOutputStream output3 = new DataOutputStream(client3.getOutputStream());
+                output3.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+                assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(input3));
+                FrameCodec.write(output3, FrameCodec.LOGIN,
+                        "user2:" + hashPassword("password2") + FrameCodec.RESUME_MARK + lastSeen + FrameCodec.RESUME_MARK + "inny");
+                assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(input3, buffer).opcode);
+                assertEquals("Dołączono do pokoju inny", FrameCodec.read(input3, buffer).payload);
+                assertEquals(FrameCodec.MESSAGE_ID, FrameCodec.read(input3, buffer).opcode);
+                assertEquals("user1: w innym pokoju", FrameCodec.read(input3, buffer).payload);
+                FrameCodec.write(output3, FrameCodec.MESSAGE, "/msg user2 koniec");
+                assertEquals("user2 (prywatnie): koniec", FrameCodec.read(input3, buffer).payload,
+                        "Historia pokoju domyślnego nie powinna zostać wysłana.");
+            }
+        } finally {
+            restarted.stopServer();
+            restartedThread.join(2000);
+        }
+
+        Set<Long> delays = new HashSet<>();
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long delay = ChatClient.backoffMillis(attempt, 500, 30_000);
+            assertTrue(delay >= 0 && delay <= Math.min(30_000, 500L << Math.min(attempt, 20)), "Opóźnienie poza zakresem: " + delay);
+            delays.add(delay);
+        }
+        assertTrue(delays.size() > 20, "Opóźnienia powinny być losowe.");
+    }
+
+    /**
+     * Test połączenia klienta czatu.
+     * Sprawdza, czy po ponownym połączeniu w innym protokole wysyłanie z innego wątku używa nowego połączenia
+     * w całości: gniazda, strumieni i protokołu. Okno klienta nie jest tworzone, więc test działa bez ekranu.
+     */
+    @Test
+    @DisplayName("Test podmiany połączenia klienta czatu")
+    void testClientConnectionSwap() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+        ChatClient client = mock(ChatClient.class, CALLS_REAL_METHODS);
+        client.serverAddress = "localhost";
+        client.serverPort = 50000;
+        client.credentials = "user1:" + hashPassword("password1");
+        client.preferBinary = true;
+
+        try (Socket observer = new Socket("localhost", 50000);
+             BufferedReader observerInput = new BufferedReader(new InputStreamReader(observer.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter observerOutput = new PrintWriter(new OutputStreamWriter(observer.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            observerOutput.println("user2:" + hashPassword("password2"));
+            assertEquals("Logowanie udane", observerInput.readLine());
+
+            assertEquals("Logowanie udane", client.connect());
+            ChatClient.Connection first = client.connection;
+            assertTrue(first.binary);
+            client.send("przez ramki");
+            assertEquals("user1: przez ramki", observerInput.readLine());
+
+            first.socket.close();
+            client.preferBinary = false;
+            waitUntil(() -> !server.sessionsByUser.containsKey("user1"), 5000, "Serwer powinien zamknąć poprzednią sesję.");
+            assertEquals("Logowanie udane", client.connect());
+            ChatClient.Connection second = client.connection;
+            assertNotSame(first, second);
+            assertFalse(second.binary);
+
+            Thread sender = new Thread(() -> {
+                try {
+                    client.send("przez linie");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            sender.start();
+            sender.join(2000);
+            assertEquals("user1: przez linie", observerInput.readLine());
+            second.socket.close();
+        }
+    }
+
+    /**
+     * Test sprawdzania połączeń.
+     * Sprawdza w obu silnikach, czy klient odpowiadający na sprawdzenia pozostaje połączony, czy milczący klient binarny
+     * dostaje ramkę {@code PING} i jest rozłączany po czasie bezczynności, czy niezalogowane połączenie jest zamykane
+     * po czasie na logowanie oraz czy koło czasowe wykonuje krótkie zadania na czas mimo 100 tys. zadań w kubełkach.
+     */
+    @Test
+    @DisplayName("Test sprawdzania połączeń")
+    void testHeartbeat() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+            writer.println("user3:" + hashPassword("password3"));
+        }
+        for (ChatServer heartbeatServer : new ChatServer[]{new ChatServer(), new NioChatServer(1)}) {
+            heartbeatServer.heartbeatIntervalMillis = 300;
+            heartbeatServer.idleTimeoutMillis = 900;
+            heartbeatServer.loginTimeoutMillis = 500;
+            heartbeatServer.timerTickMillis = 10;
+            Thread heartbeatThread = startServer(heartbeatServer, 50002);
+
+            try (Socket textSocket = new Socket("localhost", 50002);
+                 BufferedReader textInput = new BufferedReader(new InputStreamReader(textSocket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter textOutput = new PrintWriter(new OutputStreamWriter(textSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+                 Socket binarySocket = new Socket("localhost", 50002);
+                 Socket silent = new Socket("localhost", 50002);
+                 Socket legacySocket = new Socket("localhost", 50002);
+                 BufferedReader legacyInput = new BufferedReader(new InputStreamReader(legacySocket.getInputStream(), StandardCharsets.UTF_8))) {
+
+                textOutput.println("user1:" + hashPassword("password1"));
+                assertEquals("Logowanie udane", textInput.readLine());
+                textOutput.println(FrameCodec.HEARTBEAT_LINE);
+
+                // Starszy klient tekstowy nie zgłasza obsługi sprawdzeń
+                new PrintWriter(new OutputStreamWriter(legacySocket.getOutputStream(), StandardCharsets.UTF_8), true)
+                        .println("user3:" + hashPassword("password3"));
+                assertEquals("Logowanie udane", legacyInput.readLine());
+
+                InputStream binaryIn = new BufferedInputStream(binarySocket.getInputStream());
+                DataInputStream frameInput = new DataInputStream(binaryIn);
+                DataOutputStream frameOutput = new DataOutputStream(binarySocket.getOutputStream());
+                frameOutput.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+                assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(binaryIn));
+                FrameCodec.write(frameOutput, FrameCodec.LOGIN, "user2:" + hashPassword("password2"));
+                assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(frameInput, new byte[FrameCodec.MAX_PAYLOAD]).opcode);
+
+                // Klient tekstowy odpowiada na każde sprawdzenie, więc mimo milczenia nie jest rozłączany
+                int pings = 0;
+                textSocket.setSoTimeout(100);
+                long end = System.nanoTime() + 2_000_000_000L;
+                while (System.nanoTime() < end) {
+                    try {
+                        String line = textInput.readLine();
+                        assertNotNull(line, "Klient odpowiadający na sprawdzenia nie powinien zostać rozłączony.");
+                        if (line.equals(FrameCodec.PING_LINE)) {
+                            pings++;
+                            textOutput.println(FrameCodec.PONG_LINE);
+                        }
+                    } catch (SocketTimeoutException e) {
+                        // Brak danych, czytamy dalej do końca okresu
+                    }
+                }
+                assertTrue(pings >= 2, "Klient powinien dostać kilka sprawdzeń, dostał " + pings);
+
+                binarySocket.setSoTimeout(5000);
+                byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+                boolean pinged = false;
+                FrameCodec.Frame frame;
+                while ((frame = FrameCodec.read(frameInput, buffer)) != null) {
+                    pinged |= frame.opcode == FrameCodec.PING;
+                }
+                assertTrue(pinged, "Milczący klient binarny powinien dostać ramkę PING przed rozłączeniem.");
+                assertEquals(1, heartbeatServer.idleDisconnects.get());
+
+                silent.setSoTimeout(5000);
+                assertEquals(-1, silent.getInputStream().read(), "Niezalogowane połączenie powinno zostać zamknięte.");
+                assertEquals(1, heartbeatServer.loginTimeouts.get());
+
+                textOutput.println("/msg user1 nadal połączony");
+                String line;
+                while ((line = textInput.readLine()) != null && !line.contains("nadal połączony")) {
+                    // Pomija kolejne sprawdzenia
+                }
+                assertNotNull(line);
+
+                // Milczący starszy klient tekstowy nie dostał sprawdzeń i nadal jest połączony
+                textOutput.println("/msg user3 bez sprawdzeń");
+                legacySocket.setSoTimeout(5000);
+                while ((line = legacyInput.readLine()) != null && !line.contains("bez sprawdzeń")) {
+                    assertNotEquals(FrameCodec.PING_LINE, line, "Klient tekstowy bez zgłoszenia nie powinien dostawać sprawdzeń.");
+                }
+                assertNotNull(line, "Klient tekstowy bez zgłoszenia nie powinien zostać rozłączony za milczenie.");
+                assertEquals(1, heartbeatServer.idleDisconnects.get());
+            } finally {
+                heartbeatServer.stopServer();
+                heartbeatThread.join(2000);
+            }
+        }
+
+        TimerWheel wheel = new TimerWheel(10, 512, "test-timer");
+        wheel.start();
+        try {
+            java.util.concurrent.atomic.AtomicInteger fired = new java.util.concurrent.atomic.AtomicInteger();
+            for (int i = 0; i < 100_000; i++) {
+                wheel.schedule(fired::incrementAndGet, 60_000 + i);
+            }
+            java.util.concurrent.CountDownLatch done = new java.util.concurrent.CountDownLatch(1);
+            java.util.concurrent.atomic.AtomicBoolean cancelledRan = new java.util.concurrent.atomic.AtomicBoolean();
+            long start = System.nanoTime();
+            wheel.schedule(done::countDown, 100);
+            assertTrue(wheel.schedule(() -> cancelledRan.set(true), 50).cancel());
+            assertTrue(done.await(2, java.util.concurrent.TimeUnit.SECONDS));
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis >= 90 && elapsedMillis < 1000, "Zadanie wykonane po " + elapsedMillis + " ms");
+            assertFalse(cancelledRan.get(), "Anulowane zadanie nie powinno zostać wykonane.");
+            assertEquals(0, fired.get(), "Odległe zadania nie powinny zostać wykonane przed terminem.");
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * Test połączeń TLS.
+     * Sprawdza w obu silnikach logowanie i rozsyłanie wiadomości przez TLS w protokole tekstowym i binarnym,
+     * w tym wiadomości dłuższej niż jeden rekord TLS, odrzucenie klienta bez TLS oraz wznowienie sesji przy ponownym połączeniu.
+     */
+    @Test
+    @DisplayName("Test połączeń TLS")
+    void testTls() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("user1:" + hashPassword("password1"));
+            writer.println("user2:" + hashPassword("password2"));
+        }
+        File keyStore = File.createTempFile("chat", ".p12");
+        assertTrue(keyStore.delete());
+        Process keytool = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+                "-genkeypair", "-alias", "chat", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-ext", "san=dns:localhost", "-validity", "2", "-storetype", "PKCS12",
+                "-keystore", keyStore.getPath(), "-storepass", "haslo123", "-keypass", "haslo123")
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        assertEquals(0, keytool.waitFor());
+
+        StringBuilder longMessage = new StringBuilder();
+        Random random = new Random(1);
+        while (longMessage.length() < 40_000) {
+            longMessage.append((char) ('a' + random.nextInt(26)));
+        }
+
+        try {
+            for (ChatServer tlsServer : new ChatServer[]{new ChatServer(), new NioChatServer(1)}) {
+                tlsServer.tlsKeyStore = keyStore.getPath();
+                tlsServer.tlsKeyStorePassword = "haslo123";
+                Thread tlsThread = startServer(tlsServer, 50002);
+
+                javax.net.ssl.SSLContext clientContext = TlsTransport.clientContext(keyStore.getPath(), "haslo123".toCharArray());
+                javax.net.ssl.SSLSocket textSocket = (javax.net.ssl.SSLSocket) clientContext.getSocketFactory().createSocket("localhost", 50002);
+                textSocket.setSSLParameters(TlsTransport.withHostnameVerification(textSocket.getSSLParameters()));
+                try (javax.net.ssl.SSLSocket binarySocket = (javax.net.ssl.SSLSocket) clientContext.getSocketFactory().createSocket("localhost", 50002);
+                     Socket plain = new Socket("localhost", 50002)) {
+                    BufferedReader textInput = new BufferedReader(new InputStreamReader(textSocket.getInputStream(), StandardCharsets.UTF_8));
+                    PrintWriter textOutput = new PrintWriter(new OutputStreamWriter(textSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+                    textOutput.println("user1:" + hashPassword("password1"));
+                    assertEquals("Logowanie udane", textInput.readLine());
+                    assertEquals("TLSv1.3", textSocket.getSession().getProtocol());
+                    long firstSession = textSocket.getSession().getCreationTime();
+
+                    InputStream binaryIn = new BufferedInputStream(binarySocket.getInputStream());
+                    DataInputStream frameInput = new DataInputStream(binaryIn);
+                    DataOutputStream frameOutput = new DataOutputStream(new BufferedOutputStream(binarySocket.getOutputStream()));
+                    frameOutput.write((FrameCodec.NEGOTIATION_DEFLATE + "\n").getBytes(StandardCharsets.UTF_8));
+                    frameOutput.flush();
+                    assertEquals(FrameCodec.NEGOTIATION_DEFLATE, FrameCodec.readFirstLine(binaryIn));
+                    FrameCodec.write(frameOutput, FrameCodec.LOGIN, "user2:" + hashPassword("password2"));
+                    frameOutput.flush();
+                    byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+                    assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(frameInput, buffer).opcode);
+
+                    // Wiadomość dłuższa niż rekord TLS (16 KB) w obie strony
+                    textOutput.println(longMessage);
+                    FrameCodec.Frame frame;
+                    while ((frame = FrameCodec.read(frameInput, buffer)) != null && frame.opcode != FrameCodec.MESSAGE) {
+                        // Pomija ramki identyfikatorów
+                    }
+                    assertNotNull(frame);
+                    assertEquals("user1: " + longMessage, frame.payload);
+                    FrameCodec.write(frameOutput, FrameCodec.MESSAGE, "szyfrowana odpowiedź\n" + longMessage);
+                    frameOutput.flush();
+                    assertEquals("user2: szyfrowana odpowiedź", textInput.readLine());
+                    assertEquals(longMessage.toString(), textInput.readLine());
+
+                    // Klient bez TLS nie może się zalogować
+                    plain.setSoTimeout(5000);
+                    PrintWriter plainOutput = new PrintWriter(new OutputStreamWriter(plain.getOutputStream(), StandardCharsets.UTF_8), true);
+                    plainOutput.println("user1:" + hashPassword("password1"));
+                    byte[] reply = plain.getInputStream().readAllBytes();
+                    assertFalse(new String(reply, StandardCharsets.ISO_8859_1).contains("Logowanie udane"));
+
+                    // Ponowne połączenie tym samym kontekstem wznawia sesję zamiast pełnego uzgadniania
+                    textSocket.close();
+                    waitUntil(() -> !tlsServer.sessionsByUser.containsKey("user1"), 5000, "Poprzednia sesja powinna zostać zamknięta.");
+                    try (javax.net.ssl.SSLSocket resumed = (javax.net.ssl.SSLSocket) clientContext.getSocketFactory().createSocket("localhost", 50002)) {
+                        resumed.setSSLParameters(TlsTransport.withHostnameVerification(resumed.getSSLParameters()));
+                        BufferedReader resumedInput = new BufferedReader(new InputStreamReader(resumed.getInputStream(), StandardCharsets.UTF_8));
+                        PrintWriter resumedOutput = new PrintWriter(new OutputStreamWriter(resumed.getOutputStream(), StandardCharsets.UTF_8), true);
+                        resumedOutput.println("user1:" + hashPassword("password1"));
+                        assertEquals("Logowanie udane", resumedInput.readLine());
+                        assertEquals(firstSession, resumed.getSession().getCreationTime(), "Sesja TLS powinna zostać wznowiona.");
+                    }
+                } finally {
+                    textSocket.close();
+                    tlsServer.stopServer();
+                    tlsThread.join(2000);
+                }
+            }
+
+            // Błędne hasło magazynu kluczy jest zgłaszane jako błąd uruchomienia, a nie jako zamknięcie serwera
+            for (ChatServer misconfigured : new ChatServer[]{new ChatServer(), new NioChatServer(1)}) {
+                misconfigured.tlsKeyStore = keyStore.getPath();
+                misconfigured.tlsKeyStorePassword = "złe hasło";
+                PrintStream originalOut = System.out;
+                ByteArrayOutputStream captured = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+                try {
+                    misconfigured.startServer(50002);
+                    Log.flush(2000);
+                } finally {
+                    System.setOut(originalOut);
+                }
+                assertTrue(captured.toString(StandardCharsets.UTF_8).contains("Błąd podczas uruchamiania serwera"),
+                        "Błąd konfiguracji TLS powinien zostać zgłoszony: " + captured.toString(StandardCharsets.UTF_8));
+            }
+        } finally {
+            keyStore.delete();
+        }
+    }
+
+    /**
+     * Test kolejności identyfikatorów wiadomości.
+     * Sprawdza, czy przy wielu nadawcach naraz w jednym pokoju odbiorca dostaje wiadomości w kolejności rosnących
+     * identyfikatorów, tak aby wznowienie od ostatniego widzianego identyfikatora niczego nie pominęło.
+     */
+    @Test
+    @DisplayName("Test kolejności identyfikatorów przy wielu nadawcach")
+    void testMessageIdOrder() throws Exception {
+        int senders = 8;
+        int messages = 500;
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            writer.println("receiver:" + hashPassword("password"));
+            for (int i = 0; i < senders; i++) {
+                writer.println("sender" + i + ":" + hashPassword("password"));
+            }
+        }
+        java.nio.file.Path journalDirectory = java.nio.file.Files.createTempDirectory("journal");
+        ChatServer orderServer = new ChatServer();
+        orderServer.journalDirectory = journalDirectory.toString();
+        // Kolejka odbiorcy mieści wszystkie ramki, aby wolniejszy odczyt nie gubił wiadomości
+        orderServer.outboundQueueCapacity = 2 * senders * messages;
+        Thread orderThread = startServer(orderServer, 50002);
+        List<Socket> sockets = new ArrayList<>();
+        try (Socket receiver = new Socket("localhost", 50002)) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(receiver.getInputStream()));
+            DataOutputStream output = new DataOutputStream(receiver.getOutputStream());
+            byte[] buffer = new byte[FrameCodec.MAX_PAYLOAD];
+            output.write((FrameCodec.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(FrameCodec.NEGOTIATION, FrameCodec.readFirstLine(input));
+            FrameCodec.write(output, FrameCodec.LOGIN, "receiver:" + hashPassword("password"));
+            assertEquals(FrameCodec.LOGIN_OK, FrameCodec.read(input, buffer).opcode);
+
+            List<PrintWriter> outputs = new ArrayList<>();
+            for (int i = 0; i < senders; i++) {
+                Socket socket = new Socket("localhost", 50002);
+                sockets.add(socket);
+                BufferedReader senderInput = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter senderOutput = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                senderOutput.println("sender" + i + ":" + hashPassword("password"));
+                assertEquals("Logowanie udane", senderInput.readLine());
+                outputs.add(senderOutput);
+            }
+            List<Thread> threads = new ArrayList<>();
+            for (PrintWriter senderOutput : outputs) {
+                Thread thread = new Thread(() -> {
+                    for (int m = 0; m < messages; m++) {
+                        senderOutput.println("wiadomość " + m);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            receiver.setSoTimeout(5000);
+            long previous = 0;
+            int received = 0;
+            while (received < senders * messages) {
+                FrameCodec.Frame frame = FrameCodec.read(input, buffer);
+                assertNotNull(frame);
+                if (frame.opcode == FrameCodec.MESSAGE_ID) {
+                    long id = Long.parseLong(frame.payload);
+                    assertTrue(id > previous, "Identyfikator " + id + " dotarł po " + previous);
+                    previous = id;
+                } else if (frame.opcode == FrameCodec.MESSAGE) {
+                    received++;
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join(2000);
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            orderServer.stopServer();
+            orderThread.join(2000);
+        }
+    }
+
+    /**
+     * Test blokady pokoju przy wolnym odbiorcy w trybie BLOCK.
+     * Sprawdza, czy nadawca czekający na miejsce w kolejce zapchanego klienta nie wstrzymuje wiadomości
+     * innego pokoju, który dzieli z nim blokadę rozsyłania.
+     */
+    @Test
+    @DisplayName("Test niezależności pokoi przy wolnym odbiorcy")
+    void testBlockedRoomDoesNotStallStripe() throws Exception {
+        try (PrintWriter writer = new PrintWriter(new FileWriter("users.txt"))) {
+            for (String user : new String[]{"stalled", "flooder", "sender", "receiver"}) {
+                writer.println(user + ":" + hashPassword("password"));
+            }
+        }
+        ChatServer blockServer = new ChatServer();
+        blockServer.overflowPolicy = ChatServer.OverflowPolicy.BLOCK;
+        blockServer.outboundQueueCapacity = 4;
+        blockServer.backpressureTimeoutMillis = 10_000;
+        String slowRoom = "wolny";
+        String fastRoom = null;
+        for (int i = 0; fastRoom == null; i++) {
+            if (blockServer.roomLock("szybki" + i) == blockServer.roomLock(slowRoom)) {
+                fastRoom = "szybki" + i;
+            }
+        }
+        Thread blockThread = startServer(blockServer, 50002);
+
+        try (Socket stalled = new Socket();
+             Socket flooder = new Socket("localhost", 50002);
+             Socket sender = new Socket("localhost", 50002);
+             Socket receiver = new Socket("localhost", 50002)) {
+            stalled.setReceiveBufferSize(4096);
+            stalled.connect(new InetSocketAddress("localhost", 50002));
+            loginAndJoin(stalled, "stalled", slowRoom);
+            PrintWriter flooderOutput = loginAndJoin(flooder, "flooder", slowRoom);
+            PrintWriter senderOutput = loginAndJoin(sender, "sender", fastRoom);
+            loginAndJoin(receiver, "receiver", fastRoom);
+            BufferedReader receiverInput = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+
+            char[] filler = new char[16 * 1024];
+            Arrays.fill(filler, 'x');
+            Thread flood = new Thread(() -> {
+                for (int i = 0; i < 2000 && !flooderOutput.checkError(); i++) {
+                    flooderOutput.println(i + new String(filler));
+                }
+            });
+            flood.setDaemon(true);
+            flood.start();
+            waitUntil(() -> {
+                ChatSession session = blockServer.sessionsByUser.get("stalled");
+                return session != null && ((ChatServer.ClientHandler) session).blockedSenders.get() > 0;
+            }, 10_000, "Nadawca powinien czekać na miejsce w kolejce zapchanego klienta.");
+
+            receiver.setSoTimeout(2000);
+            senderOutput.println("obok zatoru");
+            String line;
+            do {
+                line = receiverInput.readLine();
+            } while (line != null && !line.contains("obok zatoru"));
+            assertNotNull(line, "Wiadomość z innego pokoju powinna dotrzeć mimo zapchanego klienta.");
+        } finally {
+            blockServer.stopServer();
+            blockThread.join(2000);
+        }
+    }
+
+    /**
+     * Loguje klienta tekstowego i przenosi go do podanego pokoju.
+     *
+     * @param socket   Połączone gniazdo klienta.
+     * @param username Nazwa użytkownika z hasłem "password".
+     * @param room     Nazwa pokoju.
+     * @return Strumień do wysyłania wiadomości.
+     * @throws IOException Gdy nie można odczytać odpowiedzi serwera.
+     */
+    private PrintWriter loginAndJoin(Socket socket, String username, String room) throws IOException {
+        BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter output = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        output.println(username + ":" + hashPassword("password"));
+        assertEquals("Logowanie udane", input.readLine());
+        output.println("/join " + room);
+        String line;
+        do {
+            line = input.readLine();
+        } while (line != null && !line.equals("Dołączono do pokoju " + room));
+        assertNotNull(line, "Klient " + username + " powinien dołączyć do pokoju " + room);
+        return output;
+    }
+
+    /**
+     * Test wątku zapisującego dziennika.
+     * Sprawdza, czy przy braku wpisów wątek czeka uśpiony zamiast zużywać procesor, a po nowym wpisie budzi się i go wypisuje.
+     */
+    @Test
+    @DisplayName("Test usypiania wątku dziennika")
+    void testLogWriterParks() throws Exception {
+        Log.info("Rozruch dziennika");
+        Log.flush(1000);
+        Thread writer = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("log-writer"))
+                .findFirst()
+                .orElseThrow();
+        waitUntil(() -> writer.getState() == Thread.State.WAITING, 2000, "Bezczynny wątek dziennika powinien być uśpiony.");
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuBefore = threads.getThreadCpuTime(writer.getId());
+        Thread.sleep(500);
+        long cpuMillis = (threads.getThreadCpuTime(writer.getId()) - cpuBefore) / 1_000_000;
+        assertTrue(cpuMillis < 100, "Bezczynny wątek dziennika zużył " + cpuMillis + " ms procesora");
+
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            Log.error("Wpis po uśpieniu " + cpuBefore);
+            Log.flush(2000);
+        } finally {
+            System.setOut(originalOut);
+        }
+        assertTrue(captured.toString(StandardCharsets.UTF_8).contains("Wpis po uśpieniu " + cpuBefore),
+                "Uśpiony wątek dziennika powinien wypisać nowy wpis.");
+    }
+
+    /**
+     * Uruchamia serwer w osobnym wątku i czeka, aż zacznie nasłuchiwać na podanym porcie.
+     * Połączenia nawiązane przed rozpoczęciem akceptowania czekają w kolejce gniazda serwera.
+     *
+     * @param chatServer Serwer do uruchomienia.
+     * @param port       Port serwera.
+     * @return Wątek serwera.
+     * @throws InterruptedException Gdy wątek zostanie przerwany.
+     */
+    private static Thread startServer(ChatServer chatServer, int port) throws InterruptedException {
+        Thread thread = new Thread(() -> chatServer.startServer(port));
+        thread.start();
+        waitUntil(() -> chatServer.serverSocket != null && chatServer.serverSocket.isBound(), 10_000,
+                "Serwer nie wystartował na porcie " + port);
+        return thread;
+    }
+
+    /**
+     * Czeka, aż warunek zostanie spełniony, sprawdzając go co kilka milisekund.
+     *
+     * @param condition     Sprawdzany warunek.
+     * @param timeoutMillis Maksymalny czas oczekiwania w milisekundach.
+     * @param message       Komunikat błędu, gdy warunek nie zostanie spełniony w czasie.
+     * @throws InterruptedException Gdy wątek zostanie przerwany.
+     */
+    private static void waitUntil(java.util.function.BooleanSupplier condition, long timeoutMillis, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
     /**
      * Hashuje hasło przy użyciu algorytmu SHA-256.
      *